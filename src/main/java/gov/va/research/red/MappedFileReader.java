@@ -0,0 +1,122 @@
+/*
+ *  Copyright 2015 United States Department of Veterans Affairs,
+ *		Health Services Research & Development Service
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package gov.va.research.red;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the chars of a file by decoding memory mapped segments of it, so
+ * the bytes of the file are never copied onto the heap. Malformed input is
+ * replaced, as by {@link String#String(byte[], Charset)}.
+ */
+public class MappedFileReader extends Reader {
+
+	/** The default number of bytes mapped at a time. */
+	public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+	private final FileChannel channel;
+	private final long size;
+	private final int segmentSize;
+	private final CharsetDecoder decoder;
+	private MappedByteBuffer segment;
+	private long segmentStart;
+	private boolean flushed;
+
+	public MappedFileReader(Path file, Charset charset) throws IOException {
+		this(file, charset, DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * @param file The file to read.
+	 * @param charset The encoding of the file.
+	 * @param segmentSize The number of bytes to map at a time.
+	 * @throws IOException if the file cannot be opened.
+	 */
+	public MappedFileReader(Path file, Charset charset, int segmentSize) throws IOException {
+		if (segmentSize < 16) {
+			throw new IllegalArgumentException("segmentSize must be at least 16: " + segmentSize);
+		}
+		this.channel = FileChannel.open(file, StandardOpenOption.READ);
+		this.size = channel.size();
+		this.segmentSize = segmentSize;
+		this.decoder = charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+
+	/**
+	 * @return The size of the file, in bytes.
+	 */
+	public long size() {
+		return size;
+	}
+
+	@Override
+	public int read(char[] cbuf, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+		while (out.position() == off) {
+			if (segment == null || !segment.hasRemaining()) {
+				// continue from the first byte not yet decoded, which may be part of a char split by the previous segment
+				long next = segment == null ? 0 : segmentStart + segment.position();
+				if (next >= size) {
+					if (!flushed) {
+						decoder.decode(segment == null ? ByteBuffer.allocate(0) : segment, out, true);
+						decoder.flush(out);
+						flushed = true;
+						continue;
+					}
+					return -1;
+				}
+				map(next);
+			}
+			long end = segmentStart + segment.limit();
+			CoderResult result = decoder.decode(segment, out, end >= size);
+			if (result.isUnderflow() && segment.hasRemaining() && end < size) {
+				// a char is split at the end of the segment, map from its first byte
+				map(segmentStart + segment.position());
+			} else if (result.isError()) {
+				result.throwException();
+			}
+		}
+		return out.position() - off;
+	}
+
+	private void map(long start) throws IOException {
+		segmentStart = start;
+		segment = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(segmentSize, size - start));
+	}
+
+	@Override
+	public void close() throws IOException {
+		segment = null;
+		channel.close();
+	}
+}
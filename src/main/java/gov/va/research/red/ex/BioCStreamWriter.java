@@ -0,0 +1,227 @@
+package gov.va.research.red.ex;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.xml.stream.XMLStreamException;
+
+import bioc.BioCAnnotation;
+import bioc.BioCCollection;
+import bioc.BioCDocument;
+import bioc.BioCPassage;
+import bioc.io.BioCDocumentReader;
+import bioc.io.BioCDocumentWriter;
+import bioc.io.BioCFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import gov.va.research.red.MatchedElement;
+import gov.va.research.red.ex.REDExtractor.DocMatches;
+
+/**
+ * Writes a BioC collection one document at a time, so that no more than one
+ * document is held in memory however large the collection. Annotations are
+ * numbered across the whole collection, in the order they are written, so
+ * that the numbering does not depend on the order in which documents were
+ * processed.
+ */
+public class BioCStreamWriter implements Closeable {
+
+	/** The suffix of output files which are written gzip compressed. */
+	public static final String GZIP_SUFFIX = ".gz";
+	/** Orders matches by start, then end position. */
+	public static final Comparator<MatchedElement> POSITION_ORDER = Comparator.comparingInt(MatchedElement::getStartPos)
+			.thenComparingInt(MatchedElement::getEndPos);
+
+	private static final Logger LOG = LoggerFactory.getLogger(BioCStreamWriter.class);
+
+	private final Writer out;
+	private final BioCDocumentWriter docWriter;
+	private int annId = 0;
+
+	/**
+	 * Writes to a file, gzip compressed if its name ends with {@value #GZIP_SUFFIX}.
+	 * @param outputFile The file to write, or <code>null</code> to write to standard output.
+	 * @throws IOException if the file cannot be opened.
+	 * @throws XMLStreamException if the collection cannot be started.
+	 */
+	public BioCStreamWriter(Path outputFile) throws IOException, XMLStreamException {
+		this(outputFile, outputFile != null && outputFile.getFileName().toString().toLowerCase().endsWith(GZIP_SUFFIX));
+	}
+
+	/**
+	 * @param outputFile The file to write, or <code>null</code> to write to standard output.
+	 * @param gzip if <code>true</code> the output is gzip compressed.
+	 * @throws IOException if the file cannot be opened.
+	 * @throws XMLStreamException if the collection cannot be started.
+	 */
+	public BioCStreamWriter(Path outputFile, boolean gzip) throws IOException, XMLStreamException {
+		this(outputFile == null ? new FilterOutputStream(System.out) {
+			@Override
+			public void close() throws IOException {
+				// leave standard output open
+				flush();
+			}
+		} : Files.newOutputStream(outputFile), gzip);
+	}
+
+	/**
+	 * @param os The stream to write to, closed when this writer is closed.
+	 * @param gzip if <code>true</code> the output is gzip compressed.
+	 * @throws IOException if the stream cannot be written.
+	 * @throws XMLStreamException if the collection cannot be started.
+	 */
+	public BioCStreamWriter(OutputStream os, boolean gzip) throws IOException, XMLStreamException {
+		this.out = new BufferedWriter(new OutputStreamWriter(gzip ? new GZIPOutputStream(os) : os, StandardCharsets.UTF_8));
+		BioCFactory factory = BioCFactory.newFactory(BioCFactory.STANDARD);
+		this.docWriter = factory.createBioCDocumentWriter(out);
+		BioCCollection biocColl = new BioCCollection();
+		biocColl.setDate(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm'Z'").format(new Date()));
+		docWriter.writeCollectionInfo(biocColl);
+	}
+
+	/**
+	 * Writes a document with one passage annotated with matches, in position order.
+	 * @param documentId The ID of the document.
+	 * @param matches The matches in the document.
+	 * @throws XMLStreamException if the document cannot be written.
+	 */
+	public void writeDocument(String documentId, Collection<MatchedElement> matches) throws XMLStreamException {
+		writeDocument(new DocMatches(documentId, matches));
+	}
+
+	/**
+	 * Writes a document, with one annotation per match in position order.
+	 * The matches are read by index, so matches held as positions are
+	 * written without building MatchedElements.
+	 * @param dm The document ID and its matches.
+	 * @throws XMLStreamException if the document cannot be written.
+	 */
+	public void writeDocument(DocMatches dm) throws XMLStreamException {
+		BioCDocument biocDoc = new BioCDocument();
+		biocDoc.setID(dm.getDocumentId());
+		BioCPassage biocPass = new BioCPassage();
+		biocDoc.addPassage(biocPass);
+		for (int i = 0; i < dm.size(); i++) {
+			BioCAnnotation biocAnn = newAnnotation(dm.getStart(i), dm.getEnd(i) - dm.getStart(i), dm.getMatch(i));
+			assignID(biocAnn);
+			biocPass.addAnnotation(biocAnn);
+		}
+		writeDocument(biocDoc);
+	}
+
+	/**
+	 * Writes a document.
+	 * @param biocDoc The document.
+	 * @throws XMLStreamException if the document cannot be written.
+	 */
+	public void writeDocument(BioCDocument biocDoc) throws XMLStreamException {
+		docWriter.writeDocument(biocDoc);
+	}
+
+	/**
+	 * Copies the complete documents of a collection written by a run which
+	 * was interrupted, so that a resumed run adds to them rather than
+	 * repeating them. Reading stops at the end of the collection, or at the
+	 * first document which was not completely written. Annotations keep
+	 * their IDs, and annotations written after them are numbered on from the
+	 * copied ones.
+	 * @param previous The collection, gzip compressed if its name ends with {@value #GZIP_SUFFIX}.
+	 * @param done Tests whether a document ID is known to be done, documents which are not are left out.
+	 * @return The IDs of the documents copied.
+	 * @throws IOException if the collection cannot be opened.
+	 * @throws XMLStreamException if the documents cannot be written.
+	 */
+	public Set<String> copyDocuments(Path previous, Predicate<String> done) throws IOException, XMLStreamException {
+		Set<String> copied = new LinkedHashSet<>();
+		InputStream is = Files.newInputStream(previous);
+		try (Reader in = new BufferedReader(new InputStreamReader(
+				previous.getFileName().toString().toLowerCase().endsWith(GZIP_SUFFIX) ? new GZIPInputStream(is) : is, StandardCharsets.UTF_8))) {
+			BioCDocumentReader docReader = BioCFactory.newFactory(BioCFactory.STANDARD).createBioCDocumentReader(in);
+			docReader.readCollectionInfo();
+			BioCDocument biocDoc;
+			while ((biocDoc = docReader.readDocument()) != null) {
+				if (!done.test(biocDoc.getID())) {
+					continue;
+				}
+				for (BioCPassage biocPass : biocDoc.getPassages()) {
+					for (BioCAnnotation biocAnn : biocPass.getAnnotations()) {
+						annId = Math.max(annId, Integer.parseInt(biocAnn.getID()) + 1);
+					}
+				}
+				writeDocument(biocDoc);
+				copied.add(biocDoc.getID());
+			}
+		} catch (XMLStreamException | IOException e) {
+			// the rest of the collection was not written
+			LOG.info("Read " + copied.size() + " complete documents from " + previous + ": " + e.getMessage());
+		}
+		return copied;
+	}
+
+	/**
+	 * Creates an annotation without an ID, so that annotations can be created
+	 * concurrently, then numbered in order by {@link #assignID(BioCAnnotation)}.
+	 * @param offset The offset of the match in the document.
+	 * @param me The match.
+	 * @return An annotation of the match.
+	 */
+	public static BioCAnnotation newAnnotation(int offset, MatchedElement me) {
+		return newAnnotation(offset, me.getEndPos() - me.getStartPos(), me.getMatch());
+	}
+
+	/**
+	 * Creates an annotation of a match without an ID.
+	 * @param offset The offset of the match in the document.
+	 * @param length The length of the match.
+	 * @param text The matched text.
+	 * @return An annotation of the match.
+	 */
+	public static BioCAnnotation newAnnotation(int offset, int length, String text) {
+		BioCAnnotation biocAnn = new BioCAnnotation();
+		biocAnn.setLocation(offset, length);
+		biocAnn.setText(text);
+		return biocAnn;
+	}
+
+	/**
+	 * Gives an annotation the next annotation ID.
+	 * @param biocAnn The annotation.
+	 */
+	public void assignID(BioCAnnotation biocAnn) {
+		biocAnn.setID(String.valueOf(annId++));
+	}
+
+	/**
+	 * Ends the collection and closes the output.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			docWriter.close();
+		} finally {
+			out.close();
+		}
+	}
+}
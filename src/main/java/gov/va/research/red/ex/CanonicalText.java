@@ -0,0 +1,473 @@
+package gov.va.research.red.ex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A canonical view of a text: letters lowercased as a case insensitive
+ * regular expression compares ASCII letters, and each run of whitespace
+ * collapsed to a single space, with a map from the positions of
+ * the view back to the positions of the text. Lowercasing keeps positions,
+ * so the map only records the runs which were collapsed.
+ * <p>
+ * Regular expressions of the form generated by {@link REDExFactory}, which
+ * are case insensitive and match whitespace with bounded repetitions of
+ * <code>\s</code>, can be relaxed by {@link #toCanonicalRegex(String)} into
+ * case sensitive regular expressions which match the view wherever the
+ * original matches the text. The relaxed form finds where a match may start
+ * in the view, and the original confirms the match in the text, so matches
+ * are exactly those found in the text alone.
+ */
+public class CanonicalText implements CharSequence {
+
+	private final CharSequence raw;
+	private final String text;
+	// the index in the view following each collapsed run of 2 or more whitespace chars
+	private int[] runEnds = new int[8];
+	// the number of chars of the text removed up to the end of each collapsed run
+	private int[] removed = new int[8];
+	private int runs;
+
+	/**
+	 * @param raw The text.
+	 */
+	public CanonicalText(CharSequence raw) {
+		this.raw = raw;
+		int length = raw.length();
+		char[] chars = new char[length];
+		int n = 0;
+		int i = 0;
+		while (i < length) {
+			char c = raw.charAt(i);
+			if (isSpace(c)) {
+				int start = i;
+				while (i < length && isSpace(raw.charAt(i))) {
+					i++;
+				}
+				chars[n++] = ' ';
+				if (i - start > 1) {
+					addRun(n, i - n);
+				}
+			} else {
+				chars[n++] = toLower(c);
+				i++;
+			}
+		}
+		this.text = new String(chars, 0, n);
+	}
+
+	private void addRun(int end, int removedChars) {
+		if (runs == runEnds.length) {
+			runEnds = Arrays.copyOf(runEnds, runs * 2);
+			removed = Arrays.copyOf(removed, runs * 2);
+		}
+		runEnds[runs] = end;
+		removed[runs] = removedChars;
+		runs++;
+	}
+
+	/**
+	 * @return <code>true</code> if a char is matched by <code>\s</code>.
+	 */
+	static boolean isSpace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+	}
+
+	/**
+	 * @return The text this is a view of.
+	 */
+	public CharSequence getRaw() {
+		return raw;
+	}
+
+	/**
+	 * @param index An index of this view, at most its length.
+	 * @return The index in the text of the first char the char of the view stands for.
+	 */
+	public int toRaw(int index) {
+		// the last run ending at or before the index
+		int k = Arrays.binarySearch(runEnds, 0, runs, index);
+		if (k < 0) {
+			k = -k - 2;
+		}
+		return index + (k < 0 ? 0 : removed[k]);
+	}
+
+	/**
+	 * @param rawIndex An index of the text, at most its length.
+	 * @return The index of the char of this view which stands for the char of the text.
+	 */
+	public int toCanonical(int rawIndex) {
+		// the last run ending, in the text, at or before the index
+		int lo = 0;
+		int hi = runs - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (runEnds[mid] + removed[mid] <= rawIndex) {
+				lo = mid + 1;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		int index = rawIndex - (hi < 0 ? 0 : removed[hi]);
+		// within the next run, which stands as one space
+		return lo < runs ? Math.min(index, runEnds[lo] - 1) : index;
+	}
+
+	@Override
+	public int length() {
+		return text.length();
+	}
+
+	@Override
+	public char charAt(int index) {
+		return text.charAt(index);
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		return text.subSequence(start, end);
+	}
+
+	@Override
+	public String toString() {
+		return text;
+	}
+
+	/**
+	 * Relaxes a case insensitive regular expression so that it matches this
+	 * view of any text at each position where the original matches the
+	 * text. The inline flag is dropped and literal letters are lowercased.
+	 * A whitespace atom which must match at least one char, and which is
+	 * neither preceded nor followed by anything else that could match
+	 * whitespace, matches a whole run of whitespace and becomes
+	 * <code>\s</code>, the single space of a collapsed run. Any other
+	 * whitespace atom becomes <code>\s*</code>. The relaxation holds only
+	 * if nothing else can match whitespace and no assertion depends on it,
+	 * so only the constructs used by generated regular expressions are
+	 * accepted: literals, groups, alternation, repetition, <code>\d</code>,
+	 * <code>\w</code>, a few POSIX properties, and character classes of
+	 * lowercase letters, digits and punctuation.
+	 * @param regex A regular expression starting with <code>(?i)</code>.
+	 * @return The relaxed regular expression, or <code>null</code> if the regular expression cannot be relaxed.
+	 */
+	public static String toCanonicalRegex(String regex) {
+		if (!regex.startsWith("(?i)")) {
+			return null;
+		}
+		Parser parser = new Parser(regex, 4);
+		List<List<Item>> alternatives = parser.alternatives();
+		if (alternatives == null || parser.pos < regex.length()) {
+			return null;
+		}
+		StringBuilder sb = new StringBuilder(regex.length());
+		// the start and end of the whole regular expression are the start and end of a match
+		append(alternatives, true, true, sb);
+		return sb.toString();
+	}
+
+	/**
+	 * An atom or group of a regular expression, with its repetition.
+	 */
+	private static class Item {
+		boolean whitespace;
+		// the relaxed atom, or the opening of a group
+		String text;
+		List<List<Item>> alternatives;
+		String quantifier;
+		int min;
+		boolean once;
+		// the first and last chars matched cannot be whitespace
+		boolean solidStart;
+		boolean solidEnd;
+	}
+
+	/**
+	 * Parses the constructs accepted by {@link #toCanonicalRegex(String)}.
+	 * Each method returns <code>null</code> at anything else.
+	 */
+	private static class Parser {
+		private final String regex;
+		private int pos;
+
+		Parser(String regex, int pos) {
+			this.regex = regex;
+			this.pos = pos;
+		}
+
+		/**
+		 * @return The alternatives up to the end of the enclosing group or of the regular expression.
+		 */
+		List<List<Item>> alternatives() {
+			List<List<Item>> alternatives = new ArrayList<>();
+			List<Item> sequence = new ArrayList<>();
+			alternatives.add(sequence);
+			while (pos < regex.length() && regex.charAt(pos) != ')') {
+				if (regex.charAt(pos) == '|') {
+					sequence = new ArrayList<>();
+					alternatives.add(sequence);
+					pos++;
+					continue;
+				}
+				Item item = item();
+				if (item == null) {
+					return null;
+				}
+				sequence.add(item);
+			}
+			return alternatives;
+		}
+
+		private Item item() {
+			int n = regex.length();
+			char c = regex.charAt(pos);
+			Item item = new Item();
+			if (c == '\\') {
+				if (pos + 1 >= n) {
+					return null;
+				}
+				char e = regex.charAt(pos + 1);
+				if (e == 's' || e == 't' || e == 'n' || e == 'r' || e == 'f' || e == ' ') {
+					item.whitespace = true;
+					pos += 2;
+				} else if (e == 'd' || e == 'w' || (!isAsciiAlphanumeric(e) && !isSpace(e))) {
+					item.text = regex.substring(pos, pos + 2);
+					pos += 2;
+				} else if (e == 'p') {
+					int end = property(regex, pos);
+					if (end < 0) {
+						return null;
+					}
+					item.text = regex.substring(pos, end);
+					pos = end;
+				} else {
+					return null;
+				}
+			} else if (c == '[') {
+				StringBuilder cls = new StringBuilder();
+				int end = charClass(regex, pos, cls);
+				if (end < 0) {
+					return null;
+				}
+				item.text = cls.toString();
+				pos = end;
+			} else if (c == '(') {
+				if (regex.startsWith("(?:", pos)) {
+					item.text = "(?:";
+				} else if (pos + 1 < n && regex.charAt(pos + 1) == '?') {
+					// lookaround, flags, named or atomic groups
+					return null;
+				} else {
+					item.text = "(";
+				}
+				pos += item.text.length();
+				item.alternatives = alternatives();
+				if (item.alternatives == null || pos >= n) {
+					return null;
+				}
+				// the closing parenthesis
+				pos++;
+			} else if (c == '.' || c == '^' || c == '$' || c == '|' || isSpace(c) || isCased(c)
+					|| c == '*' || c == '+' || c == '?' || c == '{') {
+				return null;
+			} else {
+				item.text = String.valueOf(toLower(c));
+				pos++;
+			}
+			if (!quantifier(item)) {
+				return null;
+			}
+			if (item.whitespace) {
+				return item;
+			}
+			if (item.alternatives == null) {
+				item.solidStart = item.min > 0;
+				item.solidEnd = item.min > 0;
+			} else {
+				item.solidStart = item.min > 0;
+				item.solidEnd = item.min > 0;
+				for (List<Item> sequence : item.alternatives) {
+					item.solidStart &= !sequence.isEmpty() && sequence.get(0).solidStart;
+					item.solidEnd &= !sequence.isEmpty() && sequence.get(sequence.size() - 1).solidEnd;
+				}
+			}
+			return item;
+		}
+
+		/**
+		 * Reads the quantifier following an item, if any.
+		 * @return <code>false</code> if the quantifier is possessive or malformed.
+		 */
+		private boolean quantifier(Item item) {
+			int n = regex.length();
+			int start = pos;
+			item.min = 1;
+			int max = 1;
+			if (pos < n) {
+				char c = regex.charAt(pos);
+				if (c == '*' || c == '+' || c == '?') {
+					item.min = c == '+' ? 1 : 0;
+					max = c == '?' ? 1 : Integer.MAX_VALUE;
+					pos++;
+				} else if (c == '{') {
+					int close = regex.indexOf('}', pos);
+					if (close < 0) {
+						return false;
+					}
+					String bounds = regex.substring(pos + 1, close);
+					int comma = bounds.indexOf(',');
+					try {
+						item.min = Integer.parseInt(comma < 0 ? bounds : bounds.substring(0, comma));
+						max = comma < 0 ? item.min : comma == bounds.length() - 1 ? Integer.MAX_VALUE : Integer.parseInt(bounds.substring(comma + 1));
+					} catch (NumberFormatException e) {
+						return false;
+					}
+					pos = close + 1;
+				}
+				if (pos > start && pos < n && regex.charAt(pos) == '?') {
+					pos++;
+				} else if (pos > start && pos < n && regex.charAt(pos) == '+') {
+					// possessive repetition gives back nothing, so relaxing what follows could lose a match
+					return false;
+				}
+			}
+			item.quantifier = regex.substring(start, pos);
+			item.once = item.min == 1 && max == 1;
+			return true;
+		}
+	}
+
+	/**
+	 * Appends relaxed alternatives.
+	 * @param solidStart if <code>true</code>, nothing that could match whitespace precedes the alternatives.
+	 * @param solidEnd if <code>true</code>, nothing that could match whitespace follows the alternatives.
+	 */
+	private static void append(List<List<Item>> alternatives, boolean solidStart, boolean solidEnd, StringBuilder sb) {
+		for (int a = 0; a < alternatives.size(); a++) {
+			if (a > 0) {
+				sb.append('|');
+			}
+			List<Item> sequence = alternatives.get(a);
+			for (int i = 0; i < sequence.size(); i++) {
+				Item item = sequence.get(i);
+				boolean before = i == 0 ? solidStart : sequence.get(i - 1).solidEnd;
+				boolean after = i == sequence.size() - 1 ? solidEnd : sequence.get(i + 1).solidStart;
+				if (item.whitespace) {
+					sb.append(item.min > 0 && before && after ? "\\s" : "\\s*");
+				} else if (item.alternatives == null) {
+					sb.append(item.text).append(item.quantifier);
+				} else {
+					sb.append(item.text);
+					// a repeated group may follow itself
+					append(item.alternatives, item.once && before, item.once && after, sb);
+					sb.append(')').append(item.quantifier);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return The index following a property escape starting at an index, or -1 if it is not one of the properties
+	 *     which neither match whitespace nor depend on case.
+	 */
+	private static int property(String regex, int i) {
+		for (String property : new String[] { "\\p{Punct}", "\\p{Digit}", "\\p{Alpha}", "\\p{Alnum}" }) {
+			if (regex.startsWith(property, i)) {
+				return i + property.length();
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Appends a character class starting at an index, lowercased.
+	 * @return The index following the class, or -1 if the class may match whitespace, or its case cannot be dropped.
+	 */
+	private static int charClass(String regex, int i, StringBuilder sb) {
+		int n = regex.length();
+		StringBuilder cls = new StringBuilder();
+		cls.append('[');
+		i++;
+		if (i < n && regex.charAt(i) == '^') {
+			// a negated class matches whitespace
+			return -1;
+		}
+		boolean first = true;
+		while (i < n) {
+			char c = regex.charAt(i);
+			if (c == ']' && !first) {
+				cls.append(c);
+				sb.append(cls);
+				return i + 1;
+			}
+			first = false;
+			if (c == '[' || isSpace(c) || isCased(c) || regex.startsWith("&&", i)) {
+				return -1;
+			}
+			if (c == '\\') {
+				if (i + 1 >= n) {
+					return -1;
+				}
+				char e = regex.charAt(i + 1);
+				if (e == 'd' || e == 'w' || (!isAsciiAlphanumeric(e) && !isSpace(e))) {
+					cls.append(c).append(e);
+					i += 2;
+				} else if (e == 'p') {
+					int end = property(regex, i);
+					if (end < 0) {
+						return -1;
+					}
+					cls.append(regex, i, end);
+					i = end;
+				} else {
+					return -1;
+				}
+				continue;
+			}
+			if (i + 2 < n && regex.charAt(i + 1) == '-' && regex.charAt(i + 2) != ']') {
+				char hi = regex.charAt(i + 2);
+				boolean digits = c >= '0' && c <= '9' && hi >= '0' && hi <= '9';
+				boolean lower = c >= 'a' && c <= 'z' && hi >= 'a' && hi <= 'z';
+				boolean upper = c >= 'A' && c <= 'Z' && hi >= 'A' && hi <= 'Z';
+				if (!digits && !lower && !upper) {
+					return -1;
+				}
+				cls.append(toLower(c)).append('-').append(toLower(hi));
+				i += 3;
+				continue;
+			}
+			cls.append(toLower(c));
+			i++;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return The char lowercased if it is an ASCII letter, or one of the two
+	 *     other chars which some engines match to an ASCII letter ignoring case.
+	 */
+	static char toLower(char c) {
+		if (c >= 'A' && c <= 'Z') {
+			return (char)(c + ('a' - 'A'));
+		} else if (c == '\u212A') {
+			// Kelvin sign
+			return 'k';
+		} else if (c == '\u017F') {
+			// long s
+			return 's';
+		}
+		return c;
+	}
+
+	/**
+	 * @return <code>true</code> if a char outside ASCII has another case, which some engines match ignoring case.
+	 */
+	private static boolean isCased(char c) {
+		return c > 0x7F && (Character.toLowerCase(c) != c || Character.toUpperCase(c) != c);
+	}
+
+	private static boolean isAsciiAlphanumeric(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+	}
+}
@@ -0,0 +1,106 @@
+package gov.va.research.red.ex;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A log of the work an extraction job has completed, such as the IDs of
+ * documents whose matches have been committed, or the files whose documents
+ * have been written, so that a job which is interrupted can be resumed
+ * without repeating that work. The log has one key per line and is only
+ * appended to, so a job killed while writing it loses at most the last,
+ * unterminated, line, which is ignored on resume. Work is recorded after it
+ * is written, so a resumed job may repeat some work, which the output
+ * writers must tolerate.
+ */
+public class Checkpoint implements Closeable {
+
+	private final Set<String> done = new HashSet<>();
+	private final FileChannel channel;
+	private final OutputStream out;
+
+	/**
+	 * @param file The log.
+	 * @param resume if <code>true</code> the work recorded in an existing log is taken as done, otherwise the log is started afresh.
+	 * @throws IOException if the log cannot be read or opened.
+	 */
+	public Checkpoint(Path file, boolean resume) throws IOException {
+		long end = 0;
+		if (resume && Files.exists(file)) {
+			byte[] bytes = Files.readAllBytes(file);
+			end = bytes.length;
+			while (end > 0 && bytes[(int)end - 1] != '\n') {
+				end--;
+			}
+			String log = new String(bytes, 0, (int)end, StandardCharsets.UTF_8);
+			int start = 0;
+			int nl;
+			while ((nl = log.indexOf('\n', start)) >= 0) {
+				done.add(log.substring(start, nl));
+				start = nl + 1;
+			}
+		}
+		this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		// drop an unterminated last line, or a previous log which is not resumed
+		channel.truncate(end);
+		channel.position(end);
+		this.out = Channels.newOutputStream(channel);
+	}
+
+	/**
+	 * @param key The key of some work, such as a document ID.
+	 * @return <code>true</code> if the work was recorded as done.
+	 */
+	public synchronized boolean isDone(String key) {
+		return done.contains(key);
+	}
+
+	/**
+	 * @return The amount of work recorded as done.
+	 */
+	public synchronized int size() {
+		return done.size();
+	}
+
+	/**
+	 * Records work as done. The log is written through to the operating
+	 * system, so the record survives the job being killed, but is only
+	 * forced to disk on {@link #close()}. Losing a record only means the work
+	 * is repeated.
+	 * @param keys The keys of the work. Keys may not contain line breaks.
+	 * @throws IOException if the log cannot be written.
+	 */
+	public synchronized void markDone(Collection<String> keys) throws IOException {
+		if (keys.isEmpty()) {
+			return;
+		}
+		StringBuilder sb = new StringBuilder();
+		for (String key : keys) {
+			if (key.indexOf('\n') >= 0 || key.indexOf('\r') >= 0) {
+				throw new IllegalArgumentException("Checkpoint keys may not contain line breaks: " + key);
+			}
+			sb.append(key).append('\n');
+		}
+		out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+		done.addAll(keys);
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		try {
+			channel.force(false);
+		} finally {
+			out.close();
+		}
+	}
+}
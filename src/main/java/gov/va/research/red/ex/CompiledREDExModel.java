@@ -0,0 +1,593 @@
+package gov.va.research.red.ex;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import gov.va.research.red.MatchedElement;
+import gov.va.research.red.regex.DeadlineCharSequence;
+import gov.va.research.red.regex.MatcherAdapter;
+import gov.va.research.red.regex.NFAPatternSet;
+import gov.va.research.red.regex.PatternAdapter;
+import gov.va.research.red.regex.PatternSetAdapter;
+import gov.va.research.red.regex.RegexTimeoutException;
+
+/**
+ * An extraction-ready form of a REDExModel. All regular expressions are
+ * compiled once, when the CompiledREDExModel is constructed, so a single
+ * instance can be shared by any number of threads and applied to any number of
+ * documents. Each regular expression runs on the calling thread and is
+ * abandoned if it takes longer than the timeout to match a document. Each
+ * thread keeps its own matchers, which are reset for every document rather
+ * than created anew.
+ * <p>
+ * The regular expressions, weights and timeout are fixed. The result cache,
+ * the metrics and canonical matching can be changed with
+ * {@link #setCache(ExtractionCache)}, {@link #setMetrics(ExtractionMetrics.ModelMetrics)}
+ * and {@link #setCanonicalMatching(boolean)}. These settings are volatile
+ * and read once at the start of each extraction, so they can be changed
+ * while other threads are extracting: an extraction in progress finishes
+ * with the settings it started with, and later ones use the new settings.
+ */
+public class CompiledREDExModel implements RegexTiers {
+	private static final Logger LOG = LoggerFactory.getLogger(CompiledREDExModel.class);
+	public static final long DEFAULT_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(5);
+	/**
+	 * A tier is matched as a set only when at least this many of its regular
+	 * expressions are left to run, fewer are faster to run one at a time.
+	 */
+	static final int MIN_PATTERN_SET_SIZE = 8;
+
+	private final List<Collection<? extends WeightedRegEx>> regexTiers;
+	private final String metadata;
+	private final Class<? extends PatternAdapter> patternAdapterClass;
+	private final PatternAdapter[][] tierPatterns;
+	private final double[][] tierWeights;
+	private final PatternSetAdapter[] tierSets;
+	// null where targets are known to contain the literals required, see SnippetIndex
+	private final LiteralPrefilter prefilter;
+	private final long timeoutMillis;
+	private final ThreadLocal<ThreadMatchers> threadMatchers = ThreadLocal.withInitial(this::newThreadMatchers);
+	// set once metrics are tracked for this model, see ExtractionMetrics
+	private volatile ExtractionMetrics.ModelMetrics metrics;
+	// set to reuse the results of texts seen before, see ExtractionCache
+	private volatile ExtractionCache cache;
+	// set to search a canonical view of texts, see CanonicalText, null where a regular expression cannot be relaxed
+	private volatile PatternAdapter[][] canonicalPatterns;
+	// computed on first use, kept with the model so that it goes when the model does
+	private volatile byte[] fingerprint;
+
+	/**
+	 * Compiles a REDExModel.
+	 * @param model The model to compile.
+	 * @param patternAdapterClass The adapter class to use for the chosen regular expression engine.
+	 */
+	public CompiledREDExModel(REDExModel model, Class<? extends PatternAdapter> patternAdapterClass) {
+		this(model, patternAdapterClass, DEFAULT_TIMEOUT_MILLIS);
+	}
+
+	/**
+	 * Compiles a REDExModel.
+	 * @param model The model to compile.
+	 * @param patternAdapterClass The adapter class to use for the chosen regular expression engine.
+	 * @param timeoutMillis The time allowed for one regular expression to match one target, in milliseconds. No limit if &lt;= 0.
+	 */
+	public CompiledREDExModel(REDExModel model, Class<? extends PatternAdapter> patternAdapterClass, long timeoutMillis) {
+		this(model.getRegexTiers(), model.getMetadata(), patternAdapterClass, timeoutMillis);
+	}
+
+	/**
+	 * Compiles tiers of weighted regular expressions.
+	 * @param regexTiers Tiered weighted regular expressions, highest priority first.
+	 * @param patternAdapterClass The adapter class to use for the chosen regular expression engine.
+	 */
+	public CompiledREDExModel(List<Collection<? extends WeightedRegEx>> regexTiers, Class<? extends PatternAdapter> patternAdapterClass) {
+		this(regexTiers, null, patternAdapterClass, DEFAULT_TIMEOUT_MILLIS);
+	}
+
+	/**
+	 * Compiles tiers of weighted regular expressions.
+	 * @param regexTiers Tiered weighted regular expressions, highest priority first.
+	 * @param patternAdapterClass The adapter class to use for the chosen regular expression engine.
+	 * @param timeoutMillis The time allowed for one regular expression to match one target, in milliseconds. No limit if &lt;= 0.
+	 */
+	public CompiledREDExModel(List<Collection<? extends WeightedRegEx>> regexTiers, Class<? extends PatternAdapter> patternAdapterClass, long timeoutMillis) {
+		this(regexTiers, null, patternAdapterClass, timeoutMillis);
+	}
+
+	/**
+	 * Compiles tiers of weighted regular expressions, optionally without a
+	 * literal prefilter, for targets already known to contain the literals
+	 * required by the regular expressions.
+	 * @param regexTiers Tiered weighted regular expressions, highest priority first.
+	 * @param patternAdapterClass The adapter class to use for the chosen regular expression engine.
+	 * @param prefilter if <code>false</code> then every regular expression is tried on every target.
+	 */
+	CompiledREDExModel(List<Collection<? extends WeightedRegEx>> regexTiers, Class<? extends PatternAdapter> patternAdapterClass, boolean prefilter) {
+		this(regexTiers, null, patternAdapterClass, DEFAULT_TIMEOUT_MILLIS, prefilter);
+	}
+
+	private CompiledREDExModel(List<Collection<? extends WeightedRegEx>> regexTiers, String metadata, Class<? extends PatternAdapter> patternAdapterClass, long timeoutMillis) {
+		this(regexTiers, metadata, patternAdapterClass, timeoutMillis, true);
+	}
+
+	private CompiledREDExModel(List<Collection<? extends WeightedRegEx>> regexTiers, String metadata, Class<? extends PatternAdapter> patternAdapterClass, long timeoutMillis, boolean prefilter) {
+		List<Collection<? extends WeightedRegEx>> tiers = new ArrayList<>(regexTiers.size());
+		List<List<WeightedRegEx>> tierLists = new ArrayList<>(regexTiers.size());
+		this.tierPatterns = new PatternAdapter[regexTiers.size()][];
+		this.tierWeights = new double[regexTiers.size()][];
+		this.tierSets = new PatternSetAdapter[regexTiers.size()];
+		for (int t = 0; t < regexTiers.size(); t++) {
+			Collection<? extends WeightedRegEx> tier = regexTiers.get(t);
+			List<WeightedRegEx> tierCopy = tier == null ? new ArrayList<>(0) : new ArrayList<>(tier);
+			tiers.add(Collections.unmodifiableList(tierCopy));
+			tierLists.add(tierCopy);
+			this.tierPatterns[t] = new PatternAdapter[tierCopy.size()];
+			this.tierWeights[t] = new double[tierCopy.size()];
+			for (int r = 0; r < tierCopy.size(); r++) {
+				WeightedRegEx wrx = tierCopy.get(r);
+				this.tierPatterns[t][r] = wrx.getPattern(patternAdapterClass);
+				this.tierWeights[t][r] = wrx.getWeight();
+			}
+			if (tierCopy.size() >= MIN_PATTERN_SET_SIZE) {
+				List<String> regexes = new ArrayList<>(tierCopy.size());
+				for (PatternAdapter pattern : this.tierPatterns[t]) {
+					regexes.add(pattern.pattern());
+				}
+				this.tierSets[t] = new NFAPatternSet(regexes);
+			}
+		}
+		this.regexTiers = Collections.unmodifiableList(tiers);
+		this.prefilter = prefilter ? new LiteralPrefilter(tierLists) : null;
+		this.metadata = metadata;
+		this.patternAdapterClass = patternAdapterClass;
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	/**
+	 * Extracts information from a target using all tiers.
+	 * @param target The text from which to extract information.
+	 * @return The matches of the highest priority tier that produced any matches.
+	 */
+	public Set<MatchedElement> extract(CharSequence target) {
+		return extract(target, true);
+	}
+
+	/**
+	 * Extracts information from a target. Tiers are applied in order, each
+	 * exactly once, stopping at the first tier that produces any matches.
+	 * Regular expressions whose required literals do not all occur in the
+	 * target are skipped without being run. In large tiers, the remaining
+	 * regular expressions are first matched together in one pass, and only
+	 * those which may match are run to find their capture groups.
+	 * @param target The text from which to extract information.
+	 * @param useTier2 if <code>false</code> then only the first tier is used.
+	 * @return The matches of the highest priority tier that produced any matches.
+	 */
+	public Set<MatchedElement> extract(CharSequence target, boolean useTier2) {
+		return extract(target, useTier2, timeoutMillis);
+	}
+
+	/**
+	 * Extracts information from a target, overriding the timeout of the model.
+	 * @param target The text from which to extract information.
+	 * @param useTier2 if <code>false</code> then only the first tier is used.
+	 * @param timeoutMillis The time allowed for one regular expression to match the target, in milliseconds. No limit if &lt;= 0.
+	 * @return The matches of the highest priority tier that produced any matches.
+	 */
+	public Set<MatchedElement> extract(CharSequence target, boolean useTier2, long timeoutMillis) {
+		if (target == null || target.length() == 0) {
+			return new HashSet<>(0);
+		}
+		MatchList matches = new MatchList();
+		extract(target, useTier2, timeoutMillis, matches);
+		return toMatchedElements(matches);
+	}
+
+	/**
+	 * Extracts information from a target, passing each match to a sink
+	 * instead of building a set of results.
+	 * The matches are collected in a list kept for the calling thread, so
+	 * the sink must not itself extract with this model.
+	 * @param target The text from which to extract information.
+	 * @param useTier2 if <code>false</code> then only the first tier is used.
+	 * @param sink Receives the matches of the highest priority tier that produced any matches.
+	 */
+	public void extract(CharSequence target, boolean useTier2, MatchSink sink) {
+		MatchList matches = threadMatchers.get().sinkMatches;
+		try {
+			extract(target, useTier2, timeoutMillis, matches);
+			matches.forEach(sink);
+		} finally {
+			matches.reset(null);
+		}
+	}
+
+	/**
+	 * Extracts information from a target into a compact, reusable list.
+	 * @param target The text from which to extract information.
+	 * @param useTier2 if <code>false</code> then only the first tier is used.
+	 * @param timeoutMillis The time allowed for one regular expression to match the target, in milliseconds. No limit if &lt;= 0.
+	 * @param matches Reset to the target, then receives the matches of the highest priority tier that produced any matches,
+	 *     one per matching regular expression.
+	 */
+	public void extract(CharSequence target, boolean useTier2, long timeoutMillis, MatchList matches) {
+		ExtractionCache cache = this.cache;
+		if (cache != null && target != null && target.length() > 0) {
+			cache.extract(this, target, useTier2, timeoutMillis, matches);
+		} else {
+			extract(target, 0, target == null ? 0 : target.length(), useTier2, timeoutMillis, matches);
+		}
+	}
+
+	/**
+	 * Extracts information from a range of a target, with the rest of the
+	 * target serving as context. Only matches whose capture group starts in
+	 * the range are kept, and each regular expression contributes its first
+	 * such match. This allows a long text to be processed in overlapping
+	 * windows without finding a match twice.
+	 * @param target The text from which to extract information.
+	 * @param from The index of the first char of the range.
+	 * @param to The index following the last char of the range.
+	 * @param useTier2 if <code>false</code> then only the first tier is used.
+	 * @param timeoutMillis The time allowed for one regular expression to match the target, in milliseconds. No limit if &lt;= 0.
+	 * @param matches Reset to the target, then receives the matches of the highest priority tier that produced any matches
+	 *     in the range, one per matching regular expression.
+	 */
+	public void extract(CharSequence target, int from, int to, boolean useTier2, long timeoutMillis, MatchList matches) {
+		matches.reset(target);
+		if (target == null || target.length() == 0 || from >= to) {
+			return;
+		}
+		ExtractionMetrics.ModelMetrics metrics = this.metrics;
+		long start = metrics == null ? 0 : System.nanoTime();
+		long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		ThreadMatchers matchers = threadMatchers.get();
+		matchers.canonical(canonicalPatterns);
+		try {
+			BitSet present = prefilter == null ? null : prefilter.scan(target);
+			for (int t = 0; t < tierPatterns.length && (useTier2 || t == 0); t++) {
+				BitSet candidates;
+				if (prefilter == null) {
+					candidates = new BitSet(tierPatterns[t].length);
+					candidates.set(0, tierPatterns[t].length);
+				} else {
+					candidates = prefilter.candidates(present, t);
+				}
+				if (tierSets[t] != null && candidates.cardinality() >= MIN_PATTERN_SET_SIZE) {
+					try {
+						candidates = tierSets[t].matching(matchers.input.restart(target, timeoutNanos), candidates);
+					} catch (RegexTimeoutException e) {
+						// each candidate is then tried against its own deadline
+						LOG.warn("Pattern set of tier " + (t + 1) + " timed out after " + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + " ms applied to target '" + target + "'");
+					}
+				}
+				for (int r = candidates.nextSetBit(0); r >= 0; r = candidates.nextSetBit(r + 1)) {
+					findMatch(matchers, metrics, t, r, target, from, to, timeoutNanos, matches);
+				}
+				// matches now contains all matches for the current tier
+				if (!matches.isEmpty()) {
+					break;
+				}
+			}
+		} finally {
+			// the cached matchers must not keep the target reachable
+			matchers.input.restart("", 0);
+			matchers.canonicalInput.restart("", 0);
+			matchers.canonicalText = null;
+		}
+		if (metrics != null) {
+			metrics.recordDocument(System.nanoTime() - start, matches.size());
+		}
+	}
+
+	/**
+	 * Combines matches at the same position into MatchedElements.
+	 * @param matches Matches found by this model.
+	 * @return One MatchedElement per matched position, with the confidences of its regular expressions summed.
+	 */
+	Set<MatchedElement> toMatchedElements(MatchList matches) {
+		return toMatchedElements(matches, 0);
+	}
+
+	/**
+	 * Combines matches at the same position into MatchedElements.
+	 * @param matches Matches found by this model.
+	 * @param offset Added to the positions of the matches, for matches in a window of a longer text.
+	 * @return One MatchedElement per matched position, with the confidences of its regular expressions summed.
+	 */
+	Set<MatchedElement> toMatchedElements(MatchList matches, int offset) {
+		Map<MatchedElement.MatchPos, MatchedElement.MatchData> combined = new HashMap<>();
+		for (int i = 0; i < matches.size(); i++) {
+			MatchedElement.MatchPos pos = new MatchedElement.MatchPos();
+			pos.setStartPos(offset + matches.getStart(i));
+			pos.setEndPos(offset + matches.getEnd(i));
+			MatchedElement.MatchData md = combined.get(pos);
+			if (md == null) {
+				md = new MatchedElement.MatchData();
+				md.setMatch(matches.getMatch(i));
+				md.setMatchingRegexs(new HashSet<>(1));
+				combined.put(pos, md);
+			}
+			md.getMatchingRegexs().add(tierPatterns[matches.getTier(i)][matches.getRegex(i)].pattern());
+			md.setConfidence(md.getConfidence() + matches.getWeight(i));
+		}
+		Set<MatchedElement> returnSet = new HashSet<>(combined.size());
+		for (Map.Entry<MatchedElement.MatchPos, MatchedElement.MatchData> e : combined.entrySet()) {
+			returnSet.add(new MatchedElement(e.getKey(), e.getValue()));
+		}
+		return returnSet;
+	}
+
+	/**
+	 * Finds the first match of a single pattern in a target whose first
+	 * capture group does not start before a given index, and adds the match
+	 * of the capture group, if not empty and starting before a given end, to
+	 * a list.
+	 */
+	private void findMatch(ThreadMatchers matchers, ExtractionMetrics.ModelMetrics metrics, int tier, int regex, CharSequence target, int from, int to, long timeoutNanos, MatchList matches) {
+		long started = metrics == null ? 0 : System.nanoTime();
+		boolean matched = false;
+		boolean timedOut = false;
+		try {
+			MatcherAdapter matcher = matchers.reset(tier, regex, target, timeoutNanos);
+			MatcherAdapter canonicalMatcher = matchers.resetCanonical(tier, regex, target, timeoutNanos);
+			boolean found;
+			if (canonicalMatcher == null) {
+				found = matcher.find() && matcher.groupCount() >= 1;
+				while (found && matcher.start(1) >= 0 && matcher.start(1) < from) {
+					found = matcher.find();
+				}
+			} else {
+				found = findCanonical(matcher, canonicalMatcher, matchers.canonicalText, 0) && matcher.groupCount() >= 1;
+				while (found && matcher.start(1) >= 0 && matcher.start(1) < from) {
+					// as find() continues, after the match or, if it was empty, after its start
+					int next = matcher.end() > matcher.start() ? matcher.end() : matcher.start() + 1;
+					found = next <= target.length() && findCanonical(matcher, canonicalMatcher, matchers.canonicalText, next);
+				}
+			}
+			if (found) {
+				int start = matcher.start(1);
+				int end = matcher.end(1);
+				if (start >= from && start < to && end > start) {
+					matches.add(start, end, tier, regex, tierWeights[tier][regex]);
+					matched = true;
+				}
+			}
+		} catch (RegexTimeoutException e) {
+			timedOut = true;
+			matches.markIncomplete();
+			LOG.warn("Regular expression '" + tierPatterns[tier][regex].pattern() + "' timed out after " + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + " ms applied to target '" + target + "'");
+		} catch (RuntimeException | StackOverflowError e) {
+			// a failing regular expression is skipped, as a timed out one is, so the others still run
+			matches.markIncomplete();
+			LOG.error("Regular expression '" + tierPatterns[tier][regex].pattern() + "' failed applied to target '" + target + "'", e);
+		}
+		if (metrics != null) {
+			metrics.recordRegex(tier, regex, System.nanoTime() - started, matched, timedOut);
+		}
+	}
+
+	/**
+	 * Finds the first match of a regular expression in a text starting at or
+	 * after an index, as find() would. The relaxed regular expression finds
+	 * each position of the canonical view where a match may start, in order,
+	 * and the regular expression is tried at each position of the text that
+	 * the view's position stands for. Every match in the text starts at a
+	 * position where the relaxed regular expression matches the view, so
+	 * the first match confirmed is the first match in the text.
+	 * @param matcher The matcher of the regular expression, left at the match if one is found.
+	 * @param canonicalMatcher The matcher of the relaxed regular expression, reset to the view.
+	 * @param text The canonical view of the text.
+	 * @param rawFrom The index of the text to search from.
+	 * @return <code>true</code> if a match is found.
+	 */
+	private static boolean findCanonical(MatcherAdapter matcher, MatcherAdapter canonicalMatcher, CanonicalText text, int rawFrom) {
+		int rawLength = text.getRaw().length();
+		int length = text.length();
+		int from = text.toCanonical(rawFrom);
+		while (from <= length) {
+			if (!canonicalMatcher.region(from, length).find()) {
+				return false;
+			}
+			int start = canonicalMatcher.start();
+			int rawEnd = start < length ? text.toRaw(start + 1) : rawLength + 1;
+			for (int p = Math.max(rawFrom, text.toRaw(start)); p < rawEnd; p++) {
+				if (matcher.region(p, rawLength).lookingAt()) {
+					return true;
+				}
+			}
+			from = start + 1;
+		}
+		return false;
+	}
+
+	private ThreadMatchers newThreadMatchers() {
+		return new ThreadMatchers(tierPatterns);
+	}
+
+	/**
+	 * The matchers of one thread, created on first use and reset for each
+	 * target. All of them read targets through a single deadline wrapper,
+	 * and the matchers of relaxed regular expressions read the canonical
+	 * view of the target, built on first use, through another.
+	 */
+	private static class ThreadMatchers {
+		private final PatternAdapter[][] patterns;
+		private final MatcherAdapter[][] matchers;
+		private final DeadlineCharSequence input = new DeadlineCharSequence();
+		private PatternAdapter[][] canonicalPatterns;
+		private MatcherAdapter[][] canonicalMatchers;
+		private final DeadlineCharSequence canonicalInput = new DeadlineCharSequence();
+		private CanonicalText canonicalText;
+		// the matches passed to a sink, reused by each extraction on the thread
+		private final MatchList sinkMatches = new MatchList();
+
+		ThreadMatchers(PatternAdapter[][] patterns) {
+			this.patterns = patterns;
+			this.matchers = new MatcherAdapter[patterns.length][];
+			for (int t = 0; t < patterns.length; t++) {
+				this.matchers[t] = new MatcherAdapter[patterns[t].length];
+			}
+		}
+
+		/**
+		 * @return The matcher of a regular expression, reset to a target with a fresh deadline.
+		 */
+		MatcherAdapter reset(int tier, int regex, CharSequence target, long timeoutNanos) {
+			input.restart(target, timeoutNanos);
+			MatcherAdapter matcher = matchers[tier][regex];
+			if (matcher == null) {
+				matcher = patterns[tier][regex].matcher(input);
+				matchers[tier][regex] = matcher;
+			} else {
+				matcher.reset(input);
+			}
+			return matcher;
+		}
+
+		/**
+		 * Switches to the relaxed regular expressions of the model, if they have changed.
+		 */
+		void canonical(PatternAdapter[][] canonicalPatterns) {
+			if (canonicalPatterns != this.canonicalPatterns) {
+				this.canonicalPatterns = canonicalPatterns;
+				this.canonicalMatchers = null;
+				if (canonicalPatterns != null) {
+					this.canonicalMatchers = new MatcherAdapter[canonicalPatterns.length][];
+					for (int t = 0; t < canonicalPatterns.length; t++) {
+						this.canonicalMatchers[t] = new MatcherAdapter[canonicalPatterns[t].length];
+					}
+				}
+			}
+		}
+
+		/**
+		 * @return The matcher of the relaxed form of a regular expression, reset to the canonical view of a target with a
+		 *     fresh deadline, or <code>null</code> if the regular expression has no relaxed form.
+		 */
+		MatcherAdapter resetCanonical(int tier, int regex, CharSequence target, long timeoutNanos) {
+			if (canonicalPatterns == null || canonicalPatterns[tier][regex] == null) {
+				return null;
+			}
+			if (canonicalText == null) {
+				canonicalText = new CanonicalText(target);
+			}
+			canonicalInput.restart(canonicalText, timeoutNanos);
+			MatcherAdapter matcher = canonicalMatchers[tier][regex];
+			if (matcher == null) {
+				matcher = canonicalPatterns[tier][regex].matcher(canonicalInput);
+				canonicalMatchers[tier][regex] = matcher;
+			} else {
+				matcher.reset(canonicalInput);
+			}
+			return matcher;
+		}
+	}
+
+	/**
+	 * @param metrics The counters to update as this model extracts, replacing any previous ones.
+	 */
+	void setMetrics(ExtractionMetrics.ModelMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * @param cache The cache of results of whole texts to use, replacing any previous one, or <code>null</code> for none.
+	 *     Ranges of texts are not cached.
+	 */
+	public void setCache(ExtractionCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Turns searching a canonical view of texts on or off. The view is
+	 * lowercased and its whitespace runs collapsed, and is built once per
+	 * text, so that case insensitive regular expressions with whitespace
+	 * repetitions can be matched case sensitively and with simpler
+	 * whitespace. Matches are confirmed against the text, so the matches
+	 * found are the same either way. Regular expressions which cannot be
+	 * relaxed are matched against the text as usual.
+	 * @param canonical if <code>true</code> texts are searched through their canonical view.
+	 * @return The number of regular expressions which are matched through the canonical view.
+	 * @see CanonicalText
+	 */
+	public int setCanonicalMatching(boolean canonical) {
+		if (!canonical) {
+			this.canonicalPatterns = null;
+			return 0;
+		}
+		int relaxed = 0;
+		PatternAdapter[][] patterns = new PatternAdapter[tierPatterns.length][];
+		for (int t = 0; t < tierPatterns.length; t++) {
+			patterns[t] = new PatternAdapter[tierPatterns[t].length];
+			for (int r = 0; r < tierPatterns[t].length; r++) {
+				WeightedRegEx wrx = getRegEx(t, r);
+				String regex = CanonicalText.toCanonicalRegex(wrx.getRegEx());
+				if (regex != null) {
+					patterns[t][r] = new WeightedRegExImpl(regex, wrx.getWeight(), wrx.getEngine()).getPattern(patternAdapterClass);
+					relaxed++;
+				}
+			}
+		}
+		this.canonicalPatterns = patterns;
+		return relaxed;
+	}
+
+	/**
+	 * @param tier The index of a tier.
+	 * @param regex The index of a regular expression within the tier.
+	 * @return The regular expression.
+	 */
+	public WeightedRegEx getRegEx(int tier, int regex) {
+		return ((List<? extends WeightedRegEx>)regexTiers.get(tier)).get(regex);
+	}
+
+	@Override
+	public List<Collection<? extends WeightedRegEx>> getRegexTiers() {
+		return regexTiers;
+	}
+
+	public String getMetadata() {
+		return metadata;
+	}
+
+	public Class<? extends PatternAdapter> getPatternAdapterClass() {
+		return patternAdapterClass;
+	}
+
+	/**
+	 * @return A hash of the regular expressions, weights and engine of this model.
+	 * @see ExtractionCache#fingerprint(CompiledREDExModel)
+	 */
+	byte[] getFingerprint() {
+		byte[] fingerprint = this.fingerprint;
+		if (fingerprint == null) {
+			fingerprint = ExtractionCache.fingerprint(this);
+			this.fingerprint = fingerprint;
+		}
+		return fingerprint;
+	}
+
+	/**
+	 * @return The time allowed for one regular expression to match one target, in milliseconds.
+	 */
+	public long getTimeoutMillis() {
+		return timeoutMillis;
+	}
+
+	@Override
+	public String toString() {
+		return super.toString() + " [metadata=" + metadata + "]";
+	}
+}
@@ -0,0 +1,166 @@
+package gov.va.research.red.ex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import gov.va.research.red.regex.DeadlineCharSequence;
+import gov.va.research.red.regex.HybridPatternAdapter;
+import gov.va.research.red.regex.MatcherAdapter;
+import gov.va.research.red.regex.PatternAdapter;
+import gov.va.research.red.regex.RegexAnalyzer;
+import gov.va.research.red.regex.RegexEngine;
+import gov.va.research.red.regex.RegexParser;
+import gov.va.research.red.regex.RegexTimeoutException;
+
+/**
+ * Chooses the engine for each regular expression of a model, so that the
+ * model can be run with a {@link HybridPatternAdapter}. Each regular
+ * expression is timed on both engines over sample texts, normally the
+ * training snippets. A regular expression runs on re2j if it is faster
+ * there, or if it is prone to excessive backtracking in java.util.regex. It
+ * stays on java.util.regex if re2j cannot compile it, or if the engines
+ * disagree on any of its matches.
+ */
+public class EngineCalibrator {
+	private static final Logger LOG = LoggerFactory.getLogger(EngineCalibrator.class);
+	public static final int DEFAULT_ROUNDS = 3;
+	public static final long DEFAULT_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(1);
+
+	private final int rounds;
+	private final long timeoutMillis;
+
+	public EngineCalibrator() {
+		this(DEFAULT_ROUNDS, DEFAULT_TIMEOUT_MILLIS);
+	}
+
+	/**
+	 * @param rounds The number of times each regular expression is timed on each engine, the fastest time counts.
+	 * @param timeoutMillis The time allowed for one regular expression to match one text, in milliseconds.
+	 *     A regular expression that times out on java.util.regex runs on re2j.
+	 */
+	public EngineCalibrator(int rounds, long timeoutMillis) {
+		if (rounds < 1) {
+			throw new IllegalArgumentException("rounds must be at least 1: " + rounds);
+		}
+		this.rounds = rounds;
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	/**
+	 * Chooses the engine for each regular expression of a model.
+	 * @param model The model to calibrate.
+	 * @param texts Sample texts to time the regular expressions on.
+	 * @return A copy of the model with the chosen engine recorded for each regular expression.
+	 */
+	public REDExModel calibrate(REDExModel model, Collection<? extends CharSequence> texts) {
+		List<CharSequence> sample = new ArrayList<>(texts);
+		List<Collection<WeightedRegEx>> tiers = new ArrayList<>(model.getRegexTiers().size());
+		int re2j = 0;
+		int total = 0;
+		for (Collection<? extends WeightedRegEx> tier : model.getRegexTiers()) {
+			List<WeightedRegEx> calibrated = new ArrayList<>(tier.size());
+			for (WeightedRegEx wrx : tier) {
+				RegexEngine engine = chooseEngine(wrx.getRegEx(), sample);
+				calibrated.add(new WeightedRegExImpl(wrx.getRegEx(), wrx.getWeight(), engine));
+				if (engine == RegexEngine.RE2J) {
+					re2j++;
+				}
+				total++;
+			}
+			tiers.add(calibrated);
+		}
+		LOG.info("Calibrated " + total + " regular expressions on " + sample.size() + " texts, " + re2j + " run on re2j");
+		REDExModel calibratedModel = new REDExModel(tiers);
+		calibratedModel.setMetadata(model.getMetadata());
+		return calibratedModel;
+	}
+
+	/**
+	 * @param regex A regular expression.
+	 * @param texts Sample texts to time the regular expression on.
+	 * @return The engine to run the regular expression on.
+	 */
+	RegexEngine chooseEngine(String regex, List<? extends CharSequence> texts) {
+		PatternAdapter re2jPattern;
+		try {
+			re2jPattern = RegexEngine.RE2J.compile(regex);
+		} catch (RuntimeException e) {
+			LOG.debug("re2j cannot compile '" + regex + "': " + e.getMessage());
+			return RegexEngine.JSE;
+		}
+		PatternAdapter jsePattern = RegexEngine.JSE.compile(regex);
+		int[] jseSpans = new int[2 * texts.size()];
+		int[] re2jSpans = new int[2 * texts.size()];
+		long jseNanos = time(jsePattern, texts, jseSpans);
+		long re2jNanos = time(re2jPattern, texts, re2jSpans);
+		if (re2jNanos == Long.MAX_VALUE) {
+			return RegexEngine.JSE;
+		}
+		if (jseNanos == Long.MAX_VALUE) {
+			LOG.info("'" + regex + "' timed out on java.util.regex, running it on re2j");
+			return RegexEngine.RE2J;
+		}
+		if (!Arrays.equals(jseSpans, re2jSpans)) {
+			LOG.warn("The engines disagree on matches of '" + regex + "', running it on java.util.regex");
+			return RegexEngine.JSE;
+		}
+		if (isBacktrackingProne(regex)) {
+			LOG.info("'" + regex + "' is prone to excessive backtracking, running it on re2j");
+			return RegexEngine.RE2J;
+		}
+		return re2jNanos < jseNanos ? RegexEngine.RE2J : RegexEngine.JSE;
+	}
+
+	/**
+	 * @param regex A regular expression.
+	 * @return <code>true</code> if the regular expression is prone to excessive backtracking.
+	 */
+	static boolean isBacktrackingProne(String regex) {
+		try {
+			return RegexAnalyzer.isBacktrackingProne(RegexParser.parse(regex));
+		} catch (IllegalArgumentException e) {
+			LOG.debug("Cannot analyze '" + regex + "': " + e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Times a pattern finding its first match in each text.
+	 * @param pattern The pattern to time.
+	 * @param texts The texts to search.
+	 * @param spans Receives the start and end of the first capture group of the match in each text, or -1.
+	 * @return The fastest time of all rounds, in nanoseconds, or <code>Long.MAX_VALUE</code> if the pattern timed out.
+	 */
+	private long time(PatternAdapter pattern, List<? extends CharSequence> texts, int[] spans) {
+		long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		DeadlineCharSequence input = new DeadlineCharSequence();
+		MatcherAdapter matcher = pattern.matcher(input);
+		long fastest = Long.MAX_VALUE;
+		try {
+			for (int round = 0; round < rounds; round++) {
+				long start = System.nanoTime();
+				for (int i = 0; i < texts.size(); i++) {
+					matcher.reset(input.restart(texts.get(i), timeoutNanos));
+					int group = matcher.groupCount() >= 1 ? 1 : 0;
+					if (matcher.find()) {
+						spans[2 * i] = matcher.start(group);
+						spans[2 * i + 1] = matcher.end(group);
+					} else {
+						spans[2 * i] = -1;
+						spans[2 * i + 1] = -1;
+					}
+				}
+				fastest = Math.min(fastest, System.nanoTime() - start);
+			}
+		} catch (RegexTimeoutException e) {
+			return Long.MAX_VALUE;
+		}
+		return fastest;
+	}
+}
@@ -0,0 +1,372 @@
+package gov.va.research.red.ex;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A cache of extraction results, so that texts which occur many times, such
+ * as templated or copied forward notes, are only extracted from once. Results
+ * are keyed by a SHA-256 hash of the model's fingerprint, the tier setting and
+ * the text, and held as the positions and regular expression indexes of the
+ * matches, from which the matches are rebuilt against the text on each hit.
+ * The results in memory are bounded by count and by estimated size, and the
+ * least recently used are evicted first. Results can also be written to a
+ * directory, one file per result, so that they are reused by later runs of
+ * the same model. The directory is not bounded, and a result on disk which
+ * is damaged is treated as a miss. Results cut short by a timeout or a
+ * failing regular expression are not cached.
+ */
+public class ExtractionCache {
+	private static final Logger LOG = LoggerFactory.getLogger(ExtractionCache.class);
+	public static final int DEFAULT_MAX_ENTRIES = 100000;
+	// estimated size of an entry without matches: key, map entry and array headers
+	private static final int ENTRY_OVERHEAD_BYTES = 128;
+	private static final int HASH_CHUNK_CHARS = 4096;
+
+	private final long maxEntries;
+	private final long maxBytes;
+	private final Path directory;
+	private final Map<ByteBuffer, int[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private long bytes;
+	private final ThreadLocal<MessageDigest> digests = ThreadLocal.withInitial(ExtractionCache::newDigest);
+	private final ThreadLocal<byte[]> hashBuffers = ThreadLocal.withInitial(() -> new byte[2 * HASH_CHUNK_CHARS]);
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder diskHits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder diskErrors = new LongAdder();
+
+	/**
+	 * @param maxEntries The largest number of results held in memory, unbounded if &lt;= 0.
+	 * @param maxBytes The largest estimated size of the results held in memory, unbounded if &lt;= 0.
+	 * @param directory The directory results are written to and read from, or <code>null</code> to only cache in memory.
+	 * @throws IOException if the directory cannot be created.
+	 */
+	public ExtractionCache(long maxEntries, long maxBytes, Path directory) throws IOException {
+		this.maxEntries = maxEntries;
+		this.maxBytes = maxBytes;
+		this.directory = directory;
+		if (directory != null) {
+			Files.createDirectories(directory);
+		}
+	}
+
+	/**
+	 * Extracts information from a whole target, or takes the result from the cache.
+	 * @param model The model to extract with.
+	 * @param target The text from which to extract information.
+	 * @param useTier2 if <code>false</code> then only the first tier is used.
+	 * @param timeoutMillis The time allowed for one regular expression to match the target, in milliseconds. No limit if &lt;= 0.
+	 * @param matches Reset to the target, then receives the matches.
+	 */
+	void extract(CompiledREDExModel model, CharSequence target, boolean useTier2, long timeoutMillis, MatchList matches) {
+		ByteBuffer key = key(model, target, useTier2);
+		int[] packed = get(key, model, target);
+		if (packed != null) {
+			unpack(model, target, packed, matches);
+			return;
+		}
+		model.extract(target, 0, target.length(), useTier2, timeoutMillis, matches);
+		if (matches.isComplete()) {
+			put(key, pack(matches));
+		}
+	}
+
+	private ByteBuffer key(CompiledREDExModel model, CharSequence target, boolean useTier2) {
+		MessageDigest digest = digests.get();
+		digest.update(model.getFingerprint());
+		digest.update((byte)(useTier2 ? 1 : 0));
+		byte[] buffer = hashBuffers.get();
+		int length = target.length();
+		for (int from = 0; from < length; from += HASH_CHUNK_CHARS) {
+			int to = Math.min(length, from + HASH_CHUNK_CHARS);
+			int b = 0;
+			for (int i = from; i < to; i++) {
+				char c = target.charAt(i);
+				buffer[b++] = (byte)(c >>> 8);
+				buffer[b++] = (byte)c;
+			}
+			digest.update(buffer, 0, b);
+		}
+		return ByteBuffer.wrap(digest.digest());
+	}
+
+	/**
+	 * @return A hash of everything about a model which affects its results: its regular expressions, their weights and
+	 *     tiers, and the regular expression engine.
+	 */
+	static byte[] fingerprint(CompiledREDExModel model) {
+		MessageDigest digest = newDigest();
+		update(digest, model.getPatternAdapterClass().getName());
+		List<Collection<? extends WeightedRegEx>> tiers = model.getRegexTiers();
+		update(digest, tiers.size());
+		for (Collection<? extends WeightedRegEx> tier : tiers) {
+			update(digest, tier.size());
+			for (WeightedRegEx wrx : tier) {
+				update(digest, wrx.getRegEx());
+				update(digest, Double.toString(wrx.getWeight()));
+			}
+		}
+		return digest.digest();
+	}
+
+	private static void update(MessageDigest digest, int value) {
+		digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(value).array());
+	}
+
+	// length prefixed, so that no two sequences of strings hash the same bytes
+	private static void update(MessageDigest digest, String s) {
+		byte[] b = s.getBytes(StandardCharsets.UTF_8);
+		update(digest, b.length);
+		digest.update(b);
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private int[] get(ByteBuffer key, CompiledREDExModel model, CharSequence target) {
+		int[] packed;
+		synchronized (entries) {
+			packed = entries.get(key);
+		}
+		if (packed != null) {
+			hits.increment();
+			return packed;
+		}
+		if (directory != null) {
+			packed = read(key);
+			if (packed != null && !fits(model, target, packed)) {
+				diskErrors.increment();
+				LOG.debug("Cannot use cached result, its matches are not in the text or model");
+				packed = null;
+			}
+			if (packed != null) {
+				diskHits.increment();
+				putInMemory(key, packed);
+				return packed;
+			}
+		}
+		misses.increment();
+		return null;
+	}
+
+	private void put(ByteBuffer key, int[] packed) {
+		putInMemory(key, packed);
+		if (directory != null) {
+			write(key, packed);
+		}
+	}
+
+	private void putInMemory(ByteBuffer key, int[] packed) {
+		synchronized (entries) {
+			int[] previous = entries.put(key, packed);
+			if (previous != null) {
+				bytes -= entryBytes(previous);
+			}
+			bytes += entryBytes(packed);
+			Iterator<int[]> eldest = entries.values().iterator();
+			while (eldest.hasNext() && ((maxEntries > 0 && entries.size() > maxEntries) || (maxBytes > 0 && bytes > maxBytes))) {
+				bytes -= entryBytes(eldest.next());
+				eldest.remove();
+				evictions.increment();
+			}
+		}
+	}
+
+	private static long entryBytes(int[] packed) {
+		return ENTRY_OVERHEAD_BYTES + (long)packed.length * Integer.BYTES;
+	}
+
+	/**
+	 * @return The start, end, tier and regular expression index of each match.
+	 */
+	private static int[] pack(MatchList matches) {
+		int[] packed = new int[4 * matches.size()];
+		for (int i = 0, p = 0; i < matches.size(); i++) {
+			packed[p++] = matches.getStart(i);
+			packed[p++] = matches.getEnd(i);
+			packed[p++] = matches.getTier(i);
+			packed[p++] = matches.getRegex(i);
+		}
+		return packed;
+	}
+
+	private static void unpack(CompiledREDExModel model, CharSequence target, int[] packed, MatchList matches) {
+		matches.reset(target);
+		for (int p = 0; p < packed.length; p += 4) {
+			int tier = packed[p + 2];
+			int regex = packed[p + 3];
+			matches.add(packed[p], packed[p + 1], tier, regex, model.getRegEx(tier, regex).getWeight());
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if each match of a result read from disk is within the target and names a regular
+	 *     expression of the model.
+	 */
+	private static boolean fits(CompiledREDExModel model, CharSequence target, int[] packed) {
+		List<Collection<? extends WeightedRegEx>> tiers = model.getRegexTiers();
+		for (int p = 0; p < packed.length; p += 4) {
+			int start = packed[p];
+			int end = packed[p + 1];
+			int tier = packed[p + 2];
+			int regex = packed[p + 3];
+			if (start < 0 || end < start || end > target.length() || tier < 0 || tier >= tiers.size()
+					|| regex < 0 || regex >= tiers.get(tier).size()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private Path file(ByteBuffer key) {
+		StringBuilder hex = new StringBuilder(2 * key.capacity());
+		for (int i = 0; i < key.capacity(); i++) {
+			hex.append(Character.forDigit((key.get(i) >> 4) & 0xF, 16)).append(Character.forDigit(key.get(i) & 0xF, 16));
+		}
+		// spread over subdirectories, so that no directory grows too large
+		return directory.resolve(hex.substring(0, 2)).resolve(hex.toString());
+	}
+
+	private int[] read(ByteBuffer key) {
+		Path file = file(key);
+		try (InputStream is = Files.newInputStream(file); DataInputStream in = new DataInputStream(is)) {
+			int length = in.readInt();
+			// the length is checked against the file, so that a damaged one cannot ask for a huge array
+			if (length < 0 || length % 4 != 0 || (long)length * Integer.BYTES != Files.size(file) - Integer.BYTES) {
+				diskErrors.increment();
+				LOG.debug("Cannot read cached result: " + file + " has a bad length");
+				return null;
+			}
+			int[] packed = new int[length];
+			for (int i = 0; i < packed.length; i++) {
+				packed[i] = in.readInt();
+			}
+			return packed;
+		} catch (NoSuchFileException e) {
+			return null;
+		} catch (IOException e) {
+			diskErrors.increment();
+			LOG.debug("Cannot read cached result: " + e.getMessage());
+			return null;
+		}
+	}
+
+	private void write(ByteBuffer key, int[] packed) {
+		Path file = file(key);
+		try {
+			Files.createDirectories(file.getParent());
+			// written aside then moved, so that a reader never sees a partial result
+			Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+			try {
+				try (OutputStream os = Files.newOutputStream(temp); DataOutputStream out = new DataOutputStream(os)) {
+					out.writeInt(packed.length);
+					for (int value : packed) {
+						out.writeInt(value);
+					}
+				}
+				Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				Files.deleteIfExists(temp);
+			}
+		} catch (IOException e) {
+			diskErrors.increment();
+			LOG.debug("Cannot write cached result: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @return The number of results found in memory.
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * @return The number of results found on disk but not in memory.
+	 */
+	public long getDiskHits() {
+		return diskHits.sum();
+	}
+
+	/**
+	 * @return The number of results which had to be extracted.
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * @return The number of results evicted from memory.
+	 */
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	/**
+	 * @return The number of results which could not be read from or written to disk.
+	 */
+	public long getDiskErrors() {
+		return diskErrors.sum();
+	}
+
+	/**
+	 * Sets the counters of hits, misses, evictions and errors back to zero.
+	 */
+	public void resetCounters() {
+		hits.reset();
+		diskHits.reset();
+		misses.reset();
+		evictions.reset();
+		diskErrors.reset();
+	}
+
+	/**
+	 * @return The number of results held in memory.
+	 */
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	/**
+	 * @return The estimated size of the results held in memory, in bytes.
+	 */
+	public long getBytes() {
+		synchronized (entries) {
+			return bytes;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "ExtractionCache [hits=" + getHits() + ", diskHits=" + getDiskHits() + ", misses=" + getMisses()
+				+ ", evictions=" + getEvictions() + ", entries=" + size() + ", bytes=" + getBytes() + "]";
+	}
+}
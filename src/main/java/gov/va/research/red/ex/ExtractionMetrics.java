@@ -0,0 +1,321 @@
+package gov.va.research.red.ex;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+/**
+ * A registry of extraction metrics for the models of a run. For each regular
+ * expression of a tracked model it counts invocations, matches, timeouts and
+ * the time spent, and keeps the longest single run. For each model it keeps
+ * histograms of the time taken and the number of matches per document. All
+ * counters are striped {@link LongAdder}s, so the threads extracting never
+ * contend on a lock. The metrics can be read through JMX once
+ * {@link #registerMBean(String)} is called, or written as JSON.
+ */
+public class ExtractionMetrics implements ExtractionMetricsMXBean {
+
+	/** The JMX domain of registered metrics. */
+	public static final String MBEAN_DOMAIN = "gov.va.research.red";
+	private static final int HOT_REGEXES = 10;
+
+	private final List<ModelMetrics> models = new CopyOnWriteArrayList<>();
+	private volatile ExtractionCache cache;
+
+	/**
+	 * Starts collecting metrics from a model. A model tracked under the same
+	 * name before, such as the previous version of a reloaded model, is no
+	 * longer reported.
+	 * @param name The name of the model in the metrics, such as its file name.
+	 * @param model The model.
+	 */
+	public void track(String name, CompiledREDExModel model) {
+		ModelMetrics metrics = new ModelMetrics(name, model);
+		models.removeIf((m) -> m.name.equals(name));
+		models.add(metrics);
+		model.setMetrics(metrics);
+	}
+
+	/**
+	 * Reports the hits and misses of a result cache with these metrics.
+	 * @param cache The cache used by the tracked models.
+	 */
+	public void trackCache(ExtractionCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Registers these metrics with the platform MBean server.
+	 * @param name The value of the name key of the MBean's object name.
+	 * @return The object name of the MBean.
+	 * @throws JMException if the MBean cannot be registered.
+	 */
+	public ObjectName registerMBean(String name) throws JMException {
+		ObjectName objectName = new ObjectName(MBEAN_DOMAIN + ":type=ExtractionMetrics,name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		return objectName;
+	}
+
+	/**
+	 * Unregisters an MBean registered by {@link #registerMBean(String)}, if still registered.
+	 * @param objectName The object name of the MBean.
+	 * @throws JMException if the MBean cannot be unregistered.
+	 */
+	public static void unregisterMBean(ObjectName objectName) throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		if (server.isRegistered(objectName)) {
+			server.unregisterMBean(objectName);
+		}
+	}
+
+	@Override
+	public long getDocuments() {
+		long n = 0;
+		for (ModelMetrics model : models) {
+			n += model.documentNanos.getCount();
+		}
+		return n;
+	}
+
+	@Override
+	public long getInvocations() {
+		return sum((model) -> model.invocations);
+	}
+
+	@Override
+	public long getMatches() {
+		return sum((model) -> model.matches);
+	}
+
+	@Override
+	public long getTimeouts() {
+		return sum((model) -> model.timeouts);
+	}
+
+	@Override
+	public long getRegexNanos() {
+		return sum((model) -> model.nanos);
+	}
+
+	@Override
+	public long getCacheHits() {
+		ExtractionCache cache = this.cache;
+		return cache == null ? 0 : cache.getHits() + cache.getDiskHits();
+	}
+
+	@Override
+	public long getCacheMisses() {
+		ExtractionCache cache = this.cache;
+		return cache == null ? 0 : cache.getMisses();
+	}
+
+	private long sum(Function<ModelMetrics, LongAdder[]> counters) {
+		long n = 0;
+		for (ModelMetrics model : models) {
+			for (LongAdder counter : counters.apply(model)) {
+				n += counter.sum();
+			}
+		}
+		return n;
+	}
+
+	@Override
+	public String[] getHotRegexes() {
+		List<Map<String, Object>> regexes = regexSnapshots();
+		String[] hot = new String[Math.min(HOT_REGEXES, regexes.size())];
+		for (int i = 0; i < hot.length; i++) {
+			Map<String, Object> regex = regexes.get(i);
+			hot[i] = regex.get("totalNanos") + " ns, " + regex.get("invocations") + " runs, " + regex.get("timeouts")
+					+ " timeouts: " + regex.get("model") + " tier " + regex.get("tier") + " #" + regex.get("index")
+					+ " " + regex.get("regex");
+		}
+		return hot;
+	}
+
+	@Override
+	public void reset() {
+		for (ModelMetrics model : models) {
+			model.reset();
+		}
+		ExtractionCache cache = this.cache;
+		if (cache != null) {
+			cache.resetCounters();
+		}
+	}
+
+	@Override
+	public String toJson() {
+		Gson gson = new GsonBuilder().setPrettyPrinting().create();
+		return gson.toJson(snapshot());
+	}
+
+	/**
+	 * Writes all metrics as JSON.
+	 * @param path The file to write.
+	 * @throws IOException if the file cannot be written.
+	 */
+	public void dump(Path path) throws IOException {
+		Files.write(path, toJson().getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * @return The metrics of each model, then the metrics of every regular expression, slowest first.
+	 */
+	Map<String, Object> snapshot() {
+		Map<String, Object> snapshot = new LinkedHashMap<>();
+		List<Map<String, Object>> modelSnapshots = new ArrayList<>(models.size());
+		for (ModelMetrics model : models) {
+			Map<String, Object> m = new LinkedHashMap<>();
+			m.put("model", model.name);
+			m.put("documentNanos", model.documentNanos.snapshot());
+			m.put("documentMatches", model.documentMatches.snapshot());
+			modelSnapshots.add(m);
+		}
+		snapshot.put("models", modelSnapshots);
+		ExtractionCache cache = this.cache;
+		if (cache != null) {
+			Map<String, Object> c = new LinkedHashMap<>();
+			c.put("hits", Long.valueOf(cache.getHits()));
+			c.put("diskHits", Long.valueOf(cache.getDiskHits()));
+			c.put("misses", Long.valueOf(cache.getMisses()));
+			c.put("evictions", Long.valueOf(cache.getEvictions()));
+			c.put("diskErrors", Long.valueOf(cache.getDiskErrors()));
+			c.put("entries", Integer.valueOf(cache.size()));
+			c.put("bytes", Long.valueOf(cache.getBytes()));
+			snapshot.put("cache", c);
+		}
+		snapshot.put("regexes", regexSnapshots());
+		return snapshot;
+	}
+
+	private List<Map<String, Object>> regexSnapshots() {
+		List<Map<String, Object>> regexes = new ArrayList<>();
+		for (ModelMetrics model : models) {
+			for (int i = 0; i < model.regexes.length; i++) {
+				long invocations = model.invocations[i].sum();
+				long matches = model.matches[i].sum();
+				long nanos = model.nanos[i].sum();
+				Map<String, Object> r = new LinkedHashMap<>();
+				r.put("model", model.name);
+				r.put("tier", Integer.valueOf(model.tiers[i]));
+				r.put("index", Integer.valueOf(model.indexes[i]));
+				r.put("regex", model.regexes[i]);
+				r.put("invocations", Long.valueOf(invocations));
+				r.put("matches", Long.valueOf(matches));
+				r.put("hitRate", Double.valueOf(invocations == 0 ? 0 : (double) matches / invocations));
+				r.put("timeouts", Long.valueOf(model.timeouts[i].sum()));
+				r.put("totalNanos", Long.valueOf(nanos));
+				r.put("meanNanos", Long.valueOf(invocations == 0 ? 0 : nanos / invocations));
+				r.put("maxNanos", Long.valueOf(model.maxNanos[i].get()));
+				regexes.add(r);
+			}
+		}
+		regexes.sort((a, b) -> Long.compare((Long) b.get("totalNanos"), (Long) a.get("totalNanos")));
+		return regexes;
+	}
+
+	/**
+	 * The counters of one model, updated by the model as it extracts.
+	 */
+	static class ModelMetrics {
+		private final String name;
+		// regular expressions are numbered across tiers, in tier order
+		private final int[] tierOffsets;
+		private final int[] tiers;
+		private final int[] indexes;
+		private final String[] regexes;
+		private final LongAdder[] invocations;
+		private final LongAdder[] matches;
+		private final LongAdder[] nanos;
+		private final LongAdder[] timeouts;
+		private final LongAccumulator[] maxNanos;
+		private final Histogram documentNanos = new Histogram();
+		private final Histogram documentMatches = new Histogram();
+
+		ModelMetrics(String name, CompiledREDExModel model) {
+			this.name = name;
+			List<Collection<? extends WeightedRegEx>> regexTiers = model.getRegexTiers();
+			this.tierOffsets = new int[regexTiers.size()];
+			int n = 0;
+			for (int t = 0; t < regexTiers.size(); t++) {
+				tierOffsets[t] = n;
+				n += regexTiers.get(t).size();
+			}
+			this.tiers = new int[n];
+			this.indexes = new int[n];
+			this.regexes = new String[n];
+			this.invocations = new LongAdder[n];
+			this.matches = new LongAdder[n];
+			this.nanos = new LongAdder[n];
+			this.timeouts = new LongAdder[n];
+			this.maxNanos = new LongAccumulator[n];
+			for (int t = 0; t < regexTiers.size(); t++) {
+				for (int r = 0; r < regexTiers.get(t).size(); r++) {
+					int i = tierOffsets[t] + r;
+					tiers[i] = t;
+					indexes[i] = r;
+					regexes[i] = model.getRegEx(t, r).getRegEx();
+					invocations[i] = new LongAdder();
+					matches[i] = new LongAdder();
+					nanos[i] = new LongAdder();
+					timeouts[i] = new LongAdder();
+					maxNanos[i] = new LongAccumulator(Math::max, 0);
+				}
+			}
+		}
+
+		/**
+		 * Records one run of a regular expression over a document.
+		 */
+		void recordRegex(int tier, int regex, long elapsedNanos, boolean matched, boolean timedOut) {
+			int i = tierOffsets[tier] + regex;
+			invocations[i].increment();
+			nanos[i].add(elapsedNanos);
+			maxNanos[i].accumulate(elapsedNanos);
+			if (matched) {
+				matches[i].increment();
+			}
+			if (timedOut) {
+				timeouts[i].increment();
+			}
+		}
+
+		/**
+		 * Records the extraction of one document.
+		 */
+		void recordDocument(long elapsedNanos, int matchCount) {
+			documentNanos.record(elapsedNanos);
+			documentMatches.record(matchCount);
+		}
+
+		void reset() {
+			for (int i = 0; i < regexes.length; i++) {
+				invocations[i].reset();
+				matches[i].reset();
+				nanos[i].reset();
+				timeouts[i].reset();
+				maxNanos[i].reset();
+			}
+			documentNanos.reset();
+			documentMatches.reset();
+		}
+	}
+}
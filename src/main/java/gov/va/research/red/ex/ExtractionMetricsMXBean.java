@@ -0,0 +1,57 @@
+package gov.va.research.red.ex;
+
+/**
+ * The JMX view of {@link ExtractionMetrics}.
+ */
+public interface ExtractionMetricsMXBean {
+
+	/**
+	 * @return The number of documents processed, summed over all models.
+	 */
+	public long getDocuments();
+
+	/**
+	 * @return The number of times any regular expression was run.
+	 */
+	public long getInvocations();
+
+	/**
+	 * @return The number of times any regular expression produced a match.
+	 */
+	public long getMatches();
+
+	/**
+	 * @return The number of times any regular expression timed out.
+	 */
+	public long getTimeouts();
+
+	/**
+	 * @return The time spent running regular expressions, in nanoseconds.
+	 */
+	public long getRegexNanos();
+
+	/**
+	 * @return The number of results taken from the result cache, in memory or on disk, 0 if there is no cache.
+	 */
+	public long getCacheHits();
+
+	/**
+	 * @return The number of results not found in the result cache, 0 if there is no cache.
+	 */
+	public long getCacheMisses();
+
+	/**
+	 * @return The regular expressions which took the most time, one line each, slowest first.
+	 */
+	public String[] getHotRegexes();
+
+	/**
+	 * @return All metrics, as JSON.
+	 */
+	public String toJson();
+
+	/**
+	 * Sets all counters back to zero.
+	 */
+	public void reset();
+}
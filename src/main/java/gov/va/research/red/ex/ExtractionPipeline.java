@@ -0,0 +1,291 @@
+package gov.va.research.red.ex;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import gov.va.research.red.ex.REDExtractor.DocMatches;
+import gov.va.research.red.ex.REDExtractor.Document;
+
+/**
+ * Extracts information from the documents returned by a database query in
+ * three stages, each on its own threads: a fetcher reads documents from the
+ * result set, workers extract from them, and a writer hands the matches to
+ * a {@link Sink}. The stages are connected by bounded queues, so no more
+ * than a fixed number of documents are held in memory, and a slow stage
+ * holds back the others. The number of documents and the busy time of each
+ * stage are counted, to show where the time goes. Documents already done,
+ * such as those recorded by the {@link Checkpoint} of an interrupted run, can
+ * be skipped as they are fetched.
+ */
+public class ExtractionPipeline {
+	private static final Logger LOG = LoggerFactory.getLogger(ExtractionPipeline.class);
+	public static final int DEFAULT_FETCH_SIZE = 1000;
+
+	// marks the end of a queue
+	private static final Document END_DOCUMENTS = new Document(null, null);
+	private static final DocMatches END_MATCHES = new DocMatches(null, null);
+
+	private final List<CompiledREDExModel> redexs;
+	private final boolean useTier2;
+	private final ExtractionScheduler scheduler;
+	private final int workers;
+	private final int capacity;
+	private final int fetchSize;
+	private final Predicate<String> done;
+	private final Stage fetchStage = new Stage("fetch");
+	private final Stage extractStage = new Stage("extract");
+	private final Stage writeStage = new Stage("write");
+	private final LongAdder matches = new LongAdder();
+	private final LongAdder skipped = new LongAdder();
+
+	/**
+	 * Receives the matches of each document, on the writer thread. The
+	 * matches are held as positions, see {@link REDExtractor#extractPositions}.
+	 */
+	public interface Sink {
+		/**
+		 * @param dm The matches of a document.
+		 * @throws SQLException if the matches cannot be written.
+		 */
+		void write(DocMatches dm) throws SQLException;
+
+		/**
+		 * Writes anything still buffered, called once all documents have been written.
+		 * @throws SQLException if the matches cannot be written.
+		 */
+		void flush() throws SQLException;
+	}
+
+	/**
+	 * @param redexs The models to apply to each document. Matches from all models are combined.
+	 * @param useTier2 if <code>false</code> then only the first tier of each model is used.
+	 * @param workers The number of documents to process concurrently.
+	 * @param capacity The capacity of each queue between stages.
+	 * @param fetchSize The number of rows fetched from the database at a time. Left to the driver if &lt;= 0.
+	 */
+	public ExtractionPipeline(List<CompiledREDExModel> redexs, boolean useTier2, int workers, int capacity, int fetchSize) {
+		this(redexs, useTier2, workers, capacity, fetchSize, null);
+	}
+
+	/**
+	 * @param redexs The models to apply to each document. Matches from all models are combined.
+	 * @param useTier2 if <code>false</code> then only the first tier of each model is used.
+	 * @param workers The number of documents to process concurrently.
+	 * @param capacity The capacity of each queue between stages.
+	 * @param fetchSize The number of rows fetched from the database at a time. Left to the driver if &lt;= 0.
+	 * @param done Tests whether a document ID is already done, so the document is skipped, or <code>null</code> to process all documents.
+	 */
+	public ExtractionPipeline(List<CompiledREDExModel> redexs, boolean useTier2, int workers, int capacity, int fetchSize, Predicate<String> done) {
+		this(redexs, useTier2, ExtractionSchedulers.fixed(workers), capacity, fetchSize, done);
+	}
+
+	/**
+	 * @param redexs The models to apply to each document. Matches from all models are combined.
+	 * @param useTier2 if <code>false</code> then only the first tier of each model is used.
+	 * @param scheduler Runs the stages, with as many workers as its parallelism.
+	 * @param capacity The capacity of each queue between stages.
+	 * @param fetchSize The number of rows fetched from the database at a time. Left to the driver if &lt;= 0.
+	 * @param done Tests whether a document ID is already done, so the document is skipped, or <code>null</code> to process all documents.
+	 */
+	public ExtractionPipeline(List<CompiledREDExModel> redexs, boolean useTier2, ExtractionScheduler scheduler, int capacity, int fetchSize, Predicate<String> done) {
+		this.redexs = new ArrayList<>(redexs);
+		this.useTier2 = useTier2;
+		this.scheduler = scheduler;
+		this.workers = scheduler.getParallelism();
+		this.capacity = Math.max(1, capacity);
+		this.fetchSize = fetchSize;
+		this.done = done;
+	}
+
+	/**
+	 * Runs a query and extracts information from the documents it returns.
+	 * @param conn The connection to query. The sink should write on another connection, as not all drivers allow
+	 *     statements to run while the result set is open.
+	 * @param query A query returning 2 values per row: document ID and document text.
+	 * @param sink Receives the matches of each document, in order of completion.
+	 * @throws SQLException if the query fails or the sink fails.
+	 */
+	public void run(Connection conn, String query, Sink sink) throws SQLException {
+		BlockingQueue<Document> documents = new ArrayBlockingQueue<>(capacity);
+		BlockingQueue<DocMatches> results = new ArrayBlockingQueue<>(capacity);
+		AtomicInteger running = new AtomicInteger(workers);
+		ExecutorService executor = scheduler.newExecutor(workers + 2);
+		CompletionService<Void> stages = new ExecutorCompletionService<>(executor);
+		long started = System.nanoTime();
+		try {
+			stages.submit(() -> fetch(conn, query, documents));
+			for (int i = 0; i < workers; i++) {
+				stages.submit(() -> extract(documents, results, running));
+			}
+			stages.submit(() -> write(results, sink));
+			for (int i = 0; i < workers + 2; i++) {
+				stages.take().get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof SQLException) {
+				throw (SQLException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		} finally {
+			// stops the other stages when one has failed
+			executor.shutdownNow();
+		}
+		LOG.info("Pipeline finished in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) + " ms: "
+				+ fetchStage + "; " + extractStage + "; " + writeStage + ", " + matches.sum() + " matches"
+				+ (done == null ? "" : ", " + skipped.sum() + " documents already done"));
+	}
+
+	private Void fetch(Connection conn, String query, BlockingQueue<Document> documents) throws SQLException, InterruptedException {
+		try (PreparedStatement ps = conn.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+			if (fetchSize > 0) {
+				ps.setFetchSize(fetchSize);
+			}
+			long start = System.nanoTime();
+			try (ResultSet rs = ps.executeQuery()) {
+				while (rs.next()) {
+					if (done != null && done.test(rs.getString(1))) {
+						skipped.increment();
+						continue;
+					}
+					Document document = new Document(rs.getString(1), rs.getString(2));
+					fetchStage.record(System.nanoTime() - start);
+					put(documents, document);
+					start = System.nanoTime();
+				}
+			}
+		}
+		put(documents, END_DOCUMENTS);
+		return null;
+	}
+
+	private Void extract(BlockingQueue<Document> documents, BlockingQueue<DocMatches> results, AtomicInteger running) throws InterruptedException {
+		Document document;
+		while ((document = scheduler.block(documents::take)) != END_DOCUMENTS) {
+			long start = System.nanoTime();
+			DocMatches dm = REDExtractor.extractPositions(redexs, document, useTier2);
+			extractStage.record(System.nanoTime() - start);
+			put(results, dm);
+		}
+		// leave the end for the other workers
+		put(documents, END_DOCUMENTS);
+		if (running.decrementAndGet() == 0) {
+			put(results, END_MATCHES);
+		}
+		return null;
+	}
+
+	private Void write(BlockingQueue<DocMatches> results, Sink sink) throws SQLException, InterruptedException {
+		DocMatches dm;
+		while ((dm = scheduler.block(results::take)) != END_MATCHES) {
+			long start = System.nanoTime();
+			sink.write(dm);
+			writeStage.record(System.nanoTime() - start);
+			matches.add(dm.size());
+		}
+		sink.flush();
+		return null;
+	}
+
+	private <E> void put(BlockingQueue<E> queue, E e) throws InterruptedException {
+		scheduler.block(() -> {
+			queue.put(e);
+			return null;
+		});
+	}
+
+	/**
+	 * @return The number of documents skipped as already done.
+	 */
+	public long getSkipped() {
+		return skipped.sum();
+	}
+
+	/**
+	 * @return The counters of the stage reading documents from the database.
+	 */
+	public Stage getFetchStage() {
+		return fetchStage;
+	}
+
+	/**
+	 * @return The counters of the stage extracting from documents, summed over all workers.
+	 */
+	public Stage getExtractStage() {
+		return extractStage;
+	}
+
+	/**
+	 * @return The counters of the stage writing matches.
+	 */
+	public Stage getWriteStage() {
+		return writeStage;
+	}
+
+	/**
+	 * @return The number of matches written.
+	 */
+	public long getMatches() {
+		return matches.sum();
+	}
+
+	/**
+	 * The number of documents a stage has processed, and the time it spent
+	 * processing them, not counting time spent waiting on other stages.
+	 */
+	public static class Stage {
+		private final String name;
+		private final LongAdder documents = new LongAdder();
+		private final LongAdder busyNanos = new LongAdder();
+
+		Stage(String name) {
+			this.name = name;
+		}
+
+		void record(long elapsedNanos) {
+			documents.increment();
+			busyNanos.add(elapsedNanos);
+		}
+
+		public long getDocuments() {
+			return documents.sum();
+		}
+
+		public long getBusyNanos() {
+			return busyNanos.sum();
+		}
+
+		/**
+		 * @return The documents processed per second of busy time, per thread for a stage with several threads.
+		 */
+		public double getThroughput() {
+			long nanos = getBusyNanos();
+			return nanos == 0 ? 0 : getDocuments() * (double) TimeUnit.SECONDS.toNanos(1) / nanos;
+		}
+
+		@Override
+		public String toString() {
+			return name + " " + getDocuments() + " documents in " + TimeUnit.NANOSECONDS.toMillis(getBusyNanos())
+					+ " ms (" + Math.round(getThroughput()) + " documents/s)";
+		}
+	}
+}
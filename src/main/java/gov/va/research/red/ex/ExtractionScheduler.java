@@ -0,0 +1,58 @@
+package gov.va.research.red.ex;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Decides the threads that extraction and training run on: how many tasks
+ * run at once, the executors that run them, and how a task waits, such as
+ * for the next document of a pipeline. Implementations are created by
+ * {@link ExtractionSchedulers}.
+ */
+public interface ExtractionScheduler {
+
+	/**
+	 * @return The number of tasks to run at once.
+	 */
+	int getParallelism();
+
+	/**
+	 * Creates an executor for one job. The caller shuts the executor down when the job ends.
+	 * @param threads The largest number of tasks of the job to run at once. Waiting tasks count.
+	 * @return The executor.
+	 */
+	ExecutorService newExecutor(int threads);
+
+	/**
+	 * Waits for an action which blocks, such as taking from a queue, in the
+	 * way suited to the threads of this scheduler.
+	 * @param action The action.
+	 * @return The result of the action.
+	 * @throws InterruptedException if the wait is interrupted.
+	 */
+	<T> T block(BlockingAction<T> action) throws InterruptedException;
+
+	/**
+	 * Runs a computation whose parallel streams, such as those of training,
+	 * must run with the parallelism of this scheduler rather than in the
+	 * common pool.
+	 * @param task The computation.
+	 * @return The result of the computation.
+	 * @throws Exception if the computation fails.
+	 */
+	<T> T compute(Callable<T> task) throws Exception;
+
+	/**
+	 * @return <code>true</code> if the calling thread runs a computation of
+	 *     this scheduler, started by {@link #compute(Callable)}, so that its
+	 *     parallel streams already run with the parallelism of this scheduler.
+	 */
+	boolean isComputing();
+
+	/**
+	 * An action which may block.
+	 */
+	interface BlockingAction<T> {
+		T run() throws InterruptedException;
+	}
+}
@@ -0,0 +1,279 @@
+package gov.va.research.red.ex;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates {@link ExtractionScheduler}s.
+ * <ul>
+ * <li><b>fixed</b>: a fixed pool of daemon threads per job, the threads block as they wait. The default of
+ * {@link REDExtractor}, {@link REDExFactory} and {@link REDExCrossValidator}.</li>
+ * <li><b>forkjoin</b>: a ForkJoinPool per job, whose tasks wait as managed blockers, so the pool can add threads
+ * while tasks wait instead of leaving processors idle.</li>
+ * <li><b>virtual</b>: a virtual thread per task, limited to the parallelism at once. Needs Java 21 or later.</li>
+ * </ul>
+ * Parallel streams, as used by training, run in a ForkJoinPool of the
+ * scheduler's parallelism in every case.
+ */
+public class ExtractionSchedulers {
+
+	public static final String FIXED = "fixed";
+	public static final String FORK_JOIN = "forkjoin";
+	public static final String VIRTUAL = "virtual";
+
+	private ExtractionSchedulers() {
+	}
+
+	/**
+	 * @param name {@value #FIXED}, {@value #FORK_JOIN} or {@value #VIRTUAL}, ignoring case.
+	 * @param parallelism The number of tasks to run at once.
+	 * @return The scheduler.
+	 * @throws IllegalArgumentException if the name is not known.
+	 * @throws UnsupportedOperationException if the scheduler is not supported by this Java runtime.
+	 */
+	public static ExtractionScheduler forName(String name, int parallelism) {
+		switch (name.toLowerCase()) {
+		case FIXED:
+			return fixed(parallelism);
+		case FORK_JOIN:
+			return forkJoin(parallelism);
+		case VIRTUAL:
+			return virtualThreads(parallelism);
+		default:
+			throw new IllegalArgumentException("Unknown scheduler '" + name + "', must be one of " + FIXED + ", " + FORK_JOIN + " or " + VIRTUAL);
+		}
+	}
+
+	/**
+	 * @param parallelism The number of tasks to run at once.
+	 * @return A scheduler running each job on a fixed pool of daemon threads.
+	 */
+	public static ExtractionScheduler fixed(int parallelism) {
+		return new Fixed(parallelism);
+	}
+
+	/**
+	 * @param parallelism The number of tasks to run at once.
+	 * @return A scheduler running each job on a ForkJoinPool, whose tasks wait as managed blockers.
+	 */
+	public static ExtractionScheduler forkJoin(int parallelism) {
+		return new ForkJoin(parallelism);
+	}
+
+	/**
+	 * @param parallelism The number of tasks to run at once.
+	 * @return A scheduler running each task on a virtual thread.
+	 * @throws UnsupportedOperationException if this Java runtime has no virtual threads.
+	 */
+	public static ExtractionScheduler virtualThreads(int parallelism) {
+		return new Virtual(parallelism);
+	}
+
+	private static abstract class Base implements ExtractionScheduler {
+		private final int parallelism;
+		// the pools of the computations running
+		private final Set<ForkJoinPool> computing = ConcurrentHashMap.newKeySet();
+
+		Base(int parallelism) {
+			if (parallelism < 1) {
+				throw new IllegalArgumentException("parallelism must be at least 1: " + parallelism);
+			}
+			this.parallelism = parallelism;
+		}
+
+		@Override
+		public int getParallelism() {
+			return parallelism;
+		}
+
+		@Override
+		public <T> T block(BlockingAction<T> action) throws InterruptedException {
+			return action.run();
+		}
+
+		@Override
+		public <T> T compute(Callable<T> task) throws Exception {
+			ForkJoinPool pool = new ForkJoinPool(parallelism);
+			computing.add(pool);
+			try {
+				// parallel streams run in the pool of the task that starts them
+				ForkJoinTask<T> submitted = pool.submit(task);
+				try {
+					return submitted.get();
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof Exception) {
+						throw (Exception)e.getCause();
+					}
+					throw e;
+				}
+			} finally {
+				computing.remove(pool);
+				pool.shutdownNow();
+			}
+		}
+
+		@Override
+		public boolean isComputing() {
+			ForkJoinPool pool = ForkJoinTask.getPool();
+			return pool != null && computing.contains(pool);
+		}
+
+		@Override
+		public String toString() {
+			return getClass().getSimpleName().toLowerCase() + " [parallelism=" + parallelism + "]";
+		}
+	}
+
+	private static class Fixed extends Base {
+		Fixed(int parallelism) {
+			super(parallelism);
+		}
+
+		@Override
+		public ExecutorService newExecutor(int threads) {
+			return Executors.newFixedThreadPool(threads, (r) -> {
+				Thread t = Executors.defaultThreadFactory().newThread(r);
+				t.setDaemon(true);
+				return t;
+			});
+		}
+	}
+
+	private static class ForkJoin extends Base {
+		ForkJoin(int parallelism) {
+			super(parallelism);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * Tasks which wait do not count, the pool adds threads while they wait.
+		 */
+		@Override
+		public ExecutorService newExecutor(int threads) {
+			return new ForkJoinPool(Math.min(threads, getParallelism()));
+		}
+
+		@Override
+		public <T> T block(BlockingAction<T> action) throws InterruptedException {
+			ActionBlocker<T> blocker = new ActionBlocker<>(action);
+			ForkJoinPool.managedBlock(blocker);
+			return blocker.result;
+		}
+	}
+
+	private static class ActionBlocker<T> implements ForkJoinPool.ManagedBlocker {
+		private final ExtractionScheduler.BlockingAction<T> action;
+		private T result;
+		private boolean done;
+
+		ActionBlocker(ExtractionScheduler.BlockingAction<T> action) {
+			this.action = action;
+		}
+
+		@Override
+		public boolean block() throws InterruptedException {
+			result = action.run();
+			done = true;
+			return true;
+		}
+
+		@Override
+		public boolean isReleasable() {
+			return done;
+		}
+	}
+
+	private static class Virtual extends Base {
+		Virtual(int parallelism) {
+			super(parallelism);
+			// fail now rather than on the first job
+			newVirtualThreadPerTaskExecutor().shutdown();
+		}
+
+		@Override
+		public ExecutorService newExecutor(int threads) {
+			return new LimitedExecutor(newVirtualThreadPerTaskExecutor(), threads);
+		}
+
+		// Executors.newVirtualThreadPerTaskExecutor() is called reflectively, as it is not in Java 8
+		private static ExecutorService newVirtualThreadPerTaskExecutor() {
+			try {
+				return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+			} catch (NoSuchMethodException e) {
+				throw new UnsupportedOperationException("Virtual threads need Java 21 or later, this is Java " + System.getProperty("java.version"));
+			} catch (IllegalAccessException | InvocationTargetException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	/**
+	 * Runs no more than a fixed number of tasks of an executor at once.
+	 */
+	private static class LimitedExecutor extends AbstractExecutorService {
+		private final ExecutorService executor;
+		private final Semaphore permits;
+
+		LimitedExecutor(ExecutorService executor, int permits) {
+			this.executor = executor;
+			this.permits = new Semaphore(permits);
+		}
+
+		@Override
+		public void execute(Runnable command) {
+			executor.execute(() -> {
+				try {
+					permits.acquire();
+				} catch (InterruptedException e) {
+					// shut down before the task started
+					if (command instanceof Future) {
+						((Future<?>)command).cancel(false);
+					}
+					return;
+				}
+				try {
+					command.run();
+				} finally {
+					permits.release();
+				}
+			});
+		}
+
+		@Override
+		public void shutdown() {
+			executor.shutdown();
+		}
+
+		@Override
+		public List<Runnable> shutdownNow() {
+			return executor.shutdownNow();
+		}
+
+		@Override
+		public boolean isShutdown() {
+			return executor.isShutdown();
+		}
+
+		@Override
+		public boolean isTerminated() {
+			return executor.isTerminated();
+		}
+
+		@Override
+		public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+			return executor.awaitTermination(timeout, unit);
+		}
+	}
+}
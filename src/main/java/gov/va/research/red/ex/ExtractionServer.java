@@ -0,0 +1,552 @@
+package gov.va.research.red.ex;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import gov.va.research.red.MatchedElement;
+import gov.va.research.red.ex.REDExtractor.DocMatches;
+import gov.va.research.red.ex.REDExtractor.Document;
+
+/**
+ * Keeps compiled models resident and extracts from documents sent over HTTP
+ * on the loopback interface, so that interactive tools do not pay for a JVM
+ * start, a model load and pattern compilation on every request.
+ * <p>
+ * Requests arriving together are gathered into micro-batches: the first
+ * request of a batch waits at most a fixed time for others, up to a number
+ * of documents, and the documents of the batch are shared out among the
+ * workers of an {@link ExtractionScheduler}. Each batch takes the models
+ * current when it starts.
+ * <p>
+ * The model files are watched, and when one changes all models are loaded
+ * and compiled again, then swapped in at once. Batches already started
+ * finish with the models they took, so no request is dropped, and a model
+ * file which cannot be loaded, such as one still being written, leaves the
+ * current models in place.
+ * <p>
+ * The API:
+ * <ul>
+ * <li><code>POST /extract</code> with <code>{"documents": [{"id": "1", "text": "..."}]}</code> returns
+ * <code>{"generation": 1, "documents": [{"id": "1", "matches": [{"start": 0, "end": 3, "text": "...", "confidence": 1.0}]}]}</code>,
+ * where the generation counts the loads of the models which were used.</li>
+ * <li><code>GET /health</code> returns the generation and the number of models.</li>
+ * <li><code>POST /reload</code> loads the models again now.</li>
+ * </ul>
+ */
+public class ExtractionServer implements Closeable {
+	private static final Logger LOG = LoggerFactory.getLogger(ExtractionServer.class);
+	public static final int DEFAULT_MAX_BATCH = 64;
+	public static final long DEFAULT_MAX_WAIT_MICROS = 500;
+	// lets a model file being written settle before it is loaded
+	private static final long RELOAD_DELAY_MILLIS = 250;
+
+	/**
+	 * Loads and compiles the models of a server.
+	 */
+	public interface ModelLoader {
+		/**
+		 * @param modelFiles The model files, in priority order.
+		 * @return The compiled models.
+		 * @throws IOException if a model cannot be read.
+		 */
+		List<CompiledREDExModel> load(Path[] modelFiles) throws IOException;
+	}
+
+	/**
+	 * The models of one load, which a batch uses throughout.
+	 */
+	private static class Models {
+		final List<CompiledREDExModel> redexs;
+		final long generation;
+
+		Models(List<CompiledREDExModel> redexs, long generation) {
+			this.redexs = redexs;
+			this.generation = generation;
+		}
+	}
+
+	/**
+	 * The documents of one call, and their results as they are filled in.
+	 */
+	private static class Request {
+		final List<Document> documents;
+		final DocMatches[] results;
+		final AtomicInteger remaining;
+		final CompletableFuture<Long> done = new CompletableFuture<>();
+
+		Request(List<Document> documents) {
+			this.documents = documents;
+			this.results = new DocMatches[documents.size()];
+			this.remaining = new AtomicInteger(documents.size());
+		}
+	}
+
+	private final Path[] modelFiles;
+	private final ModelLoader loader;
+	private final boolean useTier2;
+	private final ExtractionScheduler scheduler;
+	private final int maxBatch;
+	private final long maxWaitNanos;
+	private final AtomicReference<Models> models = new AtomicReference<>();
+	private final LinkedBlockingQueue<Request> requests = new LinkedBlockingQueue<>();
+	private final Gson gson = new Gson();
+	private ExecutorService workers;
+	private ExecutorService handlers;
+	private HttpServer http;
+	private Thread dispatcher;
+	private Thread watcher;
+	private WatchService watchService;
+	private volatile boolean closed;
+	private final CountDownLatch closeLatch = new CountDownLatch(1);
+
+	/**
+	 * Loads the models, ready to {@link #start(int)}.
+	 * @param modelFiles The model files, in priority order.
+	 * @param loader Loads and compiles the models, at start and when a model file changes.
+	 * @param useTier2 if <code>false</code> then only the first tier of each model is used.
+	 * @param scheduler Runs the extraction of each batch, as many documents at once as its parallelism.
+	 * @param maxBatch The largest number of documents gathered into one batch, unless a single request has more.
+	 * @param maxWaitMicros The longest time the first request of a batch waits for others, in microseconds.
+	 * @throws IOException if the models cannot be loaded.
+	 */
+	public ExtractionServer(Path[] modelFiles, ModelLoader loader, boolean useTier2, ExtractionScheduler scheduler, int maxBatch, long maxWaitMicros) throws IOException {
+		this.modelFiles = modelFiles.clone();
+		this.loader = loader;
+		this.useTier2 = useTier2;
+		this.scheduler = scheduler;
+		this.maxBatch = Math.max(1, maxBatch);
+		this.maxWaitNanos = TimeUnit.MICROSECONDS.toNanos(Math.max(0, maxWaitMicros));
+		this.models.set(new Models(loader.load(this.modelFiles), 1));
+	}
+
+	/**
+	 * Starts serving, and watching the model files.
+	 * @param port The port to listen on, on the loopback interface, or 0 for any free port.
+	 * @return The address listened on.
+	 * @throws IOException if the port cannot be bound or the model files cannot be watched.
+	 */
+	public synchronized InetSocketAddress start(int port) throws IOException {
+		workers = scheduler.newExecutor(scheduler.getParallelism());
+		// handlers only wait for their batches
+		handlers = Executors.newCachedThreadPool((r) -> {
+			Thread t = Executors.defaultThreadFactory().newThread(r);
+			t.setDaemon(true);
+			return t;
+		});
+		dispatcher = daemon(this::dispatch, "extraction-server-dispatcher");
+		dispatcher.start();
+		watchService = FileSystems.getDefault().newWatchService();
+		Set<Path> directories = new HashSet<>();
+		for (Path modelFile : modelFiles) {
+			Path directory = modelFile.toAbsolutePath().getParent();
+			if (directories.add(directory)) {
+				// a model replaced by a rename is created rather than modified
+				directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+			}
+		}
+		watcher = daemon(this::watch, "extraction-server-watcher");
+		watcher.start();
+		http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		http.setExecutor(handlers);
+		http.createContext("/extract", this::handleExtract);
+		http.createContext("/health", this::handleHealth);
+		http.createContext("/reload", this::handleReload);
+		http.start();
+		LOG.info("Extraction server listening on " + http.getAddress() + " with " + scheduler);
+		return http.getAddress();
+	}
+
+	private static Thread daemon(Runnable runnable, String name) {
+		Thread t = new Thread(runnable, name);
+		t.setDaemon(true);
+		return t;
+	}
+
+	/**
+	 * Extracts information from documents, in a batch with any other documents sent at about the same time.
+	 * @param documents The documents.
+	 * @return The matches of each document, in the order of the documents.
+	 * @throws InterruptedException if interrupted while waiting for the batch.
+	 */
+	public List<DocMatches> extract(List<Document> documents) throws InterruptedException {
+		Request request = submit(documents);
+		try {
+			request.done.get();
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+		List<DocMatches> results = new ArrayList<>(request.results.length);
+		Collections.addAll(results, request.results);
+		return results;
+	}
+
+	private Request submit(List<Document> documents) {
+		Request request = new Request(documents);
+		if (documents.isEmpty()) {
+			request.done.complete(models.get().generation);
+		} else if (closed) {
+			request.done.completeExceptionally(new IllegalStateException("The extraction server is closed"));
+		} else {
+			requests.add(request);
+			// close() may have drained the queue between the check and the add
+			if (closed && requests.remove(request)) {
+				request.done.completeExceptionally(new IllegalStateException("The extraction server is closed"));
+			}
+		}
+		return request;
+	}
+
+	private void dispatch() {
+		List<Request> batch = new ArrayList<>();
+		try {
+			while (!closed) {
+				batch.add(requests.take());
+				int documents = batch.get(0).documents.size();
+				long deadline = System.nanoTime() + maxWaitNanos;
+				while (documents < maxBatch) {
+					Request next = requests.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+					if (next == null) {
+						break;
+					}
+					batch.add(next);
+					documents += next.documents.size();
+				}
+				run(batch, documents);
+				batch = new ArrayList<>();
+			}
+		} catch (InterruptedException e) {
+			// closed
+		} finally {
+			failAll(batch);
+		}
+	}
+
+	/**
+	 * Shares the documents of a batch out among the workers.
+	 */
+	private void run(List<Request> batch, int documents) {
+		Models current = models.get();
+		int tasks = Math.min(documents, scheduler.getParallelism());
+		int perTask = (documents + tasks - 1) / tasks;
+		int[] requestIndexes = new int[documents];
+		int[] documentIndexes = new int[documents];
+		int d = 0;
+		for (int r = 0; r < batch.size(); r++) {
+			for (int i = 0; i < batch.get(r).documents.size(); i++) {
+				requestIndexes[d] = r;
+				documentIndexes[d] = i;
+				d++;
+			}
+		}
+		for (int from = 0; from < documents; from += perTask) {
+			int start = from;
+			int end = Math.min(documents, from + perTask);
+			try {
+				workers.execute(() -> {
+					for (int i = start; i < end; i++) {
+						Request request = batch.get(requestIndexes[i]);
+						try {
+							request.results[documentIndexes[i]] = REDExtractor.extract(current.redexs, request.documents.get(documentIndexes[i]), useTier2);
+							if (request.remaining.decrementAndGet() == 0) {
+								request.done.complete(current.generation);
+							}
+						} catch (RuntimeException | Error e) {
+							request.done.completeExceptionally(e);
+						}
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				// the workers were shut down by close()
+				for (int i = start; i < end; i++) {
+					batch.get(requestIndexes[i]).done.completeExceptionally(e);
+				}
+			}
+		}
+	}
+
+	private void failAll(List<Request> batch) {
+		IllegalStateException closedException = new IllegalStateException("The extraction server is closed");
+		for (Request request : batch) {
+			request.done.completeExceptionally(closedException);
+		}
+		Request request;
+		while ((request = requests.poll()) != null) {
+			request.done.completeExceptionally(closedException);
+		}
+	}
+
+	private void watch() {
+		Set<Path> names = new HashSet<>();
+		for (Path modelFile : modelFiles) {
+			names.add(modelFile.getFileName());
+		}
+		try {
+			while (!closed) {
+				WatchKey key = watchService.take();
+				boolean changed = changed(key, names);
+				if (changed) {
+					// wait for the writes to settle, taking any further events with them
+					Thread.sleep(RELOAD_DELAY_MILLIS);
+					while ((key = watchService.poll()) != null) {
+						changed(key, names);
+					}
+					reload();
+				}
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			// closed
+		}
+	}
+
+	private static boolean changed(WatchKey key, Set<Path> names) {
+		boolean changed = false;
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW || names.contains(event.context())) {
+				changed = true;
+			}
+		}
+		key.reset();
+		return changed;
+	}
+
+	/**
+	 * Loads and compiles the models again, and swaps them in for the batches which start after.
+	 * @return <code>true</code> if the models were swapped, <code>false</code> if they could not be loaded and the
+	 *     current models are kept.
+	 */
+	public synchronized boolean reload() {
+		try {
+			List<CompiledREDExModel> redexs = loader.load(modelFiles);
+			Models previous = models.get();
+			models.set(new Models(redexs, previous.generation + 1));
+			LOG.info("Loaded models, generation " + (previous.generation + 1));
+			return true;
+		} catch (IOException | RuntimeException e) {
+			LOG.warn("Could not load models, keeping generation " + models.get().generation + ": " + e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * @return The number of times the models have been loaded.
+	 */
+	public long getGeneration() {
+		return models.get().generation;
+	}
+
+	private void handleExtract(HttpExchange exchange) throws IOException {
+		try {
+			if (!"POST".equals(exchange.getRequestMethod())) {
+				respond(exchange, 405, error("Use POST"));
+				return;
+			}
+			ExtractRequest body;
+			try (Reader reader = new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8)) {
+				body = gson.fromJson(reader, ExtractRequest.class);
+			} catch (JsonParseException e) {
+				respond(exchange, 400, error("Malformed request: " + e.getMessage()));
+				return;
+			}
+			if (body == null || body.documents == null) {
+				respond(exchange, 400, error("The request has no documents"));
+				return;
+			}
+			List<Document> documents = new ArrayList<>(body.documents.size());
+			for (ExtractRequest.Doc doc : body.documents) {
+				documents.add(new Document(doc.id, doc.text == null ? "" : doc.text));
+			}
+			Request request = submit(documents);
+			long generation;
+			try {
+				generation = request.done.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				respond(exchange, 503, error("Interrupted"));
+				return;
+			} catch (ExecutionException e) {
+				LOG.warn("Extraction failed", e.getCause());
+				respond(exchange, 500, error(String.valueOf(e.getCause())));
+				return;
+			}
+			respond(exchange, 200, toResponse(generation, request.results));
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private void handleHealth(HttpExchange exchange) throws IOException {
+		try {
+			Models current = models.get();
+			Health health = new Health();
+			health.generation = current.generation;
+			health.models = current.redexs.size();
+			respond(exchange, 200, health);
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private void handleReload(HttpExchange exchange) throws IOException {
+		try {
+			if (!"POST".equals(exchange.getRequestMethod())) {
+				respond(exchange, 405, error("Use POST"));
+				return;
+			}
+			if (reload()) {
+				handleHealth(exchange);
+			} else {
+				respond(exchange, 500, error("Could not load the models, see the server log"));
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private static ExtractResponse toResponse(long generation, DocMatches[] results) {
+		ExtractResponse response = new ExtractResponse();
+		response.generation = generation;
+		response.documents = new ArrayList<>(results.length);
+		for (DocMatches dm : results) {
+			ExtractResponse.Doc doc = new ExtractResponse.Doc();
+			doc.id = dm.getDocumentId();
+			List<MatchedElement> mes = new ArrayList<>(dm.getMatchedElements());
+			mes.sort((a, b) -> a.getStartPos() != b.getStartPos() ? Integer.compare(a.getStartPos(), b.getStartPos()) : Integer.compare(a.getEndPos(), b.getEndPos()));
+			doc.matches = new ArrayList<>(mes.size());
+			for (MatchedElement me : mes) {
+				ExtractResponse.Match match = new ExtractResponse.Match();
+				match.start = me.getStartPos();
+				match.end = me.getEndPos();
+				match.text = me.getMatch();
+				match.confidence = me.getConfidence();
+				doc.matches.add(match);
+			}
+			response.documents.add(doc);
+		}
+		return response;
+	}
+
+	private static ErrorResponse error(String message) {
+		ErrorResponse error = new ErrorResponse();
+		error.error = message;
+		return error;
+	}
+
+	private void respond(HttpExchange exchange, int status, Object body) throws IOException {
+		byte[] bytes = gson.toJson(body).getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream os = exchange.getResponseBody()) {
+			os.write(bytes);
+		}
+	}
+
+	/**
+	 * Stops serving. Requests waiting for a batch fail, batches already started finish.
+	 */
+	@Override
+	public synchronized void close() {
+		closed = true;
+		if (http != null) {
+			http.stop(0);
+		}
+		if (dispatcher != null) {
+			dispatcher.interrupt();
+		}
+		if (watchService != null) {
+			try {
+				watchService.close();
+			} catch (IOException e) {
+				LOG.debug("Could not close the model file watcher: " + e.getMessage());
+			}
+		}
+		if (workers != null) {
+			workers.shutdown();
+		}
+		if (handlers != null) {
+			handlers.shutdown();
+		}
+		failAll(Collections.<Request>emptyList());
+		closeLatch.countDown();
+	}
+
+	/**
+	 * Waits until the server is closed.
+	 * @throws InterruptedException if interrupted while waiting.
+	 */
+	public void awaitClose() throws InterruptedException {
+		closeLatch.await();
+	}
+
+	// the JSON bodies, mapped by Gson
+
+	static class ExtractRequest {
+		List<Doc> documents;
+
+		static class Doc {
+			String id;
+			String text;
+		}
+	}
+
+	static class ExtractResponse {
+		long generation;
+		List<Doc> documents;
+
+		static class Doc {
+			String id;
+			List<Match> matches;
+		}
+
+		static class Match {
+			int start;
+			int end;
+			String text;
+			double confidence;
+		}
+	}
+
+	static class Health {
+		long generation;
+		int models;
+	}
+
+	static class ErrorResponse {
+		String error;
+	}
+}
@@ -0,0 +1,88 @@
+package gov.va.research.red.ex;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of non-negative values, with one bucket per power of
+ * two. Bucket <code>i</code> counts the values below <code>2^i</code> and
+ * at least <code>2^(i-1)</code>, bucket 0 counts zeros.
+ */
+class Histogram {
+
+	private static final int BUCKETS = 64;
+
+	private final LongAdder[] buckets = new LongAdder[BUCKETS];
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	Histogram() {
+		for (int i = 0; i < BUCKETS; i++) {
+			buckets[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * @param value The value to count, negative values count as zero.
+	 */
+	void record(long value) {
+		long v = Math.max(0, value);
+		buckets[Math.min(BUCKETS - 1, BUCKETS - Long.numberOfLeadingZeros(v))].increment();
+		count.increment();
+		sum.add(v);
+		max.accumulate(v);
+	}
+
+	/**
+	 * Sets all counts back to zero. Values recorded concurrently may or may not be kept.
+	 */
+	void reset() {
+		for (LongAdder bucket : buckets) {
+			bucket.reset();
+		}
+		count.reset();
+		sum.reset();
+		max.reset();
+	}
+
+	long getCount() {
+		return count.sum();
+	}
+
+	long getSum() {
+		return sum.sum();
+	}
+
+	long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @return The counts of the non-empty buckets, keyed by the exclusive upper bound of each bucket.
+	 */
+	Map<String, Long> getBuckets() {
+		Map<String, Long> nonEmpty = new LinkedHashMap<>();
+		for (int i = 0; i < BUCKETS; i++) {
+			long n = buckets[i].sum();
+			if (n > 0) {
+				nonEmpty.put("<" + (i == BUCKETS - 1 ? "inf" : Long.toString(1L << i)), Long.valueOf(n));
+			}
+		}
+		return nonEmpty;
+	}
+
+	/**
+	 * @return The count, sum, max and buckets of the histogram.
+	 */
+	Map<String, Object> snapshot() {
+		Map<String, Object> snapshot = new LinkedHashMap<>();
+		snapshot.put("count", Long.valueOf(getCount()));
+		snapshot.put("sum", Long.valueOf(getSum()));
+		snapshot.put("max", Long.valueOf(getMax()));
+		snapshot.put("buckets", getBuckets());
+		return snapshot;
+	}
+}
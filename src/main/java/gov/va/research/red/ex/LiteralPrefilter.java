@@ -0,0 +1,334 @@
+/*
+ *  Copyright 2015 United States Department of Veterans Affairs,
+ *		Health Services Research & Development Service
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package gov.va.research.red.ex;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import gov.va.research.red.Token;
+import gov.va.research.red.TokenType;
+import gov.va.research.red.regex.AhoCorasick;
+
+/**
+ * Decides, with a single scan of a document, which regular expressions of a
+ * model cannot possibly match it. Each regular expression is reduced to the
+ * literal words that every match of it must contain. A regular expression
+ * only needs to be run against a document containing all of its literals.
+ * Regular expressions for which no literals can be determined are always run.
+ */
+class LiteralPrefilter {
+
+	/** Literals shorter than this are too common to be worth filtering on. */
+	static final int MIN_LITERAL_LENGTH = 2;
+
+	private final AhoCorasick automaton;
+	// literal ids required by each regex, indexed by tier, then by regex
+	private final int[][][] required;
+
+	/**
+	 * @param tiers The regular expressions of each tier, in the order they are applied.
+	 */
+	LiteralPrefilter(List<? extends List<? extends WeightedRegEx>> tiers) {
+		Map<String, Integer> literalIds = new HashMap<>();
+		List<String> literals = new ArrayList<>();
+		this.required = new int[tiers.size()][][];
+		for (int t = 0; t < tiers.size(); t++) {
+			List<? extends WeightedRegEx> tier = tiers.get(t);
+			this.required[t] = new int[tier.size()][];
+			for (int r = 0; r < tier.size(); r++) {
+				List<String> regexLiterals = requiredLiterals(tier.get(r));
+				int[] ids = new int[regexLiterals.size()];
+				for (int i = 0; i < ids.length; i++) {
+					String literal = regexLiterals.get(i);
+					Integer id = literalIds.get(literal);
+					if (id == null) {
+						id = Integer.valueOf(literals.size());
+						literalIds.put(literal, id);
+						literals.add(literal);
+					}
+					ids[i] = id.intValue();
+				}
+				this.required[t][r] = ids;
+			}
+		}
+		this.automaton = literals.isEmpty() ? null : new AhoCorasick(literals);
+	}
+
+	/**
+	 * Scans a document for the literals of all regular expressions.
+	 * @param target The document text.
+	 * @return The literals present in the document, to be passed to {@link #mayMatch(BitSet, int, int)}.
+	 */
+	BitSet scan(CharSequence target) {
+		return automaton == null ? new BitSet(0) : automaton.scan(target);
+	}
+
+	/**
+	 * @param present The literals present in a document, as returned by {@link #scan(CharSequence)}.
+	 * @param tier The index of the tier of the regular expression.
+	 * @param regex The index of the regular expression within its tier.
+	 * @return <code>false</code> if the regular expression cannot match the document.
+	 */
+	boolean mayMatch(BitSet present, int tier, int regex) {
+		for (int id : required[tier][regex]) {
+			if (!present.get(id)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param present The literals present in a document, as returned by {@link #scan(CharSequence)}.
+	 * @param tier The index of a tier.
+	 * @return The indexes of the regular expressions of the tier which may match the document.
+	 */
+	BitSet candidates(BitSet present, int tier) {
+		BitSet candidates = new BitSet(required[tier].length);
+		for (int r = 0; r < required[tier].length; r++) {
+			if (mayMatch(present, tier, r)) {
+				candidates.set(r);
+			}
+		}
+		return candidates;
+	}
+
+	/**
+	 * Determines lowercase literals which appear in every match of a regular
+	 * expression. The result is conservative: an empty list means nothing is
+	 * known about the regular expression.
+	 * @param wrx The regular expression.
+	 * @return The required literals, possibly empty.
+	 */
+	static List<String> requiredLiterals(WeightedRegEx wrx) {
+		if (wrx instanceof SnippetRegEx) {
+			Set<String> literals = new LinkedHashSet<>();
+			for (Segment segment : ((SnippetRegEx)wrx).getUnlabeledSegments()) {
+				for (Token token : segment.getTokens()) {
+					if (token.getType() == TokenType.WORD && isLiteral(token.getString())) {
+						literals.add(token.getString().toLowerCase());
+					}
+				}
+			}
+			return new ArrayList<>(literals);
+		}
+		return requiredLiterals(wrx.getRegEx());
+	}
+
+	private static boolean isLiteral(String s) {
+		if (s == null || s.length() < MIN_LITERAL_LENGTH) {
+			return false;
+		}
+		for (int i = 0; i < s.length(); i++) {
+			if (!isAsciiAlphanumeric(s.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isAsciiAlphanumeric(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+	}
+
+	/**
+	 * Determines lowercase literals which appear in every match of a regular
+	 * expression, from the text of the regular expression alone. Only runs of
+	 * letters and digits outside of any group or character class are
+	 * considered, and nothing is determined for regular expressions using
+	 * top level alternation, quoting or comments.
+	 * @param regex The regular expression.
+	 * @return The required literals, possibly empty.
+	 */
+	static List<String> requiredLiterals(String regex) {
+		Set<String> literals = new LinkedHashSet<>();
+		StringBuilder run = new StringBuilder();
+		int depth = 0;
+		int i = 0;
+		int len = regex.length();
+		while (i < len) {
+			char c = regex.charAt(i);
+			if (c == '\\') {
+				flush(run, literals);
+				if (i + 1 >= len) {
+					break;
+				}
+				char e = regex.charAt(i + 1);
+				if (e == 'Q') {
+					return Collections.emptyList();
+				}
+				i = skipEscape(regex, i + 1);
+			} else if (c == '[') {
+				flush(run, literals);
+				i = skipClass(regex, i);
+			} else if (c == '(') {
+				flush(run, literals);
+				if (regex.startsWith("(?", i)) {
+					int end = i + 2;
+					while (end < len && regex.charAt(end) != ')' && regex.charAt(end) != ':') {
+						end++;
+					}
+					String flags = regex.substring(i + 2, end);
+					if (isFlags(flags)) {
+						if (flags.indexOf('x') >= 0) {
+							// comments mode, whitespace and # are not literal
+							return Collections.emptyList();
+						}
+						if (end < len && regex.charAt(end) == ')') {
+							// inline flags such as (?i) do not open a group
+							i = end + 1;
+							continue;
+						}
+					}
+				}
+				depth++;
+				i++;
+			} else if (c == ')') {
+				flush(run, literals);
+				depth = Math.max(0, depth - 1);
+				i++;
+			} else if (c == '|') {
+				if (depth == 0) {
+					return Collections.emptyList();
+				}
+				i++;
+			} else if (c == '?' || c == '*') {
+				// the preceding character is optional
+				if (run.length() > 0) {
+					run.setLength(run.length() - 1);
+				}
+				flush(run, literals);
+				i++;
+			} else if (c == '+') {
+				flush(run, literals);
+				i++;
+			} else if (c == '{') {
+				int close = regex.indexOf('}', i);
+				if (close < 0) {
+					return Collections.emptyList();
+				}
+				if (regex.startsWith("{0", i) && run.length() > 0) {
+					run.setLength(run.length() - 1);
+				}
+				flush(run, literals);
+				i = close + 1;
+			} else if (depth == 0 && isAsciiAlphanumeric(c)) {
+				run.append(c);
+				i++;
+			} else {
+				flush(run, literals);
+				i++;
+			}
+		}
+		flush(run, literals);
+		return new ArrayList<>(literals);
+	}
+
+	private static boolean isFlags(String s) {
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (!(c == '-' || (c >= 'a' && c <= 'z'))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static void flush(StringBuilder run, Set<String> literals) {
+		if (run.length() >= MIN_LITERAL_LENGTH) {
+			literals.add(run.toString().toLowerCase());
+		}
+		run.setLength(0);
+	}
+
+	/**
+	 * @param regex The regular expression.
+	 * @param i The index of the character following a backslash.
+	 * @return The index following the escape sequence.
+	 */
+	private static int skipEscape(String regex, int i) {
+		int len = regex.length();
+		char e = regex.charAt(i++);
+		switch (e) {
+		case 'x':
+			if (i < len && regex.charAt(i) == '{') {
+				int close = regex.indexOf('}', i);
+				return close < 0 ? len : close + 1;
+			}
+			return Math.min(len, i + 2);
+		case 'u':
+			return Math.min(len, i + 4);
+		case 'c':
+			return Math.min(len, i + 1);
+		case 'p': case 'P': case 'k': case 'N':
+			if (i < len && (regex.charAt(i) == '{' || regex.charAt(i) == '<')) {
+				int close = regex.indexOf(regex.charAt(i) == '{' ? '}' : '>', i);
+				return close < 0 ? len : close + 1;
+			}
+			return Math.min(len, i + 1);
+		default:
+			if (e >= '0' && e <= '9') {
+				// octal escapes and back references
+				while (i < len && regex.charAt(i) >= '0' && regex.charAt(i) <= '9') {
+					i++;
+				}
+			}
+			return i;
+		}
+	}
+
+	/**
+	 * @param regex The regular expression.
+	 * @param i The index of the opening bracket of a character class.
+	 * @return The index following the character class.
+	 */
+	private static int skipClass(String regex, int i) {
+		int len = regex.length();
+		int depth = 0;
+		i++;
+		if (i < len && regex.charAt(i) == '^') {
+			i++;
+		}
+		if (i < len && regex.charAt(i) == ']') {
+			// a leading ] is literal
+			i++;
+		}
+		while (i < len) {
+			char c = regex.charAt(i);
+			if (c == '\\') {
+				i += 2;
+				continue;
+			}
+			if (c == '[') {
+				depth++;
+			} else if (c == ']') {
+				if (depth == 0) {
+					return i + 1;
+				}
+				depth--;
+			}
+			i++;
+		}
+		return len;
+	}
+}
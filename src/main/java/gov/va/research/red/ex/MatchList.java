@@ -0,0 +1,112 @@
+package gov.va.research.red.ex;
+
+import java.util.Arrays;
+
+/**
+ * A compact, reusable list of the matches found in one document. Each match
+ * is held as a few primitive values, the matched text is only read from the
+ * document when asked for.
+ */
+public class MatchList {
+	private static final int INITIAL_CAPACITY = 8;
+
+	private CharSequence text;
+	private int size;
+	private int[] starts = new int[INITIAL_CAPACITY];
+	private int[] ends = new int[INITIAL_CAPACITY];
+	private int[] tiers = new int[INITIAL_CAPACITY];
+	private int[] regexes = new int[INITIAL_CAPACITY];
+	private double[] weights = new double[INITIAL_CAPACITY];
+	private boolean complete = true;
+
+	/**
+	 * Empties the list, keeping its storage, and sets the document the following matches are found in.
+	 * @param text The document text.
+	 */
+	public void reset(CharSequence text) {
+		this.text = text;
+		this.size = 0;
+		this.complete = true;
+	}
+
+	/**
+	 * Marks the list as possibly missing matches, such as those of a regular expression which timed out.
+	 */
+	public void markIncomplete() {
+		this.complete = false;
+	}
+
+	/**
+	 * @return <code>false</code> if matches may be missing.
+	 */
+	public boolean isComplete() {
+		return complete;
+	}
+
+	public void add(int start, int end, int tier, int regex, double weight) {
+		if (size == starts.length) {
+			int capacity = size * 2;
+			starts = Arrays.copyOf(starts, capacity);
+			ends = Arrays.copyOf(ends, capacity);
+			tiers = Arrays.copyOf(tiers, capacity);
+			regexes = Arrays.copyOf(regexes, capacity);
+			weights = Arrays.copyOf(weights, capacity);
+		}
+		starts[size] = start;
+		ends[size] = end;
+		tiers[size] = tier;
+		regexes[size] = regex;
+		weights[size] = weight;
+		size++;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public CharSequence getText() {
+		return text;
+	}
+
+	public int getStart(int i) {
+		return starts[i];
+	}
+
+	public int getEnd(int i) {
+		return ends[i];
+	}
+
+	public int getTier(int i) {
+		return tiers[i];
+	}
+
+	public int getRegex(int i) {
+		return regexes[i];
+	}
+
+	public double getWeight(int i) {
+		return weights[i];
+	}
+
+	/**
+	 * @param i The index of a match.
+	 * @return The matched text.
+	 */
+	public String getMatch(int i) {
+		return text.subSequence(starts[i], ends[i]).toString();
+	}
+
+	/**
+	 * Passes every match to a sink, in the order they were added.
+	 * @param sink The receiver of the matches.
+	 */
+	public void forEach(MatchSink sink) {
+		for (int i = 0; i < size; i++) {
+			sink.match(text, starts[i], ends[i], tiers[i], regexes[i], weights[i]);
+		}
+	}
+}
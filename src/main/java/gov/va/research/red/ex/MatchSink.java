@@ -0,0 +1,20 @@
+package gov.va.research.red.ex;
+
+/**
+ * Receives the matches found in a document one at a time, without any
+ * intermediate collection being built.
+ */
+@FunctionalInterface
+public interface MatchSink {
+	/**
+	 * Called once for each regular expression that matched the document.
+	 * Several regular expressions can match at the same position.
+	 * @param text The document text.
+	 * @param start The start of the matched capture group, inclusive.
+	 * @param end The end of the matched capture group, exclusive.
+	 * @param tier The index of the tier of the regular expression.
+	 * @param regex The index of the regular expression within its tier.
+	 * @param weight The weight of the regular expression.
+	 */
+	public void match(CharSequence text, int start, int end, int tier, int regex, double weight);
+}
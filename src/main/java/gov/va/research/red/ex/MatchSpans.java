@@ -0,0 +1,98 @@
+package gov.va.research.red.ex;
+
+import java.util.Arrays;
+
+/**
+ * A reusable collector of the positions matched in one document, for
+ * writers which only need the position and text of each match. The matches
+ * of each model are received as a {@link MatchSink}, and a position matched
+ * by several regular expressions of a model is kept once, as
+ * {@link CompiledREDExModel#extract(CharSequence, boolean)} would combine
+ * them. Each position is held as a single long, so collecting allocates
+ * nothing once the storage has grown to the largest document.
+ */
+class MatchSpans implements MatchSink {
+	private static final int INITIAL_CAPACITY = 16;
+
+	private CharSequence text;
+	// start in the high and end in the low half of each element
+	private long[] spans = new long[INITIAL_CAPACITY];
+	private int size;
+	// the index of the first position of the model being collected
+	private int modelStart;
+
+	/**
+	 * Empties the collector, keeping its storage, and sets the document the following matches are found in.
+	 * @param text The document text.
+	 */
+	void reset(CharSequence text) {
+		this.text = text;
+		this.size = 0;
+		this.modelStart = 0;
+	}
+
+	@Override
+	public void match(CharSequence text, int start, int end, int tier, int regex, double weight) {
+		if (size == spans.length) {
+			spans = Arrays.copyOf(spans, size * 2);
+		}
+		spans[size++] = ((long) start << 32) | (end & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Ends the matches of a model: its positions are put in position order,
+	 * and those matched by more than one of its regular expressions are kept
+	 * once.
+	 */
+	void endModel() {
+		Arrays.sort(spans, modelStart, size);
+		int distinct = modelStart;
+		for (int i = modelStart; i < size; i++) {
+			if (i == modelStart || spans[i] != spans[distinct - 1]) {
+				spans[distinct++] = spans[i];
+			}
+		}
+		size = distinct;
+		modelStart = size;
+	}
+
+	/**
+	 * Puts the positions of all models in position order. A position matched
+	 * by several models is kept once per model.
+	 */
+	void sort() {
+		Arrays.sort(spans, 0, size);
+	}
+
+	int size() {
+		return size;
+	}
+
+	int getStart(int i) {
+		return (int) (spans[i] >>> 32);
+	}
+
+	int getEnd(int i) {
+		return (int) spans[i];
+	}
+
+	/**
+	 * @param i The index of a position.
+	 * @return The matched text.
+	 */
+	String getMatch(int i) {
+		return text.subSequence(getStart(i), getEnd(i)).toString();
+	}
+
+	/**
+	 * @return The start and end of each position, in turn, in an array of exactly that size.
+	 */
+	int[] toArray() {
+		int[] array = new int[2 * size];
+		for (int i = 0; i < size; i++) {
+			array[2 * i] = getStart(i);
+			array[2 * i + 1] = getEnd(i);
+		}
+		return array;
+	}
+}
@@ -0,0 +1,378 @@
+package gov.va.research.red.ex;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import gov.va.research.red.ex.REDExtractor.DocMatches;
+
+/**
+ * Writes matches to a database table with columns documentId, startPos,
+ * endPos and value. Matches are collected into batches of whole documents,
+ * and each batch is written by multi-row upserts of the table's
+ * {@link SqlDialect} and committed, on one of a small pool of connections,
+ * while the next batch is collected. A batch which fails is rolled back and
+ * retried, on a new connection if the old one is no longer valid. As rows are
+ * keyed by (documentId, startPos, endPos), retries and re-runs do not
+ * duplicate rows. With {@link SqlDialect#GENERIC}, which has no upsert, the
+ * rows of the documents of a batch are deleted before they are inserted.
+ * Once a batch is committed its documents are recorded in a
+ * {@link Checkpoint}, if there is one, so that an interrupted job can be
+ * resumed after them.
+ */
+public class MatchTableWriter implements ExtractionPipeline.Sink, AutoCloseable {
+	private static final Logger LOG = LoggerFactory.getLogger(MatchTableWriter.class);
+	public static final int DEFAULT_BATCH_SIZE = 1000;
+	public static final int DEFAULT_CONNECTIONS = 2;
+	public static final int DEFAULT_RETRIES = 3;
+	private static final long RETRY_DELAY_MILLIS = 100;
+
+	/**
+	 * Opens connections to the database written to.
+	 */
+	public interface ConnectionFactory {
+		Connection getConnection() throws SQLException;
+	}
+
+	private final ConnectionFactory connectionFactory;
+	private final String tableName;
+	private final SqlDialect dialect;
+	private final int batchSize;
+	private final int retries;
+	private final BlockingQueue<Connection> connections;
+	private final Semaphore idle;
+	private final int poolSize;
+	private final Checkpoint checkpoint;
+	private final ExecutorService executor;
+	private final AtomicReference<SQLException> failure = new AtomicReference<>();
+	private final AtomicLong batches = new AtomicLong();
+	private final AtomicLong retried = new AtomicLong();
+	// the batch being collected, keyed by (documentId, startPos, endPos), the last match of a key wins
+	private Map<List<Object>, Object[]> batch;
+	// the documents of the batch being collected, including those without matches
+	private Set<String> batchDocuments;
+
+	/**
+	 * @param connectionFactory Opens the connections to write on.
+	 * @param tableName The table to write to.
+	 * @param dialect The SQL dialect of the database.
+	 * @param batchSize The number of rows written and committed together.
+	 * @param connections The number of batches written concurrently, each on its own connection.
+	 * @param retries The number of times a failed batch is retried.
+	 * @throws SQLException if a connection cannot be opened.
+	 */
+	public MatchTableWriter(ConnectionFactory connectionFactory, String tableName, SqlDialect dialect, int batchSize, int connections, int retries) throws SQLException {
+		this(connectionFactory, tableName, dialect, batchSize, connections, retries, null);
+	}
+
+	/**
+	 * @param connectionFactory Opens the connections to write on.
+	 * @param tableName The table to write to.
+	 * @param dialect The SQL dialect of the database.
+	 * @param batchSize The number of rows, or of documents, written and committed together.
+	 * @param connections The number of batches written concurrently, each on its own connection.
+	 * @param retries The number of times a failed batch is retried.
+	 * @param checkpoint Records the IDs of the documents of each committed batch, or <code>null</code>.
+	 * @throws SQLException if a connection cannot be opened.
+	 */
+	public MatchTableWriter(ConnectionFactory connectionFactory, String tableName, SqlDialect dialect, int batchSize, int connections, int retries, Checkpoint checkpoint) throws SQLException {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("batchSize must be at least 1: " + batchSize);
+		}
+		if (connections < 1) {
+			throw new IllegalArgumentException("connections must be at least 1: " + connections);
+		}
+		this.connectionFactory = connectionFactory;
+		this.tableName = tableName;
+		this.dialect = dialect;
+		this.batchSize = batchSize;
+		this.retries = Math.max(0, retries);
+		this.poolSize = connections;
+		this.connections = new ArrayBlockingQueue<>(connections);
+		this.idle = new Semaphore(connections);
+		this.checkpoint = checkpoint;
+		this.batch = new LinkedHashMap<>();
+		this.batchDocuments = new LinkedHashSet<>();
+		try {
+			for (int i = 0; i < connections; i++) {
+				this.connections.add(open());
+			}
+		} catch (SQLException e) {
+			closeConnections();
+			throw e;
+		}
+		this.executor = Executors.newFixedThreadPool(connections, (r) -> {
+			Thread t = Executors.defaultThreadFactory().newThread(r);
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	private Connection open() throws SQLException {
+		Connection conn = connectionFactory.getConnection();
+		conn.setAutoCommit(false);
+		return conn;
+	}
+
+	/**
+	 * Creates a table to hold matches, unless a table of that name already exists.
+	 * @param conn The connection.
+	 * @param tableName The name of the table.
+	 * @param dialect The SQL dialect of the database.
+	 * @return <code>true</code> if the table was created.
+	 * @throws SQLException if the table cannot be created.
+	 */
+	public static boolean createTableIfAbsent(Connection conn, String tableName, SqlDialect dialect) throws SQLException {
+		try (Statement s = conn.createStatement()) {
+			try {
+				s.executeQuery("SELECT documentId FROM " + tableName + " WHERE 1 = 0").close();
+				return false;
+			} catch (SQLException e) {
+				// no such table
+				if (!conn.getAutoCommit()) {
+					conn.rollback();
+				}
+			}
+			s.execute(dialect.createTable(tableName));
+			if (!conn.getAutoCommit()) {
+				conn.commit();
+			}
+			return true;
+		}
+	}
+
+	@Override
+	public void write(DocMatches dm) throws SQLException {
+		checkFailure();
+		for (int i = 0; i < dm.size(); i++) {
+			Integer start = Integer.valueOf(dm.getStart(i));
+			Integer end = Integer.valueOf(dm.getEnd(i));
+			List<Object> key = new ArrayList<>(3);
+			key.add(dm.getDocumentId());
+			key.add(start);
+			key.add(end);
+			batch.put(key, new Object[] { dm.getDocumentId(), start, end, dm.getMatch(i) });
+		}
+		batchDocuments.add(dm.getDocumentId());
+		// a document is never split between batches, so it is committed whole
+		if (batch.size() >= batchSize || batchDocuments.size() >= batchSize) {
+			submit();
+		}
+	}
+
+	/**
+	 * Writes the batch being collected, and waits until all batches are written.
+	 */
+	@Override
+	public void flush() throws SQLException {
+		if (!batchDocuments.isEmpty()) {
+			submit();
+		}
+		try {
+			idle.acquire(poolSize);
+			idle.release(poolSize);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException(e);
+		}
+		checkFailure();
+	}
+
+	private void submit() throws SQLException {
+		List<Object[]> rows = new ArrayList<>(batch.values());
+		List<String> documents = new ArrayList<>(batchDocuments);
+		batch = new LinkedHashMap<>();
+		batchDocuments = new LinkedHashSet<>();
+		try {
+			// wait for a connection, so that batches do not pile up
+			idle.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException(e);
+		}
+		checkFailure();
+		executor.execute(() -> {
+			try {
+				writeBatch(rows, documents);
+				if (checkpoint != null) {
+					checkpoint.markDone(documents);
+				}
+			} catch (IOException e) {
+				failure.compareAndSet(null, new SQLException("Cannot write checkpoint", e));
+			} catch (SQLException e) {
+				failure.compareAndSet(null, e);
+			} catch (RuntimeException e) {
+				failure.compareAndSet(null, new SQLException(e));
+			} finally {
+				idle.release();
+			}
+		});
+	}
+
+	private void checkFailure() throws SQLException {
+		SQLException e = failure.get();
+		if (e != null) {
+			throw e;
+		}
+	}
+
+	private void writeBatch(List<Object[]> rows, List<String> documents) throws SQLException {
+		Connection conn = connections.remove();
+		try {
+			for (int attempt = 0; ; attempt++) {
+				try {
+					if (!dialect.isIdempotent()) {
+						delete(conn, documents);
+					}
+					upsert(conn, rows);
+					conn.commit();
+					batches.incrementAndGet();
+					return;
+				} catch (SQLException e) {
+					if (attempt >= retries) {
+						throw e;
+					}
+					retried.incrementAndGet();
+					LOG.warn("Writing " + rows.size() + " rows to " + tableName + " failed, retrying: " + e.getMessage());
+					conn = recover(conn);
+					try {
+						Thread.sleep(RETRY_DELAY_MILLIS << attempt);
+					} catch (InterruptedException ie) {
+						Thread.currentThread().interrupt();
+						throw e;
+					}
+				}
+			}
+		} finally {
+			connections.add(conn);
+		}
+	}
+
+	private void upsert(Connection conn, List<Object[]> rows) throws SQLException {
+		int max = dialect.getMaxRowsPerStatement();
+		int full = rows.size() / max;
+		int rest = rows.size() % max;
+		if (full > 0) {
+			try (PreparedStatement ps = conn.prepareStatement(dialect.upsert(tableName, max))) {
+				for (int i = 0; i < full; i++) {
+					bind(ps, rows, i * max, max);
+					ps.executeUpdate();
+				}
+			}
+		}
+		if (rest > 0) {
+			try (PreparedStatement ps = conn.prepareStatement(dialect.upsert(tableName, rest))) {
+				bind(ps, rows, full * max, rest);
+				ps.executeUpdate();
+			}
+		}
+	}
+
+	private void delete(Connection conn, List<String> documents) throws SQLException {
+		int max = dialect.getMaxRowsPerStatement();
+		for (int from = 0; from < documents.size(); from += max) {
+			int count = Math.min(max, documents.size() - from);
+			try (PreparedStatement ps = conn.prepareStatement(dialect.deleteDocuments(tableName, count))) {
+				for (int i = 0; i < count; i++) {
+					ps.setString(i + 1, documents.get(from + i));
+				}
+				ps.executeUpdate();
+			}
+		}
+	}
+
+	private static void bind(PreparedStatement ps, List<Object[]> rows, int from, int count) throws SQLException {
+		int p = 1;
+		for (int r = from; r < from + count; r++) {
+			Object[] row = rows.get(r);
+			ps.setString(p++, (String) row[0]);
+			ps.setInt(p++, ((Integer) row[1]).intValue());
+			ps.setInt(p++, ((Integer) row[2]).intValue());
+			ps.setString(p++, (String) row[3]);
+		}
+	}
+
+	/**
+	 * Rolls back a failed batch, replacing the connection if it is no longer valid.
+	 */
+	private Connection recover(Connection conn) {
+		try {
+			conn.rollback();
+			if (conn.isValid(5)) {
+				return conn;
+			}
+		} catch (SQLException e) {
+			LOG.debug("Rollback failed: " + e.getMessage());
+		}
+		try {
+			conn.close();
+		} catch (SQLException e) {
+			LOG.debug("Close failed: " + e.getMessage());
+		}
+		try {
+			return open();
+		} catch (SQLException e) {
+			LOG.warn("Cannot reconnect: " + e.getMessage());
+			// the retry fails on the old connection
+			return conn;
+		}
+	}
+
+	/**
+	 * @return The number of batches written.
+	 */
+	public long getBatches() {
+		return batches.get();
+	}
+
+	/**
+	 * @return The number of times a batch was retried.
+	 */
+	public long getRetries() {
+		return retried.get();
+	}
+
+	/**
+	 * Closes the connections, without writing the batch being collected.
+	 */
+	@Override
+	public void close() throws SQLException {
+		executor.shutdown();
+		try {
+			executor.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		closeConnections();
+	}
+
+	private void closeConnections() {
+		Connection conn;
+		while ((conn = connections.poll()) != null) {
+			try {
+				conn.close();
+			} catch (SQLException e) {
+				LOG.warn("Close failed: " + e.getMessage());
+			}
+		}
+	}
+}
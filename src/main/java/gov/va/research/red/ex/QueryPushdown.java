@@ -0,0 +1,130 @@
+package gov.va.research.red.ex;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Narrows a query for documents to the documents the models may match, so
+ * that the database does not return documents which cannot match. A
+ * regular expression can only match a document containing all of its
+ * required literals (see {@link LiteralPrefilter}), so a document can only
+ * match a model if, for some regular expression, it contains all of the
+ * literals of that regular expression. Literals are compared ignoring case.
+ * If any regular expression has no required literals then no document can be
+ * ruled out, and the query is not narrowed.
+ */
+public class QueryPushdown {
+
+	// the literals of each regular expression, null if some regular expression has none
+	private final List<Set<String>> conjunctions;
+
+	/**
+	 * @param redexs The models applied to the documents.
+	 * @param useTier2 if <code>false</code> then only the first tier of each model is used.
+	 */
+	public QueryPushdown(List<CompiledREDExModel> redexs, boolean useTier2) {
+		List<Set<String>> all = new ArrayList<>();
+		boolean restrictive = true;
+		for (CompiledREDExModel redex : redexs) {
+			List<Collection<? extends WeightedRegEx>> tiers = redex.getRegexTiers();
+			for (int t = 0; t < tiers.size() && (t == 0 || useTier2); t++) {
+				for (WeightedRegEx wrx : tiers.get(t)) {
+					List<String> literals = LiteralPrefilter.requiredLiterals(wrx);
+					if (literals.isEmpty()) {
+						restrictive = false;
+					}
+					all.add(new LinkedHashSet<>(literals));
+				}
+			}
+		}
+		this.conjunctions = restrictive ? absorb(all) : null;
+	}
+
+	/**
+	 * Drops each conjunction implied by a smaller one, as (a) or (a and b) is (a).
+	 */
+	private static List<Set<String>> absorb(List<Set<String>> conjunctions) {
+		List<Set<String>> sorted = new ArrayList<>(new LinkedHashSet<>(conjunctions));
+		sorted.sort(Comparator.comparingInt(Set::size));
+		List<Set<String>> kept = new ArrayList<>(sorted.size());
+		for (Set<String> c : sorted) {
+			boolean implied = false;
+			for (Set<String> k : kept) {
+				if (c.containsAll(k)) {
+					implied = true;
+					break;
+				}
+			}
+			if (!implied) {
+				kept.add(c);
+			}
+		}
+		return kept;
+	}
+
+	/**
+	 * @return <code>true</code> if some documents can be ruled out.
+	 */
+	public boolean isRestrictive() {
+		return conjunctions != null;
+	}
+
+	/**
+	 * @return The sets of literals, one of which a document must contain all of in order to match, or
+	 *     <code>null</code> if no document can be ruled out.
+	 */
+	public List<Set<String>> getConjunctions() {
+		return conjunctions;
+	}
+
+	/**
+	 * @param textColumn The name of the column holding document text.
+	 * @param dialect The SQL dialect of the database.
+	 * @return A predicate true of documents which may match, or <code>null</code> if no document can be ruled out.
+	 */
+	public String predicate(String textColumn, SqlDialect dialect) {
+		if (conjunctions == null) {
+			return null;
+		}
+		if (conjunctions.isEmpty()) {
+			return "1 = 0";
+		}
+		StringBuilder sb = new StringBuilder();
+		for (Set<String> conjunction : conjunctions) {
+			if (sb.length() > 0) {
+				sb.append(" OR ");
+			}
+			sb.append('(');
+			boolean first = true;
+			for (String literal : conjunction) {
+				if (!first) {
+					sb.append(" AND ");
+				}
+				// literals are letters and digits only, so they are safe to inline
+				sb.append(dialect.containsLiteral(textColumn, literal));
+				first = false;
+			}
+			sb.append(')');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Wraps a query so that it only returns documents which may match.
+	 * @param query A query returning 2 values per row: document ID and document text.
+	 * @param textColumn The name of the column of the query holding document text.
+	 * @param dialect The SQL dialect of the database.
+	 * @return The wrapped query, or the query itself if no document can be ruled out.
+	 */
+	public String wrap(String query, String textColumn, SqlDialect dialect) {
+		String predicate = predicate("q." + textColumn, dialect);
+		if (predicate == null) {
+			return query;
+		}
+		return "SELECT * FROM (" + query + ") q WHERE " + predicate;
+	}
+}
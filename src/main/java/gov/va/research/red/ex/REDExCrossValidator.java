@@ -29,6 +29,7 @@ import gov.va.research.red.Snippet;
 import gov.va.research.red.Position;
 import gov.va.research.red.VTTReader;
 import gov.va.research.red.VTTSnippetParser;
+import gov.va.research.red.ex.REDExFactory.TrimStrategy;
 import gov.va.research.red.regex.JSEPatternAdapter;
 import gov.va.research.red.regex.PatternAdapter;
 import gov.va.research.red.regex.RE2JPatternAdapter;
@@ -48,6 +49,8 @@ public class REDExCrossValidator implements CrossValidatable {
 	private boolean shuffle = true;
 	private int limit = 0;
 	private Class<? extends PatternAdapter> patternAdapterClass = JSEPatternAdapter.class;
+	private ExtractionScheduler scheduler;
+	private TrimStrategy trimStrategy = TrimStrategy.LINEAR;
 	
 	public REDExCrossValidator() {
 		
@@ -120,6 +123,9 @@ public class REDExCrossValidator implements CrossValidatable {
 			}
 
 			REDExCrossValidator rexcv = new REDExCrossValidator(folds, allowOvermatches, caseInsensitive, holdouts, useTier2, generalizeCaptureGroups, stopAfterFirstFold, shuffle, limit, patternAdapterClass);
+			rexcv.setScheduler(ExtractionSchedulers.forName(conf.getString("scheduler", ExtractionSchedulers.FIXED),
+					conf.getInt("parallelism", Runtime.getRuntime().availableProcessors())));
+			rexcv.setTrimStrategy(TrimStrategy.forName(conf.getString("trim.strategy", "linear")));
 			List<CVResult> results = rexcv.crossValidate(vttfiles, labels, new VTTSnippetParser());
 
 			// Display results
@@ -258,7 +264,7 @@ public class REDExCrossValidator implements CrossValidatable {
 							pw.println("null REDExtractor");
 						} else {
 							// Test
-							REDExFactory rexe = new REDExFactory();
+							REDExFactory rexe = new REDExFactory(scheduler);
 							score = rexe.test(testing, ex, allowOverMatches,
 									pw, useTier2, patternAdapterClass);
 							List<Collection<? extends WeightedRegEx>> tieredRegexes = ex.getRegexTiers();
@@ -317,7 +323,8 @@ public class REDExCrossValidator implements CrossValidatable {
 	 * @throws IOException
 	 */
 	private REDExModel trainExtractor(List<Snippet> training, PrintWriter pw, String outputTag) throws IOException {
-		REDExFactory rexe = new REDExFactory();
+		REDExFactory rexe = new REDExFactory(scheduler);
+		rexe.setTrimStrategy(trimStrategy);
 		REDExModel redexModel = rexe.train(training, allowOverMatches, outputTag,
 				caseInsensitive, false, holdouts instanceof List ? (List<String>)holdouts : new ArrayList<>(holdouts), useTier2, generalizeLabeledSegments, patternAdapterClass);
 		if (pw != null) {
@@ -440,4 +447,26 @@ public class REDExCrossValidator implements CrossValidatable {
 		this.patternAdapterClass = patternAdapterClass;
 	}
 
+	public ExtractionScheduler getScheduler() {
+		return scheduler;
+	}
+
+	/**
+	 * @param scheduler Runs the training and testing of each fold, or <code>null</code> to use the common pool.
+	 */
+	public void setScheduler(ExtractionScheduler scheduler) {
+		this.scheduler = scheduler;
+	}
+
+	public TrimStrategy getTrimStrategy() {
+		return trimStrategy;
+	}
+
+	/**
+	 * @param trimStrategy How regexes are trimmed while training each fold.
+	 */
+	public void setTrimStrategy(TrimStrategy trimStrategy) {
+		this.trimStrategy = trimStrategy;
+	}
+
 }
@@ -24,7 +24,8 @@ import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinTask;
 
 import org.apache.commons.configuration.Configuration;
 import org.apache.commons.configuration.ConfigurationException;
@@ -44,6 +45,7 @@ import gov.va.research.red.TokenType;
 import gov.va.research.red.VTTReader;
 import gov.va.research.red.VTTSnippetParser;
 import gov.va.research.red.ex.SnippetRegEx.TokenFreq;
+import gov.va.research.red.regex.HybridPatternAdapter;
 import gov.va.research.red.regex.JSEPatternAdapter;
 import gov.va.research.red.regex.MatcherAdapter;
 import gov.va.research.red.regex.PatternAdapter;
@@ -56,12 +58,103 @@ public class REDExFactory {
 	private static final boolean DEBUG = Boolean.valueOf(System.getProperty(
 			"debug", String.valueOf(false)));
 
+	private final ExtractionScheduler scheduler;
+	private long scoreCacheEntries = ScoreCache.DEFAULT_MAX_ENTRIES;
+	private TrimStrategy trimStrategy = TrimStrategy.LINEAR;
+
+	/**
+	 * How regexes are trimmed of the tokens at their ends during training.
+	 */
+	public enum TrimStrategy {
+		/** One token at a time, scoring after each. */
+		LINEAR,
+		/**
+		 * The same tokens in the same order as {@link #LINEAR}, but 1, 2, 4,
+		 * ... at a time until the score drops, then bisecting between the
+		 * most trimmed kept and the fewest dropped, so a long regex is
+		 * trimmed in a logarithmic number of scores. The regexes found can
+		 * differ from those of {@link #LINEAR}, which stops at the first trim
+		 * dropping the score where a longer one may not.
+		 */
+		GALLOPING;
+
+		/**
+		 * @param name The name of a strategy, ignoring case.
+		 * @return The strategy.
+		 * @throws IllegalArgumentException if the name is not known.
+		 */
+		public static TrimStrategy forName(String name) {
+			for (TrimStrategy strategy : values()) {
+				if (strategy.name().equalsIgnoreCase(name)) {
+					return strategy;
+				}
+			}
+			throw new IllegalArgumentException("Unknown trim strategy '" + name + "', must be linear or galloping");
+		}
+	}
+
+	/**
+	 * Creates a factory which trains and tests in the common pool.
+	 */
+	public REDExFactory() {
+		this(null);
+	}
+
+	/**
+	 * @param scheduler Runs training and testing with its parallelism, or <code>null</code> to use the common pool.
+	 */
+	public REDExFactory(ExtractionScheduler scheduler) {
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * @return The largest number of scores cached during training, see {@link #setScoreCacheEntries(long)}.
+	 */
+	public long getScoreCacheEntries() {
+		return scoreCacheEntries;
+	}
+
+	/**
+	 * Sets the largest number of scores cached during training. A cached
+	 * score is the result of scoring one model, its regular expressions,
+	 * weights and engines, on the training snippets with given settings,
+	 * and is reused when a candidate change produces a model already scored.
+	 * In the first tier, where the score before a change is constant, only
+	 * candidates repeated across the regex stacks are found in the cache; in
+	 * the second tier the model before a change has usually been scored as
+	 * the model after the previous one.
+	 * @param scoreCacheEntries The largest number of scores cached, or 0 to not cache scores.
+	 */
+	public void setScoreCacheEntries(long scoreCacheEntries) {
+		this.scoreCacheEntries = scoreCacheEntries;
+	}
+
+	/**
+	 * @return How regexes are trimmed during training, see {@link #setTrimStrategy(TrimStrategy)}.
+	 */
+	public TrimStrategy getTrimStrategy() {
+		return trimStrategy;
+	}
+
+	/**
+	 * @param trimStrategy How regexes are trimmed during training. {@link TrimStrategy#LINEAR}
+	 *     by default, which the regexes of earlier versions can be reproduced with.
+	 */
+	public void setTrimStrategy(TrimStrategy trimStrategy) {
+		this.trimStrategy = trimStrategy;
+	}
+
 	public REDExModel train(final Collection<Snippet> snippets,
 			final boolean allowOverMatches, final String outputTag,
 			final boolean caseInsensitive, final boolean measureSensitivity,
 			final List<String> holdouts, final boolean useTier2,
 			final boolean generalizeLabeledSegments, Class<? extends PatternAdapter> patternAdapterClass)
 			throws IOException {
+		if (scheduler != null && !scheduler.isComputing()) {
+			// restarted in the scheduler's pool, where its parallel streams run
+			return onScheduler(() -> train(snippets, allowOverMatches, outputTag, caseInsensitive, measureSensitivity,
+					holdouts, useTier2, generalizeLabeledSegments, patternAdapterClass));
+		}
 		if (!caseInsensitive) {
 			LOG.warn("caseInsensitive is set to false, which does not work correctly in many cases.");
 		}
@@ -99,7 +192,10 @@ public class REDExFactory {
 			return null;
 		}
 
-		NoFalsePositives noFalsePositives = new NoFalsePositives(this);
+		// shared by all phases, cleared if checking for true positives changes the snippets
+		ScoreCache scoreCache = scoreCacheEntries > 0 ? new ScoreCache(scoreCacheEntries) : null;
+		SnippetIndex snippetIndex = new SnippetIndex(snippets);
+		ScoreFunction noFalsePositives = cached(scoreCache, restricted(snippetIndex, new NoFalsePositives(this)));
 
 		// Check for true and false positives. Each regex should have at least one true
 		// positive, matching the snippet it originated from. Any false positives
@@ -112,7 +208,7 @@ public class REDExFactory {
 		for (Deque<SnippetRegEx> sreStack : sreStacks) {
 			SnippetRegEx sre = sreStack.peek();
 			checkConsistency(snippets, allowOverMatches, outputTag, caseInsensitive, useTier2, patternAdapterClass,
-					noFalsePositives, sre);
+					noFalsePositives, scoreCache, snippetIndex, sre);
 		}
 
 		// Check for false positives. Each ls3 should have at least one true
@@ -120,7 +216,7 @@ public class REDExFactory {
 		for (Deque<SnippetRegEx> sreStack : sreStacks) {
 			SnippetRegEx sre = sreStack.peek();
 			checkConsistency(snippets, allowOverMatches, outputTag, caseInsensitive, useTier2, patternAdapterClass,
-					noFalsePositives, sre);
+					noFalsePositives, scoreCache, snippetIndex, sre);
 		}
 
 		// replace all the digits with their regular expressions.
@@ -133,7 +229,7 @@ public class REDExFactory {
 		for (Deque<SnippetRegEx> sreStack : sreStacks) {
 			SnippetRegEx sre = sreStack.peek();
 			checkConsistency(snippets, allowOverMatches, outputTag, caseInsensitive, useTier2, patternAdapterClass,
-					noFalsePositives, sre);
+					noFalsePositives, scoreCache, snippetIndex, sre);
 		}
 
 		sreStacks = removeDuplicates(sreStacks);
@@ -143,6 +239,9 @@ public class REDExFactory {
 		List<Deque<SnippetRegEx>> tier1 = abstractIteratively(snippets,
 				sreStacks, allowOverMatches, ot1, caseInsensitive, null,
 				noFalsePositives, holdouts, generalizeLabeledSegments, useTier2, patternAdapterClass);
+		if (scoreCache != null) {
+			LOG.info(ot1 + ": " + scoreCache);
+		}
 		outputSnippet2Regex(snippet2regex, ot1);
 		outputRegexHistory(sreStacks, ot1);
 
@@ -177,12 +276,15 @@ public class REDExFactory {
 
 		if (useTier2) {
 			// perform tier 2 discovery
-			ScoreFunction sf = new TPFPDiff();
-			// ScoreFunction sf = new F1Score();
+			ScoreFunction sf = cached(scoreCache, restricted(snippetIndex, new TPFPDiff()));
+			// ScoreFunction sf = cached(scoreCache, restricted(snippetIndex, new F1Score()));
 			String ot2 = (outputTag == null ? "t2" : outputTag + "_t2");
 			List<Deque<SnippetRegEx>> tier2 = abstractIteratively(snippets,
 					tier1Copy, allowOverMatches, ot2, caseInsensitive, sf, sf,
 					holdouts, false, useTier2, patternAdapterClass);
+			if (scoreCache != null) {
+				LOG.info(ot2 + ": " + scoreCache);
+			}
 			outputSnippet2Regex(snippet2regex, ot2);
 			outputRegexHistory(sreStacks, ot2);
 
@@ -215,12 +317,40 @@ public class REDExFactory {
 //				useTier2);
 	}
 
+	private <T> T onScheduler(Callable<T> task) throws IOException {
+		try {
+			return scheduler.compute(task);
+		} catch (IOException | RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static ScoreFunction cached(ScoreCache scoreCache, ScoreFunction scoreFunction) {
+		return scoreCache == null ? scoreFunction : scoreCache.wrap(scoreFunction);
+	}
+
+	/**
+	 * @return A score function scoring a model only on the snippets of the
+	 *     index it may match, if the score function allows it.
+	 */
+	private static ScoreFunction restricted(SnippetIndex snippetIndex, ScoreFunction scoreFunction) {
+		if (!scoreFunction.isRestrictable()) {
+			return scoreFunction;
+		}
+		return (testing, ex, allowOverMatches, caseInsensitive, useTier2, patternAdapterClass) -> scoreFunction
+				.score(snippetIndex.restrict(testing, ex), ex, allowOverMatches, caseInsensitive, useTier2, patternAdapterClass);
+	}
+
 	private void checkConsistency(final Collection<Snippet> snippets, final boolean allowOverMatches,
 			final String outputTag, final boolean caseInsensitive, final boolean useTier2,
-			Class<? extends PatternAdapter> patternAdapterClass, NoFalsePositives noFalsePositives,
-			SnippetRegEx sre) {
-		boolean tps = checkForTruePositives(snippets, new REDExtractor(sre,
-			caseInsensitive), allowOverMatches, caseInsensitive, useTier2, patternAdapterClass);
+			Class<? extends PatternAdapter> patternAdapterClass, ScoreFunction noFalsePositives,
+			ScoreCache scoreCache, SnippetIndex snippetIndex, SnippetRegEx sre) {
+		REDExtractor rex = new REDExtractor(sre, caseInsensitive);
+		// only snippets matched can have true positives
+		boolean tps = checkForTruePositives(snippetIndex.restrict(snippets, rex), rex, allowOverMatches, caseInsensitive,
+				useTier2, patternAdapterClass, scoreCache);
 		if (!tps) {
 			LOG.warn(outputTag
 					+ ": No tps for regex, should be at least one: "
@@ -239,10 +369,11 @@ public class REDExFactory {
 		if (fps) {
 			LOG.warn("Inconsistent annotataion? : fps for regex: "
 					+ sre.toString());
+			CompiledREDExModel compiled = new CompiledREDExModel(rxm, patternAdapterClass);
 			for (Snippet s : snippets) {
-				CVScore cvs = testREDExOnSnippet(rxm,
+				CVScore cvs = testREDExOnSnippet(compiled,
 						allowOverMatches, null,
-						s, useTier2, true, patternAdapterClass);
+						s, useTier2, true);
 				if (cvs.getFp() > 0) {
 					LOG.warn("<FPSnippet>" + s + "</FPSnippet>");
 				}
@@ -323,96 +454,105 @@ public class REDExFactory {
 		}
 		List<TokenFreq> tokenFreqList = new ArrayList<>(tokenFreqs.values());
 		Collections.sort(tokenFreqList);
-		// Attempt to generalize each term, starting with the least frequent
+		List<Token> tokens = new ArrayList<>(tokenFreqList.size());
 		for (TokenFreq tf : tokenFreqList) {
-			Token token = tf.getToken();
-			snippetRegExStacks
-					.parallelStream()
-					.forEach(
-							(sreStack) -> {
-								boolean replaced = false;
-								SnippetRegEx newSre = new SnippetRegEx(sreStack
-										.peek(), caseInsensitive);
-								for (Segment newUnlabeledSegment : newSre
-										.getUnlabeledSegments()) {
-									ListIterator<Token> newUlsIt = newUnlabeledSegment
-											.getTokens().listIterator();
-									List<WeightedRegEx> singleWeightedRegex = new ArrayList<>(1);
-									singleWeightedRegex.add(null);
-									List<Collection<WeightedRegEx>> singleTierWeightedRegex = new ArrayList<>(1);
-									singleTierWeightedRegex.add(singleWeightedRegex);
-									while (newUlsIt.hasNext()) {
-										SnippetRegEx saveSre = new SnippetRegEx(
-												newSre, caseInsensitive);
-										Token newUlsToken = newUlsIt.next();
-										if (newUlsToken.equals(token)) {
-											boolean changed = false;
-											if (TokenType.WORD
-													.equals(newUlsToken
-															.getType())) {
-												newUlsIt.set(new Token(
-														(caseInsensitive ? "[a-z]"
-																: "[A-Za-z]")
-																+ "{1,"
-																+ ((int) Math
-																		.ceil(newUlsToken
-																				.getString()
-																				.length() * 1.2))
-																+ "}?",
-														TokenType.REGEX));
-												changed = true;
-											} else if (TokenType.PUNCTUATION
-													.equals(newUlsToken
-															.getType())) {
-												newUlsIt.set(new Token(
-														"\\p{Punct}{1,"
-																+ ((int) Math
-																		.ceil(newUlsToken
-																				.getString()
-																				.length() * 1.2))
-																+ "}?",
-														TokenType.REGEX));
-												changed = true;
-											}
-											if (changed) {
-												singleWeightedRegex.set(0, saveSre);
-												float beforeScore = (beforeChangeScoreFunction == null ? 1
-														: beforeChangeScoreFunction
-																.score(snippets,
-																		new REDExModel(
-																				singleTierWeightedRegex),
-																		allowOverMatches,
-																		caseInsensitive,
-																		useTier2, patternAdapterClass));
-												singleWeightedRegex.set(0, newSre);
-												float afterScore = (afterChangeScoreFunction == null ? 0
-														: afterChangeScoreFunction
-																.score(snippets,
-																		new REDExModel(singleTierWeightedRegex),
-																		allowOverMatches,
-																		caseInsensitive,
-																		useTier2, patternAdapterClass));
-												if (afterScore < beforeScore) {
-													// revert
-													newSre = saveSre;
-												} else {
-													replaced = true;
-												}
-											}
-										}
-									}
-								}
-								if (replaced) {
-									if (!DEBUG) {
-										sreStack.clear();
-									}
-									sreStack.push(newSre);
-								}
-							});
+			tokens.add(tf.getToken());
+		}
+		// stacks are generalized independently, each through all the tokens in turn
+		List<ForkJoinTask<?>> tasks = new ArrayList<>(snippetRegExStacks.size());
+		for (Deque<SnippetRegEx> sreStack : snippetRegExStacks) {
+			tasks.add(ForkJoinTask.adapt(() -> generalizeLFtoMF(snippets, sreStack, tokens,
+					allowOverMatches, caseInsensitive, beforeChangeScoreFunction,
+					afterChangeScoreFunction, useTier2, patternAdapterClass)));
 		}
+		ForkJoinTask.invokeAll(tasks);
 		return snippetRegExStacks;
 	}
 
+	/**
+	 * Attempts to generalize each token of a regex stack, in the order given.
+	 * @param snippets
+	 *            Snippets for testing replacements
+	 * @param sreStack
+	 *            The regex stack to generalize
+	 * @param tokens
+	 *            The tokens to generalize, least frequent first
+	 */
+	private void generalizeLFtoMF(Collection<Snippet> snippets,
+			Deque<SnippetRegEx> sreStack, List<Token> tokens,
+			boolean allowOverMatches, boolean caseInsensitive,
+			ScoreFunction beforeChangeScoreFunction,
+			ScoreFunction afterChangeScoreFunction,
+			boolean useTier2, Class<? extends PatternAdapter> patternAdapterClass) {
+		// tokens are only ever replaced, so one not in the stack now never will be
+		Set<Token> present = new HashSet<>();
+		for (Segment unlabeledSegment : sreStack.peek().getUnlabeledSegments()) {
+			present.addAll(unlabeledSegment.getTokens());
+		}
+		for (Token token : tokens) {
+			if (!present.contains(token)) {
+				continue;
+			}
+			boolean replaced = false;
+			SnippetRegEx newSre = new SnippetRegEx(sreStack.peek(), caseInsensitive);
+			for (Segment newUnlabeledSegment : newSre.getUnlabeledSegments()) {
+				ListIterator<Token> newUlsIt = newUnlabeledSegment.getTokens().listIterator();
+				List<WeightedRegEx> singleWeightedRegex = new ArrayList<>(1);
+				singleWeightedRegex.add(null);
+				List<Collection<WeightedRegEx>> singleTierWeightedRegex = new ArrayList<>(1);
+				singleTierWeightedRegex.add(singleWeightedRegex);
+				while (newUlsIt.hasNext()) {
+					Token newUlsToken = newUlsIt.next();
+					if (newUlsToken.equals(token)) {
+						// newSre is unchanged since the token was reached
+						SnippetRegEx saveSre = new SnippetRegEx(newSre, caseInsensitive);
+						boolean changed = false;
+						if (TokenType.WORD.equals(newUlsToken.getType())) {
+							newUlsIt.set(new Token(
+									(caseInsensitive ? "[a-z]" : "[A-Za-z]")
+											+ "{1,"
+											+ ((int) Math.ceil(newUlsToken.getString().length() * 1.2))
+											+ "}?",
+									TokenType.REGEX));
+							changed = true;
+						} else if (TokenType.PUNCTUATION.equals(newUlsToken.getType())) {
+							newUlsIt.set(new Token(
+									"\\p{Punct}{1,"
+											+ ((int) Math.ceil(newUlsToken.getString().length() * 1.2))
+											+ "}?",
+									TokenType.REGEX));
+							changed = true;
+						}
+						if (changed) {
+							singleWeightedRegex.set(0, saveSre);
+							float beforeScore = (beforeChangeScoreFunction == null ? 1
+									: beforeChangeScoreFunction.score(snippets,
+											new REDExModel(singleTierWeightedRegex),
+											allowOverMatches, caseInsensitive, useTier2, patternAdapterClass));
+							singleWeightedRegex.set(0, newSre);
+							float afterScore = (afterChangeScoreFunction == null ? 0
+									: afterChangeScoreFunction.score(snippets,
+											new REDExModel(singleTierWeightedRegex),
+											allowOverMatches, caseInsensitive, useTier2, patternAdapterClass));
+							if (afterScore < beforeScore) {
+								// revert
+								newSre = saveSre;
+							} else {
+								replaced = true;
+							}
+						}
+					}
+				}
+			}
+			if (replaced) {
+				if (!DEBUG) {
+					sreStack.clear();
+				}
+				sreStack.push(newSre);
+			}
+		}
+	}
+
 	/**
 	 * @param snippetRegExStacks
 	 * @throws IOException
@@ -503,31 +643,36 @@ public class REDExFactory {
 			}
 			genLS.addAll(ls.getTokens());
 		}
-		List<WeightedRegEx> singleWeightedRegex = new ArrayList<>(1);
-		singleWeightedRegex.add(null);
-		List<Collection<WeightedRegEx>> singleTierWeightedRegex = new ArrayList<>(1);
-		singleTierWeightedRegex.add(singleWeightedRegex);
+		// each stack is scored on its own
+		List<ForkJoinTask<?>> tasks = new ArrayList<>(snippetRegExStacks.size());
 		for (Deque<SnippetRegEx> ls3stack : snippetRegExStacks) {
-			SnippetRegEx beforeSre = ls3stack.peek();
-			SnippetRegEx sreCopy = new SnippetRegEx(beforeSre, caseInsensitive);
-			sreCopy.setLabeledSegments(new Segment(new ArrayList<>(genLS), true));
-			singleWeightedRegex.set(0, beforeSre);
-			float beforeScore = (beforeChangeScoreFunction == null ? 1
-					: beforeChangeScoreFunction.score(snippets,
-							new REDExModel(singleTierWeightedRegex),
-							allowOverMatches, caseInsensitive, useTier2, patternAdapterClass));
-			singleWeightedRegex.set(0, beforeSre);
-			float afterScore = (afterChangeScoreFunction == null ? 0
-					: afterChangeScoreFunction.score(snippets,
-							new REDExModel(singleTierWeightedRegex),
-							allowOverMatches, caseInsensitive, useTier2, patternAdapterClass));
-			if (beforeScore <= afterScore) {
-				if (!DEBUG) {
-					ls3stack.clear();
+			tasks.add(ForkJoinTask.adapt(() -> {
+				List<WeightedRegEx> singleWeightedRegex = new ArrayList<>(1);
+				singleWeightedRegex.add(null);
+				List<Collection<WeightedRegEx>> singleTierWeightedRegex = new ArrayList<>(1);
+				singleTierWeightedRegex.add(singleWeightedRegex);
+				SnippetRegEx beforeSre = ls3stack.peek();
+				SnippetRegEx sreCopy = new SnippetRegEx(beforeSre, caseInsensitive);
+				sreCopy.setLabeledSegments(new Segment(new ArrayList<>(genLS), true));
+				singleWeightedRegex.set(0, beforeSre);
+				float beforeScore = (beforeChangeScoreFunction == null ? 1
+						: beforeChangeScoreFunction.score(snippets,
+								new REDExModel(singleTierWeightedRegex),
+								allowOverMatches, caseInsensitive, useTier2, patternAdapterClass));
+				singleWeightedRegex.set(0, beforeSre);
+				float afterScore = (afterChangeScoreFunction == null ? 0
+						: afterChangeScoreFunction.score(snippets,
+								new REDExModel(singleTierWeightedRegex),
+								allowOverMatches, caseInsensitive, useTier2, patternAdapterClass));
+				if (beforeScore <= afterScore) {
+					if (!DEBUG) {
+						ls3stack.clear();
+					}
+					ls3stack.push(sreCopy);
 				}
-				ls3stack.push(sreCopy);
-			}
+			}));
 		}
+		ForkJoinTask.invokeAll(tasks);
 		return snippetRegExStacks;
 	}
 
@@ -637,6 +782,12 @@ public class REDExFactory {
 			ScoreFunction beforeChangeScoreFunction,
 			ScoreFunction afterChangeScoreFunction, List<String> holdouts,
 			boolean useTier2, Class<? extends PatternAdapter> patternAdapterClass) {
+		if (trimStrategy == TrimStrategy.GALLOPING) {
+			snippetRegExStacks.parallelStream().forEach(sreStack -> trimGalloping(snippets, sreStack,
+					allowOverMatches, caseInsensitive, beforeChangeScoreFunction,
+					afterChangeScoreFunction, holdouts, useTier2, patternAdapterClass));
+			return;
+		}
 		// trim from the front and back, repeat while progress is being made
 		snippetRegExStacks
 				.parallelStream()
@@ -727,6 +878,97 @@ public class REDExFactory {
 				});
 	}
 
+	/**
+	 * Trims a regex stack with the {@link TrimStrategy#GALLOPING} strategy.
+	 */
+	private void trimGalloping(final Collection<Snippet> snippets,
+			Deque<SnippetRegEx> sreStack,
+			boolean allowOverMatches, boolean caseInsensitive,
+			ScoreFunction beforeChangeScoreFunction,
+			ScoreFunction afterChangeScoreFunction, List<String> holdouts,
+			boolean useTier2, Class<? extends PatternAdapter> patternAdapterClass) {
+		List<WeightedRegEx> singleWeightedRegex = new ArrayList<>(1);
+		singleWeightedRegex.add(null);
+		List<Collection<WeightedRegEx>> singleTierWeightedRegex = new ArrayList<>(1);
+		singleTierWeightedRegex.add(singleWeightedRegex);
+		boolean progress;
+		do {
+			progress = false;
+			SnippetRegEx beforeSre = sreStack.peek();
+			List<Boolean> path = trimPath(beforeSre, holdouts);
+			if (path.isEmpty()) {
+				break;
+			}
+			singleWeightedRegex.set(0, beforeSre);
+			float beforeScore = (beforeChangeScoreFunction == null ? 1
+					: beforeChangeScoreFunction.score(
+							snippets, new REDExModel(singleTierWeightedRegex),
+							allowOverMatches, caseInsensitive, useTier2, patternAdapterClass));
+			// the most steps of the path trimmed without dropping the score, and the fewest found to drop it
+			int kept = 0;
+			SnippetRegEx keptSre = null;
+			int dropped = path.size() + 1;
+			int steps = 1;
+			while (steps > kept && steps < dropped) {
+				SnippetRegEx sreTrim = new SnippetRegEx(beforeSre, caseInsensitive);
+				for (Boolean fromBeginning : path.subList(0, steps)) {
+					if (fromBeginning.booleanValue()) {
+						sreTrim.trimFromBeginning();
+					} else {
+						sreTrim.trimFromEnd();
+					}
+				}
+				singleWeightedRegex.set(0, sreTrim);
+				float afterScore = (afterChangeScoreFunction == null ? 0
+						: afterChangeScoreFunction.score(
+								snippets, new REDExModel(singleTierWeightedRegex),
+								allowOverMatches, caseInsensitive, useTier2, patternAdapterClass));
+				if (afterScore < beforeScore) {
+					dropped = steps;
+				} else {
+					kept = steps;
+					keptSre = sreTrim;
+				}
+				// gallop until the score drops or the path ends, then bisect
+				steps = dropped > path.size() ? Math.min(steps * 2, path.size()) : (kept + dropped) >>> 1;
+			}
+			if (keptSre != null) {
+				if (!DEBUG) {
+					sreStack.clear();
+				}
+				sreStack.push(keptSre);
+				progress = true;
+			}
+		} while (progress);
+	}
+
+	/**
+	 * @return The ends the linear strategy of {@link #trimRegEx} trims a
+	 *     regex from, one token at a time, if its score never dropped,
+	 *     <code>true</code> for the beginning.
+	 */
+	private static List<Boolean> trimPath(SnippetRegEx sre, List<String> holdouts) {
+		SnippetRegEx sreTrim = new SnippetRegEx(sre, false);
+		List<Boolean> path = new ArrayList<>();
+		while (true) {
+			Token headToken = sreTrim.getBeginningToken();
+			boolean headEligible = headToken != null
+					&& (!(TokenType.WORD.equals(headToken.getType()) && CVUtils.containsCI(holdouts, headToken.getString())));
+			Token tailToken = sreTrim.getEndToken();
+			boolean tailEligible = tailToken != null
+					&& (!(TokenType.WORD.equals(tailToken.getType()) && CVUtils.containsCI(holdouts, tailToken.getString())));
+			if (headEligible && sreTrim.getFirstSegmentLength() >= sreTrim.getLastSegmentLength()) {
+				sreTrim.trimFromBeginning();
+				path.add(Boolean.TRUE);
+			} else if (tailEligible && sreTrim.getFirstSegmentLength() <= sreTrim.getLastSegmentLength()) {
+				sreTrim.trimFromEnd();
+				path.add(Boolean.FALSE);
+			} else {
+				return path;
+			}
+		}
+	}
+
 	enum RESULT {
 		TP, TN, FP, FN
 	};
@@ -753,6 +995,13 @@ public class REDExFactory {
 	public CVScore test(Collection<Snippet> testing, REDExModel ex,
 			boolean allowOverMatches, PrintWriter pw, boolean useTier2,
 			Class<? extends PatternAdapter> patternAdapterClass) {
+		if (scheduler != null && !scheduler.isComputing()) {
+			try {
+				return onScheduler(() -> test(testing, ex, allowOverMatches, pw, useTier2, patternAdapterClass));
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
 		PrintWriter tempLocalPW = null;
 		StringWriter sw = null;
 		if (pw != null) {
@@ -760,11 +1009,12 @@ public class REDExFactory {
 			tempLocalPW = new PrintWriter(sw);
 		}
 		final PrintWriter localPW = tempLocalPW;
+		final CompiledREDExModel compiled = SnippetIndex.compile(testing, ex.getRegexTiers(), patternAdapterClass);
 		CVScore score = testing
 				.parallelStream()
 				.map((snippet) -> {
-					return testREDExOnSnippet(ex, allowOverMatches,
-							localPW, snippet, useTier2, false, patternAdapterClass);
+					return testREDExOnSnippet(compiled, allowOverMatches,
+							localPW, snippet, useTier2, false);
 				}).reduce(new CVScore(), (s, r) -> {
 					s.add(r);
 					return s;
@@ -789,7 +1039,13 @@ public class REDExFactory {
 
 	CVScore testREDExOnSnippet(REDExModel ex, boolean allowOverMatches,
 			final PrintWriter localPW, Snippet snippet, boolean useTier2, boolean breakOnFP, Class<? extends PatternAdapter> patternAdapterClass) {
-		Set<MatchedElement> predictions = REDExtractor.extract(ex.getRegexTiers(), snippet.getText(), useTier2, patternAdapterClass);
+		return testREDExOnSnippet(new CompiledREDExModel(ex, patternAdapterClass), allowOverMatches, localPW, snippet,
+				useTier2, breakOnFP);
+	}
+
+	CVScore testREDExOnSnippet(CompiledREDExModel ex, boolean allowOverMatches,
+			final PrintWriter localPW, Snippet snippet, boolean useTier2, boolean breakOnFP) {
+		Set<MatchedElement> predictions = ex.extract(snippet.getText(), useTier2);
 		List<String> actual = snippet.getLabeledStrings();
 
 		Set<Integer> candMatchIndexes = new HashSet<>();
@@ -887,13 +1143,20 @@ public class REDExFactory {
 		return str1.contains(str2) || str2.contains(str1);
 	}
 
+	/**
+	 * If case insensitive, the labeled strings of the snippets examined are
+	 * lowercased, which can change their scores, so the score cache, if any,
+	 * is then cleared.
+	 */
 	private boolean checkForTruePositives(Collection<Snippet> testing,
-			REDExtractor ex, boolean allowOverMatches, boolean caseInsensitive, boolean useTier2, Class<? extends PatternAdapter> patternAdapterClass) {
+			REDExtractor ex, boolean allowOverMatches, boolean caseInsensitive, boolean useTier2, Class<? extends PatternAdapter> patternAdapterClass,
+			ScoreCache scoreCache) {
+		CompiledREDExModel compiled = SnippetIndex.compile(testing, ex.getRankedSnippetRegExs(), patternAdapterClass);
 		return testing
 				.parallelStream()
 				.map((snippet) -> {
-					Set<MatchedElement> candidates = REDExtractor.extract(ex.getRankedSnippetRegExs(), snippet
-							.getText(), useTier2, patternAdapterClass);
+					Set<MatchedElement> candidates = compiled.extract(snippet
+							.getText(), useTier2);
 					List<String> actual = snippet.getLabeledStrings();
 
 					if (candidates == null || candidates.size() == 0) {
@@ -916,9 +1179,13 @@ public class REDExFactory {
 									LabeledSegment ls = snippet
 											.getLabeledSegments().get(p);
 									if (caseInsensitive) {
-										ls.setLabeledString(ls
-												.getLabeledString()
-												.toLowerCase());
+										String lower = ls.getLabeledString().toLowerCase();
+										if (!lower.equals(ls.getLabeledString())) {
+											ls.setLabeledString(lower);
+											if (scoreCache != null) {
+												scoreCache.clear();
+											}
+										}
 									}
 									if (rangesOverlap(ls.getStart(),
 											ls.getStart() + ls.getLength(),
@@ -979,6 +1246,15 @@ public class REDExFactory {
 	interface ScoreFunction {
 		float score(Collection<Snippet> testing, REDExModel ex,
 				boolean allowOverMatches, boolean caseInsensitive, boolean useTier2, Class<? extends PatternAdapter> patternAdapterClass);
+
+		/**
+		 * @return <code>true</code> if the score is the same when only the
+		 *     snippets the model matches are scored, that is snippets without
+		 *     matches add nothing to it.
+		 */
+		default boolean isRestrictable() {
+			return false;
+		}
 	}
 
 	static class NoFalsePositives implements ScoreFunction {
@@ -996,18 +1272,27 @@ public class REDExFactory {
 		@Override
 		public float score(Collection<Snippet> testing, REDExModel ex,
 				boolean allowOverMatches, boolean caseInsensitive, boolean useTier2, Class<? extends PatternAdapter> patternAdapterClass) {
+			CompiledREDExModel compiled = SnippetIndex.compile(testing, ex.getRegexTiers(), patternAdapterClass);
 			boolean anyFalsePositives = testing
 					.parallelStream()
 					.map((snippet) -> {
-						CVScore cvs = rexFactory.testREDExOnSnippet(ex,
+						CVScore cvs = rexFactory.testREDExOnSnippet(compiled,
 								allowOverMatches, null,
-								snippet, useTier2, true, patternAdapterClass);
+								snippet, useTier2, true);
 						return Boolean.valueOf(cvs.getFp() > 0);
 					}).anyMatch((fp) -> {
 						return fp;
 					});
 			return anyFalsePositives ? 0f : 1f;
 		}
+
+		/**
+		 * A snippet without predictions has no false positives.
+		 */
+		@Override
+		public boolean isRestrictable() {
+			return true;
+		}
 	}
 
 	private class TPFPDiff implements ScoreFunction {
@@ -1021,6 +1306,14 @@ public class REDExFactory {
 					null, useTier2, patternAdapterClass);
 			return (float) (score.getTp() - score.getFp());
 		}
+
+		/**
+		 * A snippet without predictions has no true or false positives.
+		 */
+		@Override
+		public boolean isRestrictable() {
+			return true;
+		}
 	}
 
 	@SuppressWarnings("unused")
@@ -1044,28 +1337,57 @@ public class REDExFactory {
 			String outputTag, Path outputModelPath, boolean caseInsensitive,
 			List<String> holdouts, boolean useTier2, final boolean generalizeLabeledSegments, final boolean debug, Class<? extends PatternAdapter> patternAdapterClass)
 			throws IOException {
+		return buildModel(snippets, labels, allowOverMatches, outputTag, outputModelPath, caseInsensitive, holdouts,
+				useTier2, generalizeLabeledSegments, debug, patternAdapterClass, false);
+	}
+
+	/**
+	 * Trains a model and writes it to a file.
+	 * @param calibrateEngines if <code>true</code> then the engine for each regular expression is chosen by timing
+	 *     it on the snippets with an {@link EngineCalibrator}, and recorded in the model for use with a
+	 *     {@link HybridPatternAdapter}.
+	 */
+	public REDExModel buildModel(final Collection<Snippet> snippets,
+			final Collection<String> labels, final boolean allowOverMatches,
+			String outputTag, Path outputModelPath, boolean caseInsensitive,
+			List<String> holdouts, boolean useTier2, final boolean generalizeLabeledSegments, final boolean debug, Class<? extends PatternAdapter> patternAdapterClass,
+			boolean calibrateEngines)
+			throws IOException {
 		REDExModel model = train(snippets, allowOverMatches, outputTag,
 				caseInsensitive, true, holdouts, useTier2, generalizeLabeledSegments, patternAdapterClass);
+		if (calibrateEngines) {
+			model = calibrateEngines(model, snippets);
+		}
 		REDExModel.dump(model, outputModelPath);
 		return model;
 	}
 
+	private static REDExModel calibrateEngines(REDExModel model, Collection<Snippet> snippets) {
+		List<String> texts = new ArrayList<>(snippets.size());
+		for (Snippet snippet : snippets) {
+			texts.add(snippet.getText());
+		}
+		return new EngineCalibrator().calibrate(model, texts);
+	}
+
 	public static void main(String[] args) throws ConfigurationException,
 			IOException, URISyntaxException {
 		if (args.length != 3) {
 			System.out
-					.println("Arguments: [buildmodel|crossvalidate] [pctproc=<percent of processors to use>] <properties file>");
+					.println("Arguments: [buildmodel|crossvalidate] [pctproc=<percent of processors to use>] <properties file>\n"
+							+ "The property 'scheduler' picks the threads to train on: " + ExtractionSchedulers.FIXED + " (the default), "
+							+ ExtractionSchedulers.FORK_JOIN + " or " + ExtractionSchedulers.VIRTUAL + ".");
 			return;
 		}
 		String op = args[0];
 		int pctproc = Integer.parseInt(args[1].split("=")[1]);
 		int processors = Runtime.getRuntime().availableProcessors();
-		int useProcessors = (int) Math.ceil(((float)pctproc/100f) * ((float)processors));
-		System.setProperty("java.util.concurrent.ForkJoinPool.common.parallelism", "" + useProcessors);
-		System.out.println("Using " + pctproc + "% of the available processors. Available = " + processors + ", using " + useProcessors);
+		int useProcessors = Math.max(1, (int) Math.ceil(((float)pctproc/100f) * ((float)processors)));
 		String propFilename = args[2];
 		LOG.info("Using properties from: " + propFilename);
 		Configuration conf = new PropertiesConfiguration(propFilename);
+		ExtractionScheduler scheduler = ExtractionSchedulers.forName(conf.getString("scheduler", ExtractionSchedulers.FIXED), useProcessors);
+		System.out.println("Using " + pctproc + "% of the available processors. Available = " + processors + ", using " + useProcessors + " with " + scheduler);
 		List<Object> vttfileObjs = conf.getList("vtt.file");
 		List<File> vttfiles = new ArrayList<>(vttfileObjs.size());
 		for (Object vf : vttfileObjs) {
@@ -1104,6 +1426,9 @@ public class REDExFactory {
 		Boolean useTier2 = conf.getBoolean("use.tier2", Boolean.TRUE);
 		Boolean generalizeCaptureGroups = conf.getBoolean("generalize.capture.groups", true);
 		Boolean useRE2J = conf.getBoolean("use.re2j", Boolean.FALSE);
+		Boolean calibrateEngines = conf.getBoolean("calibrate.engines", Boolean.FALSE);
+		long scoreCacheEntries = conf.getLong("score.cache.entries", ScoreCache.DEFAULT_MAX_ENTRIES);
+		TrimStrategy trimStrategy = TrimStrategy.forName(conf.getString("trim.strategy", "linear"));
 		Class<? extends PatternAdapter> patternAdapterClass = null;
 		if (useRE2J) {
 			patternAdapterClass = RE2JPatternAdapter.class;
@@ -1127,6 +1452,8 @@ public class REDExFactory {
 		}
 		if ("crossvalidate".equalsIgnoreCase(op)) {
 			REDExCrossValidator rexcv = new REDExCrossValidator(folds, allowOvermatches, caseInsensitive, holdouts, useTier2, generalizeCaptureGroups, stopAfterFirstFold, shuffle, limit, patternAdapterClass);
+			rexcv.setScheduler(scheduler);
+			rexcv.setTrimStrategy(trimStrategy);
 			List<CVResult> results = rexcv.crossValidate(vttfiles, labels, new VTTSnippetParser());
 
 			// Display aggregate results
@@ -1161,7 +1488,9 @@ public class REDExFactory {
 					+ "\nallow.overmatches: " + allowOvermatches
 					+ "\ncase.insensitive: " + caseInsensitive
 					+ "\nshuffle: " + shuffle + "\nsnippet.limit: " + limit
-					+ "\nmodel.output.file: " + modelOutputFile);
+					+ "\nmodel.output.file: " + modelOutputFile
+					+ "\ncalibrate.engines: " + calibrateEngines
+					+ "\ntrim.strategy: " + trimStrategy.name().toLowerCase());
 
 			// randomize the order of the snippets
 			if (shuffle) {
@@ -1178,10 +1507,18 @@ public class REDExFactory {
 			}
 
 			LOG.info("training ...");
-			REDExModel rex = new REDExFactory().train(snippets,
+			REDExFactory factory = new REDExFactory(scheduler);
+			factory.setScoreCacheEntries(scoreCacheEntries);
+			factory.setTrimStrategy(trimStrategy);
+			REDExModel rex = factory.train(snippets,
 					allowOvermatches, "m", caseInsensitive, true, holdouts,
 					useTier2, generalizeCaptureGroups, patternAdapterClass);
 			LOG.info("... done training.");
+			if (calibrateEngines) {
+				LOG.info("calibrating regular expression engines ...");
+				rex = calibrateEngines(rex, snippets);
+				LOG.info("... done calibrating regular expression engines.");
+			}
 			LOG.info("Writing model file ...");
 			Path modelFilePath = FileSystems.getDefault().getPath("",
 					modelOutputFile);
@@ -1194,7 +1531,6 @@ public class REDExFactory {
 			REDExModel.dump(rex, modelFilePath);
 			LOG.info("... wrote model file to " + modelOutputFile);
 		}
-		ForkJoinPool.commonPool().shutdown();
 		if (oldSystemOut != null) {
 			System.setOut(oldSystemOut);
 		}
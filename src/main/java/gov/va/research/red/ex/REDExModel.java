@@ -146,7 +146,7 @@ public class REDExModel implements RegexTiers {
 				if (src instanceof WeightedRegExImpl) {
 					wrxi = ((WeightedRegExImpl)src);
 				} else {
-					wrxi = new WeightedRegExImpl(src.getRegEx(), src.getWeight());
+					wrxi = new WeightedRegExImpl(src.getRegEx(), src.getWeight(), src.getEngine());
 				}
 				return context.serialize(wrxi, WeightedRegExImpl.class);
 			}			
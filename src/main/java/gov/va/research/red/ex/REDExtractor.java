@@ -1,47 +1,43 @@
 package gov.va.research.red.ex;
 
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.io.StringWriter;
-import java.io.Writer;
+import java.nio.charset.Charset;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
-import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.Date;
+import java.util.Deque;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.Spliterator;
 import java.util.Spliterators;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
-import java.util.function.Function;
-import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
 import javax.xml.stream.XMLStreamException;
 
 import org.apache.commons.cli.CommandLine;
@@ -56,37 +52,23 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import bioc.BioCAnnotation;
-import bioc.BioCCollection;
 import bioc.BioCDocument;
 import bioc.BioCPassage;
-import bioc.io.BioCCollectionWriter;
-import bioc.io.BioCFactory;
 import gov.va.research.red.CSVReader;
 import gov.va.research.red.MatchedElement;
 import gov.va.research.red.SnippetData;
+import gov.va.research.red.regex.HybridPatternAdapter;
 import gov.va.research.red.regex.JSEPatternAdapter;
-import gov.va.research.red.regex.MatcherAdapter;
 import gov.va.research.red.regex.PatternAdapter;
 import gov.va.research.red.regex.RE2JPatternAdapter;
 
 public class REDExtractor implements Extractor, RegexTiers {
 	private static transient final Logger LOG = LoggerFactory.getLogger(REDExtractor.class);
 	private static final String LS = System.getProperty("line.separator");
-	private static final Set<MatchedElement> EMPTY_SET = Collections.unmodifiableSet(new HashSet<>());
-	private static final int TIMEOUT = 5;
-	private static final TimeUnit TIMEOUT_UNIT = TimeUnit.MINUTES;
 	private static final float DEFAULT_FRACTION_OF_PROCESSORS = 0.7f;
-	private static final int PROCESSORS = Runtime.getRuntime().availableProcessors();
-	private static final int USE_PROCESSORS = (int) Math.ceil(DEFAULT_FRACTION_OF_PROCESSORS * ((float)PROCESSORS));
-	private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(USE_PROCESSORS, new ThreadFactory() {
-		@Override
-		public Thread newThread(Runnable r) {
-			Thread t = Executors.defaultThreadFactory().newThread(r);
-			t.setDaemon(true);
-			return t;
-		}
-	});
-
+	private static final long SHUTDOWN_WAIT_MILLIS = 10000;
+	// collects the positions matched by the models, reused by each document on a thread
+	private static final ThreadLocal<MatchSpans> THREAD_SPANS = ThreadLocal.withInitial(MatchSpans::new);
 	private List<Collection<? extends WeightedRegEx/*SnippetRegEx*/>> rankedSnippetRegExs;
 	private String metadata;
 	private boolean caseInsensitive;
@@ -122,122 +104,22 @@ public class REDExtractor implements Extractor, RegexTiers {
 		this.useTier2 = useTier2;
 	}
 
+	/**
+	 * Extracts information from a target using tiers of weighted regular
+	 * expressions. The regular expressions are compiled on each call, so when
+	 * the same tiers are applied to many targets a {@link CompiledREDExModel}
+	 * should be used instead.
+	 * @param regexeTierList Tiered weighted regular expressions, highest priority first.
+	 * @param target The text from which to extract information.
+	 * @param useTier2 if <code>false</code> then only the first tier is used.
+	 * @param patternAdapterClass The adapter class to use for the chosen regular expression engine.
+	 * @return The matches of the highest priority tier that produced any matches, or <code>null</code> if target is empty.
+	 */
 	public static Set<MatchedElement> extract(List<Collection<? extends WeightedRegEx>> regexeTierList, String target, boolean useTier2, Class<? extends PatternAdapter> patternAdapterClass) {
 		if (target == null || target.length() == 0) {
 			return null;
 		}
-		ConcurrentMap<MatchedElement.MatchPos, MatchedElement.MatchData> returnMap = null;
-		boolean tier1 = true;
-		ConcurrentSkipListSet<WeightedRegEx> reject = new ConcurrentSkipListSet<>();
-
-		for (Collection<? extends WeightedRegEx> regexTier : regexeTierList) {
-			if ((useTier2 || tier1) && regexTier != null && !regexTier.isEmpty()) {
-				returnMap = regexTier.parallelStream().flatMap((wrx) -> {
-					MatchFinder mf = new MatchFinder(wrx, target, patternAdapterClass);
-					Future<Set<MatchedElement>> future = EXECUTOR.submit(mf);
-					Set<MatchedElement> mes = EMPTY_SET;
-					try {
-						mes = future.get(TIMEOUT, TIMEOUT_UNIT);
-					} catch (TimeoutException e) {
-						LOG.warn("MatchFinder timed out after " + TIMEOUT + " " + TIMEOUT_UNIT + " on regular expression '" + wrx.getRegEx() + "' applied to target '" + target + "'");
-						reject.add(wrx);
-					} catch (InterruptedException | ExecutionException e) {
-						try (	StringWriter sw = new StringWriter();
-								PrintWriter pw = new PrintWriter(sw)) {
-							e.printStackTrace(pw);
-							pw.flush();
-							sw.flush();
-							LOG.error(sw.toString());
-						} catch (IOException e1) {
-							e1.printStackTrace();
-						}
-					} finally {
-						future.cancel(true);
-					}
-					return mes.parallelStream();
-				}).collect(Collectors.toConcurrentMap(
-						// MatchedElement.MatchData::getMatchPos
-						new Function<MatchedElement, MatchedElement.MatchPos>() {
-							public MatchedElement.MatchPos apply(MatchedElement me) {
-								return me.getMatchPos();
-							};
-						},
-						// MatchedElement.MatchData::getMatchData
-						new Function<MatchedElement, MatchedElement.MatchData>() {
-							public MatchedElement.MatchData apply(MatchedElement me) {
-								return me.getMatchData();
-							};
-						}, new java.util.function.BinaryOperator<MatchedElement.MatchData>() {
-							public MatchedElement.MatchData apply(MatchedElement.MatchData md1,
-									MatchedElement.MatchData md2) {
-								md1.combine(md2);
-								return md1;
-							};
-						}));
-			}
-		}
-		for (Collection<? extends WeightedRegEx> wregexs : regexeTierList) {
-			if ((useTier2 || tier1) && wregexs != null && !wregexs.isEmpty()) {
-				returnMap = wregexs.parallelStream().flatMap((wrx) -> {
-					MatchFinder mf = new MatchFinder(wrx, target, patternAdapterClass);
-					Future<Set<MatchedElement>> future = EXECUTOR.submit(mf);
-					Set<MatchedElement> mes = EMPTY_SET;
-					try {
-						mes = future.get(TIMEOUT, TIMEOUT_UNIT);
-					} catch (TimeoutException e) {
-						LOG.warn("MatchFinder timed out after " + TIMEOUT + " " + TIMEOUT_UNIT + " on regular expression '" + wrx.getRegEx() + "' applied to target '" + target + "'");
-						reject.add(wrx);
-					} catch (InterruptedException | ExecutionException e) {
-						try (	StringWriter sw = new StringWriter();
-								PrintWriter pw = new PrintWriter(sw)) {
-							e.printStackTrace(pw);
-							pw.flush();
-							sw.flush();
-							LOG.error(sw.toString());
-						} catch (IOException e1) {
-							e1.printStackTrace();
-						}
-					} finally {
-						future.cancel(true);
-					}
-					return mes.parallelStream();
-				}).collect(Collectors.toConcurrentMap(
-						// MatchedElement.MatchData::getMatchPos
-						new Function<MatchedElement, MatchedElement.MatchPos>() {
-							public MatchedElement.MatchPos apply(MatchedElement me) {
-								return me.getMatchPos();
-							};
-						},
-						// MatchedElement.MatchData::getMatchData
-						new Function<MatchedElement, MatchedElement.MatchData>() {
-							public MatchedElement.MatchData apply(MatchedElement me) {
-								return me.getMatchData();
-							};
-						}, new java.util.function.BinaryOperator<MatchedElement.MatchData>() {
-							public MatchedElement.MatchData apply(MatchedElement.MatchData md1,
-									MatchedElement.MatchData md2) {
-								md1.combine(md2);
-								return md1;
-							};
-						}));
-			}
-			// returnMap now contains all matches for the current tier
-			tier1 = false;
-			if (returnMap != null && !returnMap.isEmpty()) {
-				break;
-			}
-		}
-
-		if (returnMap == null || returnMap.isEmpty()) {
-			return new HashSet<>(0);
-		}
-
-		Set<MatchedElement> returnSet = new HashSet<>(returnMap.size());
-		for (Map.Entry<MatchedElement.MatchPos, MatchedElement.MatchData> e : returnMap.entrySet()) {
-			returnSet.add(new MatchedElement(e.getKey(), e.getValue()));
-		}
-
-		return returnSet;
+		return new CompiledREDExModel(regexeTierList, patternAdapterClass).extract(target, useTier2);
 	}
 
 	private class MatchedElementPosComparator implements Comparator<MatchedElement> {
@@ -294,46 +176,6 @@ public class REDExtractor implements Extractor, RegexTiers {
 //		return new REDExModel(getWeightedRegularExpressions());
 //	}
 
-	private static class MatchFinder implements Callable<Set<MatchedElement>> {
-		WeightedRegEx weightedRegex;
-		String target;
-		Class<? extends PatternAdapter> patternAdapterClass;
-
-		public MatchFinder(WeightedRegEx weightedRegex, String target, Class<? extends PatternAdapter> patternAdapterClass) {
-			this.weightedRegex = weightedRegex;
-			this.target = target;
-			this.patternAdapterClass = patternAdapterClass;
-		}
-
-//		public MatchFinder(SnippetRegEx sre, String target, boolean caseInsensitive) {
-//			this(sre.toWeightedRegex(caseInsensitive), target);
-//		}
-
-		@Override
-		public Set<MatchedElement> call() {
-			Set<MatchedElement> matchedElements = new HashSet<>();
-			PatternAdapter p = weightedRegex.getPattern(this.patternAdapterClass);
-			MatcherAdapter matcher = p.matcher(target);
-			if (matcher.find()) {
-				if (matcher.groupCount() < 1) {
-					// LOG.debug("No capturing group match.\nTarget = " + target
-					// + "\nPattern = " + sre.getPattern(caseInsensitive));
-				} else {
-					String candidateLS = matcher.group(1);
-					if (candidateLS != null && !(candidateLS.length() == 0)) {
-						int startPos = matcher.start(1);
-						int endPos = matcher.end(1);
-						Set<String> matchingRegexes = new HashSet<>(1);
-						matchingRegexes.add(p.pattern());
-						matchedElements.add(new MatchedElement(startPos, endPos, candidateLS, matchingRegexes,
-								weightedRegex.getWeight()));
-					}
-				}
-			}
-			return matchedElements;
-		}
-	}
-	
 //	/**
 //	 * Dumps (serializes) the REDExtractor to a file.
 //	 * 
@@ -386,17 +228,75 @@ public class REDExtractor implements Extractor, RegexTiers {
 //	}
 
 	/**
-	 * Main entry point for standalone execution of a REDExtractor
-	 * 
-	 * @param args see buildOption()
-	 *             -d,--file-directory &lt;arg&gt;
-	 *             -f,--file(s) &lt;arg&gt;
-	 *             -j,--jdbc-url &lt;arg&gt;
-	 *             -m,--model-file &lt;arg&gt;
-	 *             -o,--output-file &lt;arg&gt;
-	 *             -p,--precision-bias
-	 *             -q,--db-query &lt;arg&gt;
-	 *             -r,--re2j
+	 * Main entry point for standalone execution of a REDExtractor. Exactly
+	 * one output, <code>-o</code>, <code>-t</code> or <code>-L</code>, is
+	 * required, and except with <code>-L</code> exactly one input,
+	 * <code>-d</code> or <code>-j</code>.
+	 * <dl>
+	 * <dt>-m,--model-file &lt;arg&gt;</dt><dd>Required. REDEx model files, in decreasing priority: a model is only used
+	 *     for a document where the models before it have no result.</dd>
+	 * <dt>-o,--output-file &lt;arg&gt;</dt><dd>BioC output file, gzip compressed if its name ends with
+	 *     .gz.</dd>
+	 * <dt>-t,--output-table &lt;arg&gt;</dt><dd>Database table created to hold the matches, with input from
+	 *     <code>-j</code>.</dd>
+	 * <dt>-L,--listen &lt;arg&gt;</dt><dd>Serve extraction over HTTP on this loopback port, 0 for any free port, see
+	 *     {@link ExtractionServer}. Models are loaded again when their files change.</dd>
+	 * <dt>-d,--file-directory &lt;arg&gt;</dt><dd>Directory of the files to process. Files ending with .csv are read as
+	 *     snippets.</dd>
+	 * <dt>-f,--file(s) &lt;arg&gt;</dt><dd>File names or patterns in the directory, separated by '|'. Default all
+	 *     files.</dd>
+	 * <dt>-W,--window-size &lt;arg&gt;</dt><dd>Read files other than CSV files in windows of this many chars. Default
+	 *     whole files. Results are per window, see {@link WindowedExtractor}, so they can differ from reading the file
+	 *     whole, and files which may exceed 2147483647 chars are rejected.</dd>
+	 * <dt>-j,--jdbc-url &lt;arg&gt;</dt><dd>JDBC URL of the database holding the documents.</dd>
+	 * <dt>-q,--db-query &lt;arg&gt;</dt><dd>Query returning a document id and a document text per row.</dd>
+	 * <dt>-D,--jdbc-driver &lt;arg&gt;</dt><dd>JDBC driver class, for drivers which are not registered
+	 *     automatically.</dd>
+	 * <dt>-P,--query-pushdown [&lt;arg&gt;]</dt><dd>Narrow the query to the documents containing the literals required
+	 *     by the models, see {@link QueryPushdown}. Takes the name of the text column, by default taken from the
+	 *     query's metadata. Documents which cannot match are absent from the output, BioC output included.</dd>
+	 * <dt>-F,--fetch-size &lt;arg&gt;</dt><dd>Rows fetched at a time. Default
+	 *     {@value ExtractionPipeline#DEFAULT_FETCH_SIZE}.</dd>
+	 * <dt>-b,--batch-size &lt;arg&gt;</dt><dd>Rows inserted into the output table at a time. Default
+	 *     {@value MatchTableWriter#DEFAULT_BATCH_SIZE}.</dd>
+	 * <dt>-C,--writer-connections &lt;arg&gt;</dt><dd>Connections writing to the output table at once. Default
+	 *     {@value MatchTableWriter#DEFAULT_CONNECTIONS}.</dd>
+	 * <dt>-R,--write-retries &lt;arg&gt;</dt><dd>Retries of a failed batch of inserts. Default
+	 *     {@value MatchTableWriter#DEFAULT_RETRIES}.</dd>
+	 * <dt>-S,--sql-dialect &lt;arg&gt;</dt><dd>{@link SqlDialect} of the output table. Default that of the JDBC URL.
+	 *     Only the generic dialect's plain inserts are not idempotent, so a resumed run may duplicate rows with it.</dd>
+	 * <dt>-k,--checkpoint-file &lt;arg&gt;</dt><dd>File recording the documents, or files, which are done. Not
+	 *     supported from a database to an output file.</dd>
+	 * <dt>-u,--resume</dt><dd>Skip what the checkpoint file records as done. Requires <code>-k</code>.</dd>
+	 * <dt>-e,--cache-entries &lt;arg&gt;</dt><dd>Cache the results of up to this many texts in memory, see
+	 *     {@link ExtractionCache}. Default {@value ExtractionCache#DEFAULT_MAX_ENTRIES} when the cache is enabled by
+	 *     <code>-E</code> alone, unbounded with <code>-M</code>. No cache without <code>-e</code>, <code>-M</code>
+	 *     or <code>-E</code>.</dd>
+	 * <dt>-M,--cache-bytes &lt;arg&gt;</dt><dd>Bound the cache in memory to this estimated size.</dd>
+	 * <dt>-E,--cache-dir &lt;arg&gt;</dt><dd>Also cache results in this directory, which is not bounded.</dd>
+	 * <dt>-N,--canonical-text</dt><dd>Search a lowercased, whitespace collapsed view of each document, see
+	 *     {@link CanonicalText}. The matches are the same.</dd>
+	 * <dt>-p,--precision-bias</dt><dd>Use only the first tier of each model.</dd>
+	 * <dt>-r,--re2j</dt><dd>Use the RE2/J engine. At most one of <code>-r</code> and <code>-y</code>.</dd>
+	 * <dt>-y,--hybrid</dt><dd>Use the engine recorded for each regular expression by calibration, java.util.regex if
+	 *     none.</dd>
+	 * <dt>-x,--regex-timeout &lt;arg&gt;</dt><dd>Milliseconds allowed for one regular expression on one document, no
+	 *     limit if &lt;= 0. Default 5 minutes. A regular expression which times out is skipped for that
+	 *     document.</dd>
+	 * <dt>-z,--fraction-of-processors &lt;arg&gt;</dt><dd>Fraction of the processors to use. Default
+	 *     0.7.</dd>
+	 * <dt>-w,--workers &lt;arg&gt;</dt><dd>Documents processed at once. Default from <code>-z</code>.</dd>
+	 * <dt>-T,--scheduler &lt;arg&gt;</dt><dd>fixed, forkjoin or virtual, see {@link ExtractionSchedulers}. Default
+	 *     fixed.</dd>
+	 * <dt>-c,--queue-capacity &lt;arg&gt;</dt><dd>Documents read but not yet written. Default twice the workers. With
+	 *     <code>-L</code>, the most documents batched together, default
+	 *     {@value ExtractionServer#DEFAULT_MAX_BATCH}.</dd>
+	 * <dt>-A,--batch-wait &lt;arg&gt;</dt><dd>With <code>-L</code>, microseconds a request waits for others to batch
+	 *     with. Default {@value ExtractionServer#DEFAULT_MAX_WAIT_MICROS}.</dd>
+	 * <dt>-s,--metrics-file &lt;arg&gt;</dt><dd>File the per regular expression metrics are written to as JSON at the
+	 *     end, see {@link ExtractionMetrics}. Also available through JMX during the run.</dd>
+	 * </dl>
+	 * @param args The command line options listed above, see buildOptions().
 	 * @throws IOException
 	 *             if any of the files cannot be accessed.
 	 * @throws XMLStreamException
@@ -429,163 +329,529 @@ public class REDExtractor implements Extractor, RegexTiers {
 		String fileDirStr = cl.getOptionValue("d");
 		String jdbcURL = cl.getOptionValue("j");
 		boolean re2j = cl.hasOption("r");
-		Class<? extends PatternAdapter> patternAdapterClass = re2j ? RE2JPatternAdapter.class : JSEPatternAdapter.class;
+		boolean hybrid = cl.hasOption("y");
+		if (re2j && hybrid) {
+			LOG.error("At most one of the options 'r' or 'y' may be specified");
+			HelpFormatter hf = new HelpFormatter();
+			hf.printHelp("REDExtractor", options);
+			return;
+		}
+		Class<? extends PatternAdapter> patternAdapterClass = re2j ? RE2JPatternAdapter.class
+				: hybrid ? HybridPatternAdapter.class : JSEPatternAdapter.class;
+		boolean canonical = cl.hasOption("N");
+		long regexTimeoutMillis = cl.hasOption("x") ? Long.parseLong(cl.getOptionValue("x")) : CompiledREDExModel.DEFAULT_TIMEOUT_MILLIS;
+		float fractionOfProcessors = cl.hasOption("z") ? Float.parseFloat(cl.getOptionValue("z")) : DEFAULT_FRACTION_OF_PROCESSORS;
+		int workers = cl.hasOption("w") ? Integer.parseInt(cl.getOptionValue("w")) : defaultWorkers(fractionOfProcessors);
+		int capacity = cl.hasOption("c") ? Integer.parseInt(cl.getOptionValue("c")) : 2 * workers;
+		ExtractionScheduler scheduler;
+		try {
+			scheduler = ExtractionSchedulers.forName(cl.hasOption("T") ? cl.getOptionValue("T") : ExtractionSchedulers.FIXED, workers);
+		} catch (IllegalArgumentException | UnsupportedOperationException e) {
+			LOG.error(e.getMessage());
+			HelpFormatter hf = new HelpFormatter();
+			hf.printHelp("REDExtractor", options);
+			return;
+		}
+		int windowChars = cl.hasOption("W") ? Integer.parseInt(cl.getOptionValue("W")) : 0;
+		String jdbcDriver = cl.getOptionValue("D");
+		int fetchSize = cl.hasOption("F") ? Integer.parseInt(cl.getOptionValue("F")) : ExtractionPipeline.DEFAULT_FETCH_SIZE;
+		int batchSize = cl.hasOption("b") ? Integer.parseInt(cl.getOptionValue("b")) : MatchTableWriter.DEFAULT_BATCH_SIZE;
+		int writerConnections = cl.hasOption("C") ? Integer.parseInt(cl.getOptionValue("C")) : MatchTableWriter.DEFAULT_CONNECTIONS;
+		int writeRetries = cl.hasOption("R") ? Integer.parseInt(cl.getOptionValue("R")) : MatchTableWriter.DEFAULT_RETRIES;
+		SqlDialect dialect = cl.hasOption("S") ? SqlDialect.valueOf(cl.getOptionValue("S").toUpperCase()) : SqlDialect.forURL(jdbcURL);
+		String checkpointFileStr = cl.getOptionValue("k");
+		Path checkpointFile = checkpointFileStr == null ? null : FileSystems.getDefault().getPath(checkpointFileStr);
+		boolean resume = cl.hasOption("u");
+		ExtractionCache cache = null;
+		if (cl.hasOption("e") || cl.hasOption("M") || cl.hasOption("E")) {
+			long cacheEntries = cl.hasOption("e") ? Long.parseLong(cl.getOptionValue("e")) : cl.hasOption("M") ? 0 : ExtractionCache.DEFAULT_MAX_ENTRIES;
+			long cacheBytes = cl.hasOption("M") ? Long.parseLong(cl.getOptionValue("M")) : 0;
+			String cacheDirStr = cl.getOptionValue("E");
+			cache = new ExtractionCache(cacheEntries, cacheBytes, cacheDirStr == null ? null : FileSystems.getDefault().getPath(cacheDirStr));
+		}
+		if (resume && checkpointFile == null) {
+			LOG.error("Option 'u' requires option 'k'");
+			HelpFormatter hf = new HelpFormatter();
+			hf.printHelp("REDExtractor", options);
+			return;
+		}
 
-		if ((fileDirStr == null && jdbcURL == null) || (fileDirStr != null && jdbcURL != null)) {
+		boolean listen = cl.hasOption("L");
+		if (!listen && ((fileDirStr == null && jdbcURL == null) || (fileDirStr != null && jdbcURL != null))) {
 			LOG.error("Exactly one of the options 'd' or 'j' must be specified");
 			HelpFormatter hf = new HelpFormatter();
 			hf.printHelp("REDExtractor", options);
 			return;
 		}
 		String outputFileStr = cl.getOptionValue("o");		
-		if (fileDirStr != null) {
-			String[] fileStrs = cl.getOptionValues("f");
-			Path outputFile = FileSystems.getDefault().getPath(outputFileStr);
-			extractFromFiles(models, outputFile, fileDirStr, fileStrs, useTier2, patternAdapterClass);
-		} else {
-			String query = cl.getOptionValue('q');
-			if (outputFileStr != null && outputFileStr.trim().length() > 0) {
+		if (checkpointFile != null && jdbcURL != null && outputFileStr != null && outputFileStr.trim().length() > 0) {
+			LOG.error("Option 'k' is not supported when extracting from a database to an output file");
+			HelpFormatter hf = new HelpFormatter();
+			hf.printHelp("REDExtractor", options);
+			return;
+		}
+		String metricsFileStr = cl.getOptionValue("s");
+		ExtractionMetrics metrics = null;
+		ObjectName metricsName = null;
+		if (metricsFileStr != null) {
+			metrics = new ExtractionMetrics();
+			if (cache != null) {
+				metrics.trackCache(cache);
+			}
+			try {
+				metricsName = metrics.registerMBean("REDExtractor");
+			} catch (JMException e) {
+				LOG.warn("Extraction metrics are not available through JMX: " + e.getMessage());
+			}
+		}
+		try {
+			if (listen) {
+				int port = Integer.parseInt(cl.getOptionValue("L"));
+				int maxBatch = cl.hasOption("c") ? Integer.parseInt(cl.getOptionValue("c")) : ExtractionServer.DEFAULT_MAX_BATCH;
+				long maxWaitMicros = cl.hasOption("A") ? Long.parseLong(cl.getOptionValue("A")) : ExtractionServer.DEFAULT_MAX_WAIT_MICROS;
+				ExtractionCache serverCache = cache;
+				ExtractionMetrics serverMetrics = metrics;
+				serve(models, (paths) -> loadModels(paths, patternAdapterClass, regexTimeoutMillis, canonical, serverCache, serverMetrics), useTier2, scheduler, maxBatch, maxWaitMicros, port);
+			} else if (fileDirStr != null) {
+				String[] fileStrs = cl.getOptionValues("f");
 				Path outputFile = FileSystems.getDefault().getPath(outputFileStr);
-				extractFromDBtoBioC(models, jdbcURL, query, outputFile, useTier2, patternAdapterClass);
+				extractFromFiles(models, outputFile, fileDirStr, fileStrs, useTier2, patternAdapterClass, regexTimeoutMillis, canonical, windowChars, scheduler, capacity, checkpointFile, resume, cache, metrics);
 			} else {
-				String outTable = cl.getOptionValue('t');
-				extractFromDBtoDB(models, jdbcURL, query, outTable, useTier2, patternAdapterClass);
+				String query = cl.getOptionValue('q');
+				boolean pushdown = cl.hasOption("P");
+				String pushdownColumn = cl.getOptionValue("P");
+				if (outputFileStr != null && outputFileStr.trim().length() > 0) {
+					Path outputFile = FileSystems.getDefault().getPath(outputFileStr);
+					extractFromDBtoBioC(models, jdbcDriver, jdbcURL, query, pushdown, pushdownColumn, outputFile, dialect, useTier2, patternAdapterClass, regexTimeoutMillis, canonical, scheduler, capacity, fetchSize, cache, metrics);
+				} else {
+					String outTable = cl.getOptionValue('t');
+					extractFromDBtoDB(models, jdbcDriver, jdbcURL, query, pushdown, pushdownColumn, outTable, dialect, useTier2, patternAdapterClass, regexTimeoutMillis, canonical, scheduler, capacity, fetchSize, batchSize, writerConnections, writeRetries, checkpointFile, resume, cache, metrics);
+				}
+			}
+		} finally {
+			if (cache != null) {
+				LOG.info(cache.toString());
+			}
+			if (metrics != null) {
+				metrics.dump(FileSystems.getDefault().getPath(metricsFileStr));
+				LOG.info("Wrote extraction metrics to " + metricsFileStr);
+				if (metricsName != null) {
+					try {
+						ExtractionMetrics.unregisterMBean(metricsName);
+					} catch (JMException e) {
+						LOG.warn("Could not unregister extraction metrics: " + e.getMessage());
+					}
+				}
 			}
 		}
 	}
 
-	static void extractFromDBtoBioC(Path[] models, String jdbcURLStr, String query, Path outputFile, boolean useTier2, Class<? extends PatternAdapter> patternAdapterClass) throws IOException, XMLStreamException, ClassNotFoundException, SQLException {
-		Class.forName("com.microsoft.sqlserver.jdbc.SQLServerDriver");
-		try (	Connection conn = DriverManager.getConnection(jdbcURLStr);
-				PreparedStatement ps = conn.prepareStatement(query);
-				ResultSet rs = ps.executeQuery();
-				Stream<DocMatches> stream = buildFetchStream(models, useTier2, patternAdapterClass, rs);
-		) {
-			Map<String, Collection<MatchedElement>> docMatches = stream.collect(Collectors.toMap((dm) -> dm.getDocumentId(), (dm) -> dm.getMatchedElements()));
-			writeBioC(outputFile, docMatches);
+	/**
+	 * Serves extraction over HTTP on the loopback interface until the JVM is shut down, see {@link ExtractionServer}.
+	 */
+	static void serve(Path[] models, ExtractionServer.ModelLoader loader, boolean useTier2, ExtractionScheduler scheduler, int maxBatch, long maxWaitMicros, int port) throws IOException {
+		ExtractionServer server = new ExtractionServer(models, loader, useTier2, scheduler, maxBatch, maxWaitMicros);
+		Thread mainThread = Thread.currentThread();
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			server.close();
+			try {
+				// let the caller finish up, such as writing metrics
+				mainThread.join(SHUTDOWN_WAIT_MILLIS);
+			} catch (InterruptedException e) {
+				// shutting down anyway
+			}
+		}));
+		server.start(port);
+		try {
+			server.awaitClose();
+		} catch (InterruptedException e) {
+			server.close();
 		}
 	}
-	
-	static void extractFromDBtoDB(Path[] models, String jdbcURLStr, String query, String outputTableName, boolean useTier2, Class<? extends PatternAdapter> patternAdapterClass) throws IOException, XMLStreamException, ClassNotFoundException, SQLException {
-		Class.forName("com.microsoft.sqlserver.jdbc.SQLServerDriver");
-		try (	Connection conn = DriverManager.getConnection(jdbcURLStr);
-				PreparedStatement ps = conn.prepareStatement(query);
-				ResultSet rs = ps.executeQuery();
-				PreparedStatement psInsDM = conn.prepareStatement("INSERT INTO " + outputTableName + " (documentId, startPos, endPos, value) VALUES (?, ?, ?, ?)");
-				Stream<DocMatches> stream = buildFetchStream(models, useTier2, patternAdapterClass, rs);
-		) {
-			conn.createStatement().execute("CREATE TABLE " + outputTableName + " (documentId varchar(50), startPos int, endPos int, value varchar(max))");
-			AtomicInteger batchSize = new AtomicInteger(0);
-			stream.forEach((dm) -> {
-				for (MatchedElement me : dm.matchedElements) {
-					try {
-						psInsDM.setString(1, dm.documentId);
-						psInsDM.setInt(2, me.getStartPos());
-						psInsDM.setInt(3, me.getEndPos());
-						psInsDM.setString(4, me.getMatch());
-						psInsDM.addBatch();
-						if (batchSize.incrementAndGet() > 1000) {
-							psInsDM.executeBatch();
-							batchSize.set(0);
-						}
-					} catch (SQLException e) {
-						throw new RuntimeException(e);
-					}
+
+	/**
+	 * Extracts information from the documents returned by a query, and writes
+	 * the matches as a BioC collection, in query order.
+	 * @param pushdown if <code>true</code> the query is narrowed to documents the models may match, see {@link #pushDown}.
+	 *     Documents which cannot match are then left out of the collection.
+	 * @param pushdownColumn The name of the document text column of the query, or <code>null</code> to take it from the query's metadata.
+	 */
+	static void extractFromDBtoBioC(Path[] models, String jdbcDriver, String jdbcURLStr, String query, boolean pushdown, String pushdownColumn, Path outputFile, SqlDialect dialect, boolean useTier2, Class<? extends PatternAdapter> patternAdapterClass, long regexTimeoutMillis, boolean canonical, ExtractionScheduler scheduler, int capacity, int fetchSize, ExtractionCache cache, ExtractionMetrics metrics) throws IOException, XMLStreamException, ClassNotFoundException, SQLException {
+		loadDriver(jdbcDriver);
+		List<CompiledREDExModel> redexs = loadModels(models, patternAdapterClass, regexTimeoutMillis, canonical, cache, metrics);
+		try (Connection conn = DriverManager.getConnection(jdbcURLStr)) {
+			if (pushdown) {
+				query = pushDown(conn, query, pushdownColumn, redexs, useTier2, dialect);
+			}
+			try (PreparedStatement ps = conn.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+				if (fetchSize > 0) {
+					ps.setFetchSize(fetchSize);
+				}
+				try (	ResultSet rs = ps.executeQuery();
+						Stream<DocMatches> stream = buildFetchStream(redexs, useTier2, scheduler, capacity, true, rs);
+				) {
+					writeBioC(outputFile, stream.iterator());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Extracts information from the documents returned by a query, and writes
+	 * the matches to a table, which is created if it does not exist. Documents
+	 * are fetched, extracted from and written by separate stages of an
+	 * {@link ExtractionPipeline}. Matches are written by a {@link MatchTableWriter}
+	 * on a pool of connections of its own.
+	 * @param pushdown if <code>true</code> the query is narrowed to documents the models may match, see {@link #pushDown}.
+	 * @param pushdownColumn The name of the document text column of the query, or <code>null</code> to take it from the query's metadata.
+	 * @param checkpointFile Records the IDs of the documents whose matches have been committed, or <code>null</code>.
+	 * @param resume if <code>true</code> the documents recorded in the checkpoint file are skipped.
+	 */
+	static void extractFromDBtoDB(Path[] models, String jdbcDriver, String jdbcURLStr, String query, boolean pushdown, String pushdownColumn, String outputTableName, SqlDialect dialect, boolean useTier2, Class<? extends PatternAdapter> patternAdapterClass, long regexTimeoutMillis, boolean canonical, ExtractionScheduler scheduler, int capacity, int fetchSize, int batchSize, int writerConnections, int writeRetries, Path checkpointFile, boolean resume, ExtractionCache cache, ExtractionMetrics metrics) throws IOException, ClassNotFoundException, SQLException {
+		loadDriver(jdbcDriver);
+		List<CompiledREDExModel> redexs = loadModels(models, patternAdapterClass, regexTimeoutMillis, canonical, cache, metrics);
+		try (Connection readConn = DriverManager.getConnection(jdbcURLStr)) {
+			MatchTableWriter.createTableIfAbsent(readConn, outputTableName, dialect);
+			if (pushdown) {
+				query = pushDown(readConn, query, pushdownColumn, redexs, useTier2, dialect);
+			}
+			try (	Checkpoint checkpoint = checkpointFile == null ? null : new Checkpoint(checkpointFile, resume);
+					MatchTableWriter writer = new MatchTableWriter(() -> DriverManager.getConnection(jdbcURLStr), outputTableName, dialect, batchSize, writerConnections, writeRetries, checkpoint);
+			) {
+				if (checkpoint != null && checkpoint.size() > 0) {
+					LOG.info("Resuming after " + checkpoint.size() + " documents recorded in " + checkpointFile);
 				}
-			});
-			if (batchSize.get() > 0) {
-				psInsDM.executeBatch();
+				new ExtractionPipeline(redexs, useTier2, scheduler, capacity, fetchSize, checkpoint == null ? null : checkpoint::isDone).run(readConn, query, writer);
+				LOG.info("Wrote " + writer.getBatches() + " batches to " + outputTableName + ", " + writer.getRetries() + " retries");
 			}
 		}
 	}
 
-	static Stream<DocMatches> buildFetchStream(Path[] models, boolean useTier2, Class<? extends PatternAdapter> patternAdapterClass, ResultSet rs) throws IOException {
+	/**
+	 * Narrows a query to the documents the models may match, so that the
+	 * database discards documents which cannot match, see {@link QueryPushdown}.
+	 * @param conn A connection to the database queried.
+	 * @param query A query returning 2 values per row: document ID and document text.
+	 * @param textColumn The name of the document text column of the query, or <code>null</code> to take it from the query's metadata.
+	 * @param redexs The models applied to the documents.
+	 * @param useTier2 if <code>false</code> then only the first tier of each model is used.
+	 * @param dialect The SQL dialect of the database.
+	 * @return The narrowed query, or the query itself if no document can be ruled out.
+	 */
+	static String pushDown(Connection conn, String query, String textColumn, List<CompiledREDExModel> redexs, boolean useTier2, SqlDialect dialect) throws SQLException {
+		QueryPushdown pushdown = new QueryPushdown(redexs, useTier2);
+		if (!pushdown.isRestrictive()) {
+			LOG.info("Some regular expressions have no required literals, the query is not narrowed");
+			return query;
+		}
+		if (textColumn == null) {
+			try (PreparedStatement ps = conn.prepareStatement(query)) {
+				ResultSetMetaData md = ps.getMetaData();
+				if (md == null || md.getColumnCount() < 2) {
+					throw new IllegalArgumentException("The document text column of the query cannot be determined, it must be given with option 'P'");
+				}
+				textColumn = md.getColumnLabel(2);
+			}
+		}
+		String narrowed = pushdown.wrap(query, textColumn, dialect);
+		LOG.info("Narrowed the query by " + pushdown.getConjunctions().size() + " sets of literals: " + narrowed);
+		return narrowed;
+	}
+
+	/**
+	 * Loads a JDBC driver, for drivers which do not register themselves.
+	 * @param jdbcDriver The class name of the driver, or <code>null</code> to rely on the drivers registered with {@link DriverManager}.
+	 */
+	static void loadDriver(String jdbcDriver) throws ClassNotFoundException {
+		if (jdbcDriver != null) {
+			Class.forName(jdbcDriver);
+		}
+	}
+
+	static List<CompiledREDExModel> loadModels(Path[] models, Class<? extends PatternAdapter> patternAdapterClass, long regexTimeoutMillis, boolean canonical, ExtractionCache cache, ExtractionMetrics metrics) throws IOException {
 		for (Path model : models) {
 			if (!Files.exists(model)) {
 				throw new RuntimeException("Model file '" + model + "' was not found");
 			}
 		}
-		List<REDExModel> redexs = new ArrayList<>(models.length);
+		List<CompiledREDExModel> redexs = new ArrayList<>(models.length);
 		for (Path model : models) {
 			REDExModel redexModel = REDExModel.load(model);
-			redexs.add(redexModel);
+			CompiledREDExModel redex = new CompiledREDExModel(redexModel, patternAdapterClass, regexTimeoutMillis);
+			setCanonicalMatching(model, redex, canonical);
+			redex.setCache(cache);
+			if (metrics != null) {
+				metrics.track(model.toString(), redex);
+			}
+			redexs.add(redex);
+		}
+		return redexs;
+	}
+
+	private static void setCanonicalMatching(Path model, CompiledREDExModel redex, boolean canonical) {
+		if (canonical) {
+			int relaxed = redex.setCanonicalMatching(true);
+			LOG.info("Model " + model + ": " + relaxed + " regular expressions matched through the canonical text");
 		}
-		Stream<DocMatches> stream = StreamSupport.stream(new Spliterators.AbstractSpliterator<List<String>>(Long.MAX_VALUE, Spliterator.ORDERED) {
+	}
+
+	static Stream<DocMatches> buildFetchStream(List<CompiledREDExModel> redexs, boolean useTier2, ExtractionScheduler scheduler, int capacity, boolean ordered, ResultSet rs) {
+		// only the thread consuming the stream advances the result set
+		Iterator<Document> documents = new Iterator<Document>() {
+			private Boolean hasNext;
+
 			@Override
-			public boolean tryAdvance(Consumer<? super List<String>> consumer) {
-				try {
-					if (rs.next()) {
-						List<String> result = new ArrayList<>(2);
-						result.add(rs.getString(1));
-						result.add(rs.getString(2));
-						consumer.accept(result);
-						return true;
-					} else {
-						return false;
+			public boolean hasNext() {
+				if (hasNext == null) {
+					try {
+						hasNext = Boolean.valueOf(rs.next());
+					} catch (SQLException e) {
+						throw new RuntimeException(e);
 					}
+				}
+				return hasNext.booleanValue();
+			}
+
+			@Override
+			public Document next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				hasNext = null;
+				try {
+					return new Document(rs.getString(1), rs.getString(2));
 				} catch (SQLException e) {
 					throw new RuntimeException(e);
 				}
 			}
-		}, false).map((result) -> {
-			DocMatches dm = new DocMatches(result.get(0), new HashSet<MatchedElement>());
-			for (REDExModel redex : redexs) {
-				Set<MatchedElement> mes = REDExtractor.extract(redex.getRegexTiers(), result.get(1), useTier2, patternAdapterClass);
-				if (mes != null && mes.size() > 0) {
-					dm.getMatchedElements().addAll(mes);
+		};
+		return extractAll(documents, redexs, useTier2, scheduler, capacity, ordered, true);
+	}
+
+	/**
+	 * Extracts information from a sequence of documents, processing several
+	 * documents at a time. Documents are taken from the iterator only by the
+	 * thread consuming the returned stream, and only as results are consumed,
+	 * so no more than <code>capacity</code> documents and their results are
+	 * held in memory at once. The returned stream must be closed in order to
+	 * release its worker threads.
+	 * @param documents The documents to process.
+	 * @param redexs The models to apply to each document. Matches from all models are combined.
+	 * @param useTier2 if <code>false</code> then only the first tier of each model is used.
+	 * @param workers The number of documents to process concurrently.
+	 * @param capacity The maximum number of documents taken from the iterator but not yet consumed from the stream.
+	 * @param ordered if <code>true</code> then results are returned in input order, otherwise in order of completion.
+	 * @return The matches of each document.
+	 */
+	public static Stream<DocMatches> extractAll(Iterator<Document> documents, List<CompiledREDExModel> redexs, boolean useTier2, int workers, int capacity, boolean ordered) {
+		if (workers < 1) {
+			throw new IllegalArgumentException("workers must be at least 1: " + workers);
+		}
+		return extractAll(documents, redexs, useTier2, ExtractionSchedulers.fixed(workers), capacity, ordered);
+	}
+
+	/**
+	 * Extracts information from a sequence of documents, processing several
+	 * documents at a time on the threads of a scheduler.
+	 * @param documents The documents to process.
+	 * @param redexs The models to apply to each document. Matches from all models are combined.
+	 * @param useTier2 if <code>false</code> then only the first tier of each model is used.
+	 * @param scheduler Runs the extraction, as many documents at once as its parallelism.
+	 * @param capacity The maximum number of documents taken from the iterator but not yet consumed from the stream.
+	 * @param ordered if <code>true</code> then results are returned in input order, otherwise in order of completion.
+	 * @return The matches of each document.
+	 * @see #extractAll(Iterator, List, boolean, int, int, boolean)
+	 */
+	public static Stream<DocMatches> extractAll(Iterator<Document> documents, List<CompiledREDExModel> redexs, boolean useTier2, ExtractionScheduler scheduler, int capacity, boolean ordered) {
+		return extractAll(documents, redexs, useTier2, scheduler, capacity, ordered, false);
+	}
+
+	/**
+	 * @param positions if <code>true</code> the matches of each document are held as positions, see {@link #extractPositions}.
+	 */
+	private static Stream<DocMatches> extractAll(Iterator<Document> documents, List<CompiledREDExModel> redexs, boolean useTier2, ExtractionScheduler scheduler, int capacity, boolean ordered, boolean positions) {
+		int workers = scheduler.getParallelism();
+		ExecutorService executor = scheduler.newExecutor(workers);
+		Iterator<Callable<DocMatches>> tasks = new Iterator<Callable<DocMatches>>() {
+			@Override
+			public boolean hasNext() {
+				return documents.hasNext();
+			}
+
+			@Override
+			public Callable<DocMatches> next() {
+				Document document = documents.next();
+				return positions ? () -> extractPositions(redexs, document, useTier2) : () -> extract(redexs, document, useTier2);
+			}
+		};
+		BatchIterator<DocMatches> batch = new BatchIterator<>(tasks, executor, Math.max(capacity, workers), ordered);
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(batch, ordered ? Spliterator.ORDERED : 0), false)
+				.onClose(executor::shutdownNow);
+	}
+
+	/**
+	 * Extracts information from a sequence of documents, with one worker per
+	 * available processor and results in input order.
+	 * @param documents The documents to process.
+	 * @param redexs The models to apply to each document. Matches from all models are combined.
+	 * @param useTier2 if <code>false</code> then only the first tier of each model is used.
+	 * @return The matches of each document.
+	 * @see #extractAll(Iterator, List, boolean, int, int, boolean)
+	 */
+	public static Stream<DocMatches> extractAll(Iterator<Document> documents, List<CompiledREDExModel> redexs, boolean useTier2) {
+		int workers = defaultWorkers(DEFAULT_FRACTION_OF_PROCESSORS);
+		return extractAll(documents, redexs, useTier2, workers, 2 * workers, true);
+	}
+
+	static int defaultWorkers(float fractionOfProcessors) {
+		return Math.max(1, (int) Math.ceil(fractionOfProcessors * ((float)Runtime.getRuntime().availableProcessors())));
+	}
+
+	static DocMatches extract(List<CompiledREDExModel> redexs, Document document, boolean useTier2) {
+		DocMatches dm = new DocMatches(document.getDocumentId(), new HashSet<MatchedElement>());
+		for (CompiledREDExModel redex : redexs) {
+			Set<MatchedElement> mes = redex.extract(document.getText(), useTier2);
+			if (mes != null && mes.size() > 0) {
+				dm.getMatchedElements().addAll(mes);
+			}
+		}
+		return dm;
+	}
+
+	/**
+	 * Extracts the positions matched in a document, for writers which need
+	 * neither the matching regular expressions nor the confidence of each
+	 * match. The matches are passed to a collector kept for the calling
+	 * thread, so no MatchedElements or sets are built, only an array of the
+	 * positions found.
+	 * @return The matches of the document, held as positions. A position matched by several models is kept once per model.
+	 */
+	static DocMatches extractPositions(List<CompiledREDExModel> redexs, Document document, boolean useTier2) {
+		MatchSpans spans = THREAD_SPANS.get();
+		spans.reset(document.getText());
+		try {
+			for (CompiledREDExModel redex : redexs) {
+				redex.extract(document.getText(), useTier2, spans);
+				spans.endModel();
+			}
+			spans.sort();
+			return new DocMatches(document.getDocumentId(), document.getText(), spans.toArray());
+		} finally {
+			spans.reset(null);
+		}
+	}
+
+	/**
+	 * Keeps up to a fixed number of tasks in progress, submitting a new
+	 * task each time a result is taken.
+	 */
+	private static class BatchIterator<T> implements Iterator<T> {
+		private final Iterator<? extends Callable<T>> tasks;
+		private final ExecutorService executor;
+		private final int capacity;
+		// in input order when ordered, otherwise null
+		private final Deque<Future<T>> pending;
+		// in completion order when not ordered, otherwise null
+		private final CompletionService<T> completed;
+		private int inFlight;
+
+		public BatchIterator(Iterator<? extends Callable<T>> tasks, ExecutorService executor, int capacity, boolean ordered) {
+			this.tasks = tasks;
+			this.executor = executor;
+			this.capacity = capacity;
+			this.pending = ordered ? new ArrayDeque<>(capacity) : null;
+			this.completed = ordered ? null : new ExecutorCompletionService<>(executor);
+		}
+
+		private void fill() {
+			while (inFlight < capacity && tasks.hasNext()) {
+				Callable<T> task = tasks.next();
+				if (pending != null) {
+					pending.add(executor.submit(task));
+				} else {
+					completed.submit(task);
 				}
+				inFlight++;
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			fill();
+			if (inFlight == 0) {
+				executor.shutdown();
+				return false;
+			}
+			return true;
+		}
+
+		@Override
+		public T next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
 			}
-			return dm;
-		});
-		return stream;
+			try {
+				Future<T> future = pending != null ? pending.poll() : completed.take();
+				inFlight--;
+				return future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			}
+		}
 	}
 
 	/**
-	 * @param outputFile
-	 * @param docMatches
+	 * Writes documents and their matches as a BioC collection, one document at a time.
+	 * @param outputFile The file to write, gzip compressed if its name ends with {@value BioCStreamWriter#GZIP_SUFFIX},
+	 *     or <code>null</code> to write to standard output.
+	 * @param docMatches The documents and their matches.
 	 * @throws XMLStreamException
 	 * @throws IOException
 	 */
-	static void writeBioC(Path outputFile, Map<String, Collection<MatchedElement>> docMatches) throws XMLStreamException, IOException {
-		BioCCollection biocColl = new BioCCollection();
-		biocColl.setDate(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm'Z'").format(new Date()));
-		int annId = 0;
-		for (Map.Entry<String, Collection<MatchedElement>> dm : docMatches.entrySet()) {
-			BioCDocument biocDoc = new BioCDocument();
-			biocColl.addDocument(biocDoc);
-			biocDoc.setID(dm.getKey());
-			BioCPassage biocPass = new BioCPassage();
-			biocDoc.addPassage(biocPass);
-			for (MatchedElement me : dm.getValue()) {
-				BioCAnnotation biocAnn = new BioCAnnotation();
-				biocAnn.setID(String.valueOf(annId++));
-				biocAnn.setLocation(me.getStartPos(), me.getEndPos() - me.getStartPos());
-				biocAnn.setText(me.getMatch());
-				biocPass.addAnnotation(biocAnn);
-			}
-		}
-		BioCFactory factory = BioCFactory.newFactory(BioCFactory.STANDARD);
-		try (Writer w = new StringWriter()) {
-			BioCCollectionWriter collWriter = factory.createBioCCollectionWriter(w);
-			try {
-				collWriter.writeCollection(biocColl);
-			} finally {
-				if (collWriter != null) {
-					collWriter.close();
-				}
-			}
-			w.flush();
-			if (outputFile == null) {
-				System.out.println(w.toString());
-			} else {
-				Files.write(outputFile, w.toString().getBytes());
+	static void writeBioC(Path outputFile, Iterator<DocMatches> docMatches) throws XMLStreamException, IOException {
+		try (BioCStreamWriter writer = new BioCStreamWriter(outputFile)) {
+			while (docMatches.hasNext()) {
+				DocMatches dm = docMatches.next();
+				writer.writeDocument(dm);
 			}
 		}
 	}
 
-	private static class DocMatches {
+	/**
+	 * A document to be processed: an identifier and the text.
+	 */
+	public static class Document {
+		private final String documentId;
+		private final CharSequence text;
+		public Document(String documentId, CharSequence text) {
+			this.documentId = documentId;
+			this.text = text;
+		}
+		public String getDocumentId() {
+			return documentId;
+		}
+		public CharSequence getText() {
+			return text;
+		}
+	}
+
+	/**
+	 * The matches found in a document. The matches are either
+	 * MatchedElements, or, for writers which only need the positions and
+	 * text of the matches, an array of positions in position order. Either
+	 * form can be read as the other.
+	 */
+	public static class DocMatches {
 		private String documentId;
 		private Collection<MatchedElement> matchedElements;
+		private CharSequence text;
+		// the start and end of each match, in turn, in position order
+		private int[] positions;
+		// the MatchedElements in position order, when read by index
+		private MatchedElement[] sorted;
 		/**
 		 * @param documentId
 		 * @param matchedElements
@@ -595,17 +861,80 @@ public class REDExtractor implements Extractor, RegexTiers {
 			this.documentId = documentId;
 			this.matchedElements = matchedElements;
 		}
+		/**
+		 * @param documentId
+		 * @param text The document text.
+		 * @param positions The start and end of each match, in turn, in position order.
+		 */
+		DocMatches(String documentId, CharSequence text, int[] positions) {
+			this.documentId = documentId;
+			this.text = text;
+			this.positions = positions;
+		}
 		public String getDocumentId() {
 			return documentId;
 		}
 		public void setDocumentId(String documentId) {
 			this.documentId = documentId;
 		}
+		/**
+		 * @return The matches. Matches held as positions have neither matching regular expressions nor confidence.
+		 */
 		public Collection<MatchedElement> getMatchedElements() {
+			if (matchedElements == null && positions != null) {
+				List<MatchedElement> mes = new ArrayList<>(size());
+				for (int i = 0; i < size(); i++) {
+					mes.add(new MatchedElement(getStart(i), getEnd(i), getMatch(i), new HashSet<String>(0), 0));
+				}
+				matchedElements = mes;
+			}
 			return matchedElements;
 		}
 		public void setMatchedElements(Collection<MatchedElement> matchedElements) {
 			this.matchedElements = matchedElements;
+			this.text = null;
+			this.positions = null;
+			this.sorted = null;
+		}
+		/**
+		 * @return The number of matches.
+		 */
+		public int size() {
+			if (positions != null) {
+				return positions.length / 2;
+			}
+			return matchedElements == null ? 0 : matchedElements.size();
+		}
+		/**
+		 * @param i The index of a match, in position order.
+		 * @return The start of the match.
+		 */
+		public int getStart(int i) {
+			return positions != null ? positions[2 * i] : sorted()[i].getStartPos();
+		}
+		/**
+		 * @param i The index of a match, in position order.
+		 * @return The end of the match.
+		 */
+		public int getEnd(int i) {
+			return positions != null ? positions[2 * i + 1] : sorted()[i].getEndPos();
+		}
+		/**
+		 * @param i The index of a match, in position order.
+		 * @return The matched text.
+		 */
+		public String getMatch(int i) {
+			if (positions != null) {
+				return text.subSequence(positions[2 * i], positions[2 * i + 1]).toString();
+			}
+			return sorted()[i].getMatch();
+		}
+		private MatchedElement[] sorted() {
+			if (sorted == null) {
+				sorted = matchedElements.toArray(new MatchedElement[matchedElements.size()]);
+				Arrays.sort(sorted, BioCStreamWriter.POSITION_ORDER);
+			}
+			return sorted;
 		}
 	}
 
@@ -618,7 +947,7 @@ public class REDExtractor implements Extractor, RegexTiers {
 	 * @throws IOException
 	 * @throws XMLStreamException
 	 */
-	static void extractFromFiles(Path[] models, Path outputFile, String fileDirStr, String[] fileStrs, boolean useTier2, Class<? extends PatternAdapter> patternAdapterClass)
+	static void extractFromFiles(Path[] models, Path outputFile, String fileDirStr, String[] fileStrs, boolean useTier2, Class<? extends PatternAdapter> patternAdapterClass, long regexTimeoutMillis, boolean canonical, int windowChars, ExtractionScheduler scheduler, int capacity, Path checkpointFile, boolean resume, ExtractionCache cache, ExtractionMetrics metrics)
 			throws IOException, XMLStreamException {
 		Path fileDir = FileSystems.getDefault().getPath(fileDirStr);
 		for (Path model : models) {
@@ -650,7 +979,7 @@ public class REDExtractor implements Extractor, RegexTiers {
 			System.err.println("REDExtractor running using:" + LS + "\tmodel file: " + Arrays.asList(models) + LS
 					+ "\tinput files: " + files.toString() + LS + "\toutput: "
 					+ (outputFile == null ? "<stdout>" : outputFile));
-			List<REDExModel> redexs = new ArrayList<>(models.length);
+			List<CompiledREDExModel> redexs = new ArrayList<>(models.length);
 			for (Path model : models) {
 				REDExModel redex = REDExModel.load(model);
 				if (redex.getMetadata() == null) {
@@ -658,67 +987,217 @@ public class REDExtractor implements Extractor, RegexTiers {
 				} else {
 					redex.setMetadata(redex.getMetadata() + " [ filename = " + model.getFileName().toFile() + "]");
 				}
-				redexs.add(redex);
-			}
-			BioCCollection biocColl = new BioCCollection();
-			biocColl.setDate(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm'Z'").format(new Date()));
-			int annId = 0;
-			for (Path file : files) {
-				String contents = new String(Files.readAllBytes(file));
-				BioCDocument biocDoc = new BioCDocument();
-				biocColl.addDocument(biocDoc);
-				biocDoc.setID(file.toString());
-				BioCPassage biocPass = new BioCPassage();
-				biocDoc.addPassage(biocPass);
-				if (file.toString().toLowerCase().endsWith(".csv")) {
-					Collection<SnippetData> sdColl = CSVReader.readSnippetData(contents, true);
-					for (SnippetData sd : sdColl) {
-						for (REDExModel rex : redexs) {
-							Set<MatchedElement> mes = REDExtractor.extract(rex.getRegexTiers(), sd.getSnippetText(), useTier2, patternAdapterClass);
-							for (MatchedElement me : mes) {
-								BioCAnnotation biocAnn = new BioCAnnotation();
-								biocAnn.setID(String.valueOf(annId++));
-								biocAnn.setLocation(sd.getOffset() + me.getStartPos(),
-										me.getEndPos() - me.getStartPos());
-								biocAnn.setText(me.getMatch());
-								biocAnn.getInfons().put("Patient ID", sd.getPatientID());
-								biocAnn.getInfons().put("Document ID", sd.getDocumentID());
-								biocAnn.getInfons().put("Snippet Number", sd.getSnippetNumber());
-								biocPass.addAnnotation(biocAnn);
-							}
-						}
+				CompiledREDExModel compiled = new CompiledREDExModel(redex, patternAdapterClass, regexTimeoutMillis);
+				setCanonicalMatching(model, compiled, canonical);
+				compiled.setCache(cache);
+				if (metrics != null) {
+					metrics.track(model.toString(), compiled);
+				}
+				redexs.add(compiled);
+			}
+			WindowedExtractor windowed = null;
+			if (windowChars > 0) {
+				// reject files too long for int positions before any output is written
+				for (Path file : files) {
+					if (!file.toString().toLowerCase().endsWith(".csv")) {
+						WindowedExtractor.checkLength(file, Charset.defaultCharset());
 					}
-				} else {
-					for (REDExModel rex : redexs) {
-						Set<MatchedElement> mes = REDExtractor.extract(rex.getRegexTiers(), contents, useTier2, patternAdapterClass);
-						for (MatchedElement me : mes) {
-							BioCAnnotation biocAnn = new BioCAnnotation();
-							biocAnn.setID(String.valueOf(annId++));
-							biocAnn.setLocation(me.getStartPos(), me.getEndPos() - me.getStartPos());
-							biocAnn.setText(me.getMatch());
-							biocPass.addAnnotation(biocAnn);
-						}
+				}
+				windowed = new WindowedExtractor(redexs, useTier2, windowChars);
+				LOG.info("Reading files in windows of " + windowChars + " chars overlapping by " + windowed.getOverlap());
+			}
+			try (Checkpoint checkpoint = checkpointFile == null ? null : new Checkpoint(checkpointFile, resume)) {
+				writeBioC(outputFile, files, redexs, useTier2, windowed, scheduler, capacity, checkpoint, resume);
+			}
+		}
+	}
+
+	/**
+	 * Extracts information from files, and writes the matches as a BioC
+	 * collection with one document per file. Files, and the snippets of CSV
+	 * files, are processed concurrently, and annotated in file order so the
+	 * output does not depend on the number of workers.
+	 * @param outputFile The file to write, or <code>null</code> to write to standard output.
+	 * @param files The files to process. Snippets are read from files ending with .csv.
+	 * @param redexs The models to apply.
+	 * @param useTier2 if <code>false</code> then only the first tier of each model is used.
+	 * @param windowed Extracts from files other than CSV files in windows, or <code>null</code> to read files whole.
+	 * @param scheduler Runs the extraction, as many files or snippets at once as its parallelism.
+	 * @param capacity The maximum number of files or snippets in progress.
+	 * @param checkpoint Records the files whose documents have been written, or <code>null</code>.
+	 * @param resume if <code>true</code> the documents of an existing output file which are recorded in the checkpoint are kept,
+	 *     and their files are skipped.
+	 */
+	static void writeBioC(Path outputFile, List<Path> files, List<CompiledREDExModel> redexs, boolean useTier2, WindowedExtractor windowed, ExtractionScheduler scheduler, int capacity,
+			Checkpoint checkpoint, boolean resume)
+			throws IOException, XMLStreamException {
+		Path previous = null;
+		if (resume && checkpoint != null && outputFile != null && Files.exists(outputFile)) {
+			previous = outputFile.resolveSibling(outputFile.getFileName() + ".partial");
+			Files.move(outputFile, previous, StandardCopyOption.REPLACE_EXISTING);
+		}
+		int workers = scheduler.getParallelism();
+		ExecutorService executor = scheduler.newExecutor(workers);
+		try (BioCStreamWriter writer = new BioCStreamWriter(outputFile)) {
+			if (previous != null) {
+				// only files whose documents were completely written are skipped
+				Set<String> copied = writer.copyDocuments(previous, checkpoint::isDone);
+				Files.delete(previous);
+				LOG.info("Resuming after " + copied.size() + " files already done");
+				List<Path> remaining = new ArrayList<>(files.size() - copied.size());
+				for (Path file : files) {
+					if (!copied.contains(file.toString())) {
+						remaining.add(file);
 					}
 				}
+				files = remaining;
 			}
-			BioCFactory factory = BioCFactory.newFactory(BioCFactory.STANDARD);
-			try (Writer w = new StringWriter()) {
-				BioCCollectionWriter collWriter = factory.createBioCCollectionWriter(w);
-				try {
-					collWriter.writeCollection(biocColl);
-				} finally {
-					if (collWriter != null) {
-						collWriter.close();
+			// files and snippets are processed concurrently, then annotated in input order
+			Iterator<FileAnnotations> results = new BatchIterator<>(fileTasks(files, redexs, useTier2, windowed), executor, Math.max(capacity, workers), true);
+			BioCDocument biocDoc = null;
+			BioCPassage biocPass = null;
+			int fileIndex = -1;
+			while (results.hasNext()) {
+				FileAnnotations fa = results.next();
+				if (fa.fileIndex != fileIndex) {
+					if (biocDoc != null) {
+						writeDocument(writer, biocDoc, checkpoint);
 					}
+					fileIndex = fa.fileIndex;
+					biocDoc = new BioCDocument();
+					biocDoc.setID(files.get(fileIndex).toString());
+					biocPass = new BioCPassage();
+					biocDoc.addPassage(biocPass);
 				}
-				w.flush();
-				if (outputFile == null) {
-					System.out.println(w.toString());
-				} else {
-					Files.write(outputFile, w.toString().getBytes());
+				for (BioCAnnotation biocAnn : fa.annotations) {
+					writer.assignID(biocAnn);
+					biocPass.addAnnotation(biocAnn);
+				}
+			}
+			if (biocDoc != null) {
+				writeDocument(writer, biocDoc, checkpoint);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static void writeDocument(BioCStreamWriter writer, BioCDocument biocDoc, Checkpoint checkpoint) throws XMLStreamException, IOException {
+		writer.writeDocument(biocDoc);
+		if (checkpoint != null) {
+			checkpoint.markDone(Collections.singletonList(biocDoc.getID()));
+		}
+	}
+
+	/**
+	 * The annotations of a file, or of one snippet of a CSV file.
+	 */
+	private static class FileAnnotations {
+		private final int fileIndex;
+		private final List<BioCAnnotation> annotations;
+
+		FileAnnotations(int fileIndex, List<BioCAnnotation> annotations) {
+			this.fileIndex = fileIndex;
+			this.annotations = annotations;
+		}
+	}
+
+	/**
+	 * @return Tasks annotating each file, or each snippet of CSV files, in file order. There is at least one task per file.
+	 */
+	private static Iterator<Callable<FileAnnotations>> fileTasks(List<Path> files, List<CompiledREDExModel> redexs, boolean useTier2, WindowedExtractor windowed) {
+		return new Iterator<Callable<FileAnnotations>>() {
+			private int next = 0;
+			private final Deque<Callable<FileAnnotations>> snippets = new ArrayDeque<>();
+
+			@Override
+			public boolean hasNext() {
+				return !snippets.isEmpty() || next < files.size();
+			}
+
+			@Override
+			public Callable<FileAnnotations> next() {
+				if (!snippets.isEmpty()) {
+					return snippets.poll();
+				}
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				int f = next++;
+				Path file = files.get(f);
+				if (!file.toString().toLowerCase().endsWith(".csv")) {
+					return () -> new FileAnnotations(f, annotateFile(file, redexs, useTier2, windowed));
+				}
+				Collection<SnippetData> sdColl;
+				try {
+					sdColl = CSVReader.readSnippetData(new String(Files.readAllBytes(file)), true);
+				} catch (IOException e) {
+					throw new RuntimeException(e);
 				}
+				for (SnippetData sd : sdColl) {
+					snippets.add(() -> new FileAnnotations(f, annotateSnippet(sd, redexs, useTier2)));
+				}
+				if (snippets.isEmpty()) {
+					return () -> new FileAnnotations(f, new ArrayList<BioCAnnotation>(0));
+				}
+				return snippets.poll();
 			}
+		};
+	}
+
+	private static List<BioCAnnotation> annotateFile(Path file, List<CompiledREDExModel> redexs, boolean useTier2, WindowedExtractor windowed) throws IOException {
+		List<BioCAnnotation> annotations = new ArrayList<>();
+		if (windowed != null) {
+			for (Set<MatchedElement> mes : windowed.extract(file, Charset.defaultCharset())) {
+				for (MatchedElement me : inPositionOrder(mes)) {
+					annotations.add(BioCStreamWriter.newAnnotation(me.getStartPos(), me));
+				}
+			}
+		} else {
+			String contents = new String(Files.readAllBytes(file));
+			MatchSpans spans = THREAD_SPANS.get();
+			spans.reset(contents);
+			try {
+				for (CompiledREDExModel rex : redexs) {
+					rex.extract(contents, useTier2, spans);
+					spans.endModel();
+				}
+				for (int i = 0; i < spans.size(); i++) {
+					annotations.add(BioCStreamWriter.newAnnotation(spans.getStart(i), spans.getEnd(i) - spans.getStart(i), spans.getMatch(i)));
+				}
+			} finally {
+				spans.reset(null);
+			}
+		}
+		return annotations;
+	}
+
+	private static List<BioCAnnotation> annotateSnippet(SnippetData sd, List<CompiledREDExModel> redexs, boolean useTier2) {
+		List<BioCAnnotation> annotations = new ArrayList<>();
+		MatchSpans spans = THREAD_SPANS.get();
+		spans.reset(sd.getSnippetText());
+		try {
+			for (CompiledREDExModel rex : redexs) {
+				rex.extract(sd.getSnippetText(), useTier2, spans);
+				spans.endModel();
+			}
+			for (int i = 0; i < spans.size(); i++) {
+				BioCAnnotation biocAnn = BioCStreamWriter.newAnnotation(sd.getOffset() + spans.getStart(i), spans.getEnd(i) - spans.getStart(i), spans.getMatch(i));
+				biocAnn.getInfons().put("Patient ID", sd.getPatientID());
+				biocAnn.getInfons().put("Document ID", sd.getDocumentID());
+				biocAnn.getInfons().put("Snippet Number", sd.getSnippetNumber());
+				annotations.add(biocAnn);
+			}
+		} finally {
+			spans.reset(null);
 		}
+		return annotations;
+	}
+
+	private static List<MatchedElement> inPositionOrder(Collection<MatchedElement> mes) {
+		List<MatchedElement> sorted = new ArrayList<>(mes);
+		sorted.sort(BioCStreamWriter.POSITION_ORDER);
+		return sorted;
 	}
 
 	/**
@@ -729,15 +1208,21 @@ public class REDExtractor implements Extractor, RegexTiers {
 		model.setRequired(true);
 		model.setArgs(Option.UNLIMITED_VALUES);
 		
-		Option outFile = new Option("o", "output-file", true, "File where output will be written");
+		Option outFile = new Option("o", "output-file", true, "File where output will be written. BioC output is gzip compressed if the file name ends with " + BioCStreamWriter.GZIP_SUFFIX);
 		outFile.setRequired(true);
 
 		Option outTable = new Option("t", "output-table", true, "Name of the table that will be created and hold the output");
 		outFile.setRequired(true);
 
+		Option listen = new Option("L", "listen", true,
+				"Instead of writing output, serve extraction over HTTP on this port of the loopback interface until stopped, 0 for any free port."
+				+ " Documents are POSTed to /extract as JSON. The models stay loaded, and are loaded again when a model file changes");
+		listen.setType(Integer.class);
+
 		OptionGroup outputOG = new OptionGroup();
 		outputOG.addOption(outTable);
 		outputOG.addOption(outFile);
+		outputOG.addOption(listen);
 		outputOG.setRequired(true);
 		
 		// for file processing
@@ -750,6 +1235,45 @@ public class REDExtractor implements Extractor, RegexTiers {
 		// for database processing
 		Option jdbcURL = new Option("j", "jdbc-url", true,
 				"JDBC connection URL to connect to a database containing records to be processed");
+		Option jdbcDriver = new Option("D", "jdbc-driver", true,
+				"Class name of the JDBC driver, for drivers which are not registered automatically");
+		Option fetchSize = new Option("F", "fetch-size", true,
+				"Number of rows fetched from the database at a time. Defaults to " + ExtractionPipeline.DEFAULT_FETCH_SIZE);
+		fetchSize.setType(Integer.class);
+		Option batchSize = new Option("b", "batch-size", true,
+				"Number of rows inserted into the output table at a time. Defaults to " + MatchTableWriter.DEFAULT_BATCH_SIZE);
+		batchSize.setType(Integer.class);
+		Option writerConnections = new Option("C", "writer-connections", true,
+				"Number of connections writing to the output table concurrently. Defaults to " + MatchTableWriter.DEFAULT_CONNECTIONS);
+		writerConnections.setType(Integer.class);
+		Option writeRetries = new Option("R", "write-retries", true,
+				"Number of times a failed batch of inserts is retried. Defaults to " + MatchTableWriter.DEFAULT_RETRIES);
+		writeRetries.setType(Integer.class);
+		Option sqlDialect = new Option("S", "sql-dialect", true,
+				"SQL dialect used to write to the output table, one of " + Arrays.toString(SqlDialect.values()) + ". Defaults to the dialect of the JDBC URL");
+		Option pushdown = new Option("P", "query-pushdown", true,
+				"Narrow the database query to documents containing the literal words required by the models, so that the database discards documents which cannot match."
+				+ " The query is wrapped as a derived table, so it must be valid as one. Takes the name of the document text column of the query,"
+				+ " which is otherwise taken from the query's metadata. Documents which cannot match are then absent from the output, BioC output included");
+		pushdown.setOptionalArg(true);
+		Option checkpointFile = new Option("k", "checkpoint-file", true,
+				"File recording the documents, or files, which are done, so that an interrupted run can be resumed with option 'u'."
+				+ " Not supported when extracting from a database to an output file");
+		Option resume = new Option("u", "resume", false,
+				"Resume an interrupted run, skipping the documents, or files, recorded in the checkpoint file. When extracting from files,"
+				+ " the documents of those files are kept from the existing output file");
+		Option cacheEntries = new Option("e", "cache-entries", true,
+				"Cache the results of up to this many distinct texts in memory, so that repeated texts are only extracted from once. Default "
+				+ ExtractionCache.DEFAULT_MAX_ENTRIES + " if the cache is enabled by option 'M' or 'E'");
+		cacheEntries.setType(Long.class);
+		Option cacheBytes = new Option("M", "cache-bytes", true,
+				"Cache results in memory up to this estimated number of bytes, least recently used results are evicted first");
+		cacheBytes.setType(Long.class);
+		Option cacheDir = new Option("E", "cache-dir", true,
+				"Also cache results in this directory, so that they are reused by later runs of the same models. The directory is not bounded");
+		Option canonicalText = new Option("N", "canonical-text", false,
+				"Search a lowercased, whitespace collapsed copy of each document, built once per document, with simplified regular expressions,"
+				+ " and confirm each match against the document. Matches are the same as without this option");
 		Option query = new Option("q", "db-query", true,
 				"Database query to execute in order to retrieve records to be processed. The query must return 2 values per row: Document ID and Document Text (in that order).");
 
@@ -764,17 +1288,67 @@ public class REDExtractor implements Extractor, RegexTiers {
 		Option fractionOfProcessors = new Option("z", "fraction-of-processors", true, "Floating point number specifying the Fraction of processors to use. Defaults to " + DEFAULT_FRACTION_OF_PROCESSORS);
 		fractionOfProcessors.setType(Float.class);
 
+		Option workers = new Option("w", "workers", true, "Number of documents to process concurrently. Defaults to the fraction of processors given by option 'z'");
+		workers.setType(Integer.class);
+
+		Option scheduler = new Option("T", "scheduler", true,
+				"Threads to extract on: '" + ExtractionSchedulers.FIXED + "' for a fixed pool of threads, '" + ExtractionSchedulers.FORK_JOIN
+				+ "' for a ForkJoinPool which adds threads while others wait, or '" + ExtractionSchedulers.VIRTUAL
+				+ "' for a virtual thread per document, on Java 21 or later. In each case as many documents are processed at once as given by option 'w'."
+				+ " Defaults to " + ExtractionSchedulers.FIXED);
+		Option capacity = new Option("c", "queue-capacity", true, "Maximum number of documents read but not yet written. Defaults to twice the number of workers."
+				+ " With option 'L', the maximum number of documents of concurrent requests batched together, default " + ExtractionServer.DEFAULT_MAX_BATCH);
+		capacity.setType(Integer.class);
+		Option batchWait = new Option("A", "batch-wait", true, "With option 'L', microseconds a request waits for others to batch with. Defaults to "
+				+ ExtractionServer.DEFAULT_MAX_WAIT_MICROS);
+		batchWait.setType(Long.class);
+
 		Option regexLib = new Option("r", "re2j", false, "Use the com.google.re2j RegEx engine instead of the java.util.regex library");
 
+		Option hybridLib = new Option("y", "hybrid", false, "Run each regular expression on the engine recorded for it in the model by calibration, java.util.regex if none is recorded");
+		Option metricsFile = new Option("s", "metrics-file", true, "File where per regular expression extraction metrics will be written as JSON at the end of the run."
+				+ " The metrics are also available through JMX during the run");
+
+		Option windowSize = new Option("W", "window-size", true, "Read input files other than CSV files in windows of this many chars, overlapping by the longest possible match,"
+				+ " so that files too large to hold in memory can be processed. Files are read whole by default."
+				+ " Each window is extracted from separately: a regular expression contributes its first match in each window rather than in the file,"
+				+ " and the second tier is used in the windows where the first tier has no matches, so the results can differ from reading the file whole."
+				+ " Files of more than " + WindowedExtractor.MAX_TEXT_CHARS + " chars are rejected");
+		windowSize.setType(Integer.class);
+
+		Option regexTimeout = new Option("x", "regex-timeout", true, "Milliseconds allowed for one regular expression to match one document. Zero or less means no limit. Defaults to " + CompiledREDExModel.DEFAULT_TIMEOUT_MILLIS);
+		regexTimeout.setType(Long.class);
+
 		Options options = new Options();
 		options.addOption(model);
 		options.addOption(fileDir);
 		options.addOption(file);
 		options.addOption(jdbcURL);
 		options.addOption(query);
+		options.addOption(pushdown);
+		options.addOption(checkpointFile);
+		options.addOption(cacheEntries);
+		options.addOption(cacheBytes);
+		options.addOption(cacheDir);
+		options.addOption(resume);
+		options.addOption(jdbcDriver);
+		options.addOption(fetchSize);
+		options.addOption(batchSize);
+		options.addOption(writerConnections);
+		options.addOption(writeRetries);
+		options.addOption(sqlDialect);
 		options.addOption(precisionBias);
 		options.addOption(fractionOfProcessors);
+		options.addOption(workers);
+		options.addOption(scheduler);
+		options.addOption(capacity);
+		options.addOption(batchWait);
 		options.addOption(regexLib);
+		options.addOption(hybridLib);
+		options.addOption(regexTimeout);
+		options.addOption(canonicalText);
+		options.addOption(metricsFile);
+		options.addOption(windowSize);
 		options.addOptionGroup(outputOG);
 		return options;
 	}
@@ -0,0 +1,182 @@
+package gov.va.research.red.ex;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import gov.va.research.red.Snippet;
+import gov.va.research.red.ex.REDExFactory.ScoreFunction;
+import gov.va.research.red.regex.PatternAdapter;
+
+/**
+ * A cache of the scores of models on a corpus during training. Training
+ * scores each candidate change twice, once before and once after, and the
+ * model before a change was usually scored as the model after the previous
+ * one, while identical candidates recur across the regex stacks.
+ * <p>
+ * Scores are keyed by the score function and the corpus, both by identity,
+ * the regular expressions, weights and engines of the model, and the
+ * settings scored with. The least recently used scores are evicted first.
+ * The corpus is assumed to be unchanged between scores; {@link #clear()}
+ * must be called when it changes.
+ */
+class ScoreCache {
+	static final int DEFAULT_MAX_ENTRIES = 100000;
+
+	private final long maxEntries;
+	private final Map<Key, Float> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * @param maxEntries The largest number of scores held, unbounded if &lt;= 0.
+	 */
+	ScoreCache(long maxEntries) {
+		this.maxEntries = maxEntries;
+	}
+
+	/**
+	 * @param scoreFunction The score function to cache the scores of.
+	 * @return A score function returning the cached score where there is one,
+	 *     or <code>null</code> if the score function is <code>null</code>.
+	 */
+	ScoreFunction wrap(ScoreFunction scoreFunction) {
+		if (scoreFunction == null) {
+			return null;
+		}
+		return (testing, ex, allowOverMatches, caseInsensitive, useTier2, patternAdapterClass) -> {
+			Key key = new Key(scoreFunction, testing, ex, allowOverMatches, caseInsensitive, useTier2, patternAdapterClass);
+			Float score;
+			synchronized (entries) {
+				score = entries.get(key);
+			}
+			if (score != null) {
+				hits.increment();
+				return score.floatValue();
+			}
+			misses.increment();
+			// scored outside the lock, a score computed twice at once is the same both times
+			float computed = scoreFunction.score(testing, ex, allowOverMatches, caseInsensitive, useTier2, patternAdapterClass);
+			put(key, computed);
+			return computed;
+		};
+	}
+
+	private void put(Key key, float score) {
+		synchronized (entries) {
+			entries.put(key, Float.valueOf(score));
+			Iterator<Float> eldest = entries.values().iterator();
+			while (eldest.hasNext() && maxEntries > 0 && entries.size() > maxEntries) {
+				eldest.next();
+				eldest.remove();
+				evictions.increment();
+			}
+		}
+	}
+
+	/**
+	 * Removes all scores, such as when the corpus has changed.
+	 */
+	void clear() {
+		synchronized (entries) {
+			entries.clear();
+		}
+	}
+
+	/**
+	 * @return The number of scores found in the cache.
+	 */
+	long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * @return The number of scores not found in the cache, each of which was computed.
+	 */
+	long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * @return The number of scores evicted to stay within the maximum number of entries.
+	 */
+	long getEvictions() {
+		return evictions.sum();
+	}
+
+	/**
+	 * @return The number of scores held.
+	 */
+	int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "ScoreCache [hits=" + getHits() + ", misses=" + getMisses() + ", evictions=" + getEvictions()
+				+ ", entries=" + size() + "]";
+	}
+
+	private static final class Key {
+		private final ScoreFunction scoreFunction;
+		private final Collection<Snippet> testing;
+		private final String model;
+		private final int flags;
+		private final Class<? extends PatternAdapter> patternAdapterClass;
+		private final int hashCode;
+
+		Key(ScoreFunction scoreFunction, Collection<Snippet> testing, REDExModel ex, boolean allowOverMatches,
+				boolean caseInsensitive, boolean useTier2, Class<? extends PatternAdapter> patternAdapterClass) {
+			this.scoreFunction = scoreFunction;
+			this.testing = testing;
+			this.model = fingerprint(ex);
+			this.flags = (allowOverMatches ? 1 : 0) | (caseInsensitive ? 2 : 0) | (useTier2 ? 4 : 0);
+			this.patternAdapterClass = patternAdapterClass;
+			int h = System.identityHashCode(scoreFunction);
+			h = 31 * h + System.identityHashCode(testing);
+			h = 31 * h + model.hashCode();
+			h = 31 * h + flags;
+			h = 31 * h + patternAdapterClass.hashCode();
+			this.hashCode = h;
+		}
+
+		/**
+		 * The regular expressions of the model as compiled, that is their
+		 * current strings, with their weights and engines, tier by tier.
+		 */
+		private static String fingerprint(REDExModel ex) {
+			StringBuilder sb = new StringBuilder();
+			for (Collection<? extends WeightedRegEx> tier : ex.getRegexTiers()) {
+				sb.append('\u0001');
+				for (WeightedRegEx wrx : tier) {
+					sb.append(wrx.getWeight()).append('\u0000').append(wrx.getEngine()).append('\u0000')
+							.append(wrx.getRegEx()).append('\u0000');
+				}
+			}
+			return sb.toString();
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key)obj;
+			return scoreFunction == other.scoreFunction && testing == other.testing && flags == other.flags
+					&& patternAdapterClass.equals(other.patternAdapterClass) && model.equals(other.model);
+		}
+	}
+}
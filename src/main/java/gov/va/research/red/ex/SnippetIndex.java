@@ -0,0 +1,158 @@
+package gov.va.research.red.ex;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import gov.va.research.red.Snippet;
+import gov.va.research.red.Token;
+import gov.va.research.red.TokenType;
+import gov.va.research.red.Tokenizer;
+import gov.va.research.red.regex.PatternAdapter;
+
+/**
+ * An inverted index of the tokens of a training corpus, so that a model is
+ * only scored on the snippets it can match. A regular expression can only
+ * match a snippet containing each of its required literals, as determined by
+ * {@link LiteralPrefilter#requiredLiterals(WeightedRegEx)}, and as most
+ * candidates of training still contain literal words, most touch a small
+ * part of the corpus.
+ * <p>
+ * Snippets are tokenized by the {@link Tokenizer} after folding case the way
+ * the engines may when ignoring case, so that every occurrence of a literal,
+ * which is letters and digits, lies within one token. A literal is then
+ * looked up as the union of the postings of all the tokens containing it,
+ * not only the token equal to it, since a literal need not match a whole
+ * word: <code>weight</code> also matches in <code>bodyweight</code>.
+ */
+class SnippetIndex {
+	private final Collection<Snippet> corpus;
+	private final List<Snippet> snippets;
+	private final Map<String, BitSet> postings = new HashMap<>();
+	private final Map<String, BitSet> literalPostings = new ConcurrentHashMap<>();
+
+	/**
+	 * @param corpus The corpus, indexed as it is now, so its texts must not change.
+	 */
+	SnippetIndex(Collection<Snippet> corpus) {
+		this.corpus = corpus;
+		this.snippets = new ArrayList<>(corpus);
+		StringBuilder folded = new StringBuilder();
+		for (int s = 0; s < this.snippets.size(); s++) {
+			String text = this.snippets.get(s).getText();
+			folded.setLength(0);
+			for (int i = 0; i < text.length(); i++) {
+				folded.append(CanonicalText.toLower(text.charAt(i)));
+			}
+			for (Token token : Tokenizer.tokenize(folded.toString())) {
+				if (token.getType() != TokenType.WHITESPACE) {
+					postings.computeIfAbsent(token.getString(), (t) -> new BitSet()).set(s);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param testing The snippets to restrict, the indexed corpus or another collection.
+	 * @param ex A model.
+	 * @return The snippets of the corpus which the model may match, in the
+	 *     order of the corpus, or the snippets unchanged if they are not the
+	 *     indexed corpus or nothing is known about one of the model's
+	 *     regular expressions.
+	 */
+	Collection<Snippet> restrict(Collection<Snippet> testing, RegexTiers ex) {
+		if (testing != corpus) {
+			return testing;
+		}
+		BitSet candidates = new BitSet();
+		WeightedRegEx single = null;
+		int regexs = 0;
+		for (Collection<? extends WeightedRegEx> tier : ex.getRegexTiers()) {
+			for (WeightedRegEx wrx : tier) {
+				single = wrx;
+				regexs++;
+				List<String> literals = LiteralPrefilter.requiredLiterals(wrx);
+				if (literals.isEmpty()) {
+					return corpus;
+				}
+				BitSet matchable = null;
+				for (String literal : literals) {
+					BitSet literalSnippets = literalPostings.computeIfAbsent(literal, this::lookUp);
+					if (matchable == null) {
+						matchable = (BitSet)literalSnippets.clone();
+					} else {
+						matchable.and(literalSnippets);
+					}
+				}
+				candidates.or(matchable);
+			}
+		}
+		Restricted restricted = new Restricted(candidates.cardinality(), regexs == 1 ? single.getRegEx() : null);
+		for (int s = candidates.nextSetBit(0); s >= 0; s = candidates.nextSetBit(s + 1)) {
+			restricted.add(snippets.get(s));
+		}
+		return restricted;
+	}
+
+	/**
+	 * Compiles a model to score on snippets. Snippets restricted for a single
+	 * regular expression each contain all the literals it requires, so the
+	 * model is then compiled without a literal prefilter, which would only
+	 * find them again in every snippet.
+	 * @param testing The snippets the model is to be scored on.
+	 * @param regexTiers Tiered weighted regular expressions, highest priority first.
+	 * @param patternAdapterClass The adapter class to use for the chosen regular expression engine.
+	 * @return The compiled model.
+	 */
+	static CompiledREDExModel compile(Collection<Snippet> testing, List<Collection<? extends WeightedRegEx>> regexTiers,
+			Class<? extends PatternAdapter> patternAdapterClass) {
+		boolean prefilter = true;
+		if (testing instanceof Restricted && ((Restricted)testing).regex != null) {
+			WeightedRegEx single = null;
+			int regexs = 0;
+			for (Collection<? extends WeightedRegEx> tier : regexTiers) {
+				for (WeightedRegEx wrx : tier) {
+					single = wrx;
+					regexs++;
+				}
+			}
+			prefilter = regexs != 1 || !((Restricted)testing).regex.equals(single.getRegEx());
+		}
+		return new CompiledREDExModel(regexTiers, patternAdapterClass, prefilter);
+	}
+
+	private BitSet lookUp(String literal) {
+		BitSet literalSnippets = new BitSet();
+		for (Map.Entry<String, BitSet> posting : postings.entrySet()) {
+			if (posting.getKey().contains(literal)) {
+				literalSnippets.or(posting.getValue());
+			}
+		}
+		return literalSnippets;
+	}
+
+	/**
+	 * Snippets restricted for a model, with the regular expression they were
+	 * restricted for if the model had only one.
+	 */
+	private static final class Restricted extends ArrayList<Snippet> {
+		private static final long serialVersionUID = 1L;
+		private final String regex;
+
+		Restricted(int initialCapacity, String regex) {
+			super(initialCapacity);
+			this.regex = regex;
+		}
+	}
+
+	/**
+	 * @return The number of distinct tokens indexed.
+	 */
+	int size() {
+		return postings.size();
+	}
+}
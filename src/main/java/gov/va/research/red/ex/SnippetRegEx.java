@@ -34,9 +34,10 @@ import gov.va.research.red.Snippet;
 import gov.va.research.red.Token;
 import gov.va.research.red.TokenType;
 import gov.va.research.red.Tokenizer;
+import gov.va.research.red.regex.HybridPatternAdapter;
+import gov.va.research.red.regex.JSEPatternAdapter;
 import gov.va.research.red.regex.PatternAdapter;
 import gov.va.research.red.regex.RE2JPatternAdapter;
-import gov.va.research.red.regex.JSEPatternAdapter;
 
 /**
  * @author doug
@@ -101,7 +102,7 @@ public class SnippetRegEx implements WeightedRegEx {
 		this.caseInsensitive = caseInsensitive;
 		segments = new ArrayList<Segment>(snippetRegEx.segments.size());
 		for (Segment segment : snippetRegEx.segments) {
-			List<Token> newTokens = new ArrayList<Token>(segments.size());
+			List<Token> newTokens = new ArrayList<Token>(segment.getTokens().size());
 			for (Token token : segment.getTokens()) {
 				newTokens.add(new Token(token));
 			}
@@ -188,6 +189,8 @@ public class SnippetRegEx implements WeightedRegEx {
 				this.pattern = new JSEPatternAdapter(regex);
 			} else if (patternAdapterClass.equals(RE2JPatternAdapter.class)) {
 				this.pattern = new RE2JPatternAdapter(regex);
+			} else if (patternAdapterClass.equals(HybridPatternAdapter.class)) {
+				this.pattern = new HybridPatternAdapter(regex);
 			} else {
 				throw new IllegalArgumentException(patternAdapterClass.toString());
 			}
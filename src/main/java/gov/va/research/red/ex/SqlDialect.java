@@ -0,0 +1,150 @@
+package gov.va.research.red.ex;
+
+/**
+ * The SQL used to write matches to a table with columns documentId,
+ * startPos, endPos and value, keyed by (documentId, startPos, endPos), and
+ * to search document text for literals. Rows are written by upsert where the
+ * database supports it, so that extracting from the same documents again
+ * does not duplicate rows.
+ */
+public enum SqlDialect {
+	/** Plain multi-row inserts, for databases without a known upsert. Not idempotent. */
+	GENERIC("varchar(4000)", 250) {
+		@Override
+		String upsert(String table, int rows) {
+			return "INSERT INTO " + table + " (" + COLUMNS + ") VALUES " + valueRows(rows);
+		}
+
+		@Override
+		public boolean isIdempotent() {
+			return false;
+		}
+	},
+	H2("varchar", 250) {
+		@Override
+		String upsert(String table, int rows) {
+			return "MERGE INTO " + table + " (" + COLUMNS + ") KEY (" + KEY + ") VALUES " + valueRows(rows);
+		}
+	},
+	/** Limited to 2100 parameters per statement. */
+	SQLSERVER("varchar(max)", 500) {
+		@Override
+		String upsert(String table, int rows) {
+			return "MERGE INTO " + table + " AS t USING (VALUES " + valueRows(rows) + ") AS s (" + COLUMNS + ")"
+					+ " ON t.documentId = s.documentId AND t.startPos = s.startPos AND t.endPos = s.endPos"
+					+ " WHEN MATCHED THEN UPDATE SET value = s.value"
+					+ " WHEN NOT MATCHED THEN INSERT (" + COLUMNS + ") VALUES (s.documentId, s.startPos, s.endPos, s.value);";
+		}
+	},
+	POSTGRESQL("text", 1000) {
+		@Override
+		String upsert(String table, int rows) {
+			return "INSERT INTO " + table + " (" + COLUMNS + ") VALUES " + valueRows(rows)
+					+ " ON CONFLICT (" + KEY + ") DO UPDATE SET value = EXCLUDED.value";
+		}
+
+		@Override
+		String containsLiteral(String column, String literal) {
+			return column + " ILIKE '%" + literal + "%'";
+		}
+	},
+	MYSQL("text", 1000) {
+		@Override
+		String upsert(String table, int rows) {
+			return "INSERT INTO " + table + " (" + COLUMNS + ") VALUES " + valueRows(rows)
+					+ " ON DUPLICATE KEY UPDATE value = VALUES(value)";
+		}
+	};
+
+	static final String COLUMNS = "documentId, startPos, endPos, value";
+	static final String KEY = "documentId, startPos, endPos";
+
+	private final String valueType;
+	private final int maxRowsPerStatement;
+
+	private SqlDialect(String valueType, int maxRowsPerStatement) {
+		this.valueType = valueType;
+		this.maxRowsPerStatement = maxRowsPerStatement;
+	}
+
+	/**
+	 * @param table The name of the table.
+	 * @param rows The number of rows, at most {@link #getMaxRowsPerStatement()}.
+	 * @return A statement writing the given number of rows, with 4 parameters per row in column order.
+	 */
+	abstract String upsert(String table, int rows);
+
+	/**
+	 * @return <code>true</code> if writing the same rows again by {@link #upsert(String, int)} does not duplicate them.
+	 */
+	public boolean isIdempotent() {
+		return true;
+	}
+
+	/**
+	 * @param table The name of the table.
+	 * @param documents The number of documents, at most {@link #getMaxRowsPerStatement()}.
+	 * @return A statement deleting the rows of the given number of documents, with 1 parameter per document ID.
+	 */
+	String deleteDocuments(String table, int documents) {
+		StringBuilder sb = new StringBuilder("DELETE FROM ").append(table).append(" WHERE documentId IN (");
+		for (int i = 0; i < documents; i++) {
+			sb.append(i == 0 ? "?" : ", ?");
+		}
+		return sb.append(')').toString();
+	}
+
+	/**
+	 * @param table The name of the table.
+	 * @return A statement creating the table, with a primary key on (documentId, startPos, endPos).
+	 */
+	String createTable(String table) {
+		return "CREATE TABLE " + table + " (documentId varchar(50) NOT NULL, startPos int NOT NULL, endPos int NOT NULL, value "
+				+ valueType + ", PRIMARY KEY (" + KEY + "))";
+	}
+
+	/**
+	 * @param column A column, or other expression, of text.
+	 * @param literal A lowercase literal of letters and digits.
+	 * @return A predicate true if the text contains the literal, ignoring case.
+	 */
+	String containsLiteral(String column, String literal) {
+		return "LOWER(" + column + ") LIKE '%" + literal + "%'";
+	}
+
+	/**
+	 * @return The largest number of rows written by one statement.
+	 */
+	public int getMaxRowsPerStatement() {
+		return maxRowsPerStatement;
+	}
+
+	private static String valueRows(int rows) {
+		StringBuilder sb = new StringBuilder(rows * 14);
+		for (int i = 0; i < rows; i++) {
+			if (i > 0) {
+				sb.append(", ");
+			}
+			sb.append("(?, ?, ?, ?)");
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @param jdbcURL A JDBC connection URL.
+	 * @return The dialect of the database the URL connects to, {@link #GENERIC} if not known.
+	 */
+	public static SqlDialect forURL(String jdbcURL) {
+		String url = jdbcURL == null ? "" : jdbcURL.toLowerCase();
+		if (url.startsWith("jdbc:h2:")) {
+			return H2;
+		} else if (url.startsWith("jdbc:sqlserver:") || url.startsWith("jdbc:jtds:sqlserver:")) {
+			return SQLSERVER;
+		} else if (url.startsWith("jdbc:postgresql:")) {
+			return POSTGRESQL;
+		} else if (url.startsWith("jdbc:mysql:") || url.startsWith("jdbc:mariadb:")) {
+			return MYSQL;
+		}
+		return GENERIC;
+	}
+}
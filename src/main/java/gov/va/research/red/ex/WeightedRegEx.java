@@ -1,6 +1,7 @@
 package gov.va.research.red.ex;
 
 import gov.va.research.red.regex.PatternAdapter;
+import gov.va.research.red.regex.RegexEngine;
 
 public interface WeightedRegEx {
 	
@@ -8,5 +9,11 @@ public interface WeightedRegEx {
 	public double getWeight();
 	public void setWeight(double weight);
 	public PatternAdapter getPattern(Class<? extends PatternAdapter> patternAdapterClass);
+	/**
+	 * @return The engine preferred for this regular expression, or <code>null</code> if none has been chosen.
+	 */
+	public default RegexEngine getEngine() {
+		return null;
+	}
 
 }
\ No newline at end of file
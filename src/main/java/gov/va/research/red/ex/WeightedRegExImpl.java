@@ -1,17 +1,30 @@
 package gov.va.research.red.ex;
 
+import gov.va.research.red.regex.HybridPatternAdapter;
 import gov.va.research.red.regex.PatternAdapter;
 import gov.va.research.red.regex.RE2JPatternAdapter;
+import gov.va.research.red.regex.RegexEngine;
 import gov.va.research.red.regex.JSEPatternAdapter;
 
 public class WeightedRegExImpl implements WeightedRegEx {
 	private String regEx;
 	private double weight;
+	private RegexEngine engine;
 	private transient PatternAdapter pattern;
 	
 	public WeightedRegExImpl(String regex, double weight) {
+		this(regex, weight, null);
+	}
+
+	/**
+	 * @param regex The regular expression.
+	 * @param weight The weight of the regular expression.
+	 * @param engine The engine preferred for the regular expression, used by {@link HybridPatternAdapter}, or <code>null</code> if none.
+	 */
+	public WeightedRegExImpl(String regex, double weight, RegexEngine engine) {
 		this.regEx = regex;
 		this.weight = weight;
+		this.engine = engine;
 	}
 
 	public String getRegEx() {
@@ -31,12 +44,24 @@ public class WeightedRegExImpl implements WeightedRegEx {
 		this.weight = weight;
 	}
 
+	@Override
+	public RegexEngine getEngine() {
+		return engine;
+	}
+
+	public void setEngine(RegexEngine engine) {
+		this.pattern = null;
+		this.engine = engine;
+	}
+
 	public PatternAdapter getPattern(Class<? extends PatternAdapter> patternAdapterClass) {
 		if (pattern == null) {
 			if (patternAdapterClass.equals(JSEPatternAdapter.class)) {
 				this.pattern = new JSEPatternAdapter(regEx);
 			} else if (patternAdapterClass.equals(RE2JPatternAdapter.class)) {
 				this.pattern = new RE2JPatternAdapter(regEx);
+			} else if (patternAdapterClass.equals(HybridPatternAdapter.class)) {
+				this.pattern = new HybridPatternAdapter(regEx, engine);
 			} else {
 				throw new java.lang.IllegalArgumentException(patternAdapterClass.getName());
 			}
@@ -0,0 +1,204 @@
+package gov.va.research.red.ex;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import gov.va.research.red.MappedFileReader;
+import gov.va.research.red.MatchedElement;
+import gov.va.research.red.regex.RegexAnalyzer;
+import gov.va.research.red.regex.RegexParser;
+
+/**
+ * Extracts from texts too long to hold in memory, such as large files, by
+ * reading them in overlapping windows of chars. Each window is extended on
+ * both sides by an overlap sized from the longest match the models can
+ * make, so a match crossing the boundary of a window is found whole. A match
+ * is only kept by the window in which its capture group starts, and is
+ * reported at its position in the whole text.
+ * <p>
+ * As each window is a separate target, a regular expression contributes its
+ * first match in each window, and the tiers of a model are chosen per window.
+ * The results can therefore differ from those of extracting from the whole
+ * text at once, which keeps the first match of each regular expression in
+ * the text, and uses the second tier only if the first tier matches nowhere
+ * in the text.
+ * <p>
+ * Matches are reported at int positions, so a text can have at most
+ * {@link #MAX_TEXT_CHARS} chars. Files which may be longer are rejected
+ * before any of them is read, see {@link #checkLength(Path, Charset)}.
+ */
+public class WindowedExtractor {
+	private static final Logger LOG = LoggerFactory.getLogger(WindowedExtractor.class);
+	/** The default number of chars in a window, not counting the overlap. */
+	public static final int DEFAULT_WINDOW_CHARS = 1 << 20;
+	/** The number of repetitions assumed for unbounded repetitions when sizing the overlap. */
+	static final int UNBOUNDED_REPEATS = 256;
+	/** The overlap used for regular expressions which cannot be analyzed. */
+	static final int DEFAULT_OVERLAP = 4096;
+	/** The largest overlap sized from the models. */
+	static final int MAX_OVERLAP = 1 << 20;
+	/** The largest number of chars in a text, as matches are reported at int positions. */
+	public static final long MAX_TEXT_CHARS = Integer.MAX_VALUE;
+
+	private final List<CompiledREDExModel> models;
+	private final boolean useTier2;
+	private final int windowChars;
+	private final int overlap;
+
+	/**
+	 * @param models The models to extract with, in order of priority.
+	 * @param useTier2 if <code>false</code> then only the first tier of each model is used.
+	 * @param windowChars The number of chars in a window, not counting the overlap.
+	 */
+	public WindowedExtractor(List<CompiledREDExModel> models, boolean useTier2, int windowChars) {
+		this(models, useTier2, windowChars, maxSpan(models));
+	}
+
+	/**
+	 * @param models The models to extract with, in order of priority.
+	 * @param useTier2 if <code>false</code> then only the first tier of each model is used.
+	 * @param windowChars The number of chars in a window, not counting the overlap.
+	 * @param overlap The number of chars by which a window is extended on each side.
+	 */
+	public WindowedExtractor(List<CompiledREDExModel> models, boolean useTier2, int windowChars, int overlap) {
+		if (windowChars < 1) {
+			throw new IllegalArgumentException("windowChars must be at least 1: " + windowChars);
+		}
+		if (overlap < 0) {
+			throw new IllegalArgumentException("overlap must not be negative: " + overlap);
+		}
+		this.models = new ArrayList<>(models);
+		this.useTier2 = useTier2;
+		this.windowChars = windowChars;
+		this.overlap = overlap;
+	}
+
+	/**
+	 * @return The number of chars by which a window is extended on each side.
+	 */
+	public int getOverlap() {
+		return overlap;
+	}
+
+	/**
+	 * Extracts from a file, which is memory mapped rather than read onto the heap.
+	 * @param file The file.
+	 * @param charset The encoding of the file.
+	 * @return The matches of each model, in model order, at their char positions in the file.
+	 * @throws IOException if the file cannot be read.
+	 */
+	public List<Set<MatchedElement>> extract(Path file, Charset charset) throws IOException {
+		checkLength(file, charset);
+		try (Reader reader = new MappedFileReader(file, charset)) {
+			return extract(reader);
+		}
+	}
+
+	/**
+	 * Checks that a file has no more chars than can be given int positions,
+	 * judging from its size in bytes and the most chars its encoding can
+	 * decode from a byte, so that a file which is too long is rejected
+	 * before it is read rather than partway through.
+	 * @param file The file.
+	 * @param charset The encoding of the file.
+	 * @throws IOException if the size of the file cannot be read.
+	 * @throws IllegalArgumentException if the file may have more than {@link #MAX_TEXT_CHARS} chars.
+	 */
+	public static void checkLength(Path file, Charset charset) throws IOException {
+		long bytes = Files.size(file);
+		double maxChars = Math.ceil(bytes * (double) charset.newDecoder().maxCharsPerByte());
+		if (maxChars > MAX_TEXT_CHARS) {
+			throw new IllegalArgumentException("File " + file + " of " + bytes + " bytes may have more than " + MAX_TEXT_CHARS
+					+ " chars, the most whose positions can be reported");
+		}
+	}
+
+	/**
+	 * Extracts from the text read from a reader.
+	 * @param reader The reader, which is read to its end but not closed.
+	 * @return The matches of each model, in model order, at their char positions in the text.
+	 * @throws IOException if the reader cannot be read.
+	 * @throws IllegalArgumentException if the text has more than {@link #MAX_TEXT_CHARS} chars, which is only found once
+	 *     the window reaching past that many chars is read.
+	 */
+	public List<Set<MatchedElement>> extract(Reader reader) throws IOException {
+		List<Set<MatchedElement>> results = new ArrayList<>(models.size());
+		for (int m = 0; m < models.size(); m++) {
+			results.add(new HashSet<>());
+		}
+		char[] buf = new char[windowChars + 2 * overlap];
+		MatchList matches = new MatchList();
+		// position in the text of buf[0]
+		long bufStart = 0;
+		int bufLen = 0;
+		int coreStart = 0;
+		boolean eof = false;
+		while (!eof) {
+			int n;
+			while (bufLen < buf.length && (n = reader.read(buf, bufLen, buf.length - bufLen)) > 0) {
+				bufLen += n;
+			}
+			eof = bufLen < buf.length;
+			if (bufStart + bufLen > MAX_TEXT_CHARS) {
+				throw new IllegalArgumentException("Text has more than " + MAX_TEXT_CHARS + " chars, the most whose positions can be reported");
+			}
+			int coreEnd = eof ? bufLen : bufLen - overlap;
+			CharBuffer window = CharBuffer.wrap(buf, 0, bufLen);
+			for (int m = 0; m < models.size(); m++) {
+				CompiledREDExModel model = models.get(m);
+				model.extract(window, coreStart, coreEnd, useTier2, model.getTimeoutMillis(), matches);
+				results.get(m).addAll(model.toMatchedElements(matches, (int) bufStart));
+			}
+			if (!eof) {
+				// keep the end of the core and the read ahead as the context of the next window
+				int keep = coreEnd - overlap;
+				System.arraycopy(buf, keep, buf, 0, bufLen - keep);
+				bufStart += keep;
+				bufLen -= keep;
+				coreStart = overlap;
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * @param models Models.
+	 * @return The longest match any regular expression of the models can make.
+	 */
+	static int maxSpan(Collection<CompiledREDExModel> models) {
+		int span = 0;
+		for (CompiledREDExModel model : models) {
+			for (Collection<? extends WeightedRegEx> tier : model.getRegexTiers()) {
+				for (WeightedRegEx wrx : tier) {
+					span = Math.max(span, maxSpan(wrx.getRegEx()));
+				}
+			}
+		}
+		if (span > MAX_OVERLAP) {
+			LOG.warn("Matches may span up to " + span + " chars, limiting the overlap of windows to " + MAX_OVERLAP);
+			return MAX_OVERLAP;
+		}
+		return span;
+	}
+
+	private static int maxSpan(String regex) {
+		try {
+			return RegexAnalyzer.maxLength(RegexParser.parse(regex), UNBOUNDED_REPEATS);
+		} catch (IllegalArgumentException e) {
+			LOG.debug("Cannot analyze '" + regex + "': " + e.getMessage());
+			return DEFAULT_OVERLAP;
+		}
+	}
+}
@@ -0,0 +1,175 @@
+package gov.va.research.red.regex;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * An Aho-Corasick automaton for finding which of a set of literal strings
+ * occur in a text, in a single pass over the text. Matching is
+ * case-insensitive: literals and text are both folded with
+ * {@link #fold(char)}.
+ */
+public class AhoCorasick {
+
+	private static final int[] NO_OUTPUT = new int[0];
+	private static final char[] NO_CHARS = new char[0];
+	private static final int[] NO_STATES = new int[0];
+
+	// transitions of each state, sorted by character
+	private final char[][] edgeChars;
+	private final int[][] edgeTargets;
+	private final int[] failure;
+	// ids of the literals ending at each state, including those reachable through failure links
+	private final int[][] output;
+	private final int size;
+
+	/**
+	 * @param literals The literals to search for. The id of each literal is its index in the list.
+	 */
+	public AhoCorasick(List<String> literals) {
+		this.size = literals.size();
+		List<StringBuilder> chars = new ArrayList<>();
+		List<List<Integer>> targets = new ArrayList<>();
+		List<int[]> outputs = new ArrayList<>();
+		chars.add(new StringBuilder());
+		targets.add(new ArrayList<>());
+		outputs.add(NO_OUTPUT);
+		// build the trie
+		for (int id = 0; id < literals.size(); id++) {
+			String literal = literals.get(id);
+			int state = 0;
+			for (int i = 0; i < literal.length(); i++) {
+				char c = fold(literal.charAt(i));
+				int idx = chars.get(state).indexOf(String.valueOf(c));
+				if (idx < 0) {
+					chars.get(state).append(c);
+					targets.get(state).add(chars.size());
+					chars.add(new StringBuilder());
+					targets.add(new ArrayList<>());
+					outputs.add(NO_OUTPUT);
+					state = chars.size() - 1;
+				} else {
+					state = targets.get(state).get(idx);
+				}
+			}
+			int[] out = outputs.get(state);
+			out = Arrays.copyOf(out, out.length + 1);
+			out[out.length - 1] = id;
+			outputs.set(state, out);
+		}
+		int states = chars.size();
+		this.edgeChars = new char[states][];
+		this.edgeTargets = new int[states][];
+		for (int s = 0; s < states; s++) {
+			char[] c = chars.get(s).toString().toCharArray();
+			int[] t = new int[c.length];
+			for (int i = 0; i < c.length; i++) {
+				t[i] = targets.get(s).get(i);
+			}
+			sortEdges(c, t);
+			this.edgeChars[s] = c.length == 0 ? NO_CHARS : c;
+			this.edgeTargets[s] = t.length == 0 ? NO_STATES : t;
+		}
+		// breadth first computation of the failure links
+		this.failure = new int[states];
+		this.output = outputs.toArray(new int[states][]);
+		Deque<Integer> queue = new ArrayDeque<>();
+		for (int t : edgeTargets[0]) {
+			failure[t] = 0;
+			queue.add(t);
+		}
+		while (!queue.isEmpty()) {
+			int s = queue.poll();
+			for (int i = 0; i < edgeChars[s].length; i++) {
+				char c = edgeChars[s][i];
+				int t = edgeTargets[s][i];
+				int f = failure[s];
+				int next;
+				while ((next = transition(f, c)) < 0 && f != 0) {
+					f = failure[f];
+				}
+				failure[t] = (next < 0 || next == t) ? 0 : next;
+				int[] inherited = output[failure[t]];
+				if (inherited.length > 0) {
+					int[] merged = Arrays.copyOf(output[t], output[t].length + inherited.length);
+					System.arraycopy(inherited, 0, merged, output[t].length, inherited.length);
+					output[t] = merged;
+				}
+				queue.add(t);
+			}
+		}
+	}
+
+	private static void sortEdges(char[] c, int[] t) {
+		// insertion sort, the number of edges per state is small
+		for (int i = 1; i < c.length; i++) {
+			char ci = c[i];
+			int ti = t[i];
+			int j = i - 1;
+			while (j >= 0 && c[j] > ci) {
+				c[j + 1] = c[j];
+				t[j + 1] = t[j];
+				j--;
+			}
+			c[j + 1] = ci;
+			t[j + 1] = ti;
+		}
+	}
+
+	private int transition(int state, char c) {
+		char[] chars = edgeChars[state];
+		int idx = Arrays.binarySearch(chars, c);
+		return idx < 0 ? -1 : edgeTargets[state][idx];
+	}
+
+	/**
+	 * Scans a text once and reports which literals occur in it.
+	 * @param text The text to scan.
+	 * @return The ids of the literals found in the text.
+	 */
+	public BitSet scan(CharSequence text) {
+		BitSet found = new BitSet(size);
+		int state = 0;
+		for (int i = 0; i < text.length(); i++) {
+			char c = fold(text.charAt(i));
+			int next;
+			while ((next = transition(state, c)) < 0 && state != 0) {
+				state = failure[state];
+			}
+			state = next < 0 ? 0 : next;
+			for (int id : output[state]) {
+				found.set(id);
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * @return The number of literals in the automaton.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Folds a character to lowercase, including the non-ASCII characters that
+	 * case-insensitive regular expression engines treat as equal to ASCII
+	 * letters.
+	 * @param c The character to fold.
+	 * @return The folded character.
+	 */
+	public static char fold(char c) {
+		if (c < 128) {
+			return (c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c;
+		}
+		switch (c) {
+		case '\u212A': return 'k'; // Kelvin sign
+		case '\u017F': return 's'; // long s
+		default: return Character.toLowerCase(c);
+		}
+	}
+}
@@ -0,0 +1,204 @@
+package gov.va.research.red.regex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An immutable set of chars, stored as sorted, non-overlapping ranges.
+ */
+public class CharClass {
+
+	// classes with more members than this are not closed under case, they contain nearly everything anyway
+	private static final int MAX_CASE_CLOSURE = 1024;
+
+	public static final CharClass ANY = new CharClass(new int[] { Character.MIN_VALUE, Character.MAX_VALUE });
+	public static final CharClass NONE = new CharClass(new int[0]);
+	public static final CharClass DIGIT = range('0', '9');
+	public static final CharClass WORD = union(range('a', 'z'), range('A', 'Z'), range('0', '9'), of('_'));
+	public static final CharClass SPACE = union(of(' '), of('\t'), of('\n'), of('\u000B'), of('\f'), of('\r'));
+	public static final CharClass HORIZONTAL_SPACE = union(of(' '), of('\t'), of('\u00A0'), of('\u1680'), of('\u180E'),
+			range('\u2000', '\u200A'), of('\u202F'), of('\u205F'), of('\u3000'));
+	public static final CharClass VERTICAL_SPACE = union(range('\n', '\r'), of('\u0085'), of('\u2028'), of('\u2029'));
+	// the two halves of a supplementary code point
+	public static final CharClass HIGH_SURROGATE = range(Character.MIN_HIGH_SURROGATE, Character.MAX_HIGH_SURROGATE);
+	public static final CharClass LOW_SURROGATE = range(Character.MIN_LOW_SURROGATE, Character.MAX_LOW_SURROGATE);
+
+	// pairs of inclusive bounds: lo0, hi0, lo1, hi1, ...
+	private final int[] ranges;
+
+	private CharClass(int[] ranges) {
+		this.ranges = ranges;
+	}
+
+	public static CharClass of(char c) {
+		return new CharClass(new int[] { c, c });
+	}
+
+	public static CharClass range(char lo, char hi) {
+		if (lo > hi) {
+			throw new IllegalArgumentException("Illegal character range " + lo + "-" + hi);
+		}
+		return new CharClass(new int[] { lo, hi });
+	}
+
+	public static CharClass union(CharClass... classes) {
+		List<int[]> pairs = new ArrayList<>();
+		for (CharClass cc : classes) {
+			for (int i = 0; i < cc.ranges.length; i += 2) {
+				pairs.add(new int[] { cc.ranges[i], cc.ranges[i + 1] });
+			}
+		}
+		return normalize(pairs);
+	}
+
+	private static CharClass normalize(List<int[]> pairs) {
+		pairs.sort((a, b) -> Integer.compare(a[0], b[0]));
+		int[] merged = new int[pairs.size() * 2];
+		int n = 0;
+		for (int[] p : pairs) {
+			if (n > 0 && p[0] <= merged[n - 1] + 1) {
+				merged[n - 1] = Math.max(merged[n - 1], p[1]);
+			} else {
+				merged[n++] = p[0];
+				merged[n++] = p[1];
+			}
+		}
+		return new CharClass(Arrays.copyOf(merged, n));
+	}
+
+	/**
+	 * @return A class containing exactly the chars not in this class.
+	 */
+	public CharClass complement() {
+		List<int[]> pairs = new ArrayList<>();
+		int next = Character.MIN_VALUE;
+		for (int i = 0; i < ranges.length; i += 2) {
+			if (ranges[i] > next) {
+				pairs.add(new int[] { next, ranges[i] - 1 });
+			}
+			next = ranges[i + 1] + 1;
+		}
+		if (next <= Character.MAX_VALUE) {
+			pairs.add(new int[] { next, Character.MAX_VALUE });
+		}
+		return normalize(pairs);
+	}
+
+	/**
+	 * Adds the upper, lower and title case forms of each member, so that
+	 * {@link #containsIgnoreCase(char)} also accepts chars that only fold to a
+	 * member, such as the Kelvin sign for <code>k</code>.
+	 * @return The closed class.
+	 */
+	public CharClass caseClosure() {
+		if (size() > MAX_CASE_CLOSURE) {
+			return this;
+		}
+		List<int[]> pairs = new ArrayList<>();
+		for (int i = 0; i < ranges.length; i += 2) {
+			pairs.add(new int[] { ranges[i], ranges[i + 1] });
+			for (int c = ranges[i]; c <= ranges[i + 1]; c++) {
+				for (int v : new int[] { Character.toLowerCase(c), Character.toUpperCase(c), Character.toTitleCase(c),
+						Character.toLowerCase(Character.toUpperCase(c)) }) {
+					if (v != c && v <= Character.MAX_VALUE) {
+						pairs.add(new int[] { v, v });
+					}
+				}
+			}
+		}
+		return normalize(pairs);
+	}
+
+	public boolean contains(char c) {
+		int lo = 0;
+		int hi = ranges.length / 2 - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (c < ranges[2 * mid]) {
+				hi = mid - 1;
+			} else if (c > ranges[2 * mid + 1]) {
+				lo = mid + 1;
+			} else {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param other Another class.
+	 * @return <code>true</code> if the classes have at least one member in common.
+	 */
+	public boolean intersects(CharClass other) {
+		int i = 0;
+		int j = 0;
+		while (i < ranges.length && j < other.ranges.length) {
+			if (ranges[i + 1] < other.ranges[j]) {
+				i += 2;
+			} else if (other.ranges[j + 1] < ranges[i]) {
+				j += 2;
+			} else {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param c A char.
+	 * @return <code>true</code> if the char, or its upper or lower case form, is a member.
+	 */
+	public boolean containsIgnoreCase(char c) {
+		return contains(c) || contains(Character.toLowerCase(c)) || contains(Character.toUpperCase(c))
+				|| contains(Character.toLowerCase(Character.toUpperCase(c)));
+	}
+
+	/**
+	 * @return The number of chars in the class.
+	 */
+	public int size() {
+		int size = 0;
+		for (int i = 0; i < ranges.length; i += 2) {
+			size += ranges[i + 1] - ranges[i] + 1;
+		}
+		return size;
+	}
+
+	/**
+	 * @return The lowest char in the class.
+	 * @throws IllegalStateException if the class is empty.
+	 */
+	public char first() {
+		if (ranges.length == 0) {
+			throw new IllegalStateException("Empty class");
+		}
+		return (char) ranges[0];
+	}
+
+	public boolean isEmpty() {
+		return ranges.length == 0;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof CharClass && Arrays.equals(ranges, ((CharClass)obj).ranges);
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(ranges);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("[");
+		for (int i = 0; i < ranges.length; i += 2) {
+			sb.append(String.format("\\u%04X", ranges[i]));
+			if (ranges[i + 1] != ranges[i]) {
+				sb.append('-').append(String.format("\\u%04X", ranges[i + 1]));
+			}
+		}
+		return sb.append(']').toString();
+	}
+}
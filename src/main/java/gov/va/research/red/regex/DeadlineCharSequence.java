@@ -0,0 +1,92 @@
+package gov.va.research.red.regex;
+
+/**
+ * A CharSequence that aborts regular expression matching once a deadline has
+ * passed. Regular expression engines read their input through
+ * {@link #charAt(int)}, so a matcher running over this sequence throws a
+ * {@link RegexTimeoutException} on the calling thread soon after its time is
+ * up, without needing a separate thread to interrupt it.
+ */
+public class DeadlineCharSequence implements CharSequence {
+
+	// number of charAt calls between clock checks, must be a power of two
+	private static final int CHECK_INTERVAL = 1024;
+
+	private CharSequence delegate;
+	private long deadline;
+	private boolean expires;
+	private int reads;
+
+	/**
+	 * Creates an empty sequence without a deadline, to be given an input with
+	 * {@link #restart(CharSequence, long)}.
+	 */
+	public DeadlineCharSequence() {
+		this.delegate = "";
+	}
+
+	/**
+	 * @param delegate The sequence to wrap.
+	 * @param deadline The deadline, in terms of {@link System#nanoTime()}.
+	 */
+	public DeadlineCharSequence(CharSequence delegate, long deadline) {
+		this.delegate = delegate;
+		this.deadline = deadline;
+		this.expires = true;
+	}
+
+	/**
+	 * @param delegate The sequence to wrap.
+	 * @param timeoutNanos The time allowed from now, in nanoseconds.
+	 * @return A sequence that expires <code>timeoutNanos</code> from now.
+	 */
+	public static DeadlineCharSequence expiringIn(CharSequence delegate, long timeoutNanos) {
+		return new DeadlineCharSequence(delegate, System.nanoTime() + timeoutNanos);
+	}
+
+	/**
+	 * Wraps another sequence and restarts the clock.
+	 * @param delegate The sequence to wrap.
+	 * @param timeoutNanos The time allowed from now, in nanoseconds. No limit if &lt;= 0.
+	 * @return This sequence.
+	 */
+	public DeadlineCharSequence restart(CharSequence delegate, long timeoutNanos) {
+		this.delegate = delegate;
+		this.expires = timeoutNanos > 0;
+		this.deadline = expires ? System.nanoTime() + timeoutNanos : 0;
+		this.reads = 0;
+		return this;
+	}
+
+	@Override
+	public char charAt(int index) {
+		if ((++reads & (CHECK_INTERVAL - 1)) == 0 && expires && System.nanoTime() - deadline > 0) {
+			throw new RegexTimeoutException("Deadline exceeded after " + reads + " character reads");
+		}
+		return delegate.charAt(index);
+	}
+
+	@Override
+	public int length() {
+		return delegate.length();
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		// used to extract matched groups, which needs no deadline
+		return delegate.subSequence(start, end);
+	}
+
+	@Override
+	public String toString() {
+		return delegate.toString();
+	}
+
+	/**
+	 * @return The wrapped sequence.
+	 */
+	public CharSequence getDelegate() {
+		return delegate;
+	}
+
+}
@@ -0,0 +1,43 @@
+package gov.va.research.red.regex;
+
+/**
+ * Runs each regular expression on the engine chosen for it, as recorded in a
+ * model by calibration, rather than running all of them on one engine.
+ * Regular expressions without a recorded engine run on java.util.regex.
+ */
+public class HybridPatternAdapter implements PatternAdapter {
+
+	private final PatternAdapter delegate;
+	private final RegexEngine engine;
+
+	public HybridPatternAdapter(String regex) {
+		this(regex, null);
+	}
+
+	/**
+	 * @param regex The regular expression.
+	 * @param engine The engine to run it on, or <code>null</code> for java.util.regex.
+	 */
+	public HybridPatternAdapter(String regex, RegexEngine engine) {
+		this.engine = engine == null ? RegexEngine.JSE : engine;
+		this.delegate = this.engine.compile(regex);
+	}
+
+	@Override
+	public MatcherAdapter matcher(CharSequence input) {
+		return delegate.matcher(input);
+	}
+
+	@Override
+	public String pattern() {
+		return delegate.pattern();
+	}
+
+	/**
+	 * @return The engine running the regular expression.
+	 */
+	public RegexEngine getEngine() {
+		return engine;
+	}
+
+}
@@ -15,6 +15,11 @@ public class JSEMatcherAdapter implements MatcherAdapter {
 		return this.regexMatcher.find();
 	}
 
+	@Override
+	public boolean lookingAt() {
+		return this.regexMatcher.lookingAt();
+	}
+
 	@Override
 	public int groupCount() {
 		return this.regexMatcher.groupCount();
@@ -50,4 +55,16 @@ public class JSEMatcherAdapter implements MatcherAdapter {
 		return this.regexMatcher.end();
 	}
 
+	@Override
+	public MatcherAdapter reset(CharSequence input) {
+		this.regexMatcher.reset(input);
+		return this;
+	}
+
+	@Override
+	public MatcherAdapter region(int start, int end) {
+		this.regexMatcher.region(start, end);
+		return this;
+	}
+
 }
@@ -2,6 +2,12 @@ package gov.va.research.red.regex;
 
 public interface MatcherAdapter {
 	public boolean find();
+    /**
+     * Attempts to match the pattern at the start of the region of this
+     * matcher, without requiring it to match the whole region.
+     * @return <code>true</code> if a prefix of the region matches.
+     */
+    public boolean lookingAt();
     public int groupCount();
     public String group();
     public String group(int group);
@@ -9,4 +15,19 @@ public interface MatcherAdapter {
     public int start(int group);
     public int end();
     public int end(int group);
+    /**
+     * Resets this matcher to search a new input, so that one matcher can be
+     * reused for many inputs instead of creating a matcher per input.
+     * @param input The new input.
+     * @return This matcher.
+     */
+    public MatcherAdapter reset(CharSequence input);
+    /**
+     * Limits the search of this matcher to a region of its input, and resets
+     * it. Match positions remain relative to the whole input.
+     * @param start The index of the first char of the region.
+     * @param end The index following the last char of the region.
+     * @return This matcher.
+     */
+    public MatcherAdapter region(int start, int end);
 }
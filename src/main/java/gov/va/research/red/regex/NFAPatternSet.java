@@ -0,0 +1,441 @@
+package gov.va.research.red.regex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link PatternSetAdapter} which combines its members into one Thompson
+ * NFA and simulates it over the input once, tracking the set of active
+ * states of all members at the same time.
+ * <p>
+ * The NFA accepts a superset of what each member matches: all members are
+ * matched case-insensitively, <code>.</code> matches any char, assertions and
+ * lookarounds always succeed, a class which may match a supplementary code
+ * point may also consume the pair of chars it is made of, back references match any text, and large
+ * repetition counts are relaxed. Members which can not be parsed, use a
+ * flag the parser does not model, or can match the empty string, are always
+ * reported as matching.
+ */
+public class NFAPatternSet implements PatternSetAdapter {
+
+	/** Repetition counts above this are treated as unbounded. */
+	static final int MAX_REPEAT = 16;
+	/** Members are no longer added to the NFA once it has this many states. */
+	static final int MAX_STATES = 1 << 20;
+
+	private static final byte CHAR = 0;
+	private static final byte SPLIT = 1;
+	private static final byte MATCH = 2;
+
+	private final String[] patterns;
+	// members which are always reported as matching
+	private final BitSet alwaysMatching;
+
+	private final byte[] kind;
+	private final int[] patternOf;
+	// for CHAR states: the case closed class, and its ASCII members as two 64 bit masks
+	private final CharClass[] classes;
+	private final long[] asciiMasks;
+	// for CHAR states: the CHAR and MATCH states reachable after consuming a char
+	private final int[][] step;
+	// for each ASCII char: the states reachable by consuming it from the start of any member
+	private final int[][] asciiStarts;
+	// CHAR states reachable from the start of any member without consuming a char
+	private final int[] startChars;
+
+	private final ThreadLocal<Scratch> scratch;
+
+	/**
+	 * @param regexes The regular expressions of the set, in java.util.regex syntax.
+	 */
+	public NFAPatternSet(List<String> regexes) {
+		this.patterns = regexes.toArray(new String[regexes.size()]);
+		this.alwaysMatching = new BitSet(patterns.length);
+		Builder builder = new Builder();
+		int[] entries = new int[patterns.length];
+		for (int p = 0; p < patterns.length; p++) {
+			int mark = builder.size();
+			try {
+				RegexNode root = RegexParser.parse(patterns[p], true);
+				entries[p] = builder.build(root, builder.add(MATCH, null, null, p), p);
+			} catch (IllegalArgumentException | IllegalStateException e) {
+				builder.truncate(mark);
+				alwaysMatching.set(p);
+				entries[p] = -1;
+			}
+		}
+		int n = builder.size();
+		this.kind = new byte[n];
+		this.patternOf = new int[n];
+		this.classes = new CharClass[n];
+		this.asciiMasks = new long[2 * n];
+		int[][] outs = new int[n][];
+		for (int s = 0; s < n; s++) {
+			kind[s] = builder.kinds.get(s);
+			patternOf[s] = builder.patterns.get(s);
+			classes[s] = builder.classes.get(s);
+			outs[s] = builder.outs.get(s);
+			if (kind[s] == CHAR) {
+				for (char c = 0; c < 128; c++) {
+					if (classes[s].containsIgnoreCase(c)) {
+						asciiMasks[2 * s + (c >> 6)] |= 1L << (c & 63);
+					}
+				}
+			}
+		}
+
+		Closure closure = new Closure(kind, outs);
+		this.step = new int[n][];
+		for (int s = 0; s < n; s++) {
+			if (kind[s] == CHAR) {
+				step[s] = closure.of(outs[s][0]);
+			}
+		}
+		List<Integer> starts = new ArrayList<>();
+		boolean[] isStart = new boolean[n];
+		for (int p = 0; p < patterns.length; p++) {
+			if (entries[p] < 0) {
+				continue;
+			}
+			for (int s : closure.of(entries[p])) {
+				if (kind[s] == MATCH) {
+					alwaysMatching.set(p);
+				} else if (!isStart[s]) {
+					isStart[s] = true;
+					starts.add(s);
+				}
+			}
+		}
+		this.startChars = new int[starts.size()];
+		for (int i = 0; i < startChars.length; i++) {
+			startChars[i] = starts.get(i);
+		}
+		this.asciiStarts = new int[128][];
+		int[] stamps = new int[n];
+		int[] buffer = new int[n];
+		for (char c = 0; c < 128; c++) {
+			int count = 0;
+			for (int s : startChars) {
+				if (!alwaysMatching.get(patternOf[s]) && matches(s, c)) {
+					for (int t : step[s]) {
+						if (stamps[t] != c + 1) {
+							stamps[t] = c + 1;
+							buffer[count++] = t;
+						}
+					}
+				}
+			}
+			asciiStarts[c] = Arrays.copyOf(buffer, count);
+		}
+		this.scratch = ThreadLocal.withInitial(() -> new Scratch(kind.length, patterns.length));
+	}
+
+	private boolean matches(int state, char c) {
+		if (c < 128) {
+			return (asciiMasks[2 * state + (c >> 6)] & (1L << (c & 63))) != 0;
+		}
+		return classes[state].containsIgnoreCase(c);
+	}
+
+	@Override
+	public int size() {
+		return patterns.length;
+	}
+
+	/**
+	 * @return The number of NFA states of all members.
+	 */
+	public int stateCount() {
+		return kind.length;
+	}
+
+	/**
+	 * @param index The index of a member.
+	 * @return <code>true</code> if the member is always reported as matching.
+	 */
+	public boolean isAlwaysMatching(int index) {
+		return alwaysMatching.get(index);
+	}
+
+	@Override
+	public BitSet matching(CharSequence input) {
+		BitSet all = new BitSet(patterns.length);
+		all.set(0, patterns.length);
+		return matching(input, all);
+	}
+
+	@Override
+	public BitSet matching(CharSequence input, BitSet candidates) {
+		BitSet result = new BitSet(patterns.length);
+		Scratch sc = scratch.get();
+		boolean[] active = sc.active;
+		Arrays.fill(active, false);
+		int remaining = 0;
+		for (int p = candidates.nextSetBit(0); p >= 0 && p < patterns.length; p = candidates.nextSetBit(p + 1)) {
+			if (alwaysMatching.get(p)) {
+				result.set(p);
+			} else {
+				active[p] = true;
+				remaining++;
+			}
+		}
+		int[] current = sc.current;
+		int[] next = sc.next;
+		int[] stamps = sc.stamps;
+		int currentSize = 0;
+		for (int i = 0, len = input.length(); i < len && remaining > 0; i++) {
+			char c = input.charAt(i);
+			int gen = sc.nextGeneration();
+			int nextSize = 0;
+			for (int k = 0; k < currentSize; k++) {
+				int s = current[k];
+				if (active[patternOf[s]] && matches(s, c)) {
+					for (int t : step[s]) {
+						if (stamps[t] != gen) {
+							stamps[t] = gen;
+							int p = patternOf[t];
+							if (!active[p]) {
+								continue;
+							}
+							if (kind[t] == MATCH) {
+								result.set(p);
+								active[p] = false;
+								remaining--;
+							} else {
+								next[nextSize++] = t;
+							}
+						}
+					}
+				}
+			}
+			if (c < 128) {
+				for (int t : asciiStarts[c]) {
+					if (stamps[t] != gen) {
+						stamps[t] = gen;
+						int p = patternOf[t];
+						if (!active[p]) {
+							continue;
+						}
+						if (kind[t] == MATCH) {
+							result.set(p);
+							active[p] = false;
+							remaining--;
+						} else {
+							next[nextSize++] = t;
+						}
+					}
+				}
+			} else {
+				for (int s : startChars) {
+					if (active[patternOf[s]] && matches(s, c)) {
+						for (int t : step[s]) {
+							if (stamps[t] != gen) {
+								stamps[t] = gen;
+								int p = patternOf[t];
+								if (!active[p]) {
+									continue;
+								}
+								if (kind[t] == MATCH) {
+									result.set(p);
+									active[p] = false;
+									remaining--;
+								} else {
+									next[nextSize++] = t;
+								}
+							}
+						}
+					}
+				}
+			}
+			int[] swap = current;
+			current = next;
+			next = swap;
+			currentSize = nextSize;
+		}
+		return result;
+	}
+
+	/**
+	 * Per thread working memory for {@link NFAPatternSet#matching(CharSequence, BitSet)}.
+	 */
+	private static class Scratch {
+		final int[] current;
+		final int[] next;
+		final int[] stamps;
+		final boolean[] active;
+		int generation;
+
+		Scratch(int states, int patterns) {
+			this.current = new int[states];
+			this.next = new int[states];
+			this.stamps = new int[states];
+			this.active = new boolean[patterns];
+		}
+
+		int nextGeneration() {
+			if (++generation == 0) {
+				Arrays.fill(stamps, 0);
+				generation = 1;
+			}
+			return generation;
+		}
+	}
+
+	/**
+	 * Computes epsilon closures: the CHAR and MATCH states reachable from a
+	 * state through SPLIT states only.
+	 */
+	private static class Closure {
+		private final byte[] kind;
+		private final int[][] outs;
+		private final int[][] cache;
+		private final int[] stamps;
+		private int generation;
+		private final int[] stack;
+		private final int[] buffer;
+
+		Closure(byte[] kind, int[][] outs) {
+			this.kind = kind;
+			this.outs = outs;
+			this.cache = new int[kind.length][];
+			this.stamps = new int[kind.length];
+			this.stack = new int[kind.length];
+			this.buffer = new int[kind.length];
+		}
+
+		int[] of(int state) {
+			if (cache[state] != null) {
+				return cache[state];
+			}
+			generation++;
+			int top = 0;
+			int count = 0;
+			stack[top++] = state;
+			stamps[state] = generation;
+			while (top > 0) {
+				int s = stack[--top];
+				if (kind[s] == SPLIT) {
+					for (int t : outs[s]) {
+						if (stamps[t] != generation) {
+							stamps[t] = generation;
+							stack[top++] = t;
+						}
+					}
+				} else {
+					buffer[count++] = s;
+				}
+			}
+			int[] closure = Arrays.copyOf(buffer, count);
+			cache[state] = closure;
+			return closure;
+		}
+	}
+
+	/**
+	 * Builds NFA states from syntax trees, from the end of each regular
+	 * expression toward its start.
+	 */
+	private static class Builder {
+		final List<Byte> kinds = new ArrayList<>();
+		final List<CharClass> classes = new ArrayList<>();
+		final List<int[]> outs = new ArrayList<>();
+		final List<Integer> patterns = new ArrayList<>();
+		final Map<CharClass, CharClass> closedClasses = new HashMap<>();
+
+		int size() {
+			return kinds.size();
+		}
+
+		void truncate(int size) {
+			while (kinds.size() > size) {
+				int last = kinds.size() - 1;
+				kinds.remove(last);
+				classes.remove(last);
+				outs.remove(last);
+				patterns.remove(last);
+			}
+		}
+
+		int add(byte kind, CharClass cc, int[] out, int pattern) {
+			if (kinds.size() >= MAX_STATES) {
+				throw new IllegalStateException("Too many NFA states");
+			}
+			kinds.add(kind);
+			classes.add(cc);
+			outs.add(out);
+			patterns.add(pattern);
+			return kinds.size() - 1;
+		}
+
+		/**
+		 * @param node The node to build.
+		 * @param next The state following the node.
+		 * @param pattern The index of the member the node belongs to.
+		 * @return The entry state of the node.
+		 */
+		int build(RegexNode node, int next, int pattern) {
+			switch (node.getType()) {
+			case CHARS: {
+				CharClass cc = closedClasses.computeIfAbsent(node.getChars(), CharClass::caseClosure);
+				if (cc.intersects(CharClass.HIGH_SURROGATE)) {
+					// java.util.regex matches a class against a whole code point, which may be a pair of chars
+					int low = add(CHAR, CharClass.LOW_SURROGATE, new int[] { next }, pattern);
+					next = add(SPLIT, null, new int[] { next, low }, pattern);
+				}
+				return add(CHAR, cc, new int[] { next }, pattern);
+			}
+			case CONCAT: {
+				List<RegexNode> children = node.getChildren();
+				for (int i = children.size() - 1; i >= 0; i--) {
+					next = build(children.get(i), next, pattern);
+				}
+				return next;
+			}
+			case ALTERNATION: {
+				List<RegexNode> children = node.getChildren();
+				int[] out = new int[children.size()];
+				for (int i = 0; i < out.length; i++) {
+					out[i] = build(children.get(i), next, pattern);
+				}
+				return add(SPLIT, null, out, pattern);
+			}
+			case GROUP:
+				return build(node.getChild(), next, pattern);
+			case ASSERTION:
+			case LOOKAROUND:
+				return next;
+			case BACKREFERENCE:
+				return star(RegexNode.chars(CharClass.ANY), next, pattern);
+			case REPEAT: {
+				int min = Math.min(node.getMin(), MAX_REPEAT);
+				int entry;
+				if (node.getMax() == RegexNode.UNBOUNDED || node.getMax() > MAX_REPEAT) {
+					entry = star(node.getChild(), next, pattern);
+				} else {
+					entry = next;
+					for (int i = min; i < node.getMax(); i++) {
+						entry = add(SPLIT, null, new int[] { build(node.getChild(), entry, pattern), next }, pattern);
+					}
+				}
+				for (int i = 0; i < min; i++) {
+					entry = build(node.getChild(), entry, pattern);
+				}
+				return entry;
+			}
+			default:
+				throw new IllegalArgumentException("Unknown node type " + node.getType());
+			}
+		}
+
+		private int star(RegexNode child, int next, int pattern) {
+			int loop = add(SPLIT, null, null, pattern);
+			int body = build(child, loop, pattern);
+			outs.set(loop, new int[] { body, next });
+			return loop;
+		}
+	}
+}
@@ -0,0 +1,30 @@
+package gov.va.research.red.regex;
+
+import java.util.BitSet;
+
+/**
+ * A set of regular expressions compiled together, which determines in a
+ * single pass over an input which of its members can match somewhere in the
+ * input. The result may include members which do not actually match, but
+ * never omits a member which does, so it can be used to select the members
+ * worth running with a {@link PatternAdapter}.
+ */
+public interface PatternSetAdapter {
+	/**
+	 * @return The number of regular expressions in the set.
+	 */
+	public int size();
+
+	/**
+	 * @param input The text to search.
+	 * @return The indexes of the members which may match the input.
+	 */
+	public BitSet matching(CharSequence input);
+
+	/**
+	 * @param input The text to search.
+	 * @param candidates The indexes of the members to consider.
+	 * @return The indexes of the candidates which may match the input.
+	 */
+	public BitSet matching(CharSequence input, BitSet candidates);
+}
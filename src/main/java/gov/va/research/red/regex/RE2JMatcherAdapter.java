@@ -5,9 +5,22 @@ import com.google.re2j.Matcher;
 public class RE2JMatcherAdapter implements MatcherAdapter {
 
 	private Matcher re2jMatcher;
+	private CharSequence input;
+	// re2j has no regions, a region is searched as a view of the input starting at this offset
+	private int regionStart;
+	private final RegionView regionView = new RegionView();
 
 	public RE2JMatcherAdapter(Matcher matcher) {
+		this(matcher, null);
+	}
+
+	/**
+	 * @param matcher The re2j matcher.
+	 * @param input The input of the matcher, needed to support {@link #region(int, int)}.
+	 */
+	public RE2JMatcherAdapter(Matcher matcher, CharSequence input) {
 		this.re2jMatcher = matcher;
+		this.input = input;
 	}
 
 	@Override
@@ -15,6 +28,11 @@ public class RE2JMatcherAdapter implements MatcherAdapter {
 		return this.re2jMatcher.find();
 	}
 
+	@Override
+	public boolean lookingAt() {
+		return this.re2jMatcher.lookingAt();
+	}
+
 	@Override
 	public int groupCount() {
 		return this.re2jMatcher.groupCount();
@@ -27,12 +45,12 @@ public class RE2JMatcherAdapter implements MatcherAdapter {
 
 	@Override
 	public int start(int group) {
-		return this.re2jMatcher.start(group);
+		return offset(this.re2jMatcher.start(group));
 	}
 
 	@Override
 	public int end(int group) {
-		return this.re2jMatcher.end(group);
+		return offset(this.re2jMatcher.end(group));
 	}
 
 	@Override
@@ -42,12 +60,85 @@ public class RE2JMatcherAdapter implements MatcherAdapter {
 
 	@Override
 	public int start() {
-		return this.re2jMatcher.start();
+		return offset(this.re2jMatcher.start());
 	}
 
 	@Override
 	public int end() {
-		return this.re2jMatcher.end();
+		return offset(this.re2jMatcher.end());
+	}
+
+	private int offset(int index) {
+		return index < 0 ? index : index + regionStart;
+	}
+
+	@Override
+	public MatcherAdapter reset(CharSequence input) {
+		this.input = input;
+		this.regionStart = 0;
+		this.re2jMatcher.reset(input);
+		return this;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * The region is searched through a view of the input, which reads the
+	 * input itself rather than a copy, so setting a region costs nothing and
+	 * a {@link DeadlineCharSequence} input still enforces its deadline.
+	 */
+	@Override
+	public MatcherAdapter region(int start, int end) {
+		if (input == null) {
+			throw new IllegalStateException("The input of this matcher is unknown");
+		}
+		if (start < 0 || end < start || end > input.length()) {
+			throw new IndexOutOfBoundsException("Region [" + start + ", " + end + ") of input of length " + input.length());
+		}
+		this.regionStart = start;
+		this.re2jMatcher.reset(start == 0 && end == input.length() ? input : regionView.of(input, start, end));
+		return this;
+	}
+
+	/**
+	 * A range of a CharSequence, read through to the sequence without copying it.
+	 */
+	private static class RegionView implements CharSequence {
+		private CharSequence input;
+		private int start;
+		private int length;
+
+		RegionView of(CharSequence input, int start, int end) {
+			this.input = input;
+			this.start = start;
+			this.length = end - start;
+			return this;
+		}
+
+		@Override
+		public char charAt(int index) {
+			if (index < 0 || index >= length) {
+				throw new IndexOutOfBoundsException("Index " + index + " of region of length " + length);
+			}
+			return input.charAt(start + index);
+		}
+
+		@Override
+		public int length() {
+			return length;
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			if (start < 0 || end < start || end > length) {
+				throw new IndexOutOfBoundsException("Subsequence [" + start + ", " + end + ") of region of length " + length);
+			}
+			return input.subSequence(this.start + start, this.start + end);
+		}
+
+		@Override
+		public String toString() {
+			return input.subSequence(start, start + length).toString();
+		}
 	}
 
 }
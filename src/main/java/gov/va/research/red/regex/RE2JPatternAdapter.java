@@ -12,7 +12,7 @@ public class RE2JPatternAdapter implements PatternAdapter {
 
 	@Override
 	public MatcherAdapter matcher(CharSequence input) {
-		return new RE2JMatcherAdapter(this.re2jPattern.matcher(input));
+		return new RE2JMatcherAdapter(this.re2jPattern.matcher(input), input);
 	}
 
 	@Override
@@ -0,0 +1,208 @@
+package gov.va.research.red.regex;
+
+import java.util.List;
+
+/**
+ * Static analyses of the syntax trees produced by {@link RegexParser}.
+ */
+public class RegexAnalyzer {
+
+	private RegexAnalyzer() {
+	}
+
+	/**
+	 * Decides whether a regular expression contains constructs which can make
+	 * a backtracking engine such as java.util.regex take time exponential or
+	 * polynomial in the length of the input, namely:
+	 * <ul>
+	 * <li>a variable repetition nested in an unbounded repetition, as in <code>(a+)+</code></li>
+	 * <li>an alternation with overlapping branches in an unbounded repetition, as in <code>(a|ab)*</code></li>
+	 * <li>adjacent unbounded repetitions of overlapping chars, as in <code>\s*\s+</code></li>
+	 * <li>back references</li>
+	 * </ul>
+	 * The check is syntactic, it may flag a regular expression which never
+	 * backtracks badly in practice.
+	 * @param node The syntax tree of a regular expression.
+	 * @return <code>true</code> if the regular expression is prone to excessive backtracking.
+	 */
+	public static boolean isBacktrackingProne(RegexNode node) {
+		switch (node.getType()) {
+		case BACKREFERENCE:
+			return true;
+		case REPEAT:
+			if (node.getMax() == RegexNode.UNBOUNDED
+					&& (hasVariableRepeat(node.getChild()) || hasOverlappingAlternation(node.getChild()))) {
+				return true;
+			}
+			break;
+		case CONCAT:
+			if (hasAdjacentOverlappingRepeats(node.getChildren())) {
+				return true;
+			}
+			break;
+		default:
+			break;
+		}
+		for (RegexNode child : node.getChildren()) {
+			if (isBacktrackingProne(child)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean hasVariableRepeat(RegexNode node) {
+		if (node.getType() == RegexNode.Type.REPEAT && node.getMin() != node.getMax()) {
+			return true;
+		}
+		for (RegexNode child : node.getChildren()) {
+			if (node.getType() != RegexNode.Type.LOOKAROUND && hasVariableRepeat(child)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean hasOverlappingAlternation(RegexNode node) {
+		if (node.getType() == RegexNode.Type.ALTERNATION) {
+			List<RegexNode> branches = node.getChildren();
+			for (int i = 0; i < branches.size(); i++) {
+				for (int j = i + 1; j < branches.size(); j++) {
+					if (firstChars(branches.get(i)).intersects(firstChars(branches.get(j)))) {
+						return true;
+					}
+				}
+			}
+		}
+		for (RegexNode child : node.getChildren()) {
+			if (node.getType() != RegexNode.Type.LOOKAROUND && hasOverlappingAlternation(child)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean hasAdjacentOverlappingRepeats(List<RegexNode> items) {
+		for (int i = 1; i < items.size(); i++) {
+			RegexNode a = items.get(i - 1);
+			RegexNode b = items.get(i);
+			if (a.getType() == RegexNode.Type.REPEAT && b.getType() == RegexNode.Type.REPEAT
+					&& a.getMax() == RegexNode.UNBOUNDED && b.getMax() == RegexNode.UNBOUNDED
+					&& firstChars(a.getChild()).intersects(firstChars(b.getChild()))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param node A syntax tree.
+	 * @return The chars which can start a non empty match of the tree, possibly more.
+	 */
+	static CharClass firstChars(RegexNode node) {
+		switch (node.getType()) {
+		case CHARS:
+			return node.getChars();
+		case CONCAT: {
+			CharClass first = CharClass.NONE;
+			for (RegexNode child : node.getChildren()) {
+				first = CharClass.union(first, firstChars(child));
+				if (!isNullable(child)) {
+					break;
+				}
+			}
+			return first;
+		}
+		case ALTERNATION: {
+			CharClass first = CharClass.NONE;
+			for (RegexNode child : node.getChildren()) {
+				first = CharClass.union(first, firstChars(child));
+			}
+			return first;
+		}
+		case REPEAT:
+		case GROUP:
+			return firstChars(node.getChild());
+		case BACKREFERENCE:
+			return CharClass.ANY;
+		default:
+			return CharClass.NONE;
+		}
+	}
+
+	/**
+	 * @param node A syntax tree.
+	 * @return <code>true</code> if the tree can match the empty string.
+	 */
+	static boolean isNullable(RegexNode node) {
+		switch (node.getType()) {
+		case CHARS:
+			return false;
+		case CONCAT:
+			for (RegexNode child : node.getChildren()) {
+				if (!isNullable(child)) {
+					return false;
+				}
+			}
+			return true;
+		case ALTERNATION:
+			for (RegexNode child : node.getChildren()) {
+				if (isNullable(child)) {
+					return true;
+				}
+			}
+			return false;
+		case REPEAT:
+			return node.getMin() == 0 || isNullable(node.getChild());
+		case GROUP:
+			return isNullable(node.getChild());
+		default:
+			return true;
+		}
+	}
+
+	/**
+	 * Bounds the length of the text a regular expression can match, counting
+	 * the text examined by lookarounds as matched. An unbounded repetition
+	 * counts as a given number of repetitions, so the bound only holds for
+	 * matches in which no unbounded repetition repeats more often than that.
+	 * @param node The syntax tree of a regular expression.
+	 * @param unboundedRepeats The number of repetitions assumed for unbounded repetitions and back references.
+	 * @return The maximum length, at most <code>Integer.MAX_VALUE</code>.
+	 */
+	public static int maxLength(RegexNode node, int unboundedRepeats) {
+		return (int) Math.min(Integer.MAX_VALUE, maxLengthLong(node, unboundedRepeats));
+	}
+
+	private static long maxLengthLong(RegexNode node, int unboundedRepeats) {
+		switch (node.getType()) {
+		case CHARS:
+			return 1;
+		case CONCAT: {
+			long length = 0;
+			for (RegexNode child : node.getChildren()) {
+				length = Math.min(Integer.MAX_VALUE, length + maxLengthLong(child, unboundedRepeats));
+			}
+			return length;
+		}
+		case ALTERNATION: {
+			long length = 0;
+			for (RegexNode child : node.getChildren()) {
+				length = Math.max(length, maxLengthLong(child, unboundedRepeats));
+			}
+			return length;
+		}
+		case REPEAT: {
+			long repeats = node.getMax() == RegexNode.UNBOUNDED ? Math.max(node.getMin(), unboundedRepeats) : node.getMax();
+			return Math.min(Integer.MAX_VALUE, repeats * maxLengthLong(node.getChild(), unboundedRepeats));
+		}
+		case GROUP:
+		case LOOKAROUND:
+			return maxLengthLong(node.getChild(), unboundedRepeats);
+		case BACKREFERENCE:
+			return unboundedRepeats;
+		default:
+			return 0;
+		}
+	}
+}
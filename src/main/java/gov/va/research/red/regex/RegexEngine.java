@@ -0,0 +1,36 @@
+package gov.va.research.red.regex;
+
+/**
+ * The regular expression engines which can run the regular expressions of a
+ * model.
+ */
+public enum RegexEngine {
+	/** java.util.regex, a backtracking engine supporting the full java syntax. */
+	JSE(JSEPatternAdapter.class),
+	/** com.google.re2j, which runs in time linear in the input but lacks back references and lookaround. */
+	RE2J(RE2JPatternAdapter.class);
+
+	private final Class<? extends PatternAdapter> patternAdapterClass;
+
+	private RegexEngine(Class<? extends PatternAdapter> patternAdapterClass) {
+		this.patternAdapterClass = patternAdapterClass;
+	}
+
+	/**
+	 * @param regex A regular expression.
+	 * @return The regular expression compiled for this engine.
+	 * @throws RuntimeException if this engine cannot compile the regular expression.
+	 */
+	public PatternAdapter compile(String regex) {
+		switch (this) {
+		case RE2J:
+			return new RE2JPatternAdapter(regex);
+		default:
+			return new JSEPatternAdapter(regex);
+		}
+	}
+
+	public Class<? extends PatternAdapter> getPatternAdapterClass() {
+		return patternAdapterClass;
+	}
+}
@@ -0,0 +1,128 @@
+package gov.va.research.red.regex;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A node of the syntax tree of a regular expression, as produced by
+ * {@link RegexParser}.
+ */
+public class RegexNode {
+
+	public static final int UNBOUNDED = -1;
+
+	public enum Type {
+		/** A single char from a set of chars. */
+		CHARS,
+		/** The children in sequence. An empty sequence matches the empty string. */
+		CONCAT,
+		/** Any one of the children. */
+		ALTERNATION,
+		/** The only child, repeated from min to max times. */
+		REPEAT,
+		/** The only child, optionally capturing. */
+		GROUP,
+		/** A zero width assertion such as ^, $ or \b. */
+		ASSERTION,
+		/** A zero width lookahead or lookbehind on the only child. */
+		LOOKAROUND,
+		/** A reference to the text matched by a capturing group. */
+		BACKREFERENCE
+	}
+
+	private final Type type;
+	private final List<RegexNode> children;
+	private final CharClass chars;
+	private final int min;
+	private final int max;
+	private final int group;
+
+	private RegexNode(Type type, List<RegexNode> children, CharClass chars, int min, int max, int group) {
+		this.type = type;
+		this.children = children;
+		this.chars = chars;
+		this.min = min;
+		this.max = max;
+		this.group = group;
+	}
+
+	public static RegexNode chars(CharClass chars) {
+		return new RegexNode(Type.CHARS, Collections.emptyList(), chars, 1, 1, 0);
+	}
+
+	public static RegexNode concat(List<RegexNode> children) {
+		return new RegexNode(Type.CONCAT, Collections.unmodifiableList(children), null, 0, 0, 0);
+	}
+
+	public static RegexNode alternation(List<RegexNode> children) {
+		return new RegexNode(Type.ALTERNATION, Collections.unmodifiableList(children), null, 0, 0, 0);
+	}
+
+	public static RegexNode repeat(RegexNode child, int min, int max) {
+		return new RegexNode(Type.REPEAT, Collections.singletonList(child), null, min, max, 0);
+	}
+
+	/**
+	 * @param child The grouped node.
+	 * @param group The number of the capturing group, or 0 if the group does not capture.
+	 */
+	public static RegexNode group(RegexNode child, int group) {
+		return new RegexNode(Type.GROUP, Collections.singletonList(child), null, 0, 0, group);
+	}
+
+	public static RegexNode assertion() {
+		return new RegexNode(Type.ASSERTION, Collections.emptyList(), null, 0, 0, 0);
+	}
+
+	public static RegexNode lookaround(RegexNode child) {
+		return new RegexNode(Type.LOOKAROUND, Collections.singletonList(child), null, 0, 0, 0);
+	}
+
+	/**
+	 * @param group The number of the referenced group, or 0 if it is referenced by name.
+	 */
+	public static RegexNode backreference(int group) {
+		return new RegexNode(Type.BACKREFERENCE, Collections.emptyList(), null, 0, 0, group);
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public List<RegexNode> getChildren() {
+		return children;
+	}
+
+	public RegexNode getChild() {
+		return children.get(0);
+	}
+
+	public CharClass getChars() {
+		return chars;
+	}
+
+	public int getMin() {
+		return min;
+	}
+
+	/**
+	 * @return The maximum number of repetitions, or {@link #UNBOUNDED}.
+	 */
+	public int getMax() {
+		return max;
+	}
+
+	public int getGroup() {
+		return group;
+	}
+
+	@Override
+	public String toString() {
+		switch (type) {
+		case CHARS: return chars.toString();
+		case REPEAT: return children.get(0) + "{" + min + "," + (max == UNBOUNDED ? "" : String.valueOf(max)) + "}";
+		case BACKREFERENCE: return "\\" + group;
+		default: return type + children.toString();
+		}
+	}
+}
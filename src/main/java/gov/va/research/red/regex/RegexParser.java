@@ -0,0 +1,527 @@
+package gov.va.research.red.regex;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses regular expressions in java.util.regex syntax into a tree of
+ * {@link RegexNode}s. The tree keeps the structure needed to reason about
+ * which strings a regular expression can match. Unicode property classes
+ * such as <code>\p{Punct}</code> are parsed as matching any char, as is a
+ * negated class containing one, so the tree may accept more than the
+ * regular expression but never less. A supplementary code point written in
+ * the regular expression is parsed as the pair of chars it is made of,
+ * grouped so that a quantifier applies to both. Comments mode (<code>(?x)</code>) is
+ * not supported, and the <code>U</code> flag, which widens the predefined
+ * classes, is not modeled.
+ */
+public class RegexParser {
+
+	private final String regex;
+	private int pos;
+	private int groupCount;
+	// the number of classes approximated by any char so far
+	private int approximations;
+	private boolean unmodeledFlags;
+
+	private RegexParser(String regex) {
+		this.regex = regex;
+	}
+
+	/**
+	 * @param regex A regular expression.
+	 * @return The syntax tree of the regular expression.
+	 * @throws IllegalArgumentException if the regular expression is invalid or uses unsupported syntax.
+	 */
+	public static RegexNode parse(String regex) {
+		return parse(regex, false);
+	}
+
+	/**
+	 * @param regex A regular expression.
+	 * @param exactFlags if <code>true</code> then a regular expression using a
+	 *     flag which is not modeled, such as <code>U</code>, is rejected, as
+	 *     its tree could accept less than it.
+	 * @return The syntax tree of the regular expression.
+	 * @throws IllegalArgumentException if the regular expression is invalid or uses unsupported syntax.
+	 */
+	public static RegexNode parse(String regex, boolean exactFlags) {
+		RegexParser parser = new RegexParser(regex);
+		RegexNode node = parser.parseAlternation();
+		if (parser.pos < regex.length()) {
+			throw parser.error("Unmatched closing ')'");
+		}
+		if (exactFlags && parser.unmodeledFlags) {
+			throw new IllegalArgumentException("Unsupported inline modifier in " + regex);
+		}
+		return node;
+	}
+
+	private IllegalArgumentException error(String message) {
+		return new IllegalArgumentException(message + " at index " + pos + " in " + regex);
+	}
+
+	private boolean more() {
+		return pos < regex.length();
+	}
+
+	private char peek() {
+		return regex.charAt(pos);
+	}
+
+	private char next() {
+		if (!more()) {
+			throw error("Unexpected end of pattern");
+		}
+		return regex.charAt(pos++);
+	}
+
+	private boolean accept(String s) {
+		if (regex.startsWith(s, pos)) {
+			pos += s.length();
+			return true;
+		}
+		return false;
+	}
+
+	private RegexNode parseAlternation() {
+		List<RegexNode> branches = new ArrayList<>();
+		branches.add(parseConcat());
+		while (more() && peek() == '|') {
+			pos++;
+			branches.add(parseConcat());
+		}
+		return branches.size() == 1 ? branches.get(0) : RegexNode.alternation(branches);
+	}
+
+	private RegexNode parseConcat() {
+		List<RegexNode> items = new ArrayList<>();
+		while (more() && peek() != '|' && peek() != ')') {
+			RegexNode atom = parseAtom();
+			if (atom == null) {
+				continue;
+			}
+			if (atom.getType() == RegexNode.Type.CONCAT && !atom.getChildren().isEmpty()) {
+				// a quantifier after quoted text applies to its last char only
+				List<RegexNode> quoted = atom.getChildren();
+				items.addAll(quoted.subList(0, quoted.size() - 1));
+				atom = quoted.get(quoted.size() - 1);
+			}
+			items.add(parseQuantifier(atom));
+		}
+		return items.size() == 1 ? items.get(0) : RegexNode.concat(items);
+	}
+
+	private RegexNode parseQuantifier(RegexNode atom) {
+		if (!more()) {
+			return atom;
+		}
+		int min;
+		int max;
+		switch (peek()) {
+		case '?': min = 0; max = 1; pos++; break;
+		case '*': min = 0; max = RegexNode.UNBOUNDED; pos++; break;
+		case '+': min = 1; max = RegexNode.UNBOUNDED; pos++; break;
+		case '{':
+			pos++;
+			min = parseInt();
+			if (accept(",")) {
+				max = (more() && peek() == '}') ? RegexNode.UNBOUNDED : parseInt();
+			} else {
+				max = min;
+			}
+			if (!accept("}")) {
+				throw error("Unclosed counted closure");
+			}
+			if (max != RegexNode.UNBOUNDED && max < min) {
+				throw error("Illegal repetition range");
+			}
+			break;
+		default:
+			return atom;
+		}
+		// lazy and possessive forms accept the same strings
+		if (more() && (peek() == '?' || peek() == '+')) {
+			pos++;
+		}
+		if (more() && (peek() == '?' || peek() == '*' || peek() == '+' || peek() == '{')) {
+			throw error("Dangling meta character '" + peek() + "'");
+		}
+		return RegexNode.repeat(atom, min, max);
+	}
+
+	private int parseInt() {
+		int start = pos;
+		while (more() && Character.isDigit(peek())) {
+			pos++;
+		}
+		if (start == pos) {
+			throw error("Illegal repetition");
+		}
+		return Integer.parseInt(regex.substring(start, pos));
+	}
+
+	/**
+	 * @return The next atom, or <code>null</code> if only flags were consumed.
+	 */
+	private RegexNode parseAtom() {
+		char c = next();
+		switch (c) {
+		case '(':
+			return parseGroup();
+		case '[':
+			return RegexNode.chars(parseClass());
+		case '.':
+			return RegexNode.chars(CharClass.ANY);
+		case '^':
+		case '$':
+			return RegexNode.assertion();
+		case '\\':
+			return parseEscape();
+		case '*':
+		case '+':
+		case '?':
+		case '{':
+			throw error("Dangling meta character '" + c + "'");
+		default:
+			if (Character.isHighSurrogate(c)) {
+				int low = acceptLowSurrogate();
+				if (low >= 0) {
+					return codePoint(Character.toCodePoint(c, (char) low));
+				}
+			}
+			return RegexNode.chars(CharClass.of(c));
+		}
+	}
+
+	/**
+	 * Consumes the low surrogate which completes a supplementary code point,
+	 * written either as a char or as a unicode escape.
+	 * @return The low surrogate, or -1, consuming nothing, if there is none.
+	 */
+	private int acceptLowSurrogate() {
+		if (more() && Character.isLowSurrogate(peek())) {
+			return next();
+		}
+		if (regex.startsWith("\\u", pos) && pos + 6 <= regex.length()) {
+			try {
+				int c = Integer.parseInt(regex.substring(pos + 2, pos + 6), 16);
+				if (Character.isLowSurrogate((char) c)) {
+					pos += 6;
+					return c;
+				}
+			} catch (NumberFormatException e) {
+				// not a unicode escape, left to be reported where it is parsed
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @param cp A supplementary code point.
+	 * @return A group matching the pair of chars of the code point, or of a
+	 *     code point equal to it ignoring case.
+	 */
+	private static RegexNode codePoint(int cp) {
+		List<CharClass> highs = new ArrayList<>();
+		List<CharClass> lows = new ArrayList<>();
+		List<CharClass> bmp = new ArrayList<>();
+		for (int v : new int[] { cp, Character.toLowerCase(cp), Character.toUpperCase(cp), Character.toTitleCase(cp) }) {
+			if (Character.isSupplementaryCodePoint(v)) {
+				highs.add(CharClass.of(Character.highSurrogate(v)));
+				lows.add(CharClass.of(Character.lowSurrogate(v)));
+			} else {
+				bmp.add(CharClass.of((char) v));
+			}
+		}
+		List<RegexNode> pair = new ArrayList<>(2);
+		pair.add(RegexNode.chars(CharClass.union(highs.toArray(new CharClass[highs.size()]))));
+		pair.add(RegexNode.chars(CharClass.union(lows.toArray(new CharClass[lows.size()]))));
+		RegexNode node = RegexNode.concat(pair);
+		if (!bmp.isEmpty()) {
+			List<RegexNode> branches = new ArrayList<>(2);
+			branches.add(node);
+			branches.add(RegexNode.chars(CharClass.union(bmp.toArray(new CharClass[bmp.size()]))));
+			node = RegexNode.alternation(branches);
+		}
+		return RegexNode.group(node, 0);
+	}
+
+	private RegexNode parseGroup() {
+		if (!accept("?")) {
+			int group = ++groupCount;
+			return closeGroup(RegexNode.group(parseAlternation(), group));
+		}
+		if (accept(":") || accept(">")) {
+			return closeGroup(RegexNode.group(parseAlternation(), 0));
+		}
+		if (accept("=") || accept("!") || accept("<=") || accept("<!")) {
+			return closeGroup(RegexNode.lookaround(parseAlternation()));
+		}
+		if (accept("<")) {
+			int end = regex.indexOf('>', pos);
+			if (end < 0) {
+				throw error("Named capturing group is missing trailing '>'");
+			}
+			pos = end + 1;
+			int group = ++groupCount;
+			return closeGroup(RegexNode.group(parseAlternation(), group));
+		}
+		// inline flags, either (?flags) or (?flags:X)
+		int start = pos;
+		while (more() && peek() != ')' && peek() != ':') {
+			char f = next();
+			if (f == 'x' && regex.lastIndexOf('-', pos) < start) {
+				throw error("Comments mode is not supported");
+			}
+			if ("idmsuxU-".indexOf(f) < 0) {
+				throw error("Unknown inline modifier");
+			}
+			if ("idmsux-".indexOf(f) < 0) {
+				unmodeledFlags = true;
+			}
+		}
+		if (accept(")")) {
+			return null;
+		}
+		next(); // ':'
+		return closeGroup(RegexNode.group(parseAlternation(), 0));
+	}
+
+	private RegexNode closeGroup(RegexNode node) {
+		if (!accept(")")) {
+			throw error("Unclosed group");
+		}
+		return node;
+	}
+
+	private RegexNode parseEscape() {
+		char c = next();
+		switch (c) {
+		case 'b': case 'B': case 'A': case 'G': case 'Z': case 'z':
+			return RegexNode.assertion();
+		case 'R':
+			// a line break, \r\n or any single line terminator
+			return RegexNode.repeat(RegexNode.chars(CharClass.VERTICAL_SPACE), 1, 2);
+		case 'X':
+			// an extended grapheme cluster
+			return RegexNode.repeat(RegexNode.chars(CharClass.ANY), 1, RegexNode.UNBOUNDED);
+		case 'k':
+			if (!accept("<") || regex.indexOf('>', pos) < 0) {
+				throw error("\\k is not followed by '<' for named capturing group");
+			}
+			pos = regex.indexOf('>', pos) + 1;
+			return RegexNode.backreference(0);
+		case 'Q': {
+			int end = regex.indexOf("\\E", pos);
+			String quoted = regex.substring(pos, end < 0 ? regex.length() : end);
+			pos = end < 0 ? regex.length() : end + 2;
+			List<RegexNode> items = new ArrayList<>(quoted.length());
+			for (int i = 0; i < quoted.length(); i++) {
+				if (Character.isHighSurrogate(quoted.charAt(i)) && i + 1 < quoted.length() && Character.isLowSurrogate(quoted.charAt(i + 1))) {
+					items.add(codePoint(quoted.codePointAt(i)));
+					i++;
+				} else {
+					items.add(RegexNode.chars(CharClass.of(quoted.charAt(i))));
+				}
+			}
+			return RegexNode.concat(items);
+		}
+		default:
+			if (c >= '1' && c <= '9') {
+				int group = c - '0';
+				while (more() && Character.isDigit(peek()) && group * 10 + (peek() - '0') <= groupCount) {
+					group = group * 10 + (next() - '0');
+				}
+				return RegexNode.backreference(group);
+			}
+			pos--;
+			CharClass cc = parseClassEscape();
+			if (cc.size() == 1 && Character.isHighSurrogate(cc.first())) {
+				int low = acceptLowSurrogate();
+				if (low >= 0) {
+					return codePoint(Character.toCodePoint(cc.first(), (char) low));
+				}
+			}
+			return RegexNode.chars(cc);
+		}
+	}
+
+	/**
+	 * Parses an escape sequence which stands for one char or a predefined
+	 * class, with the position just after the backslash.
+	 */
+	private CharClass parseClassEscape() {
+		char c = next();
+		switch (c) {
+		case 'd': return CharClass.DIGIT;
+		case 'D': return CharClass.DIGIT.complement();
+		case 'w': return CharClass.WORD;
+		case 'W': return CharClass.WORD.complement();
+		case 's': return CharClass.SPACE;
+		case 'S': return CharClass.SPACE.complement();
+		case 'h': return CharClass.HORIZONTAL_SPACE;
+		case 'H': return CharClass.HORIZONTAL_SPACE.complement();
+		case 'v': return CharClass.VERTICAL_SPACE;
+		case 'V': return CharClass.VERTICAL_SPACE.complement();
+		case 'p':
+		case 'P':
+			// property classes are approximated by any char
+			if (accept("{")) {
+				int end = regex.indexOf('}', pos);
+				if (end < 0) {
+					throw error("Unclosed character family");
+				}
+				pos = end + 1;
+			} else {
+				next();
+			}
+			approximations++;
+			return CharClass.ANY;
+		case 't': return CharClass.of('\t');
+		case 'n': return CharClass.of('\n');
+		case 'r': return CharClass.of('\r');
+		case 'f': return CharClass.of('\f');
+		case 'a': return CharClass.of('\u0007');
+		case 'e': return CharClass.of('\u001B');
+		case 'c': return CharClass.of((char) (next() ^ 64));
+		case '0': {
+			int value = 0;
+			int digits = 0;
+			while (more() && peek() >= '0' && peek() <= '7' && digits < 3 && value * 8 + (peek() - '0') <= 0377) {
+				value = value * 8 + (next() - '0');
+				digits++;
+			}
+			if (digits == 0) {
+				throw error("Illegal octal escape sequence");
+			}
+			return CharClass.of((char) value);
+		}
+		case 'x': {
+			int cp;
+			if (accept("{")) {
+				int end = regex.indexOf('}', pos);
+				if (end < 0) {
+					throw error("Unclosed hexadecimal escape sequence");
+				}
+				cp = Integer.parseInt(regex.substring(pos, end), 16);
+				pos = end + 1;
+			} else {
+				cp = Integer.parseInt(regex.substring(pos, Math.min(pos + 2, regex.length())), 16);
+				pos += 2;
+			}
+			if (cp > Character.MAX_VALUE) {
+				// a supplementary code point is a pair of chars, approximate it by any char
+				approximations++;
+				return CharClass.ANY;
+			}
+			return CharClass.of((char) cp);
+		}
+		case 'u': {
+			if (pos + 4 > regex.length()) {
+				throw error("Illegal Unicode escape sequence");
+			}
+			int cp = Integer.parseInt(regex.substring(pos, pos + 4), 16);
+			pos += 4;
+			return CharClass.of((char) cp);
+		}
+		default:
+			if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')) {
+				throw error("Illegal/unsupported escape sequence");
+			}
+			return CharClass.of(c);
+		}
+	}
+
+	/**
+	 * Parses a char, an escape or a supplementary code point in a character class.
+	 * @return The class of the member, the pair of chars of a supplementary code point, see {@link #isPair(CharClass)}.
+	 */
+	private CharClass parseClassMember() {
+		CharClass member;
+		if (peek() == '\\') {
+			pos++;
+			member = parseClassEscape();
+		} else {
+			member = CharClass.of(next());
+		}
+		if (member.size() == 1 && Character.isHighSurrogate(member.first())) {
+			int low = acceptLowSurrogate();
+			if (low >= 0) {
+				member = CharClass.union(member, CharClass.of((char) low));
+			}
+		}
+		return member;
+	}
+
+	/**
+	 * @return <code>true</code> if a class member is the pair of chars of a supplementary code point.
+	 */
+	private static boolean isPair(CharClass member) {
+		return member.size() == 2 && Character.isHighSurrogate(member.first()) && !member.contains((char) (member.first() + 1));
+	}
+
+	/**
+	 * Parses a character class, with the position just after the opening bracket.
+	 */
+	private CharClass parseClass() {
+		boolean negated = accept("^");
+		boolean nested = false;
+		int approximated = approximations;
+		List<CharClass> members = new ArrayList<>();
+		boolean first = true;
+		while (true) {
+			if (!more()) {
+				throw error("Unclosed character class");
+			}
+			char c = peek();
+			if (c == ']' && !first) {
+				pos++;
+				break;
+			}
+			first = false;
+			if (c == '[') {
+				pos++;
+				members.add(parseClass());
+				nested = true;
+				continue;
+			}
+			if (accept("&&")) {
+				// intersections are approximated by unions
+				nested = true;
+				continue;
+			}
+			CharClass member = parseClassMember();
+			boolean supplementary = isPair(member);
+			if ((member.size() == 1 || supplementary) && more() && peek() == '-' && pos + 1 < regex.length() && regex.charAt(pos + 1) != ']') {
+				pos++;
+				CharClass hiMember = parseClassMember();
+				if (hiMember.size() != 1 && !isPair(hiMember)) {
+					throw error("Illegal character range");
+				}
+				if (supplementary) {
+					// a range of supplementary code points, approximated by all pairs of chars
+					member = CharClass.union(CharClass.HIGH_SURROGATE, CharClass.LOW_SURROGATE);
+				} else if (isPair(hiMember)) {
+					// up to a supplementary code point, all chars above the low end and all pairs of chars
+					member = CharClass.range(member.first(), Character.MAX_VALUE);
+				} else {
+					member = CharClass.range(member.first(), hiMember.first());
+				}
+			}
+			members.add(member);
+		}
+		CharClass cc = CharClass.union(members.toArray(new CharClass[members.size()]));
+		if (negated) {
+			// negation combined with nested classes or intersections has subtle semantics, and the
+			// complement of an approximated class, or of one with halves of supplementary code points,
+			// is too small, approximate them by any char
+			if (nested || approximations > approximated || cc.intersects(CharClass.HIGH_SURROGATE) || cc.intersects(CharClass.LOW_SURROGATE)) {
+				approximations++;
+				return CharClass.ANY;
+			}
+			return cc.complement();
+		}
+		return cc;
+	}
+}
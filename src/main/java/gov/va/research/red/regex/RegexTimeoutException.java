@@ -0,0 +1,15 @@
+package gov.va.research.red.regex;
+
+/**
+ * Thrown when a regular expression takes longer than its allotted time to
+ * match a target.
+ */
+public class RegexTimeoutException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public RegexTimeoutException(String message) {
+		super(message);
+	}
+
+}
@@ -0,0 +1,101 @@
+package gov.va.research.red.ex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import gov.va.research.red.regex.JSEPatternAdapter;
+import gov.va.research.red.regex.PatternAdapter;
+import gov.va.research.red.regex.RE2JPatternAdapter;
+import junit.framework.Assert;
+
+public class CanonicalTextTest {
+
+	@Test
+	public void testOffsets() {
+		String raw = "  Weight:\t\t180 \r\nLBS  ";
+		CanonicalText text = new CanonicalText(raw);
+		Assert.assertEquals(" weight: 180 lbs ", text.toString());
+		for (int c = 0; c < text.length(); c++) {
+			int r = text.toRaw(c);
+			Assert.assertEquals(CanonicalText.isSpace(raw.charAt(r)) ? ' ' : Character.toLowerCase(raw.charAt(r)), text.charAt(c));
+			for (int q = r; q < text.toRaw(c + 1); q++) {
+				Assert.assertEquals(c, text.toCanonical(q));
+			}
+		}
+		Assert.assertEquals(raw.length(), text.toRaw(text.length()));
+		Assert.assertEquals(text.length(), text.toCanonical(raw.length()));
+	}
+
+	@Test
+	public void testCanonicalRegex() {
+		Assert.assertEquals("weight\\s(\\d+)\\slbs",
+				CanonicalText.toCanonicalRegex("(?i)Weight\\s{1,3}?(\\d+)\\s{1,2}?LBS"));
+		Assert.assertEquals("(?:\\d+|one)[\\.,;]\\s[a-z]{1,10}?\\p{Punct}{1,2}?",
+				CanonicalText.toCanonicalRegex("(?i)(?:\\d+|One)[\\.,;]\\s[A-Z]{1,10}?\\p{Punct}{1,2}?"));
+		// whitespace atoms which may match part of a run, or nothing
+		Assert.assertEquals("x\\s*y\\s*\\s*z", CanonicalText.toCanonicalRegex("(?i)x\\s?y\\s\\tz"));
+		Assert.assertEquals("(?:a\\s*)+b", CanonicalText.toCanonicalRegex("(?i)(?:a\\s)+b"));
+		Assert.assertNull(CanonicalText.toCanonicalRegex("weight\\s(\\d+)"));
+		Assert.assertNull(CanonicalText.toCanonicalRegex("(?i)weight.(\\d+)"));
+		Assert.assertNull(CanonicalText.toCanonicalRegex("(?i)\\bweight\\s(\\d+)"));
+		Assert.assertNull(CanonicalText.toCanonicalRegex("(?i)weight[^a-z](\\d+)"));
+		Assert.assertNull(CanonicalText.toCanonicalRegex("(?i)weight\\S+(\\d+)"));
+		Assert.assertNull(CanonicalText.toCanonicalRegex("(?i)weight\\s++(\\d+)"));
+	}
+
+	@Test
+	public void testSameMatches() {
+		String[] regexes = {
+				"(?i)weight\\s{1,2}?(\\d+)\\s{1,2}?lbs",
+				"(?i)(?:weight|wt)\\p{Punct}{1,2}?\\s{1,3}?([\\d\\.]+)",
+				"(?i)([a-z]{1,8}?)\\s{1,3}?kg",
+				"(?i)(\\d+)\\s{1,2}?(?:lbs|pounds)",
+				"(?i)was\\s(\\d+)",
+				"(?i)(\\s*\\d*)",
+				"(?i)(wt)\\s\\s?(\\d+)",
+				"(?i)(?:was\\s)+(\\d+)",
+		};
+		String[] words = { "Weight", "WT", "wt:", "was", "180", "81.5", "LBS", "pounds", "kg", "Patient", "  ", "\t", "\r\n", " ", ":" };
+		Random random = new Random(18);
+		List<String> texts = new ArrayList<>();
+		texts.add("Weight  180\tLBS");
+		texts.add("weight 180 lbs, was\n\n 150");
+		for (int i = 0; i < 300; i++) {
+			StringBuilder sb = new StringBuilder();
+			for (int w = random.nextInt(20); w >= 0; w--) {
+				sb.append(words[random.nextInt(words.length)]);
+				if (random.nextBoolean()) {
+					sb.append(' ');
+				}
+			}
+			texts.add(sb.toString());
+		}
+		for (Class<? extends PatternAdapter> adapter : Arrays.asList(JSEPatternAdapter.class, RE2JPatternAdapter.class)) {
+			for (String regex : regexes) {
+				List<Collection<? extends WeightedRegEx>> tiers = new ArrayList<>(1);
+				tiers.add(Arrays.asList(new WeightedRegExImpl(regex, 1.0)));
+				CompiledREDExModel raw = new CompiledREDExModel(tiers, adapter);
+				CompiledREDExModel canonical = new CompiledREDExModel(tiers, adapter);
+				Assert.assertEquals(1, canonical.setCanonicalMatching(true));
+				MatchList rawMatches = new MatchList();
+				MatchList canonicalMatches = new MatchList();
+				for (String text : texts) {
+					for (int from = 0; from < text.length(); from += 7) {
+						raw.extract(text, from, text.length(), true, 0, rawMatches);
+						canonical.extract(text, from, text.length(), true, 0, canonicalMatches);
+						Assert.assertEquals(regex + " on '" + text + "'", rawMatches.size(), canonicalMatches.size());
+						for (int i = 0; i < rawMatches.size(); i++) {
+							Assert.assertEquals(rawMatches.getStart(i), canonicalMatches.getStart(i));
+							Assert.assertEquals(rawMatches.getEnd(i), canonicalMatches.getEnd(i));
+						}
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,41 @@
+package gov.va.research.red.ex;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import junit.framework.Assert;
+
+public class CheckpointTest {
+
+	@Test
+	public void testResume() throws IOException {
+		Path file = Files.createTempFile("checkpoint", ".log");
+		try {
+			try (Checkpoint checkpoint = new Checkpoint(file, false)) {
+				checkpoint.markDone(Arrays.asList("doc1", "doc2"));
+				checkpoint.markDone(Arrays.asList("doc3"));
+			}
+			// a run killed while writing the log
+			Files.write(file, "doc4".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+			try (Checkpoint checkpoint = new Checkpoint(file, true)) {
+				Assert.assertEquals(3, checkpoint.size());
+				Assert.assertTrue(checkpoint.isDone("doc3"));
+				Assert.assertFalse(checkpoint.isDone("doc4"));
+				checkpoint.markDone(Arrays.asList("doc5"));
+			}
+			Assert.assertEquals(Arrays.asList("doc1", "doc2", "doc3", "doc5"), Files.readAllLines(file, StandardCharsets.UTF_8));
+			try (Checkpoint checkpoint = new Checkpoint(file, false)) {
+				Assert.assertEquals(0, checkpoint.size());
+			}
+			Assert.assertEquals(0, Files.size(file));
+		} finally {
+			Files.delete(file);
+		}
+	}
+}
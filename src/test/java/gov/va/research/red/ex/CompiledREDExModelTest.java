@@ -0,0 +1,154 @@
+package gov.va.research.red.ex;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+import gov.va.research.red.MatchedElement;
+import gov.va.research.red.regex.JSEPatternAdapter;
+import gov.va.research.red.regex.PatternAdapter;
+import junit.framework.Assert;
+
+public class CompiledREDExModelTest {
+
+	private static Class<? extends PatternAdapter> PATTERN_ADAPTER_CLASS = JSEPatternAdapter.class;
+
+	private static List<Collection<WeightedRegEx>> buildTiers(String[] tier1, String[] tier2) {
+		List<Collection<WeightedRegEx>> tiers = new ArrayList<>(2);
+		for (String[] regexs : new String[][] { tier1, tier2 }) {
+			List<WeightedRegEx> tier = new ArrayList<>(regexs.length);
+			for (String regex : regexs) {
+				tier.add(new WeightedRegExImpl(regex, 1.0));
+			}
+			tiers.add(tier);
+		}
+		return tiers;
+	}
+
+	@Test
+	public void testFirstTierWins() {
+		REDExModel model = new REDExModel(buildTiers(
+				new String[] { "(?i)weight\\s{1,3}?(\\d+)", "(?i)wt\\s{1,3}?(\\d+)" },
+				new String[] { "(?i)(\\d+)\\s{1,3}?lbs" }));
+		CompiledREDExModel compiled = new CompiledREDExModel(model, PATTERN_ADAPTER_CLASS);
+		Set<MatchedElement> mes = compiled.extract("Weight 180 lbs");
+		Assert.assertEquals(1, mes.size());
+		MatchedElement me = mes.iterator().next();
+		Assert.assertEquals("180", me.getMatch());
+		Assert.assertEquals(7, me.getStartPos());
+		Assert.assertEquals(10, me.getEndPos());
+		Assert.assertEquals(1, me.getMatchingRegexs().size());
+	}
+
+	@Test
+	public void testFallsBackToSecondTier() {
+		REDExModel model = new REDExModel(buildTiers(
+				new String[] { "(?i)weight\\s{1,3}?(\\d+)" },
+				new String[] { "(?i)(\\d+)\\s{1,3}?lbs" }));
+		CompiledREDExModel compiled = new CompiledREDExModel(model, PATTERN_ADAPTER_CLASS);
+		Assert.assertEquals(1, compiled.extract("pt is 180 lbs").size());
+		Assert.assertEquals(0, compiled.extract("pt is 180 lbs", false).size());
+		Assert.assertEquals(0, compiled.extract("").size());
+	}
+
+	@Test
+	public void testCombinesMatchesAtSamePosition() {
+		REDExModel model = new REDExModel(buildTiers(
+				new String[] { "(?i)weight\\s{1,3}?(\\d+)", "(?i)(\\d+)\\s{1,3}?lbs" },
+				new String[0]));
+		CompiledREDExModel compiled = new CompiledREDExModel(model, PATTERN_ADAPTER_CLASS);
+		Set<MatchedElement> mes = compiled.extract("weight 180 lbs");
+		Assert.assertEquals(1, mes.size());
+		MatchedElement me = mes.iterator().next();
+		Assert.assertEquals(2, me.getMatchingRegexs().size());
+		Assert.assertEquals(2.0, me.getConfidence(), 0.0001);
+	}
+
+	@Test
+	public void testTimeout() {
+		REDExModel model = new REDExModel(buildTiers(
+				new String[] { "((?:a+)+)b", "(a)" },
+				new String[0]));
+		CompiledREDExModel compiled = new CompiledREDExModel(model, PATTERN_ADAPTER_CLASS, 100);
+		StringBuilder target = new StringBuilder();
+		for (int i = 0; i < 40; i++) {
+			target.append('a');
+		}
+		long start = System.currentTimeMillis();
+		Set<MatchedElement> mes = compiled.extract(target);
+		Assert.assertTrue(System.currentTimeMillis() - start < 10000);
+		// the catastrophic regex is abandoned, the other one still matches
+		Assert.assertEquals(1, mes.size());
+		Assert.assertEquals(0, mes.iterator().next().getStartPos());
+	}
+
+	@Test
+	public void testFailingRegexIsSkipped() {
+		REDExModel model = new REDExModel(buildTiers(
+				new String[] { "((?:a|b)*)c", "(x)" },
+				new String[0]));
+		CompiledREDExModel compiled = new CompiledREDExModel(model, PATTERN_ADAPTER_CLASS);
+		StringBuilder target = new StringBuilder();
+		for (int i = 0; i < 200000; i++) {
+			target.append("ab");
+		}
+		target.append('x');
+		// the alternation recurses once per char and overflows the stack, the other regex still matches
+		Set<MatchedElement> mes = compiled.extract(target);
+		Assert.assertEquals(1, mes.size());
+		Assert.assertEquals(400000, mes.iterator().next().getStartPos());
+	}
+
+	@Test
+	public void testExtractAll() {
+		REDExModel model = new REDExModel(buildTiers(
+				new String[] { "(?i)weight\\s{1,3}?(\\d+)" },
+				new String[0]));
+		List<CompiledREDExModel> redexs = new ArrayList<>(1);
+		redexs.add(new CompiledREDExModel(model, PATTERN_ADAPTER_CLASS));
+		List<REDExtractor.Document> documents = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			documents.add(new REDExtractor.Document(String.valueOf(i), "weight " + i));
+		}
+		try (Stream<REDExtractor.DocMatches> stream = REDExtractor.extractAll(documents.iterator(), redexs, true, 4, 8, true)) {
+			List<REDExtractor.DocMatches> results = stream.collect(Collectors.toList());
+			Assert.assertEquals(documents.size(), results.size());
+			for (int i = 0; i < results.size(); i++) {
+				REDExtractor.DocMatches dm = results.get(i);
+				Assert.assertEquals(String.valueOf(i), dm.getDocumentId());
+				Assert.assertEquals(String.valueOf(i), dm.getMatchedElements().iterator().next().getMatch());
+			}
+		}
+		try (Stream<REDExtractor.DocMatches> stream = REDExtractor.extractAll(documents.iterator(), redexs, true, 4, 8, false)) {
+			Set<String> ids = stream.map((dm) -> dm.getDocumentId()).collect(Collectors.toCollection(HashSet::new));
+			Assert.assertEquals(documents.size(), ids.size());
+		}
+	}
+
+	@Test
+	public void testMatchSink() {
+		REDExModel model = new REDExModel(buildTiers(
+				new String[] { "(?i)weight\\s{1,3}?(\\d+)", "(?i)(\\d+)\\s{1,3}?lbs" },
+				new String[0]));
+		CompiledREDExModel compiled = new CompiledREDExModel(model, PATTERN_ADAPTER_CLASS);
+		List<String> received = new ArrayList<>();
+		compiled.extract("weight 180 lbs", true, (text, start, end, tier, regex, weight) -> {
+			received.add(text.subSequence(start, end) + "/" + tier + "/" + regex);
+		});
+		Assert.assertEquals(2, received.size());
+		Assert.assertEquals("180/0/0", received.get(0));
+		Assert.assertEquals("180/0/1", received.get(1));
+		MatchList matches = new MatchList();
+		compiled.extract("no weight here", true, CompiledREDExModel.DEFAULT_TIMEOUT_MILLIS, matches);
+		Assert.assertTrue(matches.isEmpty());
+		compiled.extract("180 lbs", true, CompiledREDExModel.DEFAULT_TIMEOUT_MILLIS, matches);
+		Assert.assertEquals(1, matches.size());
+		Assert.assertEquals("180", matches.getMatch(0));
+	}
+}
@@ -0,0 +1,59 @@
+package gov.va.research.red.ex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import gov.va.research.red.MatchedElement;
+import gov.va.research.red.regex.HybridPatternAdapter;
+import gov.va.research.red.regex.RegexEngine;
+import junit.framework.Assert;
+
+public class EngineCalibratorTest {
+
+	private static final List<String> TEXTS = Arrays.asList(
+			"Weight 180 lbs", "wt: 82 kg", "weight weight 75", "nothing here");
+
+	@Test
+	public void testBacktrackingProne() {
+		Assert.assertTrue(EngineCalibrator.isBacktrackingProne("(a+)+b"));
+		Assert.assertTrue(EngineCalibrator.isBacktrackingProne("(?:a|ab)*c"));
+		Assert.assertTrue(EngineCalibrator.isBacktrackingProne("x\\s*\\s+y"));
+		Assert.assertTrue(EngineCalibrator.isBacktrackingProne("(\\w+) \\1"));
+		Assert.assertFalse(EngineCalibrator.isBacktrackingProne("(?i)weight\\s{1,3}?(\\d+)"));
+		Assert.assertFalse(EngineCalibrator.isBacktrackingProne("(?i)[a-z]{1,4}?\\s{1,3}?((?:\\d+|one|two)|(?:\\d+|one|two)[\\.,;](?:\\d+|one|two))"));
+		Assert.assertFalse(EngineCalibrator.isBacktrackingProne("(?:ab|cd)*\\d+\\s*x"));
+	}
+
+	@Test
+	public void testCalibrate() {
+		List<Collection<WeightedRegEx>> tiers = new ArrayList<>(2);
+		tiers.add(Arrays.asList(
+				new WeightedRegExImpl("(?i)weight\\s{1,3}?(\\d+)", 1.0),
+				new WeightedRegExImpl("(?i)(weight) (?=\\1)", 1.0)));
+		tiers.add(Arrays.asList(
+				new WeightedRegExImpl("(?i)((?:w|wt|t)+)\\W+\\d+", 0.5)));
+		REDExModel model = new REDExModel(tiers);
+		model.setMetadata("test");
+		REDExModel calibrated = new EngineCalibrator(1, EngineCalibrator.DEFAULT_TIMEOUT_MILLIS).calibrate(model, TEXTS);
+		Assert.assertEquals("test", calibrated.getMetadata());
+		List<WeightedRegEx> tier1 = new ArrayList<>(calibrated.getRegexTiers().get(0));
+		List<WeightedRegEx> tier2 = new ArrayList<>(calibrated.getRegexTiers().get(1));
+		Assert.assertNotNull(tier1.get(0).getEngine());
+		// re2j supports neither lookahead nor back references
+		Assert.assertEquals(RegexEngine.JSE, tier1.get(1).getEngine());
+		Assert.assertEquals(RegexEngine.RE2J, tier2.get(0).getEngine());
+		Assert.assertEquals(0.5, tier2.get(0).getWeight());
+
+		CompiledREDExModel compiled = new CompiledREDExModel(calibrated, HybridPatternAdapter.class);
+		Set<MatchedElement> mes = compiled.extract("Weight 180 lbs");
+		Assert.assertEquals(1, mes.size());
+		Assert.assertEquals("180", mes.iterator().next().getMatch());
+		Assert.assertEquals(RegexEngine.RE2J,
+				((HybridPatternAdapter)tier2.get(0).getPattern(HybridPatternAdapter.class)).getEngine());
+	}
+}
@@ -0,0 +1,84 @@
+package gov.va.research.red.ex;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+import gov.va.research.red.regex.JSEPatternAdapter;
+import junit.framework.Assert;
+
+public class ExtractionCacheTest {
+
+	private static CompiledREDExModel model() {
+		List<Collection<? extends WeightedRegEx>> tiers = new ArrayList<>(2);
+		tiers.add(Arrays.asList(new WeightedRegExImpl("(?i)weight\\s{1,3}?(\\d+)", 1.0)));
+		tiers.add(Arrays.asList(new WeightedRegExImpl("(?i)(\\d+)\\s{1,3}?lbs", 0.5)));
+		return new CompiledREDExModel(tiers, JSEPatternAdapter.class);
+	}
+
+	@Test
+	public void testHitsAndEviction() throws IOException {
+		CompiledREDExModel uncached = model();
+		CompiledREDExModel cached = model();
+		ExtractionCache cache = new ExtractionCache(2, 0, null);
+		cached.setCache(cache);
+		String[] texts = { "weight 180", "the patient is 150 lbs", "weight 180", "no weight given", "weight 180" };
+		for (String text : texts) {
+			Assert.assertEquals(uncached.extract(text, true), cached.extract(text, true));
+		}
+		Assert.assertEquals(2, cache.getHits());
+		Assert.assertEquals(3, cache.getMisses());
+		Assert.assertEquals(1, cache.getEvictions());
+		Assert.assertEquals(2, cache.size());
+		// the tier setting is part of the key
+		Assert.assertEquals(0, cached.extract("the patient is 150 lbs", false).size());
+		Assert.assertEquals(4, cache.getMisses());
+	}
+
+	@Test
+	public void testDisk() throws IOException {
+		Path dir = Files.createTempDirectory("extraction-cache");
+		try {
+			CompiledREDExModel first = model();
+			first.setCache(new ExtractionCache(0, 0, dir));
+			Assert.assertEquals(1, first.extract("weight 180", true).size());
+			// a later run of the same model
+			CompiledREDExModel second = model();
+			ExtractionCache cache = new ExtractionCache(0, 0, dir);
+			second.setCache(cache);
+			Assert.assertEquals(first.extract("weight 180", true), second.extract("weight 180", true));
+			Assert.assertEquals(1, cache.getDiskHits());
+			Assert.assertEquals(0, cache.getMisses());
+			// damaged results are misses
+			try (Stream<Path> paths = Files.walk(dir)) {
+				paths.filter(Files::isRegularFile).forEach((p) -> {
+					try {
+						Files.write(p, new byte[] { 0x7F, 0, 0, 0, 0, 0, 0, 1 });
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				});
+			}
+			CompiledREDExModel third = model();
+			ExtractionCache damaged = new ExtractionCache(0, 0, dir);
+			third.setCache(damaged);
+			Assert.assertEquals(first.extract("weight 180", true), third.extract("weight 180", true));
+			Assert.assertEquals(0, damaged.getDiskHits());
+			Assert.assertEquals(1, damaged.getDiskErrors());
+			Assert.assertEquals(1, damaged.getMisses());
+		} finally {
+			try (Stream<Path> paths = Files.walk(dir)) {
+				paths.sorted(Comparator.reverseOrder()).forEach((p) -> p.toFile().delete());
+			}
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package gov.va.research.red.ex;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+import gov.va.research.red.regex.JSEPatternAdapter;
+import junit.framework.Assert;
+
+public class ExtractionMetricsTest {
+
+	@Test
+	public void testCounters() throws Exception {
+		List<Collection<? extends WeightedRegEx>> tiers = new ArrayList<>(2);
+		tiers.add(Arrays.asList(new WeightedRegExImpl("(?i)weight\\s{1,3}?(\\d+)", 1.0)));
+		tiers.add(Arrays.asList(new WeightedRegExImpl("(?i)(\\d+)\\s{1,3}?lbs", 1.0)));
+		CompiledREDExModel compiled = new CompiledREDExModel(tiers, JSEPatternAdapter.class);
+		ExtractionMetrics metrics = new ExtractionMetrics();
+		metrics.track("weight", compiled);
+		compiled.extract("weight 180");
+		compiled.extract("180 lbs");
+		compiled.extract("weight unknown");
+
+		Assert.assertEquals(3, metrics.getDocuments());
+		// regexes whose literals are absent from a document are not run, nor are later tiers once one matches
+		Assert.assertEquals(3, metrics.getInvocations());
+		Assert.assertEquals(2, metrics.getMatches());
+		Assert.assertEquals(0, metrics.getTimeouts());
+		Assert.assertEquals(2, metrics.getHotRegexes().length);
+
+		Map<String, Object> snapshot = metrics.snapshot();
+		@SuppressWarnings("unchecked")
+		List<Map<String, Object>> regexes = (List<Map<String, Object>>) snapshot.get("regexes");
+		for (Map<String, Object> regex : regexes) {
+			Assert.assertEquals("weight", regex.get("model"));
+			if (Integer.valueOf(0).equals(regex.get("tier"))) {
+				Assert.assertEquals(Long.valueOf(2), regex.get("invocations"));
+				Assert.assertEquals(Double.valueOf(0.5), regex.get("hitRate"));
+			} else {
+				Assert.assertEquals(Long.valueOf(1), regex.get("invocations"));
+				Assert.assertEquals(Long.valueOf(1), regex.get("matches"));
+			}
+		}
+
+		ObjectName name = metrics.registerMBean("test");
+		try {
+			Assert.assertEquals(Long.valueOf(3), ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Documents"));
+		} finally {
+			ExtractionMetrics.unregisterMBean(name);
+		}
+		metrics.reset();
+		Assert.assertEquals(0, metrics.getDocuments());
+		Assert.assertEquals(0, metrics.getInvocations());
+	}
+}
@@ -0,0 +1,92 @@
+package gov.va.research.red.ex;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.Test;
+
+import gov.va.research.red.ex.REDExtractor.DocMatches;
+import gov.va.research.red.regex.JSEPatternAdapter;
+import junit.framework.Assert;
+
+public class ExtractionPipelineTest {
+	private static final int DOCUMENTS = 500;
+
+	@Test
+	public void testH2() throws Exception {
+		List<Collection<? extends WeightedRegEx>> tiers = new ArrayList<>(1);
+		tiers.add(Arrays.asList(new WeightedRegExImpl("(?i)weight\\s{1,3}?(\\d+)", 1.0)));
+		List<CompiledREDExModel> redexs = Arrays.asList(new CompiledREDExModel(tiers, JSEPatternAdapter.class));
+		String url = "jdbc:h2:mem:pipeline;DB_CLOSE_DELAY=-1";
+		try (	Connection readConn = DriverManager.getConnection(url);
+				Statement s = readConn.createStatement();
+		) {
+			s.execute("CREATE TABLE docs (id varchar(50), text varchar(1000))");
+			try (PreparedStatement ps = readConn.prepareStatement("INSERT INTO docs (id, text) VALUES (?, ?)")) {
+				for (int i = 0; i < DOCUMENTS; i++) {
+					ps.setString(1, "doc" + i);
+					// every other document mentions a weight
+					ps.setString(2, i % 2 == 0 ? "Weight " + i + " lbs" : "no vitals");
+					ps.addBatch();
+				}
+				ps.executeBatch();
+			}
+			Assert.assertTrue(MatchTableWriter.createTableIfAbsent(readConn, "matches", SqlDialect.H2));
+			Assert.assertFalse(MatchTableWriter.createTableIfAbsent(readConn, "matches", SqlDialect.H2));
+
+			ExtractionPipeline pipeline = new ExtractionPipeline(redexs, true, 4, 8, 50);
+			try (MatchTableWriter writer = new MatchTableWriter(() -> DriverManager.getConnection(url), "matches", SqlDialect.H2, 64, 2, 1)) {
+				pipeline.run(readConn, "SELECT id, text FROM docs", writer);
+				// documents without matches count towards the size of a batch too
+				Assert.assertEquals((DOCUMENTS + 63) / 64, writer.getBatches());
+			}
+			// a second run updates the same rows
+			try (MatchTableWriter writer = new MatchTableWriter(() -> DriverManager.getConnection(url), "matches", SqlDialect.H2, 1000, 1, 1)) {
+				new ExtractionPipeline(redexs, true, 2, 4, 0).run(readConn, "SELECT id, text FROM docs", writer);
+			}
+			Assert.assertEquals(DOCUMENTS, pipeline.getFetchStage().getDocuments());
+			Assert.assertEquals(DOCUMENTS, pipeline.getExtractStage().getDocuments());
+			Assert.assertEquals(DOCUMENTS, pipeline.getWriteStage().getDocuments());
+			Assert.assertEquals(DOCUMENTS / 2, pipeline.getMatches());
+			try (ResultSet rs = s.executeQuery("SELECT documentId, startPos, endPos, value FROM matches ORDER BY startPos")) {
+				int rows = 0;
+				while (rs.next()) {
+					int i = Integer.parseInt(rs.getString(1).substring(3));
+					Assert.assertEquals(String.valueOf(i), rs.getString(4));
+					Assert.assertEquals(7, rs.getInt(2));
+					Assert.assertEquals(7 + rs.getString(4).length(), rs.getInt(3));
+					rows++;
+				}
+				Assert.assertEquals(DOCUMENTS / 2, rows);
+			}
+		}
+	}
+
+	@Test
+	public void testFailedQuery() throws Exception {
+		ExtractionPipeline pipeline = new ExtractionPipeline(new ArrayList<CompiledREDExModel>(0), true, 2, 2, 0);
+		try (Connection conn = DriverManager.getConnection("jdbc:h2:mem:failed")) {
+			pipeline.run(conn, "SELECT id, text FROM missing", new ExtractionPipeline.Sink() {
+				@Override
+				public void write(DocMatches dm) {
+					Assert.fail("no documents expected");
+				}
+				@Override
+				public void flush() {
+					Assert.fail("the pipeline should have stopped");
+				}
+			});
+			Assert.fail("no exception for a missing table");
+		} catch (SQLException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package gov.va.research.red.ex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+import gov.va.research.red.regex.JSEPatternAdapter;
+import junit.framework.Assert;
+
+public class ExtractionSchedulersTest {
+
+	@Test
+	public void testExtractAll() throws Exception {
+		List<Collection<? extends WeightedRegEx>> tiers = new ArrayList<>(1);
+		tiers.add(Arrays.asList(new WeightedRegExImpl("(?i)weight\\s{1,3}?(\\d+)", 1.0)));
+		List<CompiledREDExModel> redexs = Arrays.asList(new CompiledREDExModel(tiers, JSEPatternAdapter.class));
+		List<REDExtractor.Document> documents = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			documents.add(new REDExtractor.Document(String.valueOf(i), "weight " + i));
+		}
+		for (ExtractionScheduler scheduler : schedulers(3)) {
+			try (Stream<REDExtractor.DocMatches> stream = REDExtractor.extractAll(documents.iterator(), redexs, true, scheduler, 6, true)) {
+				List<String> matches = stream.map((dm) -> dm.getMatchedElements().iterator().next().getMatch()).collect(Collectors.toList());
+				Assert.assertEquals(IntStream.range(0, 100).mapToObj(String::valueOf).collect(Collectors.toList()), matches);
+			}
+		}
+	}
+
+	@Test
+	public void testCompute() throws Exception {
+		for (ExtractionScheduler scheduler : schedulers(3)) {
+			Set<Integer> parallelisms = scheduler.compute(() -> IntStream.range(0, 1000).parallel()
+					.mapToObj((i) -> ForkJoinTask.getPool().getParallelism()).collect(Collectors.toSet()));
+			Assert.assertEquals(scheduler.toString(), 1, parallelisms.size());
+			Assert.assertEquals(scheduler.toString(), 3, parallelisms.iterator().next().intValue());
+		}
+	}
+
+	@Test
+	public void testIsComputing() throws Exception {
+		for (ExtractionScheduler scheduler : schedulers(3)) {
+			Assert.assertFalse(scheduler.isComputing());
+			Assert.assertTrue(scheduler.compute(() -> IntStream.range(0, 100).parallel().allMatch((i) -> scheduler.isComputing())));
+			// another pool, even the common one, is not the scheduler's
+			Assert.assertFalse(ForkJoinPool.commonPool().submit(scheduler::isComputing).get());
+			Assert.assertFalse(ExtractionSchedulers.fixed(3).compute(scheduler::isComputing));
+		}
+	}
+
+	@Test
+	public void testManagedBlocking() throws Exception {
+		// a single thread, whose task waits for a task queued behind it
+		ExtractionScheduler scheduler = ExtractionSchedulers.forkJoin(1);
+		ExecutorService executor = scheduler.newExecutor(2);
+		try {
+			BlockingQueue<String> queue = new ArrayBlockingQueue<>(1);
+			Future<String> consumer = executor.submit(() -> scheduler.block(queue::take));
+			executor.submit(() -> {
+				queue.put("done");
+				return null;
+			});
+			Assert.assertEquals("done", consumer.get(10, TimeUnit.SECONDS));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static List<ExtractionScheduler> schedulers(int parallelism) {
+		List<ExtractionScheduler> schedulers = new ArrayList<>(3);
+		schedulers.add(ExtractionSchedulers.fixed(parallelism));
+		schedulers.add(ExtractionSchedulers.forkJoin(parallelism));
+		try {
+			schedulers.add(ExtractionSchedulers.virtualThreads(parallelism));
+		} catch (UnsupportedOperationException e) {
+			// before Java 21
+		}
+		return schedulers;
+	}
+}
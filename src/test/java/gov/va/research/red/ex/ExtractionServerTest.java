@@ -0,0 +1,141 @@
+package gov.va.research.red.ex;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import gov.va.research.red.regex.JSEPatternAdapter;
+import junit.framework.Assert;
+
+public class ExtractionServerTest {
+
+	@Test
+	public void testBatching() throws Exception {
+		Path modelFile = Files.createTempFile("redex-model", ".txt");
+		try {
+			Files.write(modelFile, "(?i)weight\\s{1,3}?(\\d+)".getBytes(StandardCharsets.UTF_8));
+			AtomicInteger loads = new AtomicInteger();
+			try (ExtractionServer server = new ExtractionServer(new Path[] { modelFile }, (paths) -> {
+				loads.incrementAndGet();
+				return load(paths);
+			}, true, ExtractionSchedulers.fixed(2), 8, 20000)) {
+				server.start(0);
+				ExecutorService clients = Executors.newFixedThreadPool(10);
+				try {
+					List<Future<List<REDExtractor.DocMatches>>> futures = new ArrayList<>();
+					for (int c = 0; c < 10; c++) {
+						int client = c;
+						futures.add(clients.submit(() -> server.extract(Arrays.asList(
+								new REDExtractor.Document("a" + client, "weight " + client),
+								new REDExtractor.Document("b" + client, "no weight here")))));
+					}
+					for (int c = 0; c < 10; c++) {
+						List<REDExtractor.DocMatches> dms = futures.get(c).get(10, TimeUnit.SECONDS);
+						Assert.assertEquals(2, dms.size());
+						Assert.assertEquals("a" + c, dms.get(0).getDocumentId());
+						Assert.assertEquals(String.valueOf(c), dms.get(0).getMatchedElements().iterator().next().getMatch());
+						Assert.assertEquals("b" + c, dms.get(1).getDocumentId());
+						Assert.assertTrue(dms.get(1).getMatchedElements().isEmpty());
+					}
+				} finally {
+					clients.shutdownNow();
+				}
+				Assert.assertEquals(1, loads.get());
+			}
+		} finally {
+			Files.deleteIfExists(modelFile);
+		}
+	}
+
+	@Test
+	public void testReload() throws Exception {
+		Path modelFile = Files.createTempFile("redex-model", ".txt");
+		try {
+			Files.write(modelFile, "(?i)weight\\s{1,3}?(\\d+)".getBytes(StandardCharsets.UTF_8));
+			List<REDExtractor.Document> documents = Arrays.asList(new REDExtractor.Document("1", "weight 70 height 180"));
+			try (ExtractionServer server = new ExtractionServer(new Path[] { modelFile }, ExtractionServerTest::load,
+					true, ExtractionSchedulers.forkJoin(2), 8, 0)) {
+				server.start(0);
+				Assert.assertEquals("70", server.extract(documents).get(0).getMatchedElements().iterator().next().getMatch());
+				// a model which cannot be loaded keeps the current one
+				Files.write(modelFile, "(?i)height\\s{1,3}?(\\d+".getBytes(StandardCharsets.UTF_8));
+				Assert.assertFalse(server.reload());
+				Assert.assertEquals(1, server.getGeneration());
+				Files.write(modelFile, "(?i)height\\s{1,3}?(\\d+)".getBytes(StandardCharsets.UTF_8));
+				long deadline = System.currentTimeMillis() + 30000;
+				while (server.getGeneration() == 1 && System.currentTimeMillis() < deadline) {
+					Thread.sleep(50);
+				}
+				Assert.assertTrue(server.getGeneration() > 1);
+				Assert.assertEquals("180", server.extract(documents).get(0).getMatchedElements().iterator().next().getMatch());
+			}
+		} finally {
+			Files.deleteIfExists(modelFile);
+		}
+	}
+
+	@Test
+	public void testCloseCompletesEveryRequest() throws Exception {
+		Path modelFile = Files.createTempFile("redex-model", ".txt");
+		try {
+			Files.write(modelFile, "(?i)weight\\s{1,3}?(\\d+)".getBytes(StandardCharsets.UTF_8));
+			ExecutorService clients = Executors.newFixedThreadPool(4);
+			try {
+				List<Future<Integer>> futures = new ArrayList<>();
+				try (ExtractionServer server = new ExtractionServer(new Path[] { modelFile }, ExtractionServerTest::load,
+						true, ExtractionSchedulers.fixed(2), 1, 0)) {
+					server.start(0);
+					for (int c = 0; c < 4; c++) {
+						futures.add(clients.submit(() -> {
+							int extracted = 0;
+							try {
+								while (true) {
+									server.extract(Arrays.asList(new REDExtractor.Document("1", "weight 70")));
+									extracted++;
+								}
+							} catch (RuntimeException e) {
+								// the server was closed
+								return extracted;
+							}
+						}));
+					}
+					Thread.sleep(200);
+				}
+				// requests sent while closing fail instead of waiting forever
+				for (Future<Integer> future : futures) {
+					future.get(10, TimeUnit.SECONDS);
+				}
+			} finally {
+				clients.shutdownNow();
+			}
+		} finally {
+			Files.deleteIfExists(modelFile);
+		}
+	}
+
+	private static List<CompiledREDExModel> load(Path[] modelFiles) throws IOException {
+		List<CompiledREDExModel> redexs = new ArrayList<>(modelFiles.length);
+		for (Path modelFile : modelFiles) {
+			List<Collection<? extends WeightedRegEx>> tiers = new ArrayList<>(1);
+			tiers.add(Arrays.asList(new WeightedRegExImpl(new String(Files.readAllBytes(modelFile), StandardCharsets.UTF_8), 1.0)));
+			try {
+				redexs.add(new CompiledREDExModel(tiers, JSEPatternAdapter.class));
+			} catch (RuntimeException e) {
+				throw new IOException(e);
+			}
+		}
+		return redexs;
+	}
+}
@@ -0,0 +1,38 @@
+package gov.va.research.red.ex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import org.junit.Test;
+
+import junit.framework.Assert;
+
+public class LiteralPrefilterTest {
+
+	@Test
+	public void testRequiredLiterals() {
+		Assert.assertEquals(Arrays.asList("weight"), LiteralPrefilter.requiredLiterals("(?i)weight\\s{1,3}?(\\d+)"));
+		Assert.assertEquals(Arrays.asList("lbs"), LiteralPrefilter.requiredLiterals("(?i)(\\d+)\\s{1,3}?lbs"));
+		Assert.assertEquals(Arrays.asList("body", "weight"), LiteralPrefilter.requiredLiterals("body\\sweights?:\\s(\\d+)"));
+		Assert.assertEquals(Arrays.asList("kg"), LiteralPrefilter.requiredLiterals("\\x41\\d(kilo|kg)kg"));
+		Assert.assertEquals(0, LiteralPrefilter.requiredLiterals("weight(\\d+)|wt(\\d+)").size());
+		Assert.assertEquals(0, LiteralPrefilter.requiredLiterals("(?x)weight (\\d+)").size());
+		Assert.assertEquals(0, LiteralPrefilter.requiredLiterals("\\Qweight\\E(\\d+)").size());
+	}
+
+	@Test
+	public void testMayMatch() {
+		List<List<WeightedRegEx>> tiers = new ArrayList<>(1);
+		tiers.add(Arrays.<WeightedRegEx>asList(
+				new WeightedRegExImpl("(?i)weight\\s{1,3}?(\\d+)", 1.0),
+				new WeightedRegExImpl("(?i)(\\d+)\\s{1,3}?lbs", 1.0),
+				new WeightedRegExImpl("(\\d+)", 1.0)));
+		LiteralPrefilter prefilter = new LiteralPrefilter(tiers);
+		BitSet present = prefilter.scan("WEIGHT: 180");
+		Assert.assertTrue(prefilter.mayMatch(present, 0, 0));
+		Assert.assertFalse(prefilter.mayMatch(present, 0, 1));
+		Assert.assertTrue(prefilter.mayMatch(present, 0, 2));
+	}
+}
@@ -0,0 +1,90 @@
+package gov.va.research.red.ex;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import gov.va.research.red.Snippet;
+import gov.va.research.red.VTTReader;
+import gov.va.research.red.VTTSnippetParser;
+import gov.va.research.red.regex.DeadlineCharSequence;
+import gov.va.research.red.regex.JSEPatternAdapter;
+import gov.va.research.red.regex.MatcherAdapter;
+import gov.va.research.red.regex.PatternAdapter;
+import junit.framework.Assert;
+
+/**
+ * Compares the memory allocated per document when extracting with the
+ * matchers cached by {@link CompiledREDExModel} against creating a new
+ * matcher and deadline wrapper for every regular expression and document.
+ * Skipped where the JVM cannot count the bytes allocated by a thread.
+ */
+public class MatcherReuseTest {
+
+	private static final int WARMUP_ROUNDS = 3;
+	private static final String[][] REGEXES = {
+			{ "(?i)weight\\s{1,3}?(\\d+)", "(?i)wt\\s{1,3}?(\\d+)", "(?i)weighs\\s{1,3}?(\\d+)", "(?i)(\\d+)\\s{1,3}?lbs",
+					"(?i)(\\d+)\\s{1,3}?pounds", "(?i)(\\d+)\\s{1,3}?kg" },
+			{ "(?i)weight\\W{1,3}?(\\d+)", "(?i)(\\d+(?:\\.\\d+)?)\\s{0,3}?(?:lb|kg)" } };
+
+	@Test
+	public void testReuseAllocatesLess() throws IOException, URISyntaxException {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean
+				&& ((com.sun.management.ThreadMXBean)bean).isThreadAllocatedMemorySupported()
+				&& ((com.sun.management.ThreadMXBean)bean).isThreadAllocatedMemoryEnabled());
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)bean;
+		long thread = Thread.currentThread().getId();
+
+		List<Collection<? extends WeightedRegEx>> tiers = new ArrayList<>(2);
+		for (String[] tier : REGEXES) {
+			List<WeightedRegEx> regexes = new ArrayList<>(tier.length);
+			for (String regex : tier) {
+				regexes.add(new WeightedRegExImpl(regex, 1.0));
+			}
+			tiers.add(regexes);
+		}
+		CompiledREDExModel compiled = new CompiledREDExModel(tiers, JSEPatternAdapter.class);
+		List<String> texts = new ArrayList<>();
+		for (Snippet snippet : new VTTReader().readSnippets(new File(getClass().getResource("/weight1000.vtt").toURI()), new VTTSnippetParser())) {
+			texts.add(snippet.getText());
+		}
+		List<PatternAdapter> patterns = new ArrayList<>();
+		for (int t = 0; t < compiled.getRegexTiers().size(); t++) {
+			for (int r = 0; r < compiled.getRegexTiers().get(t).size(); r++) {
+				patterns.add(compiled.getRegEx(t, r).getPattern(JSEPatternAdapter.class));
+			}
+		}
+		long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(compiled.getTimeoutMillis());
+		MatchList matches = new MatchList();
+		long fresh = 0;
+		long reused = 0;
+		// the last round is measured, once the caches of both have filled
+		for (int round = 0; round <= WARMUP_ROUNDS; round++) {
+			fresh = threads.getThreadAllocatedBytes(thread);
+			for (String text : texts) {
+				for (PatternAdapter pattern : patterns) {
+					MatcherAdapter matcher = pattern.matcher(DeadlineCharSequence.expiringIn(text, timeoutNanos));
+					matcher.find();
+				}
+			}
+			fresh = threads.getThreadAllocatedBytes(thread) - fresh;
+			reused = threads.getThreadAllocatedBytes(thread);
+			for (String text : texts) {
+				compiled.extract(text, true, compiled.getTimeoutMillis(), matches);
+			}
+			reused = threads.getThreadAllocatedBytes(thread) - reused;
+		}
+		Assert.assertTrue("reused matchers allocated " + (reused / texts.size()) + " bytes per document, new matchers "
+				+ (fresh / texts.size()), reused * 2 < fresh);
+	}
+}
@@ -0,0 +1,46 @@
+package gov.va.research.red.ex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import gov.va.research.red.regex.JSEPatternAdapter;
+import junit.framework.Assert;
+
+public class QueryPushdownTest {
+
+	private static CompiledREDExModel model(WeightedRegEx... regexes) {
+		List<Collection<? extends WeightedRegEx>> tiers = new ArrayList<>(1);
+		tiers.add(Arrays.asList(regexes));
+		return new CompiledREDExModel(tiers, JSEPatternAdapter.class);
+	}
+
+	@Test
+	public void testWrap() {
+		CompiledREDExModel redex = model(
+				new WeightedRegExImpl("(?i)body\\s{1,3}weight\\s{1,3}?(\\d+)", 1.0),
+				new WeightedRegExImpl("(?i)weight\\s{1,3}?(\\d+)", 1.0),
+				new WeightedRegExImpl("(?i)(\\d+)\\s{1,3}?lbs", 1.0));
+		QueryPushdown pushdown = new QueryPushdown(Collections.singletonList(redex), true);
+		Assert.assertTrue(pushdown.isRestrictive());
+		// body and weight is implied by weight
+		Assert.assertEquals(2, pushdown.getConjunctions().size());
+		Assert.assertEquals("SELECT * FROM (SELECT id, text FROM notes) q WHERE (LOWER(q.text) LIKE '%weight%') OR (LOWER(q.text) LIKE '%lbs%')",
+				pushdown.wrap("SELECT id, text FROM notes", "text", SqlDialect.H2));
+		Assert.assertEquals("(q.text ILIKE '%weight%') OR (q.text ILIKE '%lbs%')", pushdown.predicate("q.text", SqlDialect.POSTGRESQL));
+	}
+
+	@Test
+	public void testNotRestrictive() {
+		CompiledREDExModel redex = model(
+				new WeightedRegExImpl("(?i)weight\\s{1,3}?(\\d+)", 1.0),
+				new WeightedRegExImpl("(\\d+)", 1.0));
+		QueryPushdown pushdown = new QueryPushdown(Collections.singletonList(redex), true);
+		Assert.assertFalse(pushdown.isRestrictive());
+		Assert.assertEquals("SELECT id, text FROM notes", pushdown.wrap("SELECT id, text FROM notes", "text", SqlDialect.H2));
+	}
+}
@@ -18,6 +18,7 @@ import org.slf4j.LoggerFactory;
 
 import gov.va.research.red.CVResult;
 import gov.va.research.red.VTTSnippetParser;
+import gov.va.research.red.ex.REDExFactory.TrimStrategy;
 import gov.va.research.red.regex.JSEPatternAdapter;
 import junit.framework.Assert;
 
@@ -46,6 +47,15 @@ public class REDExCrossValidatorTest {
 	
 	@Test
 	public void testCrossValidate() {
+		crossValidate(TrimStrategy.LINEAR);
+	}
+
+	@Test
+	public void testCrossValidateGalloping() {
+		crossValidate(TrimStrategy.GALLOPING);
+	}
+
+	private void crossValidate(TrimStrategy trimStrategy) {
 		try {
 			URL vttFileURL = getClass().getClassLoader().getResource(TEST_VTT_FILENAME);
 			Assert.assertNotNull(vttFileURL);
@@ -60,6 +70,7 @@ public class REDExCrossValidatorTest {
 			REDExCrossValidator rexcv = new REDExCrossValidator(10, true, true,
 					new ArrayList<String>(), true, true, true, true, 0,
 					JSEPatternAdapter.class);
+			rexcv.setTrimStrategy(trimStrategy);
 			List<CVResult> results = rexcv.crossValidate(
 					Arrays.asList(new File[] { vttFile }),
 					Arrays.asList(new String[] { "weight" }), new VTTSnippetParser());
@@ -20,11 +20,14 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.stream.Stream;
 
 import org.junit.After;
 import org.junit.AfterClass;
@@ -206,4 +209,52 @@ public class REDExtractorTest {
 		}
 	}
 
+	@Test
+	public void testWriteBioCIndependentOfWorkers() throws Exception {
+		List<Collection<WeightedRegEx>> tiers = new ArrayList<>(2);
+		tiers.add(Arrays.<WeightedRegEx>asList(new WeightedRegExImpl("(?i)weight\\s{1,3}?(\\d+)", 1.0),
+				new WeightedRegExImpl("(?i)(\\d+)\\s{1,3}?lbs", 1.0), new WeightedRegExImpl("(?i)wt\\s{1,3}?(\\d+)", 0.5)));
+		tiers.add(Arrays.<WeightedRegEx>asList(new WeightedRegExImpl("(?i)(\\d+)\\s{1,3}?kg", 1.0)));
+		List<CompiledREDExModel> redexs = new ArrayList<>(2);
+		redexs.add(new CompiledREDExModel(new REDExModel(tiers), PATTERN_ADAPTER_CLASS));
+		redexs.add(new CompiledREDExModel(new REDExModel(tiers.subList(1, 2)), PATTERN_ADAPTER_CLASS));
+		Path dir = Files.createTempDirectory("bioc");
+		try {
+			List<Path> files = new ArrayList<>();
+			for (int f = 0; f < 20; f++) {
+				StringBuilder text = new StringBuilder();
+				// documents of different lengths, so that they finish out of order
+				for (int i = 0; i < (f * 7) % 20 + 1; i++) {
+					text.append("visit ").append(i).append(": weight ").append(100 + f + i).append(" lbs, wt ").append(40 + i).append(" kg\n");
+				}
+				Path file = dir.resolve(String.format("doc%02d.txt", f));
+				Files.write(file, text.toString().getBytes(StandardCharsets.UTF_8));
+				files.add(file);
+				if (f % 5 == 4) {
+					StringBuilder csv = new StringBuilder();
+					for (int s = 0; s < 10; s++) {
+						csv.append("\n").append(f).append(',').append(s).append(",1,\"pt weight ").append(150 + s).append(" lbs, ").append(60 + s).append(" kg\"");
+					}
+					Path csvFile = dir.resolve(String.format("doc%02d.csv", f));
+					Files.write(csvFile, csv.toString().getBytes(StandardCharsets.UTF_8));
+					files.add(csvFile);
+				}
+			}
+			Path serial = dir.resolve("serial.xml");
+			Path parallel = dir.resolve("parallel.xml");
+			REDExtractor.writeBioC(serial, files, redexs, true, null, ExtractionSchedulers.fixed(1), 1, null, false);
+			REDExtractor.writeBioC(parallel, files, redexs, true, null, ExtractionSchedulers.fixed(4), 6, null, false);
+			String written = new String(Files.readAllBytes(serial), StandardCharsets.UTF_8);
+			Assert.assertTrue(written.contains("119"));
+			Assert.assertTrue(written.contains("159"));
+			Assert.assertTrue(Arrays.equals(Files.readAllBytes(serial), Files.readAllBytes(parallel)));
+		} finally {
+			try (Stream<Path> paths = Files.list(dir)) {
+				for (Path p : (Iterable<Path>) paths::iterator) {
+					Files.delete(p);
+				}
+			}
+			Files.delete(dir);
+		}
+	}
 }
@@ -0,0 +1,55 @@
+package gov.va.research.red.ex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import gov.va.research.red.LabeledSegment;
+import gov.va.research.red.Snippet;
+import gov.va.research.red.ex.REDExFactory.ScoreFunction;
+import gov.va.research.red.regex.JSEPatternAdapter;
+import gov.va.research.red.regex.RE2JPatternAdapter;
+import junit.framework.Assert;
+
+public class ScoreCacheTest {
+
+	@Test
+	public void testCachedScores() {
+		List<Snippet> snippets = Arrays.asList(new Snippet("weight 70", Arrays.asList(new LabeledSegment("weight", "70", 7, 2))));
+		AtomicInteger scored = new AtomicInteger();
+		ScoreFunction counting = (testing, ex, allowOverMatches, caseInsensitive, useTier2, patternAdapterClass) -> {
+			scored.incrementAndGet();
+			return ex.getRegexTiers().get(0).iterator().next().getRegEx().length();
+		};
+		ScoreCache cache = new ScoreCache(2);
+		ScoreFunction cached = cache.wrap(counting);
+		Assert.assertEquals(5f, cached.score(snippets, model("a(b)c"), true, true, true, JSEPatternAdapter.class));
+		// an equal regex in another model
+		Assert.assertEquals(5f, cached.score(snippets, model("a(b)c"), true, true, true, JSEPatternAdapter.class));
+		Assert.assertEquals(1, scored.get());
+		// other settings, corpus or score function
+		cached.score(snippets, model("a(b)c"), false, true, true, JSEPatternAdapter.class);
+		cached.score(snippets, model("a(b)c"), true, true, true, RE2JPatternAdapter.class);
+		cached.score(new ArrayList<>(snippets), model("a(b)c"), true, true, true, JSEPatternAdapter.class);
+		cache.wrap((testing, ex, allowOverMatches, caseInsensitive, useTier2, patternAdapterClass) -> 0f)
+				.score(snippets, model("a(b)c"), true, true, true, JSEPatternAdapter.class);
+		Assert.assertEquals(4, scored.get());
+		Assert.assertEquals(2, cache.size());
+		Assert.assertEquals(3, cache.getEvictions());
+		Assert.assertEquals(1, cache.getHits());
+		Assert.assertEquals(5, cache.getMisses());
+		cache.clear();
+		cached.score(snippets, model("a(b)c"), true, true, true, JSEPatternAdapter.class);
+		Assert.assertEquals(5, scored.get());
+	}
+
+	private static REDExModel model(String regex) {
+		List<Collection<WeightedRegEx>> tiers = new ArrayList<>(1);
+		tiers.add(Arrays.asList(new WeightedRegExImpl(regex, 1.0)));
+		return new REDExModel(tiers);
+	}
+}
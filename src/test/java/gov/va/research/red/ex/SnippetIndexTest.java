@@ -0,0 +1,71 @@
+package gov.va.research.red.ex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.Test;
+
+import gov.va.research.red.LabeledSegment;
+import gov.va.research.red.Snippet;
+import gov.va.research.red.regex.JSEPatternAdapter;
+import junit.framework.Assert;
+
+public class SnippetIndexTest {
+
+	@Test
+	public void testRestrict() {
+		Snippet weight = new Snippet("Weight: 70 kg", Arrays.asList(new LabeledSegment("weight", "70", 8, 2)));
+		Snippet bodyweight = new Snippet("bodyweight2 is 80", new ArrayList<LabeledSegment>());
+		Snippet kelvin = new Snippet("WEIGHT \u212Ag 90", new ArrayList<LabeledSegment>());
+		Snippet height = new Snippet("height 180 cm", new ArrayList<LabeledSegment>());
+		List<Snippet> snippets = Arrays.asList(weight, bodyweight, kelvin, height);
+		SnippetIndex index = new SnippetIndex(snippets);
+
+		// folded case, the Kelvin sign matches k ignoring case
+		Assert.assertEquals(Arrays.asList(weight, kelvin), index.restrict(snippets, model(snippetRegEx(weight))));
+		// a literal within a longer token
+		Assert.assertEquals(Arrays.asList(weight, bodyweight, kelvin), index.restrict(snippets, model(new WeightedRegExImpl("(?i)weight\\D+(\\d+)", 1.0))));
+		// all literals are required
+		Assert.assertEquals(Arrays.asList(weight, kelvin), index.restrict(snippets, model(new WeightedRegExImpl("(?i)weight\\W+kg\\s(\\d+)", 1.0))));
+		// any regex of the model
+		Assert.assertEquals(Arrays.asList(weight, kelvin, height), index.restrict(snippets, model(
+				new WeightedRegExImpl("(?i)weight\\W+kg\\s(\\d+)", 1.0), new WeightedRegExImpl("height (\\d+)", 1.0))));
+		Assert.assertTrue(index.restrict(snippets, model(new WeightedRegExImpl("pulse (\\d+)", 1.0))).isEmpty());
+		// nothing known about a regex
+		Assert.assertSame(snippets, index.restrict(snippets, model(new WeightedRegExImpl("(\\d+)", 1.0))));
+		// not the indexed corpus
+		List<Snippet> other = new ArrayList<>(snippets);
+		Assert.assertSame(other, index.restrict(other, model(snippetRegEx(weight))));
+	}
+
+	@Test
+	public void testCompile() {
+		Snippet weight = new Snippet("Weight: 70 kg", Arrays.asList(new LabeledSegment("weight", "70", 8, 2)));
+		Snippet height = new Snippet("height 180 cm", new ArrayList<LabeledSegment>());
+		List<Snippet> snippets = Arrays.asList(weight, height);
+		SnippetIndex index = new SnippetIndex(snippets);
+		REDExModel single = model(new WeightedRegExImpl("(?i)weight\\W+(\\d+)", 1.0));
+		Collection<Snippet> restricted = index.restrict(snippets, single);
+		Assert.assertEquals(Arrays.asList(weight), restricted);
+		// compiled without a prefilter, matching the same
+		for (Collection<Snippet> testing : Arrays.asList(snippets, restricted)) {
+			CompiledREDExModel compiled = SnippetIndex.compile(testing, single.getRegexTiers(), JSEPatternAdapter.class);
+			Assert.assertEquals("70", compiled.extract(weight.getText()).iterator().next().getMatch());
+			Assert.assertTrue(compiled.extract(height.getText()).isEmpty());
+		}
+	}
+
+	private static SnippetRegEx snippetRegEx(Snippet snippet) {
+		SnippetRegEx sre = new SnippetRegEx(snippet, true);
+		sre.replaceDigits();
+		return sre;
+	}
+
+	private static REDExModel model(WeightedRegEx... regexs) {
+		List<Collection<WeightedRegEx>> tiers = new ArrayList<>(1);
+		tiers.add(Arrays.asList(regexs));
+		return new REDExModel(tiers);
+	}
+}
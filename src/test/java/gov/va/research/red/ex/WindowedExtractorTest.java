@@ -0,0 +1,89 @@
+package gov.va.research.red.ex;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import gov.va.research.red.MappedFileReader;
+import gov.va.research.red.MatchedElement;
+import gov.va.research.red.regex.JSEPatternAdapter;
+import junit.framework.Assert;
+
+public class WindowedExtractorTest {
+
+	private static CompiledREDExModel weightModel() {
+		List<Collection<? extends WeightedRegEx>> tiers = new ArrayList<>(1);
+		tiers.add(Arrays.asList(new WeightedRegExImpl("(?i)weight\\s{1,3}?(\\d{1,3})\\s{1,3}?lbs", 1.0)));
+		return new CompiledREDExModel(tiers, JSEPatternAdapter.class);
+	}
+
+	@Test
+	public void testMatchAcrossWindows() throws Exception {
+		CompiledREDExModel model = weightModel();
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			sb.append("pt seen. ");
+		}
+		sb.append("Weight 180 lbs.");
+		for (int i = 0; i < 100; i++) {
+			sb.append(" no change");
+		}
+		String text = sb.toString();
+		Set<MatchedElement> whole = model.extract(text);
+		Assert.assertEquals(1, whole.size());
+		WindowedExtractor windowed = new WindowedExtractor(Arrays.asList(model), true, 64);
+		Assert.assertTrue(windowed.getOverlap() >= "weight 180 lbs".length());
+		// every offset of the match relative to the windows
+		for (int skip = 0; skip < 64; skip++) {
+			String shifted = text.substring(skip);
+			Set<MatchedElement> expected = model.extract(shifted);
+			List<Set<MatchedElement>> results = windowed.extract(new StringReader(shifted));
+			Assert.assertEquals(1, results.size());
+			Assert.assertEquals(expected, results.get(0));
+			MatchedElement me = results.get(0).iterator().next();
+			Assert.assertEquals("180", me.getMatch());
+			Assert.assertEquals("180", shifted.substring(me.getStartPos(), me.getEndPos()));
+		}
+	}
+
+	@Test
+	public void testEmpty() throws Exception {
+		WindowedExtractor windowed = new WindowedExtractor(Arrays.asList(weightModel()), true, 16);
+		List<Set<MatchedElement>> results = windowed.extract(new StringReader(""));
+		Assert.assertTrue(results.get(0).isEmpty());
+	}
+
+	@Test
+	public void testMappedFileReader() throws Exception {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 200; i++) {
+			sb.append("caf\u00e9 \u65e5\u672c \ud83d\ude00 ");
+		}
+		String text = sb.toString();
+		Path file = Files.createTempFile("windowed", ".txt");
+		try {
+			Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+			// segments far smaller than the file split multibyte chars
+			StringBuilder read = new StringBuilder();
+			try (Reader reader = new MappedFileReader(file, StandardCharsets.UTF_8, 17)) {
+				char[] buf = new char[7];
+				int n;
+				while ((n = reader.read(buf, 0, buf.length)) >= 0) {
+					read.append(buf, 0, n);
+				}
+			}
+			Assert.assertEquals(text, read.toString());
+		} finally {
+			Files.delete(file);
+		}
+	}
+}
@@ -0,0 +1,51 @@
+package gov.va.research.red.regex;
+
+import org.junit.Test;
+
+import junit.framework.Assert;
+
+public class MatcherAdapterTest {
+
+	private static void assertResetAndRegion(PatternAdapter pattern) {
+		MatcherAdapter matcher = pattern.matcher("weight 180 lbs");
+		Assert.assertTrue(matcher.find());
+		Assert.assertEquals("180", matcher.group(1));
+		Assert.assertSame(matcher, matcher.reset("wt 75 lbs"));
+		Assert.assertTrue(matcher.find());
+		Assert.assertEquals(3, matcher.start(1));
+		Assert.assertEquals(5, matcher.end(1));
+		// positions stay relative to the whole input within a region
+		matcher.reset("12 lbs then 34 lbs");
+		Assert.assertSame(matcher, matcher.region(3, 18));
+		Assert.assertTrue(matcher.find());
+		Assert.assertEquals("34", matcher.group(1));
+		Assert.assertEquals(12, matcher.start(1));
+		Assert.assertEquals(14, matcher.end(1));
+		Assert.assertFalse(matcher.find());
+		matcher.reset(new DeadlineCharSequence().restart("99 lbs", 0));
+		Assert.assertTrue(matcher.find());
+		Assert.assertEquals(0, matcher.start());
+		// a region of an expired input still times out
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 10000; i++) {
+			text.append('a');
+		}
+		matcher.reset(new DeadlineCharSequence(text, System.nanoTime() - 1));
+		try {
+			matcher.region(1, text.length()).find();
+			Assert.fail("The deadline of the input was not enforced in a region");
+		} catch (RegexTimeoutException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testJSE() {
+		assertResetAndRegion(new JSEPatternAdapter("(\\d+) lbs"));
+	}
+
+	@Test
+	public void testRE2J() {
+		assertResetAndRegion(new RE2JPatternAdapter("(\\d+) lbs"));
+	}
+}
@@ -0,0 +1,172 @@
+package gov.va.research.red.regex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.junit.Test;
+
+import junit.framework.Assert;
+
+public class NFAPatternSetTest {
+
+	private static final List<String> REGEXES = Arrays.asList(
+			"(?i)weight\\s{1,3}?(\\d+)",
+			"(?i)(\\d+)\\s{1,3}?(?:lbs|pounds)",
+			"(?i)wt[\\.:]\\s{1,5}?(\\d+(?:\\.\\d+)?)\\s{1,3}?kg",
+			"(?i)\\p{Punct}{1,2}?\\s{1,5}?(\\d+)\\s{1,3}?\\*\\*",
+			"(?i)\\bbmi\\b\\s{0,3}(\\d{2})",
+			"(?i)(\\w+) \\1 again",
+			"(?i)a{20}(b)",
+			"(?i)[^a-z ]{2}(x)",
+			"(?x) weight (\\d+)",
+			"(?i)(\\d*)");
+
+	private static final List<String> TEXTS = Arrays.asList(
+			"Weight 180 lbs",
+			"pt is 82 POUNDS today",
+			"WT: 81.5 KG",
+			"ht: 5'10\" wt. 82 kg, bmi 27",
+			"... 123 **",
+			"again again again",
+			"aaaaaaaaaaaaaaaaaaaaaaab",
+			"12x",
+			"nothing to see here",
+			"");
+
+	// pieces of random regexes, including classes which match a supplementary code point as a whole
+	private static final String[] ATOMS = { "a", "b", "A", "1", " ", "\\.", "-", ".", "[^a]", "[a-c]", "[^\\s]", "\\d", "\\D",
+			"\\w", "\\W", "\\s", "\\S", "\\p{L}", "\\P{L}", "[\\p{Punct}]", "\uD83D\uDE00", "\\x{1F600}", "\uD801\uDC00",
+			"\\uD83D\\uDE00", "[\uD83D\uDE00b]", "\\b", "^", "$" };
+	private static final String[] QUANTIFIERS = { "", "", "", "?", "*", "+", "{2}", "{1,3}", "+?" };
+	private static final String[] FLAGS = { "", "", "(?i)", "(?iu)", "(?s)" };
+	// pieces of random texts, including supplementary code points and lone surrogates
+	private static final String[] TEXT_PIECES = { "a", "b", "c", "A", "B", "1", "2", " ", ".", "-", "\u00e9", "\uD83D\uDE00",
+			"\uD801\uDC00", "\uD801\uDC28", "\uD83D", "\uDE00", "\n" };
+
+	@Test
+	public void testAgreesWithJavaRegex() {
+		Random random = new Random(20261018L);
+		List<String> regexes = new ArrayList<>();
+		while (regexes.size() < 400) {
+			StringBuilder regex = new StringBuilder(FLAGS[random.nextInt(FLAGS.length)]);
+			for (int i = 1 + random.nextInt(4); i > 0; i--) {
+				String atom = ATOMS[random.nextInt(ATOMS.length)];
+				if (random.nextInt(5) == 0) {
+					atom = "(" + atom + "|" + ATOMS[random.nextInt(ATOMS.length)] + ")";
+				}
+				regex.append(atom);
+				if (!atom.equals("\\b") && !atom.equals("^") && !atom.equals("$")) {
+					regex.append(QUANTIFIERS[random.nextInt(QUANTIFIERS.length)]);
+				}
+			}
+			try {
+				Pattern.compile(regex.toString());
+				regexes.add(regex.toString());
+			} catch (PatternSyntaxException e) {
+				// only valid regexes are compared
+			}
+		}
+		List<Pattern> patterns = new ArrayList<>(regexes.size());
+		for (String regex : regexes) {
+			patterns.add(Pattern.compile(regex));
+		}
+		NFAPatternSet set = new NFAPatternSet(regexes);
+		for (int t = 0; t < 300; t++) {
+			StringBuilder text = new StringBuilder();
+			for (int i = random.nextInt(12); i > 0; i--) {
+				text.append(TEXT_PIECES[random.nextInt(TEXT_PIECES.length)]);
+			}
+			BitSet matching = set.matching(text);
+			for (int i = 0; i < regexes.size(); i++) {
+				if (patterns.get(i).matcher(text).find()) {
+					Assert.assertTrue("'" + escape(regexes.get(i)) + "' matches '" + escape(text) + "'", matching.get(i));
+				}
+			}
+		}
+	}
+
+	private static String escape(CharSequence s) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			sb.append(c >= ' ' && c < 127 ? String.valueOf(c) : String.format("\\u%04X", (int) c));
+		}
+		return sb.toString();
+	}
+
+	@Test
+	public void testNeverMissesAMatch() {
+		NFAPatternSet set = new NFAPatternSet(REGEXES);
+		for (String text : TEXTS) {
+			BitSet matching = set.matching(text);
+			for (int i = 0; i < REGEXES.size(); i++) {
+				if (Pattern.compile(REGEXES.get(i)).matcher(text).find()) {
+					Assert.assertTrue("'" + REGEXES.get(i) + "' matches '" + text + "'", matching.get(i));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testExcludesNonMatching() {
+		NFAPatternSet set = new NFAPatternSet(REGEXES);
+		BitSet matching = set.matching("nothing to see here");
+		Assert.assertFalse(matching.get(0));
+		Assert.assertFalse(matching.get(1));
+		Assert.assertFalse(matching.get(2));
+		// comments mode is unsupported, and a regex matching the empty string always matches
+		Assert.assertTrue(set.isAlwaysMatching(8));
+		Assert.assertTrue(set.isAlwaysMatching(9));
+		BitSet candidates = new BitSet();
+		candidates.set(1);
+		Assert.assertEquals(candidates, set.matching("180 lbs", candidates));
+		Assert.assertTrue(set.matching("180 lbs", new BitSet()).isEmpty());
+	}
+
+	@Test
+	public void testApproximatedClasses() {
+		List<String> regexes = Arrays.asList("(?i)x[^\\p{Punct}]y", "(?i)q[^\\P{L}]r", "(?U)z\\w+z");
+		String text = "xay qar z\u00e9z";
+		NFAPatternSet set = new NFAPatternSet(regexes);
+		BitSet matching = set.matching(text);
+		for (int i = 0; i < regexes.size(); i++) {
+			Assert.assertTrue(Pattern.compile(regexes.get(i)).matcher(text).find());
+			Assert.assertTrue("'" + regexes.get(i) + "' matches '" + text + "'", matching.get(i));
+		}
+		// the U flag is not modeled
+		Assert.assertTrue(set.isAlwaysMatching(2));
+		Assert.assertFalse(set.isAlwaysMatching(0));
+		Assert.assertFalse(set.matching("xy qr zz").get(0));
+	}
+
+	@Test
+	public void testSupplementaryCodePoints() {
+		List<String> regexes = Arrays.asList("a.b", "a[^x]b", "a\\Sb", "a\\Wb", "a\\Db", "a\\p{So}b",
+				"a\uD83D\uDE00+b", "a[^\uD83D\uDE00]b", "(?iu)\uD801\uDC00");
+		String text = "a\uD83D\uDE00b a\uD83D\uDE00\uD83D\uDE00b a\uD83D\uDE01b \uD801\uDC28";
+		NFAPatternSet set = new NFAPatternSet(regexes);
+		BitSet matching = set.matching(text);
+		for (int i = 0; i < regexes.size(); i++) {
+			Assert.assertTrue(regexes.get(i), Pattern.compile(regexes.get(i)).matcher(text).find());
+			Assert.assertTrue(regexes.get(i), matching.get(i));
+		}
+	}
+
+	@Test
+	public void testParser() {
+		RegexNode node = RegexParser.parse("(?i)a(b|c){2,}?[^d]\\1");
+		Assert.assertEquals(RegexNode.Type.CONCAT, node.getType());
+		Assert.assertEquals(4, node.getChildren().size());
+		RegexNode repeat = node.getChildren().get(1);
+		Assert.assertEquals(2, repeat.getMin());
+		Assert.assertEquals(RegexNode.UNBOUNDED, repeat.getMax());
+		Assert.assertEquals(1, repeat.getChild().getGroup());
+		Assert.assertFalse(node.getChildren().get(2).getChars().contains('d'));
+		Assert.assertEquals(RegexNode.Type.BACKREFERENCE, node.getChildren().get(3).getType());
+	}
+}